@@ -0,0 +1,704 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.roi;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse, tiled binary mask for accumulating brush strokes.
+ * <p>
+ * Combining a large area with many small brush shapes using {@link Area} operations becomes slow as the area grows, 
+ * because every operation needs to process the complete area.  Instead, strokes are rasterized into a mask at a fixed downsample, 
+ * which is only created for tiles that a stroke touches.  Each tile is initialized from the base shape (the area before painting started) 
+ * on first use.
+ * <p>
+ * The mask can be painted directly for display, and is converted back to a vector area only when required by calling {@link #getArea()}. 
+ * At that point, the contours are traced only for tiles that have actually changed, and these replace the corresponding parts of the base shape.
+ * <p>
+ * All coordinates are in the full resolution image space.  Instances are not thread-safe.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class BrushMask {
+	
+	public static final int DEFAULT_TILE_SIZE = 128;
+	
+	private final Shape baseShape;
+	private final double downsample;
+	private final int tileSize;
+	/**
+	 * Width of stored tile arrays, which include a 1-pixel border containing the rasterized base shape.
+	 */
+	private final int stride;
+	
+	private final Map<Long, Tile> tiles = new HashMap<>();
+	private int nChanged = 0;
+	
+	private Color displayColor;
+	private IndexColorModel displayColorModel;
+	
+	/**
+	 * Create a mask with the default tile size.
+	 * 
+	 * @param baseShape the shape before any painting, or null if painting starts from an empty mask
+	 * @param downsample downsample factor for the mask pixels, relative to the full resolution image
+	 */
+	public BrushMask(final Shape baseShape, final double downsample) {
+		this(baseShape, downsample, DEFAULT_TILE_SIZE);
+	}
+	
+	/**
+	 * Create a mask.
+	 * 
+	 * @param baseShape the shape before any painting, or null if painting starts from an empty mask
+	 * @param downsample downsample factor for the mask pixels, relative to the full resolution image
+	 * @param tileSize width and height of each tile, in mask pixels
+	 */
+	public BrushMask(final Shape baseShape, final double downsample, final int tileSize) {
+		if (!(downsample > 0) || Double.isInfinite(downsample))
+			throw new IllegalArgumentException("Downsample must be > 0, but was " + downsample);
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be > 0, but was " + tileSize);
+		this.baseShape = baseShape == null || baseShape.getBounds2D().isEmpty() ? null : baseShape;
+		this.downsample = downsample;
+		this.tileSize = tileSize;
+		this.stride = tileSize + 2;
+	}
+	
+	/**
+	 * Shape before any painting, or null if the mask started empty.
+	 * 
+	 * @return
+	 */
+	public Shape getBaseShape() {
+		return baseShape;
+	}
+	
+	public double getDownsample() {
+		return downsample;
+	}
+	
+	public int getTileSize() {
+		return tileSize;
+	}
+	
+	/**
+	 * Add a shape to the mask.
+	 * 
+	 * @param shape
+	 * @return true if the mask changed as a result
+	 */
+	public boolean add(final Shape shape) {
+		return paint(shape, (byte)1);
+	}
+	
+	/**
+	 * Subtract a shape from the mask.
+	 * 
+	 * @param shape
+	 * @return true if the mask changed as a result
+	 */
+	public boolean subtract(final Shape shape) {
+		return paint(shape, (byte)0);
+	}
+	
+	/**
+	 * Returns true if any pixels have been changed from the base shape.
+	 * 
+	 * @return
+	 */
+	public boolean isChanged() {
+		return nChanged > 0;
+	}
+	
+	/**
+	 * Number of tiles in which pixels have changed.
+	 * 
+	 * @return
+	 */
+	public int nChangedTiles() {
+		return nChanged;
+	}
+	
+	/**
+	 * Test whether a point falls within a filled pixel of the mask, or else within the base shape.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean contains(final double x, final double y) {
+		int px = (int)Math.floor(x / downsample);
+		int py = (int)Math.floor(y / downsample);
+		Tile tile = tiles.get(key(Math.floorDiv(px, tileSize), Math.floorDiv(py, tileSize)));
+		if (tile != null && tile.changed)
+			return tile.get(px - tile.tx * tileSize, py - tile.ty * tileSize);
+		return baseShape != null && baseShape.contains(x, y);
+	}
+	
+	/**
+	 * Get the bounds of all the tiles that have changed, or null if nothing has changed.
+	 * 
+	 * @return
+	 */
+	public Rectangle2D getChangedBounds() {
+		Rectangle2D bounds = null;
+		for (Tile tile : tiles.values()) {
+			if (!tile.changed)
+				continue;
+			Rectangle2D tileBounds = getTileBounds(tile);
+			if (bounds == null)
+				bounds = tileBounds;
+			else
+				bounds.add(tileBounds);
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Get the region covered by the tiles that have changed.
+	 * Within this region, the mask replaces the base shape.
+	 * 
+	 * @return
+	 */
+	public Shape getChangedRegion() {
+		Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+		for (Tile tile : tiles.values()) {
+			if (tile.changed)
+				path.append(getTileBounds(tile), false);
+		}
+		return path;
+	}
+	
+	private Rectangle2D getTileBounds(final Tile tile) {
+		double size = tileSize * downsample;
+		return new Rectangle2D.Double(tile.tx * size, tile.ty * size, size, size);
+	}
+	
+	/**
+	 * Get the outline of the filled pixels within the changed tiles, for display.
+	 * <p>
+	 * This contains only boundary line segments, not closed polygons, and so should be drawn rather than filled.
+	 * Boundaries with pixels outside the changed tiles are determined from the base shape, so that drawing this outline 
+	 * along with the base shape clipped to exclude {@link #getChangedRegion()} gives a complete outline without seams.
+	 * 
+	 * @return
+	 */
+	public Path2D getOutline() {
+		Path2D path = new Path2D.Double();
+		for (Tile tile : tiles.values()) {
+			if (!tile.changed)
+				continue;
+			if (tile.outline == null)
+				tile.outline = createOutline(tile);
+			path.append(tile.outline, false);
+		}
+		return path;
+	}
+	
+	/**
+	 * Paint the filled pixels of the changed tiles.
+	 * The graphics object should already be transformed to the full resolution image space.
+	 * 
+	 * @param g2d
+	 * @param color
+	 */
+	public void paintChangedTiles(final Graphics2D g2d, final Color color) {
+		if (!color.equals(displayColor)) {
+			displayColor = color;
+			displayColorModel = new IndexColorModel(8, 2,
+					new byte[] {0, (byte)color.getRed()},
+					new byte[] {0, (byte)color.getGreen()},
+					new byte[] {0, (byte)color.getBlue()},
+					new byte[] {0, (byte)color.getAlpha()});
+			for (Tile tile : tiles.values())
+				tile.img = null;
+		}
+		AffineTransform transform = new AffineTransform();
+		for (Tile tile : tiles.values()) {
+			if (!tile.changed)
+				continue;
+			if (tile.img == null)
+				tile.img = createImage(tile);
+			transform.setToTranslation(tile.tx * tileSize * downsample, tile.ty * tileSize * downsample);
+			transform.scale(downsample, downsample);
+			g2d.drawImage(tile.img, transform, null);
+		}
+	}
+	
+	private BufferedImage createImage(final Tile tile) {
+		DataBufferByte buffer = new DataBufferByte(tile.pixels, tile.pixels.length);
+		WritableRaster raster = Raster.createInterleavedRaster(buffer, stride, stride, stride, 1, new int[] {0}, null);
+		BufferedImage img = new BufferedImage(displayColorModel, raster, false, null);
+		// Exclude the border
+		return img.getSubimage(1, 1, tileSize, tileSize);
+	}
+	
+	/**
+	 * Get the area represented by the mask, i.e. the base shape with the changed tiles replaced by the traced mask contours.
+	 * 
+	 * @return
+	 */
+	public Area getArea() {
+		return getArea(0);
+	}
+	
+	/**
+	 * Get the area represented by the mask, simplifying the traced mask contours to remove the steps introduced by the mask pixels.
+	 * <p>
+	 * Only the contours within the changed tiles are simplified, and vertices on tile boundaries are never moved, 
+	 * so that the result still joins exactly with the unchanged parts of the base shape.
+	 * 
+	 * @param simplifyThreshold maximum distance (in full resolution pixels) that a contour may be moved by simplification; 
+	 *                          if &lt;= 0, the contours are not simplified
+	 * @return
+	 */
+	public Area getArea(final double simplifyThreshold) {
+		Area area = baseShape == null ? new Area() : new Area(baseShape);
+		if (!isChanged())
+			return area;
+		area.subtract(new Area(getChangedRegion()));
+		area.add(new Area(traceChangedContours(simplifyThreshold / downsample)));
+		return area;
+	}
+	
+	
+	/**
+	 * Trace the closed contours of all filled pixels within the changed tiles, treating everything outside these tiles as empty.
+	 * <p>
+	 * Each pixel edge between a filled and an empty pixel is added as a directed edge, oriented clockwise around the filled pixels. 
+	 * These are then linked into closed loops; the non-zero winding rule gives the filled pixels regardless of how loops 
+	 * are separated at vertices where only diagonal pixels are filled.
+	 * 
+	 * @return
+	 */
+	Path2D traceChangedContours() {
+		return traceChangedContours(0);
+	}
+	
+	/**
+	 * Trace the closed contours of all filled pixels within the changed tiles, optionally simplifying them.
+	 * 
+	 * @param tolerance maximum distance (in mask pixels) that a contour may be moved by simplification, or &lt;= 0 for no simplification
+	 * @return
+	 * @see #traceChangedContours()
+	 */
+	Path2D traceChangedContours(final double tolerance) {
+		// Map each vertex to a bitmask of outgoing edge directions
+		Map<Long, Integer> edges = new HashMap<>();
+		for (Tile tile : tiles.values()) {
+			if (!tile.changed)
+				continue;
+			int x0 = tile.tx * tileSize;
+			int y0 = tile.ty * tileSize;
+			for (int y = 0; y < tileSize; y++) {
+				for (int x = 0; x < tileSize; x++) {
+					if (!tile.get(x, y))
+						continue;
+					int gx = x0 + x;
+					int gy = y0 + y;
+					if (!isChangedInside(tile, x, y-1))
+						addEdge(edges, gx, gy, EAST);
+					if (!isChangedInside(tile, x+1, y))
+						addEdge(edges, gx+1, gy, SOUTH);
+					if (!isChangedInside(tile, x, y+1))
+						addEdge(edges, gx+1, gy+1, WEST);
+					if (!isChangedInside(tile, x-1, y))
+						addEdge(edges, gx, gy+1, NORTH);
+				}
+			}
+		}
+		
+		Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+		IntPoints loop = new IntPoints();
+		for (Long start : new ArrayList<>(edges.keySet())) {
+			while (edges.containsKey(start)) {
+				int x = (int)(start >> 32);
+				int y = (int)start.longValue();
+				loop.clear();
+				loop.add(x, y);
+				int previousDir = -1;
+				long current = start;
+				do {
+					int bits = edges.get(current);
+					// Prefer continuing straight on, to avoid unnecessary vertices
+					int dir = previousDir >= 0 && (bits & (1 << previousDir)) != 0 ? previousDir : Integer.numberOfTrailingZeros(bits);
+					bits &= ~(1 << dir);
+					if (bits == 0)
+						edges.remove(current);
+					else
+						edges.put(current, bits);
+					if (dir != previousDir && previousDir >= 0)
+						loop.add(x, y);
+					x += DX[dir];
+					y += DY[dir];
+					previousDir = dir;
+					current = key(x, y);
+				} while (current != start);
+				appendLoop(path, loop, tolerance);
+			}
+		}
+		return path;
+	}
+	
+	/**
+	 * Append a closed loop of vertices (in mask pixel coordinates) to a path, optionally simplifying it.
+	 * <p>
+	 * Vertices that fall on tile boundaries are always kept, and only the sections between them are simplified.
+	 */
+	private void appendLoop(final Path2D path, final IntPoints loop, final double tolerance) {
+		int n = loop.size();
+		boolean[] keep = new boolean[n];
+		if (tolerance <= 0 || n <= 4)
+			Arrays.fill(keep, true);
+		else {
+			int nFixed = 0;
+			int firstFixed = -1;
+			for (int i = 0; i < n; i++) {
+				if (Math.floorMod(loop.x(i), tileSize) == 0 || Math.floorMod(loop.y(i), tileSize) == 0) {
+					keep[i] = true;
+					nFixed++;
+					if (firstFixed < 0)
+						firstFixed = i;
+				}
+			}
+			if (nFixed == 0) {
+				// Split the loop at the first vertex and the vertex furthest from it
+				int furthest = 0;
+				long maxDistSq = -1;
+				for (int i = 1; i < n; i++) {
+					long dx = loop.x(i) - loop.x(0);
+					long dy = loop.y(i) - loop.y(0);
+					if (dx*dx + dy*dy > maxDistSq) {
+						maxDistSq = dx*dx + dy*dy;
+						furthest = i;
+					}
+				}
+				keep[0] = true;
+				keep[furthest] = true;
+				firstFixed = 0;
+			}
+			// Simplify each section between consecutive kept vertices
+			int i = firstFixed;
+			do {
+				int j = (i + 1) % n;
+				while (!keep[j])
+					j = (j + 1) % n;
+				simplifySection(loop, i, j, tolerance * tolerance, keep);
+				i = j;
+			} while (i != firstFixed);
+		}
+		boolean first = true;
+		for (int i = 0; i < n; i++) {
+			if (!keep[i])
+				continue;
+			if (first) {
+				path.moveTo(loop.x(i) * downsample, loop.y(i) * downsample);
+				first = false;
+			} else
+				path.lineTo(loop.x(i) * downsample, loop.y(i) * downsample);
+		}
+		path.closePath();
+	}
+	
+	/**
+	 * Mark the vertices to keep between two fixed vertices of a closed loop, using the Douglas-Peucker algorithm.
+	 */
+	private static void simplifySection(final IntPoints loop, final int start, final int end, final double toleranceSq, final boolean[] keep) {
+		int n = loop.size();
+		Deque<int[]> sections = new ArrayDeque<>();
+		sections.push(new int[] {start, end});
+		while (!sections.isEmpty()) {
+			int[] section = sections.pop();
+			int s = section[0], e = section[1];
+			double x1 = loop.x(s), y1 = loop.y(s);
+			double dx = loop.x(e) - x1, dy = loop.y(e) - y1;
+			double lengthSq = dx*dx + dy*dy;
+			double maxDistSq = 0;
+			int maxInd = -1;
+			for (int i = (s + 1) % n; i != e; i = (i + 1) % n) {
+				double px = loop.x(i) - x1, py = loop.y(i) - y1;
+				double distSq;
+				if (lengthSq == 0)
+					distSq = px*px + py*py;
+				else {
+					double cross = px * dy - py * dx;
+					distSq = cross * cross / lengthSq;
+				}
+				if (distSq > maxDistSq) {
+					maxDistSq = distSq;
+					maxInd = i;
+				}
+			}
+			if (maxInd >= 0 && maxDistSq > toleranceSq) {
+				keep[maxInd] = true;
+				sections.push(new int[] {s, maxInd});
+				sections.push(new int[] {maxInd, e});
+			}
+		}
+	}
+	
+	/**
+	 * Growable list of integer coordinates.
+	 */
+	private static class IntPoints {
+		
+		private int[] coords = new int[64];
+		private int n = 0;
+		
+		void add(final int x, final int y) {
+			if (n * 2 + 2 > coords.length)
+				coords = Arrays.copyOf(coords, coords.length * 2);
+			coords[n*2] = x;
+			coords[n*2+1] = y;
+			n++;
+		}
+		
+		int x(final int i) {
+			return coords[i*2];
+		}
+		
+		int y(final int i) {
+			return coords[i*2+1];
+		}
+		
+		int size() {
+			return n;
+		}
+		
+		void clear() {
+			n = 0;
+		}
+		
+	}
+	
+	private static final int EAST = 0, SOUTH = 1, WEST = 2, NORTH = 3;
+	private static final int[] DX = {1, 0, -1, 0};
+	private static final int[] DY = {0, 1, 0, -1};
+	
+	private static void addEdge(final Map<Long, Integer> edges, final int x, final int y, final int dir) {
+		edges.merge(key(x, y), 1 << dir, (a, b) -> a | b);
+	}
+	
+	
+	/**
+	 * Create line segments for all boundaries between filled and empty pixels within a tile.
+	 * Boundaries along the top and left edges of the tile are skipped whenever the neighboring tile has changed, 
+	 * since these are then included in the neighbor's outline instead.
+	 */
+	private Path2D createOutline(final Tile tile) {
+		Path2D path = new Path2D.Double();
+		double x0 = tile.tx * tileSize;
+		double y0 = tile.ty * tileSize;
+		// Horizontal boundaries, above each row
+		int yStart = getNeighbor(tile, 0, -1) == null ? 0 : 1;
+		for (int y = yStart; y <= tileSize; y++) {
+			int runStart = -1;
+			for (int x = 0; x <= tileSize; x++) {
+				boolean edge = x < tileSize && isDisplayedInside(tile, x, y-1) != isDisplayedInside(tile, x, y);
+				if (edge && runStart < 0)
+					runStart = x;
+				else if (!edge && runStart >= 0) {
+					path.moveTo((x0 + runStart) * downsample, (y0 + y) * downsample);
+					path.lineTo((x0 + x) * downsample, (y0 + y) * downsample);
+					runStart = -1;
+				}
+			}
+		}
+		// Vertical boundaries, to the left of each column
+		int xStart = getNeighbor(tile, -1, 0) == null ? 0 : 1;
+		for (int x = xStart; x <= tileSize; x++) {
+			int runStart = -1;
+			for (int y = 0; y <= tileSize; y++) {
+				boolean edge = y < tileSize && isDisplayedInside(tile, x-1, y) != isDisplayedInside(tile, x, y);
+				if (edge && runStart < 0)
+					runStart = y;
+				else if (!edge && runStart >= 0) {
+					path.moveTo((x0 + x) * downsample, (y0 + runStart) * downsample);
+					path.lineTo((x0 + x) * downsample, (y0 + y) * downsample);
+					runStart = -1;
+				}
+			}
+		}
+		return path;
+	}
+	
+	/**
+	 * Test if a pixel is filled, where pixels outside the tile are filled only if they fall within another changed tile.
+	 */
+	private boolean isChangedInside(final Tile tile, final int x, final int y) {
+		if (x >= 0 && y >= 0 && x < tileSize && y < tileSize)
+			return tile.get(x, y);
+		Tile other = getNeighbor(tile, x, y);
+		return other != null && other.get(x + (tile.tx - other.tx) * tileSize, y + (tile.ty - other.ty) * tileSize);
+	}
+	
+	/**
+	 * Test if a pixel is filled, where pixels outside the tile are determined from the base shape 
+	 * unless they fall within another changed tile.
+	 */
+	private boolean isDisplayedInside(final Tile tile, final int x, final int y) {
+		if (x >= 0 && y >= 0 && x < tileSize && y < tileSize)
+			return tile.get(x, y);
+		Tile other = getNeighbor(tile, x, y);
+		if (other == null)
+			return tile.get(x, y);
+		return other.get(x + (tile.tx - other.tx) * tileSize, y + (tile.ty - other.ty) * tileSize);
+	}
+	
+	private Tile getNeighbor(final Tile tile, final int x, final int y) {
+		Tile other = tiles.get(key(tile.tx + Math.floorDiv(x, tileSize), tile.ty + Math.floorDiv(y, tileSize)));
+		return other != null && other.changed ? other : null;
+	}
+	
+	
+	private boolean paint(final Shape shape, final byte value) {
+		if (shape == null)
+			return false;
+		Rectangle2D bounds = shape.getBounds2D();
+		if (bounds.isEmpty())
+			return false;
+		int tx1 = Math.floorDiv((int)Math.floor(bounds.getMinX() / downsample), tileSize);
+		int ty1 = Math.floorDiv((int)Math.floor(bounds.getMinY() / downsample), tileSize);
+		int tx2 = Math.floorDiv((int)Math.floor(bounds.getMaxX() / downsample), tileSize);
+		int ty2 = Math.floorDiv((int)Math.floor(bounds.getMaxY() / downsample), tileSize);
+		boolean changed = false;
+		for (int ty = ty1; ty <= ty2; ty++) {
+			for (int tx = tx1; tx <= tx2; tx++) {
+				Tile tile = getOrCreateTile(tx, ty);
+				if (paintTile(tile, shape, value))
+					changed = true;
+			}
+		}
+		return changed;
+	}
+	
+	private boolean paintTile(final Tile tile, final Shape shape, final byte value) {
+		int[] count = new int[1];
+		byte[] pixels = tile.pixels;
+		createRasterizer(tile).rasterize(shape, (row, x1, x2) -> {
+			// Don't modify the border, which represents the base shape
+			if (row < 1 || row > tileSize)
+				return;
+			int offset = row * stride;
+			for (int i = offset + Math.max(x1, 1); i < offset + Math.min(x2, tileSize + 1); i++) {
+				if (pixels[i] != value) {
+					pixels[i] = value;
+					count[0]++;
+				}
+			}
+		});
+		if (count[0] == 0)
+			return false;
+		if (!tile.changed) {
+			tile.changed = true;
+			nChanged++;
+		}
+		// The outlines of neighboring tiles may depend upon this tile's pixels
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				Tile other = tiles.get(key(tile.tx + dx, tile.ty + dy));
+				if (other != null)
+					other.outline = null;
+			}
+		}
+		return true;
+	}
+	
+	private Tile getOrCreateTile(final int tx, final int ty) {
+		long key = key(tx, ty);
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			tile = new Tile(tx, ty, new byte[stride * stride]);
+			if (baseShape != null) {
+				byte[] pixels = tile.pixels;
+				createRasterizer(tile).rasterize(baseShape, (row, x1, x2) -> {
+					for (int i = row * stride + x1; i < row * stride + x2; i++)
+						pixels[i] = 1;
+				});
+			}
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+	
+	/**
+	 * Create a rasterizer for a tile, including its border.
+	 */
+	private ROIRasterizer createRasterizer(final Tile tile) {
+		return new ROIRasterizer(
+				(tile.tx * tileSize - 1) * downsample,
+				(tile.ty * tileSize - 1) * downsample,
+				downsample, stride, stride);
+	}
+	
+	private static long key(final int x, final int y) {
+		return ((long)x << 32) | (y & 0xffffffffL);
+	}
+	
+	
+	private class Tile {
+		
+		private final int tx, ty;
+		private final byte[] pixels;
+		private boolean changed = false;
+		private Path2D outline;
+		private BufferedImage img;
+		
+		Tile(final int tx, final int ty, final byte[] pixels) {
+			this.tx = tx;
+			this.ty = ty;
+			this.pixels = pixels;
+		}
+		
+		/**
+		 * Get a pixel value, where x and y may be in the range -1 to tileSize (inclusive) to access the border.
+		 */
+		boolean get(final int x, final int y) {
+			return pixels[(y + 1) * stride + x + 1] != 0;
+		}
+		
+	}
+
+}
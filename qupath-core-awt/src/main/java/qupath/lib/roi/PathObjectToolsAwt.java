@@ -23,7 +23,6 @@
 
 package qupath.lib.roi;
 
-import java.awt.geom.Area;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -91,29 +90,27 @@ public class PathObjectToolsAwt {
 		}
 	
 		PathShape shapeMask = (PathShape)pathObject.getROI();
-		Area areaOriginal = PathROIToolsAwt.getArea(shapeMask);
-		Area areaNew = new Area(areaOriginal);
+		PathShape shapeNew = shapeMask;
 		Iterator<PathObject> iter = pathObjects.iterator();
 		List<PathObject> objectsToAdd = new ArrayList<>();
+		List<PathShape> shapesToMerge = new ArrayList<>();
+		shapesToMerge.add(shapeMask);
 		int changes = 0;
 		while (iter.hasNext()) {
 			PathObject temp = iter.next();
-			Area areaTemp = PathROIToolsAwt.getArea(temp.getROI());
+			PathShape shapeTemp = (PathShape)temp.getROI();
+			if (!ROIHelpers.sameImagePlane(shapeMask, shapeTemp)) {
+				logger.warn("Combine annotations: Skipping {} - not on the same image plane", temp);
+				iter.remove();
+				continue;
+			}
 			PathObject annotationNew = null;
-			if (op == PathROIToolsAwt.CombineOp.SUBTRACT) {
-				areaTemp.subtract(areaNew);
-				if (!areaTemp.isEmpty()) {
-					PathShape shapeNew = PathROIToolsAwt.getShapeROI(areaTemp, shapeMask.getC(), shapeMask.getZ(), shapeMask.getT());
-					annotationNew = new PathAnnotationObject(shapeNew, temp.getPathClass());
-				}
-			} else if (op == PathROIToolsAwt.CombineOp.INTERSECT) {
-				areaTemp.intersect(areaNew);
-				if (!areaTemp.isEmpty()) {
-					PathShape shapeNew = PathROIToolsAwt.getShapeROI(areaTemp, shapeMask.getC(), shapeMask.getZ(), shapeMask.getT());
-					annotationNew = new PathAnnotationObject(shapeNew, temp.getPathClass());
-				}
+			if (op == PathROIToolsAwt.CombineOp.ADD) {
+				shapesToMerge.add(shapeTemp);
 			} else {
-				PathROIToolsAwt.combineAreas(areaNew, areaTemp, op);
+				PathShape shapeTempNew = PathROIToolsAwt.combineROIs(shapeTemp, shapeMask, op);
+				if (!shapeTempNew.isEmpty())
+					annotationNew = new PathAnnotationObject(shapeTempNew, temp.getPathClass());
 			}
 			if (annotationNew != null) {
 				annotationNew.setColorRGB(temp.getColorRGB());
@@ -127,14 +124,15 @@ public class PathObjectToolsAwt {
 			return;
 		}
 		if (op == PathROIToolsAwt.CombineOp.ADD) {
-			PathShape shapeNew = PathROIToolsAwt.getShapeROI(areaNew, shapeMask.getC(), shapeMask.getZ(), shapeMask.getT());
+			// Merge all the shapes together, rather than one at a time
+			shapeNew = PathROIToolsAwt.union(shapesToMerge);
 			if (!shapeNew.isEmpty())
 				objectsToAdd.add(new PathAnnotationObject(shapeNew, pathObject.getPathClass()));
 		}
 		// Remove previous objects
 		pathObjects.add(pathObject);
 		hierarchy.removeObjects(pathObjects, true);
-		if (areaNew.isEmpty()) {
+		if (shapeNew.isEmpty()) {
 			logger.debug("No area ROI remains");
 			return;			
 		}
@@ -51,6 +51,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.roi.EllipseROI;
 import qupath.lib.roi.LineROI;
 import qupath.lib.roi.AreaROI;
+import qupath.lib.roi.PolygonClipper;
 import qupath.lib.roi.ROIHelpers;
 import qupath.lib.roi.PolygonROI;
 import qupath.lib.roi.RectangleROI;
@@ -80,6 +81,11 @@ public class PathROIToolsAwt {
 		// Check we can combine
 		if (!ROIHelpers.sameImagePlane(shape1, shape2))
 			throw new IllegalArgumentException("Cannot combine - shapes " + shape1 + " and " + shape2 + " do not share the same image plane");
+		
+		// Polygons can be combined without needing to create Areas
+		if (isPolygonal(shape1) && isPolygonal(shape2))
+			return toAwtROI(PolygonClipper.combine(shape1, shape2, getClipperOp(op)));
+		
 		Area area1 = getArea(shape1);
 		Area area2 = getArea(shape2);
 		
@@ -106,6 +112,80 @@ public class PathROIToolsAwt {
 	}
 
 
+	/**
+	 * Combine a collection of ROIs into a single ROI, representing their union.
+	 * <p>
+	 * Polygonal ROIs are combined using a {@link PolygonClipper}, which is much faster than combining 
+	 * {@code java.awt.geom.Area} objects when there are many ROIs; otherwise, Areas are used.
+	 * 
+	 * @param shapes
+	 * @return
+	 */
+	public static PathShape union(final Collection<? extends PathShape> shapes) {
+		if (shapes.isEmpty())
+			throw new IllegalArgumentException("Cannot compute the union of an empty collection of ROIs");
+		boolean allPolygonal = true;
+		for (PathShape shape : shapes) {
+			if (!isPolygonal(shape)) {
+				allPolygonal = false;
+				break;
+			}
+		}
+		if (allPolygonal)
+			return toAwtROI(PolygonClipper.union(shapes));
+		PathShape first = shapes.iterator().next();
+		Area area = new Area();
+		for (PathShape shape : shapes) {
+			if (!ROIHelpers.sameImagePlane(first, shape))
+				throw new IllegalArgumentException("Cannot combine - shapes " + first + " and " + shape + " do not share the same image plane");
+			area.add(getArea(shape));
+		}
+		return getShapeROI(area, first.getC(), first.getZ(), first.getT());
+	}
+	
+	/**
+	 * Check if a ROI can be handled by the PolygonClipper without any loss of precision, 
+	 * i.e. it is supported and has no curved segments.
+	 */
+	private static boolean isPolygonal(final ROI roi) {
+		if (!PolygonClipper.isSupported(roi))
+			return false;
+		if (roi instanceof AWTAreaROI) {
+			double[] seg = new double[6];
+			PathIterator iter = getShape(roi).getPathIterator(null);
+			while (!iter.isDone()) {
+				int type = iter.currentSegment(seg);
+				if (type == PathIterator.SEG_QUADTO || type == PathIterator.SEG_CUBICTO)
+					return false;
+				iter.next();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Area ROIs are wrapped as AWTAreaROIs, so that their shapes are cached for painting.
+	 */
+	private static PathShape toAwtROI(final PathShape shape) {
+		if (shape instanceof AreaROI && !(shape instanceof AWTAreaROI))
+			return new AWTAreaROI((AreaROI)shape);
+		return shape;
+	}
+	
+	private static PolygonClipper.Op getClipperOp(final CombineOp op) {
+		switch (op) {
+		case ADD:
+			return PolygonClipper.Op.UNION;
+		case SUBTRACT:
+			return PolygonClipper.Op.DIFFERENCE;
+		case INTERSECT:
+			return PolygonClipper.Op.INTERSECTION;
+		default:
+			throw new IllegalArgumentException("Unknown combine op " + op);
+		}
+	}
+
+
 	public static void combineAreas(Area area1, Area area2, CombineOp op) {
 		switch (op) {
 		case ADD:
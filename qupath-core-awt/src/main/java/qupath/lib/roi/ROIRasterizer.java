@@ -0,0 +1,379 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.roi;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
+
+/**
+ * Scanline rasterizer to fill area ROIs directly into primitive label buffers.
+ * <p>
+ * This is intended for generating label images (e.g. for training data) without the overhead of creating 
+ * an image &amp; Graphics2D object for every tile.  Polygons and rectangles are filled directly from their vertices; 
+ * other areas are first flattened to polygons.
+ * <p>
+ * A pixel is filled whenever its center falls inside the ROI (using the non-zero winding rule for polygons),
+ * which approximately corresponds to filling a shape using Graphics2D without antialiasing.
+ * <p>
+ * Each rasterizer corresponds to a single tile, and reuses internal arrays between ROIs. 
+ * Instances are therefore not thread-safe - one should be used per tile.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ROIRasterizer {
+	
+	private final double x, y, downsample;
+	private final int width, height;
+	
+	private int nEdges = 0;
+	private float[] edgeTop = new float[64];
+	private float[] edgeBottom = new float[64];
+	private float[] edgeX = new float[64];
+	private float[] edgeSlope = new float[64];
+	private byte[] edgeDir = new byte[64];
+	
+	private int[] bucketCounts = new int[0];
+	private int[] order = new int[64];
+	private int[] active = new int[16];
+	private float[] crossingX = new float[16];
+	private byte[] crossingDir = new byte[16];
+	
+	/**
+	 * Create a rasterizer for a tile, defined in the full resolution image coordinate space.
+	 * 
+	 * @param x x-coordinate of the top left of the tile
+	 * @param y y-coordinate of the top left of the tile
+	 * @param downsample downsample factor for the tile
+	 * @param width width of the tile (in tile pixels, i.e. after downsampling)
+	 * @param height height of the tile (in tile pixels, i.e. after downsampling)
+	 */
+	public ROIRasterizer(final double x, final double y, final double downsample, final int width, final int height) {
+		this.x = x;
+		this.y = y;
+		this.downsample = downsample;
+		this.width = width;
+		this.height = height;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Fill a ROI with a label value in an int array, of length width * height.
+	 * 
+	 * @param roi
+	 * @param label
+	 * @param buffer
+	 * @return true if the ROI could be rasterized (i.e. it is an area), false otherwise
+	 */
+	public boolean fill(final ROI roi, final int label, final int[] buffer) {
+		return rasterize(roi, (row, x1, x2) -> Arrays.fill(buffer, row * width + x1, row * width + x2, label));
+	}
+	
+	/**
+	 * Fill a ROI with a label value in a short array, of length width * height.
+	 * 
+	 * @param roi
+	 * @param label
+	 * @param buffer
+	 * @return true if the ROI could be rasterized (i.e. it is an area), false otherwise
+	 */
+	public boolean fill(final ROI roi, final short label, final short[] buffer) {
+		return rasterize(roi, (row, x1, x2) -> Arrays.fill(buffer, row * width + x1, row * width + x2, label));
+	}
+	
+	/**
+	 * Fill a ROI with a label value in a byte array, of length width * height.
+	 * 
+	 * @param roi
+	 * @param label
+	 * @param buffer
+	 * @return true if the ROI could be rasterized (i.e. it is an area), false otherwise
+	 */
+	public boolean fill(final ROI roi, final byte label, final byte[] buffer) {
+		return rasterize(roi, (row, x1, x2) -> Arrays.fill(buffer, row * width + x1, row * width + x2, label));
+	}
+	
+	
+	/**
+	 * Consumer for horizontal spans of filled pixels.
+	 */
+	static interface SpanConsumer {
+		
+		/**
+		 * Fill pixels in a row.
+		 * @param row
+		 * @param x1 first pixel (inclusive)
+		 * @param x2 last pixel (exclusive)
+		 */
+		void fillSpan(int row, int x1, int x2);
+		
+	}
+	
+	
+	boolean rasterize(final ROI roi, final SpanConsumer consumer) {
+		if (!(roi instanceof PathArea) || roi.isEmpty())
+			return false;
+		
+		if (roi instanceof RectangleROI) {
+			fillRectangle(toTileX(roi.getBoundsX()), toTileY(roi.getBoundsY()), 
+					toTileX(roi.getBoundsX() + roi.getBoundsWidth()), toTileY(roi.getBoundsY() + roi.getBoundsHeight()), consumer);
+			return true;
+		}
+
+		// Skip ROIs that are entirely outside the tile
+		if (toTileX(roi.getBoundsX() + roi.getBoundsWidth()) < 0 || toTileY(roi.getBoundsY() + roi.getBoundsHeight()) < 0 ||
+				toTileX(roi.getBoundsX()) > width || toTileY(roi.getBoundsY()) > height)
+			return true;
+		
+		if (roi instanceof PolygonROI) {
+			nEdges = 0;
+			Vertices vertices = ((PolygonROI)roi).getVertices();
+			int n = vertices.size();
+			double xPrevious = toTileX(vertices.getX(n-1));
+			double yPrevious = toTileY(vertices.getY(n-1));
+			for (int i = 0; i < n; i++) {
+				double xx = toTileX(vertices.getX(i));
+				double yy = toTileY(vertices.getY(i));
+				addEdge(xPrevious, yPrevious, xx, yy);
+				xPrevious = xx;
+				yPrevious = yy;
+			}
+			fillEdges(true, consumer);
+		} else
+			rasterize(PathROIToolsAwt.getShape(roi), consumer);
+		return true;
+	}
+	
+	
+	/**
+	 * Rasterize a shape, defined in the full resolution image coordinate space.
+	 * Curves are flattened, and the winding rule of the shape is respected.
+	 * 
+	 * @param shape
+	 * @param consumer
+	 */
+	void rasterize(final Shape shape, final SpanConsumer consumer) {
+		nEdges = 0;
+		AffineTransform transform = new AffineTransform();
+		transform.scale(1.0/downsample, 1.0/downsample);
+		transform.translate(-x, -y);
+		PathIterator iterator = shape.getPathIterator(transform, 0.1);
+		boolean nonZero = iterator.getWindingRule() == PathIterator.WIND_NON_ZERO;
+		double[] coords = new double[6];
+		double xStart = 0, yStart = 0, xPrevious = 0, yPrevious = 0;
+		while (!iterator.isDone()) {
+			switch (iterator.currentSegment(coords)) {
+			case PathIterator.SEG_MOVETO:
+				addEdge(xPrevious, yPrevious, xStart, yStart);
+				xStart = xPrevious = coords[0];
+				yStart = yPrevious = coords[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				addEdge(xPrevious, yPrevious, coords[0], coords[1]);
+				xPrevious = coords[0];
+				yPrevious = coords[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				addEdge(xPrevious, yPrevious, xStart, yStart);
+				xPrevious = xStart;
+				yPrevious = yStart;
+				break;
+			}
+			iterator.next();
+		}
+		addEdge(xPrevious, yPrevious, xStart, yStart);
+		fillEdges(nonZero, consumer);
+	}
+	
+	
+	private double toTileX(final double xx) {
+		return (xx - x) / downsample;
+	}
+	
+	private double toTileY(final double yy) {
+		return (yy - y) / downsample;
+	}
+	
+	/**
+	 * Get the first pixel with a center at or after a specified coordinate.
+	 */
+	private static int firstPixel(final double v) {
+		return (int)Math.ceil(v - 0.5);
+	}
+	
+	private void fillRectangle(final double x1, final double y1, final double x2, final double y2, final SpanConsumer consumer) {
+		int xStart = Math.max(0, firstPixel(x1));
+		int xEnd = Math.min(width, firstPixel(x2));
+		int yStart = Math.max(0, firstPixel(y1));
+		int yEnd = Math.min(height, firstPixel(y2));
+		if (xStart >= xEnd)
+			return;
+		for (int row = yStart; row < yEnd; row++)
+			consumer.fillSpan(row, xStart, xEnd);
+	}
+	
+	private void addEdge(final double x1, final double y1, final double x2, final double y2) {
+		// Horizontal edges never cross a pixel center
+		if (y1 == y2)
+			return;
+		if (nEdges == edgeTop.length) {
+			int n = nEdges * 2;
+			edgeTop = Arrays.copyOf(edgeTop, n);
+			edgeBottom = Arrays.copyOf(edgeBottom, n);
+			edgeX = Arrays.copyOf(edgeX, n);
+			edgeSlope = Arrays.copyOf(edgeSlope, n);
+			edgeDir = Arrays.copyOf(edgeDir, n);
+		}
+		double slope = (x2 - x1) / (y2 - y1);
+		if (y1 < y2) {
+			edgeTop[nEdges] = (float)y1;
+			edgeBottom[nEdges] = (float)y2;
+			edgeX[nEdges] = (float)x1;
+			edgeDir[nEdges] = 1;
+		} else {
+			edgeTop[nEdges] = (float)y2;
+			edgeBottom[nEdges] = (float)y1;
+			edgeX[nEdges] = (float)x2;
+			edgeDir[nEdges] = -1;
+		}
+		edgeSlope[nEdges] = (float)slope;
+		nEdges++;
+	}
+	
+	/**
+	 * Fill the current edges, using an edge table bucketed by the first row each edge crosses 
+	 * and an active edge list.
+	 */
+	private void fillEdges(final boolean nonZero, final SpanConsumer consumer) {
+		if (nEdges < 2)
+			return;
+		
+		// Bucket edges by their first row (a counting sort)
+		if (bucketCounts.length < height + 1)
+			bucketCounts = new int[height + 1];
+		else
+			Arrays.fill(bucketCounts, 0, height + 1, 0);
+		int nRelevant = 0;
+		for (int i = 0; i < nEdges; i++) {
+			int rowStart = Math.max(0, firstPixel(edgeTop[i]));
+			int rowEnd = Math.min(height, firstPixel(edgeBottom[i]));
+			if (rowStart >= rowEnd)
+				continue;
+			bucketCounts[rowStart]++;
+			nRelevant++;
+		}
+		if (nRelevant < 2)
+			return;
+		int cumulative = 0;
+		for (int r = 0; r <= height; r++) {
+			int count = bucketCounts[r];
+			bucketCounts[r] = cumulative;
+			cumulative += count;
+		}
+		if (order.length < nRelevant)
+			order = new int[nRelevant * 2];
+		int firstRow = height;
+		for (int i = 0; i < nEdges; i++) {
+			int rowStart = Math.max(0, firstPixel(edgeTop[i]));
+			int rowEnd = Math.min(height, firstPixel(edgeBottom[i]));
+			if (rowStart >= rowEnd)
+				continue;
+			order[bucketCounts[rowStart]++] = i;
+			firstRow = Math.min(firstRow, rowStart);
+		}
+		// bucketCounts[r] now gives the end of the bucket for row r
+		
+		int nextEdge = 0;
+		int nActive = 0;
+		for (int row = firstRow; row < height; row++) {
+			double yCenter = row + 0.5;
+			// Add new edges
+			while (nextEdge < nRelevant && nextEdge < bucketCounts[row]) {
+				if (nActive == active.length)
+					active = Arrays.copyOf(active, nActive * 2);
+				active[nActive++] = order[nextEdge++];
+			}
+			// Remove edges that have ended
+			int nKeep = 0;
+			for (int k = 0; k < nActive; k++) {
+				int e = active[k];
+				if (edgeBottom[e] > yCenter)
+					active[nKeep++] = e;
+			}
+			nActive = nKeep;
+			if (nActive == 0) {
+				if (nextEdge >= nRelevant)
+					break;
+				continue;
+			}
+			
+			// Compute & sort crossings (there are usually very few, so insertion sort is fine)
+			if (crossingX.length < nActive) {
+				crossingX = new float[active.length];
+				crossingDir = new byte[active.length];
+			}
+			for (int k = 0; k < nActive; k++) {
+				int e = active[k];
+				float xc = (float)(edgeX[e] + (yCenter - edgeTop[e]) * edgeSlope[e]);
+				byte dir = edgeDir[e];
+				int j = k - 1;
+				while (j >= 0 && crossingX[j] > xc) {
+					crossingX[j+1] = crossingX[j];
+					crossingDir[j+1] = crossingDir[j];
+					j--;
+				}
+				crossingX[j+1] = xc;
+				crossingDir[j+1] = dir;
+			}
+			
+			// Fill spans where the point is inside
+			int winding = 0;
+			for (int k = 0; k < nActive - 1; k++) {
+				winding += crossingDir[k];
+				boolean inside = nonZero ? winding != 0 : (winding & 1) != 0;
+				if (!inside)
+					continue;
+				int xStart = Math.max(0, firstPixel(crossingX[k]));
+				int xEnd = Math.min(width, firstPixel(crossingX[k+1]));
+				if (xStart < xEnd)
+					consumer.fillSpan(row, xStart, xEnd);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+public class TestBrushMask {
+	
+	@Test
+	public void testAddToEmpty() {
+		double downsample = 2.0;
+		BrushMask mask = new BrushMask(null, downsample, 16);
+		Shape circle = new Ellipse2D.Double(20, 30, 100, 80);
+		assertTrue(mask.add(circle));
+		assertTrue(mask.nChangedTiles() > 1);
+		
+		// Painting the same shape again should make no difference
+		assertFalse(mask.add(circle));
+		
+		// Pixels are filled if their centers are inside the shape 
+		// (ignoring pixels very close to the boundary, which depend upon how the shape was flattened)
+		Shape inner = new Ellipse2D.Double(20.5, 30.5, 99, 79);
+		Shape outer = new Ellipse2D.Double(19.5, 29.5, 101, 81);
+		Area area = mask.getArea();
+		for (double y = downsample/2; y < 150; y += downsample) {
+			for (double x = downsample/2; x < 150; x += downsample) {
+				if (inner.contains(x, y) != outer.contains(x, y))
+					continue;
+				assertEquals(circle.contains(x, y), area.contains(x, y));
+				assertEquals(circle.contains(x, y), mask.contains(x, y));
+			}
+		}
+	}
+	
+	@Test
+	public void testSubtractFromBase() {
+		double downsample = 1.5;
+		Shape base = new Rectangle2D.Double(10.3, 10.3, 400.4, 300.4);
+		BrushMask mask = new BrushMask(base, downsample, 32);
+		
+		// Adding inside the base shape shouldn't change anything
+		assertFalse(mask.add(new Ellipse2D.Double(100, 100, 50, 50)));
+		assertFalse(mask.isChanged());
+		assertEquals(base.getBounds2D(), mask.getArea().getBounds2D());
+		
+		Shape circle = new Ellipse2D.Double(150, 120, 60, 60);
+		assertTrue(mask.subtract(circle));
+		assertTrue(mask.isChanged());
+		Area area = mask.getArea();
+		Shape region = mask.getChangedRegion();
+		for (double y = downsample/2; y < 320; y += downsample) {
+			for (double x = downsample/2; x < 420; x += downsample) {
+				boolean expected = base.contains(x, y) && !circle.contains(x, y);
+				assertEquals(expected, area.contains(x, y));
+			}
+		}
+		
+		// Outside the changed tiles, the base shape should be unchanged
+		assertFalse(region.contains(10.4, 10.4));
+		assertTrue(area.contains(10.4, 10.4));
+		assertFalse(area.contains(10.2, 10.2));
+		assertEquals(base.getBounds2D(), area.getBounds2D());
+	}
+	
+	@Test
+	public void testOutlineWithoutSeams() {
+		double downsample = 1.0;
+		int tileSize = 16;
+		BrushMask mask = new BrushMask(new Rectangle2D.Double(0, 0, 100, 100), downsample, tileSize);
+		// Cut a hole that crosses several tiles
+		mask.subtract(new Ellipse2D.Double(20, 20, 40, 40));
+		Path2D outline = mask.getOutline();
+		assertFalse(outline.getBounds2D().isEmpty());
+		
+		// The outline should only follow the boundary of the hole, and never the tile boundaries
+		PathIterator iterator = outline.getPathIterator(null);
+		double[] coords = new double[6];
+		double xPrevious = Double.NaN, yPrevious = Double.NaN;
+		double length = 0;
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			if (type == PathIterator.SEG_LINETO) {
+				double xMid = (xPrevious + coords[0]) / 2;
+				double yMid = (yPrevious + coords[1]) / 2;
+				double dist = Math.hypot(xMid - 40, yMid - 40);
+				assertTrue(dist > 18 && dist < 22);
+				length += Math.abs(coords[0] - xPrevious) + Math.abs(coords[1] - yPrevious);
+			}
+			xPrevious = coords[0];
+			yPrevious = coords[1];
+			iterator.next();
+		}
+		
+		// Compare with the length of the traced contours
+		double lengthTraced = 0;
+		iterator = mask.traceChangedContours().getPathIterator(null);
+		double xStart = Double.NaN, yStart = Double.NaN;
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				xStart = coords[0];
+				yStart = coords[1];
+			} else if (type == PathIterator.SEG_LINETO) {
+				lengthTraced += Math.abs(coords[0] - xPrevious) + Math.abs(coords[1] - yPrevious);
+			} else if (type == PathIterator.SEG_CLOSE) {
+				lengthTraced += Math.abs(xStart - xPrevious) + Math.abs(yStart - yPrevious);
+				coords[0] = xStart;
+				coords[1] = yStart;
+			}
+			xPrevious = coords[0];
+			yPrevious = coords[1];
+			iterator.next();
+		}
+		// The traced contours also include the outer boundary of the changed tiles
+		assertEquals(length + 4 * 3 * tileSize, lengthTraced, 1e-6);
+	}
+	
+	@Test
+	public void testSimplifiedArea() {
+		double downsample = 1.0;
+		Shape base = new Rectangle2D.Double(0, 0, 200, 100);
+		BrushMask mask = new BrushMask(base, downsample, 16);
+		Shape circle = new Ellipse2D.Double(150, 20, 100, 100);
+		assertTrue(mask.add(circle));
+		
+		Area expected = new Area(base);
+		expected.add(new Area(circle));
+		Area area = mask.getArea();
+		Area simplified = mask.getArea(1.0);
+		
+		// Simplification should remove most of the steps, without introducing gaps where the changed tiles meet the base shape
+		assertTrue(countVertices(simplified) < countVertices(area) / 2);
+		assertEquals(1, countPolygons(simplified));
+		assertEquals(new AWTAreaROI(expected).getArea(), new AWTAreaROI(simplified).getArea(), 50);
+		Shape inner = new Ellipse2D.Double(152, 22, 96, 96);
+		Shape outer = new Ellipse2D.Double(148, 18, 104, 104);
+		for (double y = 0.5; y < 130; y += 1) {
+			for (double x = 0.5; x < 260; x += 1) {
+				if (inner.contains(x, y) != outer.contains(x, y))
+					continue;
+				assertEquals(expected.contains(x, y), simplified.contains(x, y));
+			}
+		}
+		
+		// Outside the changed tiles, the base shape should be unchanged
+		assertEquals(0, simplified.getBounds2D().getMinX(), 0.0);
+		assertEquals(0, simplified.getBounds2D().getMinY(), 0.0);
+	}
+	
+	private static int countVertices(final Shape shape) {
+		int n = 0;
+		PathIterator iterator = shape.getPathIterator(null);
+		double[] coords = new double[6];
+		while (!iterator.isDone()) {
+			if (iterator.currentSegment(coords) != PathIterator.SEG_CLOSE)
+				n++;
+			iterator.next();
+		}
+		return n;
+	}
+	
+	private static int countPolygons(final Shape shape) {
+		int n = 0;
+		PathIterator iterator = shape.getPathIterator(null);
+		double[] coords = new double[6];
+		while (!iterator.isDone()) {
+			if (iterator.currentSegment(coords) == PathIterator.SEG_MOVETO)
+				n++;
+			iterator.next();
+		}
+		return n;
+	}
+
+}
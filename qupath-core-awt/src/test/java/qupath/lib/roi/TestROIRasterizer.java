@@ -0,0 +1,104 @@
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestROIRasterizer {
+	
+	@Test
+	public void testRectangle() {
+		ROIRasterizer rasterizer = new ROIRasterizer(100, 200, 2.0, 50, 40);
+		short[] buffer = new short[50 * 40];
+		rasterizer.fill(new RectangleROI(110, 210, 20, 30), (short)5, buffer);
+		assertEquals(10 * 15, count(buffer, 5));
+		assertEquals(5, buffer[5 * 50 + 5]);
+		assertEquals(0, buffer[4 * 50 + 5]);
+		
+		// Rectangle partly outside the tile
+		int[] buffer2 = new int[50 * 40];
+		rasterizer.fill(new RectangleROI(0, 0, 120, 220), 3, buffer2);
+		assertEquals(10 * 10, count(buffer2, 3));
+	}
+	
+	@Test
+	public void testShapesMatchContains() {
+		Random random = new Random(100);
+		int width = 64, height = 48;
+		double x = 1000, y = 2000, downsample = 1.5;
+		ROIRasterizer rasterizer = new ROIRasterizer(x, y, downsample, width, height);
+		for (int n = 0; n < 50; n++) {
+			int nVertices = 3 + random.nextInt(20);
+			float[] xPoints = new float[nVertices];
+			float[] yPoints = new float[nVertices];
+			for (int i = 0; i < nVertices; i++) {
+				xPoints[i] = (float)(x - 20 + random.nextDouble() * (width * downsample + 40));
+				yPoints[i] = (float)(y - 20 + random.nextDouble() * (height * downsample + 40));
+			}
+			checkMatchesShape(rasterizer, new PolygonROI(xPoints, yPoints, -1, 0, 0), x, y, downsample);
+			checkMatchesShape(rasterizer, new EllipseROI(xPoints[0], yPoints[0], 10 + random.nextDouble() * 50, 10 + random.nextDouble() * 50, -1, 0, 0), x, y, downsample);
+		}
+	}
+	
+	@Test
+	public void testAreaWithHole() {
+		Area area = new Area(new Rectangle2D.Double(10, 10, 80, 60));
+		area.subtract(new Area(new Rectangle2D.Double(30, 30, 20, 20)));
+		area.add(new Area(new Ellipse2D.Double(60, 40, 50, 50)));
+		ROI roi = PathROIToolsAwt.getShapeROI(area, -1, 0, 0);
+		ROIRasterizer rasterizer = new ROIRasterizer(0, 0, 1, 100, 100);
+		checkMatchesShape(rasterizer, roi, 0, 0, 1);
+		int[] buffer = new int[100 * 100];
+		rasterizer.fill(roi, 2, buffer);
+		assertEquals(0, buffer[40 * 100 + 40]);
+		assertEquals(2, buffer[20 * 100 + 20]);
+	}
+	
+	private static void checkMatchesShape(ROIRasterizer rasterizer, ROI roi, double x, double y, double downsample) {
+		int width = rasterizer.getWidth();
+		int height = rasterizer.getHeight();
+		int[] buffer = new int[width * height];
+		rasterizer.fill(roi, 1, buffer);
+		Shape shape = PathROIToolsAwt.getShape(roi);
+		int nDifferent = 0;
+		int nInside = 0;
+		for (int yy = 0; yy < height; yy++) {
+			for (int xx = 0; xx < width; xx++) {
+				boolean inside = shape.contains(x + (xx + 0.5) * downsample, y + (yy + 0.5) * downsample);
+				if (inside)
+					nInside++;
+				if (inside != (buffer[yy * width + xx] == 1))
+					nDifferent++;
+			}
+		}
+		// Allow a few differences for flattened curves
+		assertEquals(0, nDifferent, roi instanceof PolygonROI ? 0 : Math.max(2, nInside * 0.02));
+	}
+	
+	private static int count(short[] buffer, int value) {
+		int n = 0;
+		for (short v : buffer) {
+			if (v == value)
+				n++;
+		}
+		return n;
+	}
+
+	private static int count(int[] buffer, int value) {
+		int n = 0;
+		for (int v : buffer) {
+			if (v == value)
+				n++;
+		}
+		return n;
+	}
+
+}
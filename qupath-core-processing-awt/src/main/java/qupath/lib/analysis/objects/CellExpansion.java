@@ -0,0 +1,591 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.analysis.objects;
+
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.PathROIToolsAwt;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.ROIRasterizer;
+import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Expand nuclei into cells, by assigning every pixel to its nearest nucleus up to a maximum distance.
+ * <p>
+ * The image is processed in tiles, using an exact Euclidean distance transform computed on an int label buffer for each tile.
+ * Each tile is padded by a halo that is rasterized directly from the nucleus ROIs; this is wide enough for every pixel within the 
+ * tile (and the pixels immediately bordering it) to find its nearest nucleus, so the result does not depend upon the tile size.
+ * Where pixels are equidistant from different nuclei (or nuclei overlap), they are assigned to the nucleus that comes first in the input collection.
+ * <p>
+ * Cell boundaries are traced from the pixels within each tile and joined across tiles, and each cell is created as soon as 
+ * all the tiles it may touch have been processed.  Tiles are processed in parallel one row at a time, so only a single row of 
+ * label buffers (and the boundaries of incomplete cells) need to be held in memory.
+ * <p>
+ * Because only the nucleus ROIs are required, this can be applied to any existing nuclei - independently of how they were detected.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class CellExpansion {
+	
+	private final static Logger logger = LoggerFactory.getLogger(CellExpansion.class);
+	
+	/**
+	 * Default tile size, in pixels at the resolution used for expansion.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 512;
+	
+	private static final int EAST = 0, SOUTH = 1, WEST = 2, NORTH = 3;
+	private static final int[] DX = {1, 0, -1, 0};
+	private static final int[] DY = {0, 1, 0, -1};
+	
+	private final int imageWidth, imageHeight;
+	private final double distance;
+	
+	private double downsample = 1;
+	private int tileSize = DEFAULT_TILE_SIZE;
+	
+	/**
+	 * Create a new cell expansion for an image.
+	 * 
+	 * @param imageWidth width of the full resolution image; cells are constrained to lie within the image
+	 * @param imageHeight height of the full resolution image; cells are constrained to lie within the image
+	 * @param distance maximum distance to expand each nucleus, in full resolution pixels
+	 */
+	public CellExpansion(final int imageWidth, final int imageHeight, final double distance) {
+		if (distance < 0)
+			throw new IllegalArgumentException("Expansion distance must be >= 0, but was " + distance);
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.distance = distance;
+	}
+	
+	/**
+	 * Set the downsample factor at which the expansion is computed.
+	 * Higher values are faster, but give coarser cell boundaries.
+	 * 
+	 * @param downsample
+	 */
+	public void setDownsample(final double downsample) {
+		if (!(downsample > 0))
+			throw new IllegalArgumentException("Downsample must be > 0, but was " + downsample);
+		this.downsample = downsample;
+	}
+	
+	/**
+	 * Set the tile size, in pixels at the resolution used for the expansion.
+	 * This influences memory use and parallelism, but not the cells that are created.
+	 * 
+	 * @param tileSize
+	 */
+	public void setTileSize(final int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be > 0, but was " + tileSize);
+		this.tileSize = tileSize;
+	}
+	
+	/**
+	 * Expand nuclei into cells, returning the cells in the same order as the nuclei.
+	 * <p>
+	 * The nucleus ROI is taken from the ROI of each object, or from the nucleus ROI for cell objects.
+	 * Objects without an area nucleus ROI are skipped.
+	 * 
+	 * @param nuclei
+	 * @return
+	 * 
+	 * @see #expand(Collection, BiConsumer)
+	 */
+	public List<PathCellObject> expand(final Collection<? extends PathObject> nuclei) {
+		Map<PathObject, PathCellObject> map = new HashMap<>();
+		expand(nuclei, (nucleus, cell) -> map.put(nucleus, cell));
+		List<PathCellObject> cells = new ArrayList<>(map.size());
+		for (PathObject nucleus : nuclei) {
+			PathCellObject cell = map.get(nucleus);
+			if (cell != null)
+				cells.add(cell);
+		}
+		return cells;
+	}
+	
+	/**
+	 * Expand nuclei into cells, passing each cell to a consumer as soon as it is complete.
+	 * <p>
+	 * The consumer is called from the calling thread, along with the object from which the nucleus ROI was taken.
+	 * Cells are created with the classification and a copy of the measurements of the original object.
+	 * 
+	 * @param nuclei
+	 * @param consumer
+	 */
+	public void expand(final Collection<? extends PathObject> nuclei, final BiConsumer<PathObject, PathCellObject> consumer) {
+		long startTime = System.currentTimeMillis();
+		
+		List<PathObject> sources = new ArrayList<>(nuclei.size());
+		List<ROI> rois = new ArrayList<>(nuclei.size());
+		for (PathObject pathObject : nuclei) {
+			ROI roi = pathObject instanceof PathCellObject ? ((PathCellObject)pathObject).getNucleusROI() : pathObject.getROI();
+			if (roi instanceof PathArea && !roi.isEmpty()) {
+				sources.add(pathObject);
+				rois.add(roi);
+			}
+		}
+		new Expander(sources, rois, consumer).run();
+		
+		long endTime = System.currentTimeMillis();
+		logger.debug("Expanded {} nuclei in {} ms", rois.size(), endTime - startTime);
+	}
+	
+	
+	/**
+	 * Growable list of packed boundary edges.
+	 */
+	private static class EdgeList {
+		
+		private long[] edges = new long[16];
+		private int size = 0;
+		
+		void add(final long edge) {
+			if (size == edges.length)
+				edges = Arrays.copyOf(edges, size * 2);
+			edges[size++] = edge;
+		}
+		
+		void addAll(final EdgeList other) {
+			if (size + other.size > edges.length)
+				edges = Arrays.copyOf(edges, Math.max(edges.length * 2, size + other.size));
+			System.arraycopy(other.edges, 0, edges, size, other.size);
+			size += other.size;
+		}
+		
+	}
+	
+	
+	/**
+	 * Perform a single expansion.  Labels are 1 + the index of the nucleus.
+	 */
+	private class Expander {
+		
+		private final List<PathObject> sources;
+		private final List<ROI> rois;
+		private final BiConsumer<PathObject, PathCellObject> consumer;
+		
+		private final int width, height;
+		private final int nTilesX, nTilesY;
+		private final double maxDistSq;
+		private final int halo;
+		
+		/**
+		 * Labels that may touch each tile (including its halo), in increasing order.
+		 */
+		private final int[][] tileLabels;
+		private final int[] tileLabelCounts;
+		/**
+		 * Number of tiles still to be processed that may touch each label.
+		 */
+		private final int[] pending;
+		private final EdgeList[] cellEdges;
+		
+		Expander(final List<PathObject> sources, final List<ROI> rois, final BiConsumer<PathObject, PathCellObject> consumer) {
+			this.sources = sources;
+			this.rois = rois;
+			this.consumer = consumer;
+			
+			width = (int)Math.ceil(imageWidth / downsample);
+			height = (int)Math.ceil(imageHeight / downsample);
+			nTilesX = Math.max(1, (width + tileSize - 1) / tileSize);
+			nTilesY = Math.max(1, (height + tileSize - 1) / tileSize);
+			
+			double d = distance / downsample;
+			maxDistSq = d * d;
+			// Include an extra pixel, so that labels bordering each tile are also exact
+			halo = (int)Math.ceil(d) + 1;
+			
+			tileLabels = new int[nTilesX * nTilesY][];
+			tileLabelCounts = new int[nTilesX * nTilesY];
+			pending = new int[rois.size()];
+			cellEdges = new EdgeList[rois.size()];
+		}
+		
+		void run() {
+			// Add each label to the tiles that it might touch
+			List<Integer> unassigned = new ArrayList<>();
+			for (int i = 0; i < rois.size(); i++) {
+				ROI roi = rois.get(i);
+				int x1 = (int)Math.floor(roi.getBoundsX() / downsample);
+				int y1 = (int)Math.floor(roi.getBoundsY() / downsample);
+				int x2 = (int)Math.ceil((roi.getBoundsX() + roi.getBoundsWidth()) / downsample);
+				int y2 = (int)Math.ceil((roi.getBoundsY() + roi.getBoundsHeight()) / downsample);
+				int tx1 = Math.max(0, Math.floorDiv(x1 - halo, tileSize));
+				int ty1 = Math.max(0, Math.floorDiv(y1 - halo, tileSize));
+				int tx2 = Math.min(nTilesX - 1, Math.floorDiv(x2 + halo, tileSize));
+				int ty2 = Math.min(nTilesY - 1, Math.floorDiv(y2 + halo, tileSize));
+				for (int ty = ty1; ty <= ty2; ty++) {
+					for (int tx = tx1; tx <= tx2; tx++) {
+						int ind = ty * nTilesX + tx;
+						int[] labels = tileLabels[ind];
+						if (labels == null)
+							labels = tileLabels[ind] = new int[8];
+						else if (tileLabelCounts[ind] == labels.length)
+							labels = tileLabels[ind] = Arrays.copyOf(labels, labels.length * 2);
+						labels[tileLabelCounts[ind]++] = i + 1;
+						pending[i]++;
+					}
+				}
+				if (pending[i] == 0)
+					unassigned.add(i + 1);
+			}
+			// Nuclei outside the image cannot be expanded
+			emitCells(unassigned);
+			
+			for (int ty = 0; ty < nTilesY; ty++) {
+				if (Thread.currentThread().isInterrupted()) {
+					logger.warn("Cell expansion interrupted!");
+					return;
+				}
+				int row = ty;
+				List<Map<Integer, EdgeList>> results = IntStream.range(0, nTilesX).parallel()
+						.mapToObj(tx -> processTile(tx, row))
+						.collect(Collectors.toList());
+				
+				List<Integer> completed = new ArrayList<>();
+				for (int tx = 0; tx < nTilesX; tx++) {
+					for (Map.Entry<Integer, EdgeList> entry : results.get(tx).entrySet()) {
+						int i = entry.getKey() - 1;
+						if (cellEdges[i] == null)
+							cellEdges[i] = entry.getValue();
+						else
+							cellEdges[i].addAll(entry.getValue());
+					}
+					int ind = ty * nTilesX + tx;
+					for (int j = 0; j < tileLabelCounts[ind]; j++) {
+						int label = tileLabels[ind][j];
+						if (--pending[label - 1] == 0)
+							completed.add(label);
+					}
+					tileLabels[ind] = null;
+				}
+				completed.sort(null);
+				emitCells(completed);
+			}
+		}
+		
+		/**
+		 * Create cells for completed labels in parallel, then pass them to the consumer in order.
+		 */
+		private void emitCells(final List<Integer> labels) {
+			List<PathCellObject> cells = labels.parallelStream().map(label -> createCell(label)).collect(Collectors.toList());
+			for (int j = 0; j < labels.size(); j++) {
+				int i = labels.get(j) - 1;
+				cellEdges[i] = null;
+				consumer.accept(sources.get(i), cells.get(j));
+			}
+		}
+		
+		/**
+		 * Compute the labels within a tile, and return the boundary edges of the pixels in the tile for each label.
+		 */
+		private Map<Integer, EdgeList> processTile(final int tx, final int ty) {
+			int ind = ty * nTilesX + tx;
+			int nLabels = tileLabelCounts[ind];
+			if (nLabels == 0)
+				return Collections.emptyMap();
+			int[] labelsToFill = tileLabels[ind];
+			
+			// Define the tile and its halo
+			int cx1 = tx * tileSize;
+			int cy1 = ty * tileSize;
+			int cx2 = Math.min(cx1 + tileSize, width);
+			int cy2 = Math.min(cy1 + tileSize, height);
+			int wx1 = Math.max(cx1 - halo, 0);
+			int wy1 = Math.max(cy1 - halo, 0);
+			int wx2 = Math.min(cx2 + halo, width);
+			int wy2 = Math.min(cy2 + halo, height);
+			int w = wx2 - wx1;
+			int h = wy2 - wy1;
+			
+			// Fill nuclei in reverse order, so that where these overlap the first nucleus takes priority
+			int[] labels = new int[w * h];
+			ROIRasterizer rasterizer = new ROIRasterizer(wx1 * downsample, wy1 * downsample, downsample, w, h);
+			for (int j = nLabels - 1; j >= 0; j--) {
+				int label = labelsToFill[j];
+				rasterizer.fill(rois.get(label - 1), label, labels);
+			}
+			
+			// Compute labels for the tile and a 1-pixel border
+			int[] expanded = expandLabels(labels, w, h, Math.max(cy1 - 1, wy1) - wy1, Math.min(cy2 + 1, wy2) - wy1, maxDistSq);
+			
+			// Add the boundary edges of each pixel, oriented clockwise around each cell
+			Map<Integer, EdgeList> edges = new HashMap<>();
+			EdgeList current = null;
+			int currentLabel = 0;
+			for (int y = cy1; y < cy2; y++) {
+				int row = (y - wy1) * w - wx1;
+				for (int x = cx1; x < cx2; x++) {
+					int label = expanded[row + x];
+					if (label == 0)
+						continue;
+					if (label != currentLabel) {
+						current = edges.computeIfAbsent(label, k -> new EdgeList());
+						currentLabel = label;
+					}
+					if (y == 0 || expanded[row + x - w] != label)
+						current.add(packEdge(x, y, EAST));
+					if (x + 1 == width || expanded[row + x + 1] != label)
+						current.add(packEdge(x + 1, y, SOUTH));
+					if (y + 1 == height || expanded[row + x + w] != label)
+						current.add(packEdge(x + 1, y + 1, WEST));
+					if (x == 0 || expanded[row + x - 1] != label)
+						current.add(packEdge(x, y + 1, NORTH));
+				}
+			}
+			return edges;
+		}
+		
+		/**
+		 * Create a cell by tracing the boundary edges of a label.
+		 */
+		private PathCellObject createCell(final int label) {
+			PathObject source = sources.get(label - 1);
+			ROI nucleusROI = rois.get(label - 1);
+			EdgeList edgeList = cellEdges[label - 1];
+			ROI cellROI = null;
+			if (edgeList != null)
+				cellROI = traceROI(edgeList, nucleusROI.getC(), nucleusROI.getZ(), nucleusROI.getT());
+			// If the nucleus didn't contain any pixels, use it as the cell as well
+			if (cellROI == null)
+				cellROI = nucleusROI;
+			
+			PathCellObject cell = new PathCellObject(cellROI, nucleusROI, source.getPathClass());
+			MeasurementList measurements = source.getMeasurementList();
+			if (!measurements.isEmpty()) {
+				MeasurementList measurementsCell = cell.getMeasurementList();
+				for (int i = 0; i < measurements.size(); i++)
+					measurementsCell.addMeasurement(measurements.getMeasurementName(i), measurements.getMeasurementValue(i));
+				measurementsCell.closeList();
+			}
+			return cell;
+		}
+		
+		/**
+		 * Link boundary edges into closed loops, and convert these to a ROI.
+		 */
+		private ROI traceROI(final EdgeList edgeList, final int c, final int z, final int t) {
+			// Map each vertex to a bitmask of outgoing edge directions
+			Map<Long, Integer> edges = new HashMap<>();
+			for (int i = 0; i < edgeList.size; i++) {
+				long edge = edgeList.edges[i];
+				edges.merge(edge >>> 2, 1 << (int)(edge & 3), (a, b) -> a | b);
+			}
+			
+			List<float[][]> loops = new ArrayList<>();
+			float[] xx = new float[16];
+			float[] yy = new float[16];
+			for (Long start : new ArrayList<>(edges.keySet())) {
+				while (edges.containsKey(start)) {
+					int x = (int)(start >>> 30);
+					int y = (int)(start & 0x3FFFFFFF);
+					int n = 0;
+					int previousDir = -1;
+					long current = start;
+					do {
+						int bits = edges.get(current);
+						// Prefer continuing straight on, to avoid unnecessary vertices
+						int dir = previousDir >= 0 && (bits & (1 << previousDir)) != 0 ? previousDir : Integer.numberOfTrailingZeros(bits);
+						bits &= ~(1 << dir);
+						if (bits == 0)
+							edges.remove(current);
+						else
+							edges.put(current, bits);
+						if (dir != previousDir) {
+							if (n == xx.length) {
+								xx = Arrays.copyOf(xx, n * 2);
+								yy = Arrays.copyOf(yy, n * 2);
+							}
+							xx[n] = (float)(x * downsample);
+							yy[n] = (float)(y * downsample);
+							n++;
+						}
+						x += DX[dir];
+						y += DY[dir];
+						previousDir = dir;
+						current = packVertex(x, y);
+					} while (current != start);
+					loops.add(new float[][] {Arrays.copyOf(xx, n), Arrays.copyOf(yy, n)});
+				}
+			}
+			if (loops.isEmpty())
+				return null;
+			if (loops.size() == 1)
+				return new PolygonROI(loops.get(0)[0], loops.get(0)[1], c, z, t);
+			
+			// Combine multiple loops (e.g. with holes) using the non-zero winding rule
+			Path2D path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+			for (float[][] loop : loops) {
+				path.moveTo(loop[0][0], loop[1][0]);
+				for (int i = 1; i < loop[0].length; i++)
+					path.lineTo(loop[0][i], loop[1][i]);
+				path.closePath();
+			}
+			return PathROIToolsAwt.getShapeROI(path, c, z, t, 0.5);
+		}
+		
+	}
+	
+	
+	private static long packVertex(final int x, final int y) {
+		return ((long)x << 30) | y;
+	}
+	
+	private static long packEdge(final int x, final int y, final int dir) {
+		return (packVertex(x, y) << 2) | dir;
+	}
+	
+	
+	/**
+	 * Assign pixels to the nearest labelled pixel, using an exact Euclidean distance transform.
+	 * <p>
+	 * The first pass finds the nearest labelled pixel within each column; the second finds the lower envelope 
+	 * of the resulting parabolas along each row (Felzenszwalb &amp; Huttenlocher).  Ties are resolved in favor of the lowest label.
+	 * 
+	 * @param labels input labels, where 0 is background
+	 * @param width
+	 * @param height
+	 * @param yStart first row for which output labels are required
+	 * @param yEnd last row (exclusive) for which output labels are required
+	 * @param maxDistSq maximum squared distance of a pixel from its label
+	 * @return expanded labels, which are only set for rows between yStart and yEnd
+	 */
+	static int[] expandLabels(final int[] labels, final int width, final int height, final int yStart, final int yEnd, final double maxDistSq) {
+		int n = width * height;
+		long[] g = new long[n];
+		int[] gLabels = new int[n];
+		
+		// Squared distance to the nearest label within the same column
+		for (int x = 0; x < width; x++) {
+			int last = -1;
+			for (int y = 0; y < height; y++) {
+				int ind = y * width + x;
+				if (labels[ind] != 0)
+					last = y;
+				if (last < 0) {
+					g[ind] = Long.MAX_VALUE;
+				} else {
+					long d = y - last;
+					g[ind] = d * d;
+					gLabels[ind] = labels[last * width + x];
+				}
+			}
+			last = -1;
+			for (int y = height - 1; y >= 0; y--) {
+				int ind = y * width + x;
+				if (labels[ind] != 0)
+					last = y;
+				if (last > y) {
+					long d = last - y;
+					int label = labels[last * width + x];
+					if (d * d < g[ind] || (d * d == g[ind] && label < gLabels[ind])) {
+						g[ind] = d * d;
+						gLabels[ind] = label;
+					}
+				}
+			}
+		}
+		
+		// Lower envelope of parabolas along each row
+		int[] output = new int[n];
+		int[] v = new int[width];
+		double[] z = new double[width + 1];
+		for (int y = yStart; y < yEnd; y++) {
+			int row = y * width;
+			int k = -1;
+			for (int q = 0; q < width; q++) {
+				long gq = g[row + q];
+				if (gq == Long.MAX_VALUE)
+					continue;
+				if (k < 0) {
+					k = 0;
+					v[0] = q;
+					z[0] = Double.NEGATIVE_INFINITY;
+					z[1] = Double.POSITIVE_INFINITY;
+					continue;
+				}
+				double s = intersection(g, row, v[k], q);
+				// Retain parabolas that touch the envelope at a single point, so that ties can be resolved
+				while (s < z[k]) {
+					k--;
+					s = intersection(g, row, v[k], q);
+				}
+				k++;
+				v[k] = q;
+				z[k] = s;
+				z[k+1] = Double.POSITIVE_INFINITY;
+			}
+			if (k < 0)
+				continue;
+			
+			int j = 0;
+			for (int x = 0; x < width; x++) {
+				while (z[j+1] < x)
+					j++;
+				// Check all parabolas that are minimal at this point
+				long best = Long.MAX_VALUE;
+				int bestLabel = 0;
+				for (int jj = j; jj <= k && z[jj] <= x; jj++) {
+					long dx = x - v[jj];
+					long d = dx * dx + g[row + v[jj]];
+					int label = gLabels[row + v[jj]];
+					if (d < best || (d == best && label < bestLabel)) {
+						best = d;
+						bestLabel = label;
+					}
+				}
+				if (best <= maxDistSq)
+					output[row + x] = bestLabel;
+			}
+		}
+		return output;
+	}
+	
+	private static double intersection(final long[] g, final int row, final int p, final int q) {
+		return ((g[row + q] + (double)q * q) - (g[row + p] + (double)p * p)) / (2.0 * (q - p));
+	}
+
+}
@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.images.writers;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.GeneralTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.io.ImageWriter;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.ROIRasterizer;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Export labeled images for the objects within a hierarchy, tile by tile.
+ * <p>
+ * Objects for each tile are found using a spatial query of the hierarchy, and filled using a {@link ROIRasterizer} 
+ * directly into the image buffer.  Tiles are processed in parallel.
+ * <p>
+ * By default, each object in a tile is given a unique label, starting at 1 (with 0 as background).
+ * Alternatively, labels can be determined by a function, e.g. based on the classification.
+ * Where objects overlap, objects deeper in the hierarchy are drawn on top.
+ * <p>
+ * Label images are 16-bit if all labels in the tile are &lt;= 65535, or RGB (with the label encoded as a 24-bit integer) otherwise.
+ * Labels greater than {@link #MAX_LABEL} cannot be encoded in either form, and cause an {@link IllegalArgumentException} 
+ * to be thrown when the tile containing them is created.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class LabeledImageExporter {
+	
+	private final static Logger logger = LoggerFactory.getLogger(LabeledImageExporter.class);
+	
+	/**
+	 * Maximum supported label value, i.e. the largest integer that can be encoded in a 24-bit RGB image.
+	 */
+	public final static int MAX_LABEL = 0xFFFFFF;
+	
+	private final static Comparator<PathObject> DRAW_ORDER = Comparator.comparingInt(PathObject::getLevel)
+			.thenComparingDouble(p -> p.getROI().getBoundsY())
+			.thenComparingDouble(p -> p.getROI().getBoundsX());
+	
+	private ImageServer<BufferedImage> server;
+	private PathObjectHierarchy hierarchy;
+	
+	private double downsample = 1;
+	private int tileSize = 512;
+	private Class<? extends PathObject> objectClass = PathDetectionObject.class;
+	private Predicate<PathObject> filter = null;
+	private ToIntFunction<PathObject> labeler = null;
+	private boolean useNucleusROIs = false;
+	private boolean skipEmptyTiles = false;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Create an exporter for the objects within an ImageData.
+	 * 
+	 * @param imageData
+	 */
+	public LabeledImageExporter(final ImageData<BufferedImage> imageData) {
+		this.server = imageData.getServer();
+		this.hierarchy = imageData.getHierarchy();
+	}
+	
+	/**
+	 * Set the downsample factor for the exported images.
+	 * @param downsample
+	 */
+	public void setDownsample(final double downsample) {
+		if (!(downsample > 0))
+			throw new IllegalArgumentException("Downsample must be > 0, but was " + downsample);
+		this.downsample = downsample;
+	}
+	
+	/**
+	 * Set the width &amp; height of the exported tiles, in pixels (after downsampling).
+	 * @param tileSize
+	 */
+	public void setTileSize(final int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be > 0, but was " + tileSize);
+		this.tileSize = tileSize;
+	}
+	
+	/**
+	 * Set the class of objects to include (including subclasses).  Default is {@link PathDetectionObject}.
+	 * @param objectClass
+	 */
+	public void setObjectClass(final Class<? extends PathObject> objectClass) {
+		this.objectClass = objectClass;
+	}
+	
+	/**
+	 * Set a filter to restrict the objects to include, or null if all objects of the specified class should be included.
+	 * @param filter
+	 */
+	public void setFilter(final Predicate<PathObject> filter) {
+		this.filter = filter;
+	}
+	
+	/**
+	 * Set a function to determine the label for each object, or null if each object should have a unique label.
+	 * Objects with a label &lt;= 0 are not drawn, and labels must not exceed {@link #MAX_LABEL}.
+	 * @param labeler
+	 */
+	public void setLabeler(final ToIntFunction<PathObject> labeler) {
+		this.labeler = labeler;
+	}
+	
+	/**
+	 * Use nucleus rather than cell boundary ROIs for cell objects.
+	 * @param useNucleusROIs
+	 */
+	public void setUseNucleusROIs(final boolean useNucleusROIs) {
+		this.useNucleusROIs = useNucleusROIs;
+	}
+	
+	/**
+	 * Skip writing tiles that do not contain any objects.
+	 * @param skipEmptyTiles
+	 */
+	public void setSkipEmptyTiles(final boolean skipEmptyTiles) {
+		this.skipEmptyTiles = skipEmptyTiles;
+	}
+	
+	/**
+	 * Set the number of threads used for export.
+	 * @param nThreads
+	 */
+	public void setNumThreads(final int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+	
+	
+	/**
+	 * Get the requests for all the tiles of the image, for a specified z-slice and timepoint.
+	 * 
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	public List<RegionRequest> getTileRequests(final int z, final int t) {
+		int tileSizeFull = (int)Math.round(tileSize * downsample);
+		List<RegionRequest> requests = new ArrayList<>();
+		for (int y = 0; y < server.getHeight(); y += tileSizeFull) {
+			int h = Math.min(tileSizeFull, server.getHeight() - y);
+			for (int x = 0; x < server.getWidth(); x += tileSizeFull) {
+				int w = Math.min(tileSizeFull, server.getWidth() - x);
+				requests.add(RegionRequest.createInstance(server.getPath(), downsample, x, y, w, h, z, t));
+			}
+		}
+		return requests;
+	}
+	
+	
+	/**
+	 * Create a labeled image for a region.
+	 * 
+	 * @param request
+	 * @return the labeled image, or null if skipEmptyTiles is true and the region contains no objects
+	 * @throws IllegalArgumentException if any label in the region is greater than {@link #MAX_LABEL}
+	 */
+	public BufferedImage createLabeledImage(final RegionRequest request) {
+		int width = (int)Math.max(1, Math.round(request.getWidth() / request.getDownsample()));
+		int height = (int)Math.max(1, Math.round(request.getHeight() / request.getDownsample()));
+		
+		List<PathObject> pathObjects = new ArrayList<>();
+		hierarchy.getObjectsForRegion(objectClass, ImageRegion.createInstance(request.getX(), request.getY(), request.getWidth(), request.getHeight(), request.getZ(), request.getT()), pathObjects);
+		if (filter != null)
+			pathObjects.removeIf(filter.negate());
+		pathObjects.removeIf(p -> !p.hasROI() || p.getROI().getZ() != request.getZ() || p.getROI().getT() != request.getT());
+		if (pathObjects.isEmpty() && skipEmptyTiles)
+			return null;
+		pathObjects.sort(DRAW_ORDER);
+		
+		int[] labels = new int[pathObjects.size()];
+		int maxLabel = 0;
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = labeler == null ? i + 1 : labeler.applyAsInt(pathObjects.get(i));
+			maxLabel = Math.max(maxLabel, labels[i]);
+		}
+		if (maxLabel > MAX_LABEL)
+			throw new IllegalArgumentException("Label " + maxLabel + " exceeds the maximum supported label " + MAX_LABEL + " for " + request);
+		
+		ROIRasterizer rasterizer = new ROIRasterizer(request.getX(), request.getY(), request.getDownsample(), width, height);
+		BufferedImage img;
+		if (maxLabel <= 65535) {
+			img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+			short[] buffer = ((DataBufferUShort)img.getRaster().getDataBuffer()).getData();
+			for (int i = 0; i < labels.length; i++) {
+				if (labels[i] > 0)
+					rasterizer.fill(getROI(pathObjects.get(i)), (short)labels[i], buffer);
+			}
+		} else {
+			img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			int[] buffer = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+			for (int i = 0; i < labels.length; i++) {
+				if (labels[i] > 0)
+					rasterizer.fill(getROI(pathObjects.get(i)), labels[i], buffer);
+			}
+		}
+		return img;
+	}
+	
+	private ROI getROI(final PathObject pathObject) {
+		if (useNucleusROIs && pathObject instanceof PathCellObject) {
+			ROI roi = ((PathCellObject)pathObject).getNucleusROI();
+			if (roi != null)
+				return roi;
+		}
+		return pathObject.getROI();
+	}
+	
+	
+	/**
+	 * Export labeled images for all tiles of a specified z-slice and timepoint to a directory.
+	 * 
+	 * @param writer writer used to save each tile; this must support the image types described above
+	 * @param dir output directory
+	 * @param z
+	 * @param t
+	 * @return the number of images written
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws IllegalArgumentException if any tile contains a label greater than {@link #MAX_LABEL}
+	 */
+	public int exportTiles(final ImageWriter<BufferedImage> writer, final File dir, final int z, final int t) throws IOException, InterruptedException {
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+			throw new IOException("Unable to create directory " + dir);
+		List<RegionRequest> requests = getTileRequests(z, t);
+		String name = server.getShortServerName();
+		AtomicInteger counter = new AtomicInteger();
+		long startTime = System.currentTimeMillis();
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, requests.size())));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (RegionRequest request : requests) {
+				futures.add(pool.submit(() -> {
+					BufferedImage img = createLabeledImage(request);
+					if (img == null)
+						return null;
+					String fileName = String.format("%s [d=%s,x=%d,y=%d,w=%d,h=%d,z=%d,t=%d].%s", name,
+							GeneralTools.formatNumber(request.getDownsample(), 3), request.getX(), request.getY(), request.getWidth(), request.getHeight(), z, t,
+							writer.getExtension());
+					writer.writeImage(img, new File(dir, fileName).getAbsolutePath());
+					counter.incrementAndGet();
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					for (Future<Void> f : futures)
+						f.cancel(true);
+					if (e.getCause() instanceof IOException)
+						throw (IOException)e.getCause();
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException)e.getCause();
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.info("{} labeled images written for {} in {} ms", counter.get(), name, endTime - startTime);
+		return counter.get();
+	}
+
+}
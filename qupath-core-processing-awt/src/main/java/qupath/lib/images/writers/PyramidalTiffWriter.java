@@ -0,0 +1,744 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.images.writers;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * ImageWriter implementation to write pyramidal, tiled TIFF images (optionally BigTIFF) without 
+ * needing the full image in memory.
+ * <p>
+ * Tiles of the full resolution level are requested (and compressed) in parallel, but written in order.
+ * Each lower resolution level is built by downsampling the tiles of the level above by a factor of 2 as soon as 
+ * a row of tiles is complete, so only about one row of tiles per level needs to be held in memory.
+ * <p>
+ * Note that {@link #writeImage(ImageServer, RegionRequest, String)} returns the lowest resolution level 
+ * of the pyramid, rather than the full image.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PyramidalTiffWriter extends AbstractImageWriter<BufferedImage> {
+	
+	private final static Logger logger = LoggerFactory.getLogger(PyramidalTiffWriter.class);
+	
+	/**
+	 * Compression to apply to each tile.
+	 */
+	public static enum Compression {
+		/**
+		 * No compression.
+		 */
+		NONE(1),
+		/**
+		 * Lossless (zip) compression.
+		 */
+		DEFLATE(8);
+		
+		private final int tiffValue;
+		
+		private Compression(final int tiffValue) {
+			this.tiffValue = tiffValue;
+		}
+	}
+	
+	/**
+	 * Source of tiles for the full resolution level of the pyramid.
+	 * <p>
+	 * Implementations must be thread-safe, since tiles are requested from multiple threads.
+	 */
+	public static interface TileSource {
+		
+		/**
+		 * Read the image for a region.
+		 * @param request
+		 * @return
+		 * @throws IOException
+		 */
+		public BufferedImage readTile(RegionRequest request) throws IOException;
+		
+	}
+	
+	private static final int TAG_NEW_SUBFILE_TYPE = 254;
+	private static final int TAG_IMAGE_WIDTH = 256;
+	private static final int TAG_IMAGE_LENGTH = 257;
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+	private static final int TAG_COMPRESSION = 259;
+	private static final int TAG_PHOTOMETRIC = 262;
+	private static final int TAG_SAMPLES_PER_PIXEL = 277;
+	private static final int TAG_X_RESOLUTION = 282;
+	private static final int TAG_Y_RESOLUTION = 283;
+	private static final int TAG_PLANAR_CONFIGURATION = 284;
+	private static final int TAG_RESOLUTION_UNIT = 296;
+	private static final int TAG_SOFTWARE = 305;
+	private static final int TAG_TILE_WIDTH = 322;
+	private static final int TAG_TILE_LENGTH = 323;
+	private static final int TAG_TILE_OFFSETS = 324;
+	private static final int TAG_TILE_BYTE_COUNTS = 325;
+	private static final int TAG_EXTRA_SAMPLES = 338;
+	private static final int TAG_SAMPLE_FORMAT = 339;
+	
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+	private static final int TYPE_RATIONAL = 5;
+	private static final int TYPE_LONG8 = 16;
+	
+	private int tileSize = 256;
+	private Compression compression = Compression.DEFLATE;
+	private Boolean bigTiff = null;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	
+	@Override
+	public String getName() {
+		return "TIFF (pyramidal)";
+	}
+
+	@Override
+	public String getExtension() {
+		return "tif";
+	}
+
+	@Override
+	public String getDetails() {
+		return "Write pyramidal, tiled TIFF - suitable for very large images";
+	}
+
+	@Override
+	public boolean supportsT() {
+		return false;
+	}
+
+	@Override
+	public boolean supportsZ() {
+		return false;
+	}
+
+	@Override
+	public boolean supportsRGB() {
+		return true;
+	}
+
+	@Override
+	public boolean suportsImageType(ImageServer<BufferedImage> server) {
+		return server.isRGB() || server.getBitsPerPixel() == 8 || server.getBitsPerPixel() == 16 || server.getBitsPerPixel() == 32;
+	}
+
+	@Override
+	public boolean supportsPyramidal() {
+		return true;
+	}
+
+	@Override
+	public boolean supportsPixelSize() {
+		return true;
+	}
+	
+	/**
+	 * Set the tile width &amp; height; this must be a multiple of 16.  Default is 256.
+	 * @param tileSize
+	 */
+	public void setTileSize(final int tileSize) {
+		if (tileSize <= 0 || tileSize % 16 != 0)
+			throw new IllegalArgumentException("Tile size must be a positive multiple of 16, but was " + tileSize);
+		this.tileSize = tileSize;
+	}
+	
+	/**
+	 * Set the compression to use for each tile.  Default is {@link Compression#DEFLATE}.
+	 * @param compression
+	 */
+	public void setCompression(final Compression compression) {
+		this.compression = compression;
+	}
+	
+	/**
+	 * Specify whether to write BigTIFF, or null if this should be determined from the image size.
+	 * @param bigTiff
+	 */
+	public void setBigTiff(final Boolean bigTiff) {
+		this.bigTiff = bigTiff;
+	}
+	
+	/**
+	 * Set the number of threads used for reading &amp; compressing tiles.
+	 * @param nThreads
+	 */
+	public void setNumThreads(final int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	@Override
+	public BufferedImage writeImage(ImageServer<BufferedImage> server, RegionRequest request, String pathOutput) throws IOException {
+		return writePyramid(server, request, null, pathOutput);
+	}
+
+	@Override
+	public void writeImage(BufferedImage img, String pathOutput) throws IOException {
+		RegionRequest request = RegionRequest.createInstance(pathOutput, 1, 0, 0, img.getWidth(), img.getHeight());
+		TileSource source = r -> img.getSubimage(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+		new PyramidWriter(request, source, Double.NaN, Double.NaN).write(new File(pathOutput));
+	}
+	
+	/**
+	 * Write a region of an image as a pyramidal TIFF.
+	 * 
+	 * @param server server providing the pixel size, and the tiles (if source is null)
+	 * @param request region to write; the downsample of the request defines the resolution of the full resolution level
+	 * @param source optional source of tiles, e.g. to paint overlays on top of the image; if null, tiles are read from the server
+	 * @param pathOutput
+	 * @return the lowest resolution level of the pyramid
+	 * @throws IOException
+	 */
+	public BufferedImage writePyramid(final ImageServer<BufferedImage> server, final RegionRequest request, final TileSource source, final String pathOutput) throws IOException {
+		double pixelWidth = Double.NaN, pixelHeight = Double.NaN;
+		if (server.hasPixelSizeMicrons()) {
+			pixelWidth = server.getPixelWidthMicrons() * request.getDownsample();
+			pixelHeight = server.getPixelHeightMicrons() * request.getDownsample();
+		}
+		TileSource tileSource = source == null ? r -> server.readBufferedImage(r) : source;
+		return new PyramidWriter(request, tileSource, pixelWidth, pixelHeight).write(new File(pathOutput));
+	}
+	
+	
+	/**
+	 * Compressed tile, along with its (uncompressed) raster for building the next level.
+	 */
+	private static class EncodedTile {
+		
+		private final WritableRaster raster;
+		private final byte[] bytes;
+		
+		EncodedTile(final WritableRaster raster, final byte[] bytes) {
+			this.raster = raster;
+			this.bytes = bytes;
+		}
+		
+	}
+	
+	
+	/**
+	 * Helper class to write a single pyramid.
+	 */
+	private class PyramidWriter {
+		
+		private final RegionRequest request;
+		private final TileSource source;
+		private final double pixelWidthMicrons, pixelHeightMicrons;
+		
+		private final int nLevels;
+		private final int[] levelWidth, levelHeight, nTilesX, nTilesY;
+		private final long[][] tileOffsets, tileByteCounts;
+		private final WritableRaster[] strips;
+		
+		private WritableRaster template;
+		private ColorModel colorModel;
+		private int nBands;
+		private int bytesPerSample;
+		private boolean isFloat;
+		
+		private boolean isBigTiff;
+		private FileChannel channel;
+		private long position;
+		
+		private WritableRaster lastTile;
+		
+		PyramidWriter(final RegionRequest request, final TileSource source, final double pixelWidthMicrons, final double pixelHeightMicrons) {
+			this.request = request;
+			this.source = source;
+			this.pixelWidthMicrons = pixelWidthMicrons;
+			this.pixelHeightMicrons = pixelHeightMicrons;
+			
+			int width = (int)Math.max(1, Math.round(request.getWidth() / request.getDownsample()));
+			int height = (int)Math.max(1, Math.round(request.getHeight() / request.getDownsample()));
+			int n = 1;
+			while (Math.max(width, height) > tileSize) {
+				width = (width + 1) / 2;
+				height = (height + 1) / 2;
+				n++;
+			}
+			nLevels = n;
+			levelWidth = new int[n];
+			levelHeight = new int[n];
+			nTilesX = new int[n];
+			nTilesY = new int[n];
+			tileOffsets = new long[n][];
+			tileByteCounts = new long[n][];
+			strips = new WritableRaster[n];
+			width = (int)Math.max(1, Math.round(request.getWidth() / request.getDownsample()));
+			height = (int)Math.max(1, Math.round(request.getHeight() / request.getDownsample()));
+			for (int level = 0; level < n; level++) {
+				levelWidth[level] = width;
+				levelHeight[level] = height;
+				nTilesX[level] = (width + tileSize - 1) / tileSize;
+				nTilesY[level] = (height + tileSize - 1) / tileSize;
+				tileOffsets[level] = new long[nTilesX[level] * nTilesY[level]];
+				tileByteCounts[level] = new long[nTilesX[level] * nTilesY[level]];
+				width = (width + 1) / 2;
+				height = (height + 1) / 2;
+			}
+		}
+		
+		
+		BufferedImage write(final File file) throws IOException {
+			long startTime = System.currentTimeMillis();
+			
+			// Read the first tile, to determine the pixel type
+			BufferedImage imgFirst = source.readTile(getTileRequest(0, 0));
+			colorModel = imgFirst.getColorModel();
+			template = imgFirst.getRaster().createCompatibleWritableRaster(tileSize, tileSize);
+			nBands = template.getNumBands();
+			int dataType = template.getDataBuffer().getDataType();
+			isFloat = dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE;
+			bytesPerSample = (template.getSampleModel().getSampleSize(0) + 7) / 8;
+			
+			long estimatedBytes = (long)levelWidth[0] * levelHeight[0] * nBands * bytesPerSample * 4 / 3;
+			isBigTiff = bigTiff == null ? estimatedBytes > Integer.MAX_VALUE : bigTiff.booleanValue();
+			
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+			try {
+				writeHeader();
+				
+				// Request tiles in parallel, but write them in order - limiting the number waiting to be written
+				Deque<Future<EncodedTile>> pending = new ArrayDeque<>();
+				int nTiles = nTilesX[0] * nTilesY[0];
+				int nextRequested = 0;
+				for (int i = 0; i < nTiles; i++) {
+					while (nextRequested < nTiles && pending.size() < nThreads * 2) {
+						int ind = nextRequested++;
+						BufferedImage img = ind == 0 ? imgFirst : null;
+						pending.add(pool.submit(() -> encodeTile(toTileRaster(img == null ? source.readTile(getTileRequest(ind % nTilesX[0], ind / nTilesX[0])) : img))));
+					}
+					EncodedTile tile;
+					try {
+						tile = pending.removeFirst().get();
+					} catch (ExecutionException e) {
+						for (Future<EncodedTile> f : pending)
+							f.cancel(true);
+						if (e.getCause() instanceof IOException)
+							throw (IOException)e.getCause();
+						throw new IOException(e.getCause());
+					} catch (InterruptedException e) {
+						for (Future<EncodedTile> f : pending)
+							f.cancel(true);
+						throw new IOException("Pyramidal TIFF writing interrupted", e);
+					}
+					addTile(0, i % nTilesX[0], i / nTilesX[0], tile);
+				}
+				
+				writeIFDs();
+			} finally {
+				pool.shutdownNow();
+				channel.close();
+			}
+			long endTime = System.currentTimeMillis();
+			logger.info("Pyramidal TIFF with {} levels written to {} in {} ms", nLevels, file, endTime - startTime);
+			
+			// Return the lowest resolution level, trimmed to size
+			int level = nLevels - 1;
+			WritableRaster raster = lastTile.createCompatibleWritableRaster(levelWidth[level], levelHeight[level]);
+			raster.setRect(lastTile);
+			return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+		}
+		
+		
+		private RegionRequest getTileRequest(final int tx, final int ty) {
+			double downsample = request.getDownsample();
+			int x1 = tx * tileSize;
+			int y1 = ty * tileSize;
+			int x2 = Math.min(levelWidth[0], x1 + tileSize);
+			int y2 = Math.min(levelHeight[0], y1 + tileSize);
+			int xStart = request.getX() + (int)Math.round(x1 * downsample);
+			int yStart = request.getY() + (int)Math.round(y1 * downsample);
+			int xEnd = x2 == levelWidth[0] ? request.getX() + request.getWidth() : request.getX() + (int)Math.round(x2 * downsample);
+			int yEnd = y2 == levelHeight[0] ? request.getY() + request.getHeight() : request.getY() + (int)Math.round(y2 * downsample);
+			return RegionRequest.createInstance(request.getPath(), downsample,
+					xStart, yStart, Math.max(1, xEnd - xStart), Math.max(1, yEnd - yStart), request.getZ(), request.getT());
+		}
+		
+		/**
+		 * Copy an image into a full-sized tile raster (padding if necessary).
+		 */
+		private WritableRaster toTileRaster(final BufferedImage img) {
+			WritableRaster raster = template.createCompatibleWritableRaster(tileSize, tileSize);
+			Raster source = img.getRaster();
+			if (source.getWidth() > tileSize || source.getHeight() > tileSize)
+				source = source.createChild(source.getMinX(), source.getMinY(), Math.min(tileSize, source.getWidth()), Math.min(tileSize, source.getHeight()), 0, 0, null);
+			raster.setRect(source);
+			return raster;
+		}
+		
+		/**
+		 * Convert a tile raster to bytes (big endian, interleaved samples) &amp; compress.
+		 */
+		private EncodedTile encodeTile(final WritableRaster raster) throws IOException {
+			int w = raster.getWidth();
+			int h = raster.getHeight();
+			ByteBuffer buffer = ByteBuffer.allocate(w * h * nBands * bytesPerSample);
+			if (isFloat && bytesPerSample == 8) {
+				double[] row = new double[w * nBands];
+				for (int y = 0; y < h; y++) {
+					raster.getPixels(0, y, w, 1, row);
+					for (double v : row)
+						buffer.putDouble(v);
+				}
+			} else if (isFloat) {
+				float[] row = new float[w * nBands];
+				for (int y = 0; y < h; y++) {
+					raster.getPixels(0, y, w, 1, row);
+					for (float v : row)
+						buffer.putFloat(v);
+				}
+			} else {
+				int[] row = new int[w * nBands];
+				for (int y = 0; y < h; y++) {
+					raster.getPixels(0, y, w, 1, row);
+					switch (bytesPerSample) {
+					case 1:
+						for (int v : row)
+							buffer.put((byte)v);
+						break;
+					case 2:
+						for (int v : row)
+							buffer.putShort((short)v);
+						break;
+					default:
+						for (int v : row)
+							buffer.putInt(v);
+					}
+				}
+			}
+			byte[] bytes = buffer.array();
+			if (compression == Compression.DEFLATE) {
+				ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length / 2);
+				Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+				try (DeflaterOutputStream out = new DeflaterOutputStream(stream, deflater)) {
+					out.write(bytes);
+				} finally {
+					deflater.end();
+				}
+				bytes = stream.toByteArray();
+			}
+			return new EncodedTile(raster, bytes);
+		}
+		
+		/**
+		 * Write a tile, then add it to the strip used to build the next level.
+		 */
+		private void addTile(final int level, final int tx, final int ty, final EncodedTile tile) throws IOException {
+			int ind = ty * nTilesX[level] + tx;
+			tileOffsets[level][ind] = position;
+			tileByteCounts[level][ind] = tile.bytes.length;
+			writeBytes(ByteBuffer.wrap(tile.bytes));
+			
+			if (level == nLevels - 1) {
+				lastTile = tile.raster;
+				return;
+			}
+			
+			// Downsample into the strip for the next level
+			int next = level + 1;
+			if (strips[next] == null)
+				strips[next] = template.createCompatibleWritableRaster(nTilesX[next] * tileSize, tileSize);
+			int wValid = Math.min(tileSize, levelWidth[level] - tx * tileSize);
+			int hValid = Math.min(tileSize, levelHeight[level] - ty * tileSize);
+			downsampleInto(tile.raster, wValid, hValid, strips[next], tx * tileSize / 2, (ty % 2) * tileSize / 2);
+			
+			// When we have a complete row for the next level, encode & write it
+			boolean lastColumn = tx == nTilesX[level] - 1;
+			boolean rowComplete = lastColumn && (ty % 2 == 1 || ty == nTilesY[level] - 1);
+			if (rowComplete) {
+				WritableRaster strip = strips[next];
+				strips[next] = null;
+				int tyNext = ty / 2;
+				for (int txNext = 0; txNext < nTilesX[next]; txNext++) {
+					WritableRaster raster = strip.createWritableChild(txNext * tileSize, 0, tileSize, tileSize, 0, 0, null);
+					addTile(next, txNext, tyNext, encodeTile(raster));
+				}
+			}
+		}
+		
+		/**
+		 * Downsample a raster by 2, averaging only the valid pixels.
+		 */
+		private void downsampleInto(final Raster raster, final int wValid, final int hValid, final WritableRaster target, final int xOrigin, final int yOrigin) {
+			int w2 = (wValid + 1) / 2;
+			int h2 = (hValid + 1) / 2;
+			double[] row1 = new double[wValid * nBands];
+			double[] row2 = new double[wValid * nBands];
+			double[] output = new double[w2 * nBands];
+			double rounding = isFloat ? 0 : 0.5;
+			for (int y = 0; y < h2; y++) {
+				int y1 = y * 2;
+				int y2 = Math.min(y1 + 1, hValid - 1);
+				raster.getPixels(0, y1, wValid, 1, row1);
+				raster.getPixels(0, y2, wValid, 1, row2);
+				for (int x = 0; x < w2; x++) {
+					int x1 = x * 2;
+					int x2 = Math.min(x1 + 1, wValid - 1);
+					for (int b = 0; b < nBands; b++) {
+						double sum = row1[x1 * nBands + b] + row1[x2 * nBands + b] + row2[x1 * nBands + b] + row2[x2 * nBands + b];
+						output[x * nBands + b] = sum / 4.0 + rounding;
+					}
+				}
+				target.setPixels(xOrigin, yOrigin + y, w2, 1, output);
+			}
+		}
+		
+		
+		private void writeBytes(final ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+		}
+		
+		private void writeHeader() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(isBigTiff ? 16 : 8);
+			buffer.put((byte)'M').put((byte)'M');
+			if (isBigTiff) {
+				buffer.putShort((short)43).putShort((short)8).putShort((short)0).putLong(0L);
+			} else {
+				buffer.putShort((short)42).putInt(0);
+			}
+			buffer.flip();
+			position = 0;
+			writeBytes(buffer);
+		}
+		
+		private void writeIFDs() throws IOException {
+			if (!isBigTiff && position > 0xFFFFFFFFL)
+				throw new IOException("Image data is too large for TIFF - BigTIFF is required");
+			// Location of the offset to the next IFD - initially in the header
+			long nextIFDPointer = isBigTiff ? 8 : 4;
+			for (int level = 0; level < nLevels; level++) {
+				// IFDs must begin on a word boundary
+				if (position % 2 != 0)
+					writeBytes(ByteBuffer.wrap(new byte[1]));
+				long ifdOffset = position;
+				writePointer(nextIFDPointer, ifdOffset);
+				Map<Integer, long[]> values = new TreeMap<>();
+				Map<Integer, Integer> types = new TreeMap<>();
+				addIFDEntries(level, values, types);
+				nextIFDPointer = writeIFD(ifdOffset, values, types);
+			}
+		}
+		
+		private void writePointer(final long pointerPosition, final long value) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(isBigTiff ? 8 : 4);
+			if (isBigTiff)
+				buffer.putLong(value);
+			else
+				buffer.putInt((int)value);
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer, pointerPosition + buffer.position());
+		}
+		
+		private void addIFDEntries(final int level, final Map<Integer, long[]> values, final Map<Integer, Integer> types) {
+			SampleModel sampleModel = template.getSampleModel();
+			int sampleFormat = isFloat ? 3 : sampleModel.getDataType() == DataBuffer.TYPE_SHORT || (sampleModel.getDataType() == DataBuffer.TYPE_INT && bytesPerSample == 4) ? 2 : 1;
+			boolean isRGB = nBands >= 3 && bytesPerSample == 1 && colorModel.getNumColorComponents() == 3;
+			long[] bitsPerSample = new long[nBands];
+			long[] sampleFormats = new long[nBands];
+			for (int b = 0; b < nBands; b++) {
+				bitsPerSample[b] = bytesPerSample * 8;
+				sampleFormats[b] = sampleFormat;
+			}
+			
+			put(values, types, TAG_NEW_SUBFILE_TYPE, TYPE_LONG, level == 0 ? 0 : 1);
+			put(values, types, TAG_IMAGE_WIDTH, TYPE_LONG, levelWidth[level]);
+			put(values, types, TAG_IMAGE_LENGTH, TYPE_LONG, levelHeight[level]);
+			put(values, types, TAG_BITS_PER_SAMPLE, TYPE_SHORT, bitsPerSample);
+			put(values, types, TAG_COMPRESSION, TYPE_SHORT, compression.tiffValue);
+			put(values, types, TAG_PHOTOMETRIC, TYPE_SHORT, isRGB ? 2 : 1);
+			put(values, types, TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, nBands);
+			put(values, types, TAG_PLANAR_CONFIGURATION, TYPE_SHORT, 1);
+			int nExtra = nBands - (isRGB ? 3 : 1);
+			if (nExtra > 0) {
+				long[] extra = new long[nExtra];
+				// Alpha is stored unassociated with the color channels
+				if (isRGB && colorModel.hasAlpha())
+					extra[0] = colorModel.isAlphaPremultiplied() ? 1 : 2;
+				put(values, types, TAG_EXTRA_SAMPLES, TYPE_SHORT, extra);
+			}
+			put(values, types, TAG_SAMPLE_FORMAT, TYPE_SHORT, sampleFormats);
+			if (!Double.isNaN(pixelWidthMicrons) && !Double.isNaN(pixelHeightMicrons)) {
+				// Pixels per centimeter, as a rational
+				double scale = Math.pow(2, level);
+				put(values, types, TAG_X_RESOLUTION, TYPE_RATIONAL, Math.round(10000.0 / (pixelWidthMicrons * scale) * 1000), 1000);
+				put(values, types, TAG_Y_RESOLUTION, TYPE_RATIONAL, Math.round(10000.0 / (pixelHeightMicrons * scale) * 1000), 1000);
+				put(values, types, TAG_RESOLUTION_UNIT, TYPE_SHORT, 3);
+			}
+			if (level == 0)
+				putAscii(values, types, TAG_SOFTWARE, "QuPath");
+			put(values, types, TAG_TILE_WIDTH, TYPE_LONG, tileSize);
+			put(values, types, TAG_TILE_LENGTH, TYPE_LONG, tileSize);
+			put(values, types, TAG_TILE_OFFSETS, isBigTiff ? TYPE_LONG8 : TYPE_LONG, tileOffsets[level]);
+			put(values, types, TAG_TILE_BYTE_COUNTS, isBigTiff ? TYPE_LONG8 : TYPE_LONG, tileByteCounts[level]);
+		}
+		
+		private void put(final Map<Integer, long[]> values, final Map<Integer, Integer> types, final int tag, final int type, final long... value) {
+			values.put(tag, value);
+			types.put(tag, type);
+		}
+		
+		private void putAscii(final Map<Integer, long[]> values, final Map<Integer, Integer> types, final int tag, final String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+			long[] chars = new long[bytes.length + 1];
+			for (int i = 0; i < bytes.length; i++)
+				chars[i] = bytes[i];
+			put(values, types, tag, TYPE_ASCII, chars);
+		}
+		
+		/**
+		 * Write an IFD, with any values that do not fit inline immediately afterwards.
+		 * 
+		 * @return the position of the pointer to the next IFD
+		 */
+		private long writeIFD(final long ifdOffset, final Map<Integer, long[]> values, final Map<Integer, Integer> types) throws IOException {
+			int nEntries = values.size();
+			int entryBytes = isBigTiff ? 20 : 12;
+			int inlineBytes = isBigTiff ? 8 : 4;
+			long ifdBytes = isBigTiff ? 8 + nEntries * entryBytes + 8 : 2 + nEntries * entryBytes + 4;
+			
+			// Determine how much extra space is needed
+			long extraBytes = 0;
+			for (Map.Entry<Integer, long[]> entry : values.entrySet()) {
+				long nBytes = getValueBytes(types.get(entry.getKey()), entry.getValue().length);
+				if (nBytes > inlineBytes)
+					extraBytes += nBytes + (nBytes % 2);
+			}
+			if (ifdBytes + extraBytes > Integer.MAX_VALUE)
+				throw new IOException("TIFF directory is too large (" + (ifdBytes + extraBytes) + " bytes)");
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int)(ifdBytes + extraBytes));
+			if (isBigTiff)
+				buffer.putLong(nEntries);
+			else
+				buffer.putShort((short)nEntries);
+			long extraOffset = ifdOffset + ifdBytes;
+			int extraPosition = (int)ifdBytes;
+			for (Map.Entry<Integer, long[]> entry : values.entrySet()) {
+				int tag = entry.getKey();
+				int type = types.get(tag);
+				long[] v = entry.getValue();
+				long count = type == TYPE_RATIONAL ? v.length / 2 : v.length;
+				buffer.putShort((short)tag);
+				buffer.putShort((short)type);
+				if (isBigTiff)
+					buffer.putLong(count);
+				else
+					buffer.putInt((int)count);
+				long nBytes = getValueBytes(type, v.length);
+				if (nBytes <= inlineBytes) {
+					int start = buffer.position();
+					putValues(buffer, type, v);
+					while (buffer.position() < start + inlineBytes)
+						buffer.put((byte)0);
+				} else {
+					if (isBigTiff)
+						buffer.putLong(extraOffset);
+					else
+						buffer.putInt((int)extraOffset);
+					int entryEnd = buffer.position();
+					buffer.position(extraPosition);
+					putValues(buffer, type, v);
+					if (nBytes % 2 != 0)
+						buffer.put((byte)0);
+					extraPosition = buffer.position();
+					extraOffset = ifdOffset + extraPosition;
+					buffer.position(entryEnd);
+				}
+			}
+			long nextPointer = ifdOffset + buffer.position();
+			buffer.position(0);
+			writeBytes(buffer);
+			return nextPointer;
+		}
+		
+		private long getValueBytes(final int type, final int nValues) {
+			switch (type) {
+			case TYPE_ASCII:
+				return nValues;
+			case TYPE_SHORT:
+				return nValues * 2L;
+			case TYPE_LONG:
+			case TYPE_RATIONAL:
+				return nValues * 4L;
+			default:
+				return nValues * 8L;
+			}
+		}
+		
+		private void putValues(final ByteBuffer buffer, final int type, final long[] values) {
+			for (long v : values) {
+				switch (type) {
+				case TYPE_ASCII:
+					buffer.put((byte)v);
+					break;
+				case TYPE_SHORT:
+					buffer.putShort((short)v);
+					break;
+				case TYPE_LONG:
+				case TYPE_RATIONAL:
+					buffer.putInt((int)v);
+					break;
+				default:
+					buffer.putLong(v);
+				}
+			}
+		}
+		
+	}
+
+}
@@ -23,11 +23,15 @@
 
 package qupath.lib.plugins;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import qupath.lib.geom.ImmutableDimension;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ServerTools;
@@ -48,6 +52,42 @@ import qupath.lib.roi.interfaces.ROI;
  * @param <T>
  */
 public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetectionPlugin<T> {
+	
+	final private static Logger logger = LoggerFactory.getLogger(AbstractTileableDetectionPlugin.class);
+	
+	private static boolean spillToDisk = false;
+	
+	/**
+	 * Stores created for the current run, which should be closed once all tasks are complete
+	 */
+	private transient List<DetectionSpillStore> spillStores = new ArrayList<>();
+	
+	/**
+	 * Request that detections are temporarily written to disk as each tile is completed, 
+	 * and only added back to the hierarchy once all tiles for the parent object are complete.
+	 * 
+	 * This reduces the memory required while detection is running on large regions, at the cost of some extra processing.
+	 * It does not reduce the memory needed to hold the final detections, since these are all restored once complete.
+	 * If detection is cancelled then the detections for completed tiles will be discarded.
+	 * 
+	 * @param spill
+	 * 
+	 * @see DetectionSpillStore
+	 */
+	public synchronized static void setSpillToDisk(final boolean spill) {
+		spillToDisk = spill;
+	}
+	
+	/**
+	 * Returns true if detections should be temporarily written to disk during tiled detection.
+	 * 
+	 * @return
+	 * 
+	 * @see #setSpillToDisk(boolean)
+	 */
+	public synchronized static boolean getSpillToDisk() {
+		return spillToDisk;
+	}
 
 	/**
 	 * Get the preferred pixel size that would be used for the specified ImageData and ParameterList.  
@@ -75,19 +115,52 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 	 * 
 	 * If the overlap is &gt; 0, then the overlap should also be &gt; the expected largest size of a detected object -
 	 * otherwise objects may be lost of trimmed when overlaps are resolved.  This is because (currently) 
-	 * the resolution of overlapping detections involves taking the largest one, rather than (for example) merging them.
+	 * the resolution of overlapping detections involves discarding objects that were truncated by the edge of their tile 
+	 * (or otherwise the smaller object), rather than (for example) merging them.
 	 * 
-	 * (Merging may be permitted in later versions, but only where measurements are not made by the plugin -
-	 * since merged objects may require different measurements, e.g. for area or mean than can be easily computed
-	 * in a general way from the individual objects being merged).
+	 * Merging is only performed for plugins that provide a {@link DetectionMerger} - since merged objects may require 
+	 * different measurements, e.g. for area or mean than can be easily computed in a general way from the individual 
+	 * objects being merged.  In that case, the overlap can be smaller (or 0), since objects cut by a tile boundary 
+	 * are merged rather than discarded.
 	 * 
 	 * @param imageData
 	 * @param params
 	 * @return The overlap size in pixels, or 0 if overlapped tiles are not supported.
+	 * 
+	 * @see #getDetectionMerger(ImageData, ParameterList)
 	 */
 	protected abstract int getTileOverlap(final ImageData<T> imageData, final ParameterList params);
+	
+	/**
+	 * Get a merger for detections that have been cut in two by the boundary between tiles, or null if detections 
+	 * should never be merged.
+	 * <p>
+	 * The default implementation returns null.  Plugins that can recompute their measurements for merged detections 
+	 * may override this, which allows them to use less overlap between tiles.
+	 * 
+	 * @param imageData
+	 * @param params
+	 * @return
+	 */
+	protected DetectionMerger getDetectionMerger(final ImageData<T> imageData, final ParameterList params) {
+		return null;
+	}
 
 	
+	/**
+	 * Close any temporary detection stores, deleting their files.
+	 * Stores are normally closed when all their tiles are complete, but this ensures they are also closed if detection 
+	 * was cancelled or failed.
+	 */
+	@Override
+	protected void postprocess(final PluginRunner<T> pluginRunner) {
+		super.postprocess(pluginRunner);
+		for (DetectionSpillStore store : spillStores)
+			store.close();
+		spillStores.clear();
+	}
+	
+	
 	/**
 	 * Intercepts the 'standard' addRunnableTasks to (if necessary) insert ParallelTileObjects along the way,
 	 * thereby breaking an excessively-large parentObject into more manageable pieces.
@@ -128,10 +201,25 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 			return;
 		}
 		
+		DetectionSpillStore spillStore = null;
+		if (getSpillToDisk()) {
+			try {
+				spillStore = new DetectionSpillStore();
+				spillStores.add(spillStore);
+			} catch (IOException e) {
+				logger.warn("Unable to create temporary store for detections - these will be kept in memory ({})", e.getLocalizedMessage());
+			}
+		}
+		
+		// Downsample used by the detector, which determines how close objects must be to a tile edge to be considered truncated
+		double downsampleDetection = ServerTools.getDownsampleFactor(imageData.getServer(), getPreferredPixelSizeMicrons(imageData, params), false);
+		
+		DetectionMerger merger = getDetectionMerger(imageData, params);
+		
 		List<ParallelTileObject> tileList = new ArrayList<>();
 		AtomicInteger countdown = new AtomicInteger(pathROIs.size());
 		for (ROI pathROI : pathROIs) {
-			ParallelTileObject tile = new ParallelTileObject(pathROI, imageData.getHierarchy(), countdown);
+			ParallelTileObject tile = new ParallelTileObject(pathROI, imageData.getHierarchy(), countdown, downsampleDetection, spillStore, merger);
 			parentObject.addPathObject(tile);
 			for (ParallelTileObject tileTemp : tileList) {
 				if (tileTemp.suggestNeighbor(tile))
@@ -0,0 +1,52 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.plugins;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * Merges detections that have been cut in two by the boundary between tiles during tiled detection.
+ * <p>
+ * Merged detections generally need different measurements from the detections being merged (e.g. for area or mean intensity), 
+ * which can't be computed in a general way.  A merger is therefore only used if a plugin provides one, 
+ * in which case it is responsible for recomputing any measurements.
+ * 
+ * @author Pete Bankhead
+ *
+ * @see AbstractTileableDetectionPlugin#getDetectionMerger(qupath.lib.images.ImageData, qupath.lib.plugins.parameters.ParameterList)
+ */
+public interface DetectionMerger {
+	
+	/**
+	 * Merge two detections from neighboring tiles, which have both been truncated by the boundary between the tiles 
+	 * and line up along it.
+	 * 
+	 * @param pathObject1
+	 * @param pathObject2
+	 * @return the merged detection, or null if the detections should not be merged (in which case overlaps are resolved as usual)
+	 */
+	public PathObject merge(PathObject pathObject1, PathObject pathObject2);
+
+}
@@ -119,6 +119,9 @@ public class DetectionPluginTools {
 			if (checkROI()) {
 				pathObjectsDetected = detector.runDetection(imageData, params, pathROI);
 				result = detector.getLastResultsDescription();
+				// Record objects close to neighboring tiles now, to reduce the work needed to resolve overlaps later
+				if (pathObjectsDetected != null && parentObject instanceof ParallelTileObject)
+					((ParallelTileObject)parentObject).recordSeamObjects(pathObjectsDetected);
 				long endTime = System.currentTimeMillis();
 				if (result != null)
 					logger.info(result + String.format(" (processing time: %.2f seconds)", (endTime-startTime)/1000.));
@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * Temporary on-disk store for objects, used to limit memory use while detection is running on a large image.
+ * <p>
+ * Objects are written in a background thread, using the same serialized form as within .qpdata files 
+ * (with fast compression).  Each call to {@link #spill(Collection)} immediately returns a lightweight placeholder 
+ * that can be used to read the objects back later, in batches.
+ * <p>
+ * This reduces the memory required while detection is in progress; however, all the objects are expected to be 
+ * read back into memory once detection is complete, so the memory required at that point is unchanged.
+ * <p>
+ * Files are deleted once they have been read, or when the store is closed.  The store should always be closed 
+ * when it is no longer needed (including if detection is cancelled), since no files are deleted automatically on exit.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class DetectionSpillStore implements Closeable {
+	
+	final private static Logger logger = LoggerFactory.getLogger(DetectionSpillStore.class);
+	
+	/**
+	 * Maximum number of objects to pass to a consumer at a time, when reading objects back.
+	 */
+	private static final int BATCH_SIZE = 10000;
+	
+	private final File dir;
+	private final ExecutorService pool;
+	private volatile boolean isClosed = false;
+	
+	/**
+	 * Create a new store, within a new temporary directory.
+	 * 
+	 * @throws IOException if the directory could not be created
+	 */
+	public DetectionSpillStore() throws IOException {
+		dir = Files.createTempDirectory("qupath-detections").toFile();
+		pool = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "qupath-detection-store");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Placeholder for objects that have been (or are being) written to disk.
+	 */
+	public static class SpilledObjects {
+		
+		private final int size;
+		private Future<File> future;
+		
+		private SpilledObjects(final int size) {
+			this.size = size;
+		}
+		
+		/**
+		 * Number of objects stored.
+		 * 
+		 * @return
+		 */
+		public int size() {
+			return size;
+		}
+		
+	}
+	
+	/**
+	 * Write objects to disk in the background.
+	 * <p>
+	 * The objects should not be modified afterwards, and references to them should be dropped 
+	 * so that the memory can be reclaimed once they have been written.
+	 * 
+	 * @param pathObjects
+	 * @return a placeholder that can be used to read the objects back with {@link #read(SpilledObjects, Consumer)}
+	 */
+	public SpilledObjects spill(final Collection<? extends PathObject> pathObjects) {
+		List<PathObject> list = new ArrayList<>(pathObjects);
+		SpilledObjects spilled = new SpilledObjects(list.size());
+		spilled.future = pool.submit(() -> write(list));
+		return spilled;
+	}
+	
+	private File write(final List<PathObject> pathObjects) throws IOException {
+		File file = File.createTempFile("tile", ".bin", dir);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(file), deflater)))) {
+			out.writeInt(pathObjects.size());
+			for (PathObject pathObject : pathObjects)
+				out.writeObject(pathObject);
+		} finally {
+			deflater.end();
+		}
+		logger.trace("Wrote {} objects to {} ({} bytes)", pathObjects.size(), file, file.length());
+		return file;
+	}
+	
+	/**
+	 * Read objects back from the store, passing them to a consumer in batches.
+	 * <p>
+	 * This waits for the objects to be written if necessary.  Afterwards, the corresponding file is deleted and 
+	 * the objects cannot be read again.
+	 * 
+	 * @param spilled
+	 * @param consumer
+	 * @throws IOException if the objects could not be written or read, or the store has already been closed
+	 * @throws InterruptedException if interrupted while waiting for the objects to be written
+	 */
+	public void read(final SpilledObjects spilled, final Consumer<List<PathObject>> consumer) throws IOException, InterruptedException {
+		if (isClosed)
+			throw new IOException("Detection store has already been closed");
+		File file;
+		try {
+			file = spilled.future.get();
+		} catch (CancellationException e) {
+			throw new IOException("Writing objects was cancelled", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))))) {
+			int n = in.readInt();
+			List<PathObject> batch = new ArrayList<>(Math.min(n, BATCH_SIZE));
+			for (int i = 0; i < n; i++) {
+				batch.add((PathObject)in.readObject());
+				if (batch.size() == BATCH_SIZE) {
+					consumer.accept(batch);
+					batch = new ArrayList<>(Math.min(n - i - 1, BATCH_SIZE));
+				}
+			}
+			if (!batch.isEmpty())
+				consumer.accept(batch);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Returns true if {@link #close()} has been called.
+	 * 
+	 * @return
+	 */
+	public boolean isClosed() {
+		return isClosed;
+	}
+	
+	/**
+	 * Stop writing objects, and delete any that have not been read.
+	 * Calling this more than once has no further effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (isClosed)
+			return;
+		isClosed = true;
+		pool.shutdownNow();
+		try {
+			// Wait for any write in progress to stop, so that its file can be deleted
+			if (!pool.awaitTermination(10, TimeUnit.SECONDS))
+				logger.warn("Timed out waiting for detection store to stop writing");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		if (!dir.delete())
+			logger.warn("Unable to delete temporary detection store {}", dir);
+	}
+
+}
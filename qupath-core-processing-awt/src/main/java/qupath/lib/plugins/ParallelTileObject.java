@@ -25,7 +25,10 @@ package qupath.lib.plugins;
 
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -44,7 +47,9 @@ import qupath.lib.objects.TemporaryObject;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.roi.AWTAreaROI;
 import qupath.lib.roi.PathROIToolsAwt;
+import qupath.lib.roi.PolygonClipper;
 import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.PathShape;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
@@ -52,7 +57,20 @@ import qupath.lib.roi.interfaces.ROI;
  * detection.
  * 
  * ParallelTileObjects maintain knowledge of adjacent tiles, and are thereby able to resolve overlaps
- * after detection is complete (here, based on keeping the object with the larger area).
+ * after detection is complete.  Where detections from neighboring tiles overlap, one that was truncated 
+ * by the edge of its tile is removed in preference to one that was not; otherwise the object with the larger area is kept.
+ * 
+ * The detections close to each neighbor are recorded as soon as detection finishes (in the processing thread), 
+ * so that resolving overlaps when a tile is complete only requires comparing these against one another.
+ * 
+ * By default, overlapping detections are never merged, since their measurements cannot be recomputed here.  Tiles therefore 
+ * need to overlap by at least the size of the largest object, so that every object can be detected 
+ * completely within at least one tile.
+ * 
+ * If a {@link DetectionMerger} is provided, detections from neighboring tiles that have both been cut by the boundary 
+ * between the tiles are merged instead - and tiles that only touch are also treated as neighbors, so that 
+ * they do not need to overlap at all.  Merged detections are not compared again with other neighbors, so an object 
+ * spanning more than two tiles may still be split.
  * 
  * @author Pete Bankhead
  *
@@ -60,36 +78,101 @@ import qupath.lib.roi.interfaces.ROI;
 public class ParallelTileObject extends PathTileObject implements TemporaryObject {
 
 	final private static Logger logger = LoggerFactory.getLogger(ParallelTileObject.class);
+	
+	/**
+	 * Maximum distance (in pixels, at the resolution used for detection) between an object's bounding box and 
+	 * the edge of its tile for the object to be considered truncated by the tile.
+	 */
+	private static final double EDGE_TOLERANCE = 2.0;
 
 	AtomicInteger countdown;
 	boolean isProcessing = false;
 	boolean isComplete = false;
 	Rectangle2D bounds;
+	double downsample = 1.0;
 	PathObjectHierarchy hierarchy;
 	Map<ParallelTileObject, Rectangle2D> map = new HashMap<>();
+	volatile Map<ParallelTileObject, SeamObjects> seams = null;
+	DetectionSpillStore spillStore;
+	DetectionSpillStore.SpilledObjects spilled = null;
+	DetectionMerger merger;
 
 	public ParallelTileObject(final ROI pathROI, final PathObjectHierarchy hierarchy, final AtomicInteger countdown) {
+		this(pathROI, hierarchy, countdown, 1.0, null);
+	}
+	
+	/**
+	 * Create a tile that may write its detections to disk once all its overlaps have been resolved, 
+	 * restoring them only when all the tiles sharing the same countdown are complete.
+	 * 
+	 * @param pathROI
+	 * @param hierarchy
+	 * @param countdown
+	 * @param downsample downsample factor at which detection is performed, used to determine which objects are truncated by the tile
+	 * @param spillStore store for detections, or null if detections should be kept in memory
+	 */
+	public ParallelTileObject(final ROI pathROI, final PathObjectHierarchy hierarchy, final AtomicInteger countdown, final double downsample, final DetectionSpillStore spillStore) {
+		this(pathROI, hierarchy, countdown, downsample, spillStore, null);
+	}
+	
+	/**
+	 * Create a tile that may write its detections to disk once all its overlaps have been resolved, 
+	 * restoring them only when all the tiles sharing the same countdown are complete, 
+	 * and which may merge detections that were split between it and a neighboring tile.
+	 * 
+	 * @param pathROI
+	 * @param hierarchy
+	 * @param countdown
+	 * @param downsample downsample factor at which detection is performed, used to determine which objects are truncated by the tile
+	 * @param spillStore store for detections, or null if detections should be kept in memory
+	 * @param merger merger for detections cut by the boundary with a neighboring tile, or null if detections should not be merged
+	 */
+	public ParallelTileObject(final ROI pathROI, final PathObjectHierarchy hierarchy, final AtomicInteger countdown, final double downsample, final DetectionSpillStore spillStore, final DetectionMerger merger) {
 		super(pathROI);
 		this.bounds = getBounds2D(pathROI);
+		if (downsample > 0)
+			this.downsample = downsample;
 		this.hierarchy = hierarchy;
 		this.countdown = countdown;
+		this.spillStore = spillStore;
+		this.merger = merger;
 		setColorRGB(ColorTools.makeRGB(128, 128, 128));
 	}
 
 
 	/**
-	 * Register a neighboring tile, if it intersects with the bounds of this one
+	 * Register a neighboring tile, if it intersects with the bounds of this one.
+	 * 
+	 * If detections may be merged, tiles that only touch are also registered - since detections may then be cut in two 
+	 * along the boundary between them.
+	 * 
 	 * @param pto
 	 */
 	public boolean suggestNeighbor(final ParallelTileObject pto) {
-		if (bounds.intersects(pto.bounds)) {
+		Rectangle2D boundsThis = bounds;
+		Rectangle2D boundsThat = pto.bounds;
+		if (merger != null) {
+			boundsThis = expandBounds(bounds, getEdgeTolerance());
+			boundsThat = expandBounds(pto.bounds, pto.getEdgeTolerance());
+		}
+		if (boundsThis.intersects(boundsThat)) {
 			Rectangle2D intersection = new Rectangle2D.Double();
-			Rectangle2D.intersect(bounds, pto.bounds, intersection);
+			Rectangle2D.intersect(boundsThis, boundsThat, intersection);
 			map.put(pto, intersection);
 			return true;
 		}
 		return false;
 	}
+	
+	/**
+	 * Get the maximum distance between an object's bounding box and the edge of this tile for the object 
+	 * to be considered truncated by the tile.
+	 * <p>
+	 * Objects are detected at a lower resolution, so pixels at the tile edge are correspondingly larger.
+	 */
+	private double getEdgeTolerance() {
+		return EDGE_TOLERANCE * downsample;
+	}
 
 	/**
 	 * Notify the object if it is currently being processed.
@@ -123,6 +206,33 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 	public boolean isComplete() {
 		return isComplete;
 	}
+	
+	/**
+	 * Record the detected objects that intersect the region shared with each neighbor.
+	 * 
+	 * This is called from the thread performing the detection, before the objects are added to the tile, 
+	 * to minimize the work required later when overlaps are resolved.
+	 * 
+	 * @param pathObjects
+	 */
+	void recordSeamObjects(final Collection<? extends PathObject> pathObjects) {
+		Map<ParallelTileObject, SeamObjects> seamsTemp = new HashMap<>();
+		for (Entry<ParallelTileObject, Rectangle2D> entry : map.entrySet())
+			seamsTemp.put(entry.getKey(), new SeamObjects(this, entry.getKey(), entry.getValue(), pathObjects));
+		seams = seamsTemp;
+	}
+	
+	/**
+	 * Get the objects recorded for the region shared with a neighbor, or compute them from the current child objects 
+	 * if they have not been recorded.
+	 */
+	private SeamObjects getSeamObjects(final ParallelTileObject pto) {
+		Map<ParallelTileObject, SeamObjects> seamsTemp = seams;
+		SeamObjects seam = seamsTemp == null ? null : seamsTemp.get(pto);
+		if (seam == null)
+			seam = new SeamObjects(this, pto, map.get(pto), getChildObjects());
+		return seam;
+	}
 
 	/**
 	 * Notify the tile that its processing is done.
@@ -136,19 +246,10 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 		isProcessing = false;
 		setColorRGB(ColorTools.makeRGB(255, 0, 0));
 
-		//			// If we don't have any children, notify that the test is complete
-		//			if (!hasChildren()) {
-		//				for (ParallelTileObject pto : map.keySet())
-		//					pto.notifyTestComplete(this);
-		//				map.clear();
-		//				checkAllTestsComplete();
-		//				return;
-		//			}
-
 		long startTime = System.currentTimeMillis();
-		int nRemoved = 0;
+		int nResolved = 0;
 
-		// If we do have children, loop through & perform tests
+		// Resolve overlaps with each neighbor that has already been processed
 		Iterator<Entry<ParallelTileObject, Rectangle2D>> iterMap = map.entrySet().iterator();
 		while (iterMap.hasNext()) {
 			Entry<ParallelTileObject, Rectangle2D> entry = iterMap.next();
@@ -158,57 +259,11 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 			if (!pto.isComplete())
 				continue;
 
-			// Compare this object's lists with that object's list
-			List<PathObject> listThis = getObjectsForRegion(entry.getValue());
-			List<PathObject> listThat = pto.getObjectsForRegion(entry.getValue());
-
-			// Only need to compare potential overlaps if both lists are non-empty
-			if (!listThis.isEmpty() && !listThat.isEmpty()) {
-
-				Iterator<PathObject> iterThis = listThis.iterator();
-				while (iterThis.hasNext()) {
-					PathObject pathObjectNew = iterThis.next();
-					PathArea pathAreaNew = (PathArea)pathObjectNew.getROI();
-					Area areaNew = PathROIToolsAwt.getArea(pathAreaNew);
-
-					Iterator<PathObject> iterThat = listThat.iterator();
-					while (iterThat.hasNext()) {
-						PathObject pathObjectOld = iterThat.next();
-						PathArea pathAreaOld = (PathArea)pathObjectOld.getROI();
-						// Check if the existing area intersects the bounds
-						if (!areaNew.intersects(getBounds2D(pathAreaOld)))
-							continue;
-						// If the bounds are intersected, check for an actual intersection between the areas
-						Area temp = PathROIToolsAwt.getArea(pathAreaOld);
-						temp.intersect(areaNew);
-						if (temp.isEmpty())
-							continue;
-						// We have an intersection, but it may be minimal... check this
-						double intersectionArea = new AWTAreaROI(temp).getArea();
-						double threshold = 0.1;
-						// We do have an intersection - keep the object with the larger area if the intersection is a 'reasonable' proportion of the smaller area
-						// Here, reasonable is defined as 10%
-						if (pathAreaNew.getArea() > pathAreaOld.getArea()) {
-							if (intersectionArea < pathAreaOld.getArea() * threshold)
-								continue;
-							pto.removePathObject(pathObjectOld);
-							//								iterThat.remove();
-							//								logger.info("Removing from old");
-							nRemoved++;
-						}
-						else {
-							if (intersectionArea < pathAreaNew.getArea() * threshold)
-								continue;
-							removePathObject(pathObjectNew);
-							//								iterThis.remove();
-							//								logger.info("Removing from new");
-							nRemoved++;
-							break;
-						}
-					}
-				}
-
-			}
+			nResolved += getSeamObjects(pto).resolveOverlaps(pto.getSeamObjects(this));
+			if (seams != null)
+				seams.remove(pto);
+			if (pto.seams != null)
+				pto.seams.remove(this);
 
 			// Remove the neighbor from the map
 			iterMap.remove();
@@ -220,10 +275,223 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 		checkAllTestsComplete();
 
 		long endTime = System.currentTimeMillis();
-		logger.debug(String.format("Resolved %d overlaps: %.2f seconds", nRemoved, (endTime - startTime) / 1000.));
-		//			logger.info(String.format("Resolved %d possible overlaps with %d iterations (tested %d of %d): %.2f seconds", nOverlaps, counter, detectedCounter-skipCounter, detectedCounter, (endTime2 - startTime2) / 1000.));
+		logger.debug(String.format("Resolved %d overlaps: %.2f seconds", nResolved, (endTime - startTime) / 1000.));
 
 	}
+	
+	
+	/**
+	 * Compact representation of the objects within a tile that intersect the region shared with one neighbor.
+	 * <p>
+	 * Objects are sorted by their bounding boxes along the longer axis of the shared region, 
+	 * so that potentially-overlapping pairs can be found with a single sweep.
+	 */
+	static class SeamObjects {
+		
+		private final ParallelTileObject tile;
+		private final boolean sweepX;
+		private final PathObject[] objects;
+		/**
+		 * Bounding boxes, stored as (start, end) along the sweep axis followed by (start, end) along the other axis
+		 */
+		private final double[] bounds;
+		private final boolean[] truncated;
+		/**
+		 * Position of the tile edge by which each object was cut along the other axis, or NaN if the object was not cut 
+		 * by an edge crossing the sweep axis
+		 */
+		private final double[] cut;
+		private final double tolerance;
+		private final double maxLength;
+		
+		SeamObjects(final ParallelTileObject tile, final ParallelTileObject neighbor, final Rectangle2D region, final Collection<? extends PathObject> pathObjects) {
+			this.tile = tile;
+			this.sweepX = region.getWidth() >= region.getHeight();
+			
+			List<PathObject> list = new ArrayList<>();
+			for (PathObject pathObject : pathObjects) {
+				ROI roi = pathObject.getROI();
+				if (roi instanceof PathArea && region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight()))
+					list.add(pathObject);
+			}
+			if (sweepX)
+				list.sort((p1, p2) -> Double.compare(p1.getROI().getBoundsX(), p2.getROI().getBoundsX()));
+			else
+				list.sort((p1, p2) -> Double.compare(p1.getROI().getBoundsY(), p2.getROI().getBoundsY()));
+			
+			// The sides of this tile across which the neighbor extends
+			Rectangle2D tileBounds = tile.bounds;
+			Rectangle2D neighborBounds = neighbor.bounds;
+			boolean left = neighborBounds.getMinX() < tileBounds.getMinX();
+			boolean top = neighborBounds.getMinY() < tileBounds.getMinY();
+			boolean right = neighborBounds.getMaxX() > tileBounds.getMaxX();
+			boolean bottom = neighborBounds.getMaxY() > tileBounds.getMaxY();
+			
+			double tolerance = tile.getEdgeTolerance();
+			int n = list.size();
+			objects = list.toArray(new PathObject[n]);
+			bounds = new double[n * 4];
+			truncated = new boolean[n];
+			cut = new double[n];
+			double maxLength = 0;
+			for (int i = 0; i < n; i++) {
+				ROI roi = objects[i].getROI();
+				double x1 = roi.getBoundsX();
+				double y1 = roi.getBoundsY();
+				double x2 = x1 + roi.getBoundsWidth();
+				double y2 = y1 + roi.getBoundsHeight();
+				bounds[i*4] = sweepX ? x1 : y1;
+				bounds[i*4+1] = sweepX ? x2 : y2;
+				bounds[i*4+2] = sweepX ? y1 : x1;
+				bounds[i*4+3] = sweepX ? y2 : x2;
+				maxLength = Math.max(maxLength, bounds[i*4+1] - bounds[i*4]);
+				truncated[i] = (left && x1 - tileBounds.getMinX() <= tolerance) ||
+						(top && y1 - tileBounds.getMinY() <= tolerance) ||
+						(right && tileBounds.getMaxX() - x2 <= tolerance) ||
+						(bottom && tileBounds.getMaxY() - y2 <= tolerance);
+				if (sweepX)
+					cut[i] = top && y1 - tileBounds.getMinY() <= tolerance ? tileBounds.getMinY() : 
+						bottom && tileBounds.getMaxY() - y2 <= tolerance ? tileBounds.getMaxY() : Double.NaN;
+				else
+					cut[i] = left && x1 - tileBounds.getMinX() <= tolerance ? tileBounds.getMinX() : 
+						right && tileBounds.getMaxX() - x2 <= tolerance ? tileBounds.getMaxX() : Double.NaN;
+			}
+			this.tolerance = tolerance;
+			this.maxLength = maxLength;
+		}
+		
+		int size() {
+			return objects.length;
+		}
+		
+		/**
+		 * Find the first object that might end at or after the specified position along the sweep axis.
+		 */
+		private int firstCandidate(final double position) {
+			int low = 0;
+			int high = objects.length;
+			double start = position - maxLength;
+			while (low < high) {
+				int ind = (low + high) >>> 1;
+				if (bounds[ind*4] < start)
+					low = ind + 1;
+				else
+					high = ind;
+			}
+			return low;
+		}
+		
+		/**
+		 * Returns true if an object in this tile and an object in the neighboring tile have both been cut 
+		 * by the boundary between the tiles, and line up along it - so may be two parts of the same object.
+		 */
+		private boolean isSplit(final int i, final SeamObjects other, final int j) {
+			double cutThis = cut[i];
+			double cutThat = other.cut[j];
+			if (Double.isNaN(cutThis) || Double.isNaN(cutThat))
+				return false;
+			// Each object must extend to the edge by which the other was cut
+			if (cutThis < other.bounds[j*4+2] - tolerance || cutThis > other.bounds[j*4+3] + tolerance ||
+					cutThat < bounds[i*4+2] - tolerance || cutThat > bounds[i*4+3] + tolerance)
+				return false;
+			// The objects should overlap along the boundary by at least half the length of the shorter one
+			double lengthThis = bounds[i*4+1] - bounds[i*4];
+			double lengthThat = other.bounds[j*4+1] - other.bounds[j*4];
+			double overlap = Math.min(bounds[i*4+1], other.bounds[j*4+1]) - Math.max(bounds[i*4], other.bounds[j*4]);
+			return overlap >= Math.min(lengthThis, lengthThat) * 0.5;
+		}
+		
+		/**
+		 * Resolve overlaps between objects from this tile and the neighboring tile, either by merging objects 
+		 * that were split between the tiles (if the tile has a merger) or by removing one of them.
+		 * Both must have been created for the same shared region, and therefore use the same sweep axis.
+		 * <p>
+		 * Merged objects are added to this tile.
+		 * 
+		 * @param other the objects recorded by the neighbor, for the region shared with this tile
+		 * @return the number of overlaps resolved
+		 */
+		int resolveOverlaps(final SeamObjects other) {
+			if (size() == 0 || other.size() == 0)
+				return 0;
+			// Objects split by a boundary between tiles that only touch need not overlap at all
+			DetectionMerger merger = tile.merger;
+			double gap = merger == null ? 0 : tolerance;
+			int nResolved = 0;
+			for (int i = 0; i < objects.length; i++) {
+				PathObject pathObjectThis = objects[i];
+				double start = bounds[i*4];
+				double end = bounds[i*4+1];
+				for (int j = other.firstCandidate(start - gap); j < other.objects.length && other.bounds[j*4] <= end + gap; j++) {
+					// Skip objects that have already been removed
+					if (pathObjectThis.getParent() != tile)
+						break;
+					PathObject pathObjectThat = other.objects[j];
+					if (pathObjectThat.getParent() != other.tile)
+						continue;
+					// Check if the bounding boxes intersect
+					if (other.bounds[j*4+1] < start - gap || other.bounds[j*4+2] > bounds[i*4+3] + gap || other.bounds[j*4+3] < bounds[i*4+2] - gap)
+						continue;
+					
+					// Merge the objects if they are two parts of the same object, and the plugin is able to do so
+					if (merger != null && isSplit(i, other, j)) {
+						PathObject merged = merger.merge(pathObjectThis, pathObjectThat);
+						if (merged != null) {
+							tile.removePathObject(pathObjectThis);
+							other.tile.removePathObject(pathObjectThat);
+							tile.addPathObject(merged);
+							nResolved++;
+							break;
+						}
+					}
+					
+					// Check for an actual intersection between the areas, and whether it is a 'reasonable' proportion of the smaller area
+					// Here, reasonable is defined as 10%
+					PathArea pathAreaThis = (PathArea)pathObjectThis.getROI();
+					PathArea pathAreaThat = (PathArea)pathObjectThat.getROI();
+					double areaThis = pathAreaThis.getArea();
+					double areaThat = pathAreaThat.getArea();
+					double threshold = 0.1;
+					double intersectionArea = getIntersectionArea(pathAreaThis, pathAreaThat);
+					if (intersectionArea <= 0 || intersectionArea < Math.min(areaThis, areaThat) * threshold)
+						continue;
+					
+					// Remove an object that has been truncated by its tile, otherwise remove the smaller object
+					boolean removeThis;
+					if (truncated[i] != other.truncated[j])
+						removeThis = truncated[i];
+					else
+						removeThis = areaThis <= areaThat;
+					if (removeThis) {
+						tile.removePathObject(pathObjectThis);
+						nResolved++;
+						break;
+					} else {
+						other.tile.removePathObject(pathObjectThat);
+						nResolved++;
+					}
+				}
+			}
+			return nResolved;
+		}
+		
+	}
+	
+	
+	/**
+	 * Compute the area of intersection between two ROIs, using polygon clipping where possible.
+	 */
+	static double getIntersectionArea(final PathArea roi1, final PathArea roi2) {
+		if (PolygonClipper.isSupported(roi1) && PolygonClipper.isSupported(roi2)) {
+			PathShape intersection = PolygonClipper.intersection(roi1, roi2);
+			return intersection instanceof PathArea ? ((PathArea)intersection).getArea() : 0;
+		}
+		Area temp = PathROIToolsAwt.getArea(roi1);
+		temp.intersect(PathROIToolsAwt.getArea(roi2));
+		if (temp.isEmpty())
+			return 0;
+		return new AWTAreaROI(temp).getArea();
+	}
 
 
 	/**
@@ -248,7 +516,14 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 		if (map.isEmpty() && getParent() != null) {
 			if (countdown == null) {
 				hierarchy.removeObject(this, true);
-			} else if (countdown.decrementAndGet() == 0) {
+				return true;
+			}
+			// Overlaps have all been resolved, so the detections can be moved out of memory until all tiles are complete
+			if (spillStore != null && !spillStore.isClosed() && hasChildren()) {
+				spilled = spillStore.spill(getChildObjects());
+				clearPathObjects();
+			}
+			if (countdown.decrementAndGet() == 0) {
 				PathObject parent = getParent();
 				List<PathObject> parallelObjects = new ArrayList<>();
 				for (PathObject temp : parent.getChildObjects()) {
@@ -257,13 +532,29 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 					}
 				}
 				parent.removePathObjects(parallelObjects);
-				for (PathObject temp : parallelObjects)
+				int nLost = 0;
+				Exception lastException = null;
+				for (PathObject temp : parallelObjects) {
 					parent.addPathObjects(temp.getChildObjects());
+					try {
+						((ParallelTileObject)temp).restoreSpilledObjects(parent);
+					} catch (IOException e) {
+						nLost += ((ParallelTileObject)temp).spilled.size();
+						lastException = e;
+						logger.error("Unable to restore detections for " + temp, e);
+					}
+				}
+				if (spillStore != null)
+					spillStore.close();
 
 				if (parent.hasChildren() && parent instanceof PathROIObject)
 					((PathROIObject)parent).setLocked(true);
 
 				hierarchy.fireHierarchyChangedEvent(parent);
+				
+				// Don't allow detections to be silently lost
+				if (lastException != null)
+					throw new UncheckedIOException(new IOException(nLost + " detections could not be restored from disk for " + parent, lastException));
 			}
 			return true;
 			//				getParent().removePathObject(this);
@@ -273,6 +564,24 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 	}
 
 
+	/**
+	 * Add any detections that were written to disk to a parent object, in batches.
+	 * 
+	 * @throws IOException if the detections could not be restored (including if the thread was interrupted)
+	 */
+	private void restoreSpilledObjects(final PathObject parent) throws IOException {
+		if (spilled == null)
+			return;
+		try {
+			spillStore.read(spilled, batch -> parent.addPathObjects(batch));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while restoring detections", e);
+		}
+		spilled = null;
+	}
+
+
 	void notifyTestComplete(final ParallelTileObject pto) {
 		if (isComplete()) {
 			map.remove(pto);
@@ -281,6 +590,11 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 	}
 
 
+	private static Rectangle2D expandBounds(final Rectangle2D bounds, final double distance) {
+		return new Rectangle2D.Double(bounds.getX() - distance, bounds.getY() - distance, bounds.getWidth() + distance*2, bounds.getHeight() + distance*2);
+	}
+
+
 	private static Rectangle2D getBounds2D(final ROI pathROI) {
 		return new Rectangle2D.Double(pathROI.getBoundsX(), pathROI.getBoundsY(), pathROI.getBoundsWidth(), pathROI.getBoundsHeight());
 	}
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.plugins.objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.analysis.objects.CellExpansion;
+import qupath.lib.common.GeneralTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.AbstractInteractivePlugin;
+import qupath.lib.plugins.PluginRunner;
+import qupath.lib.plugins.parameters.ParameterList;
+
+/**
+ * Plugin to create cells by expanding existing nuclei, e.g. detections that have been imported or edited.
+ * <p>
+ * The detections (or cell nuclei) that are direct children of the selected objects are replaced by cells.
+ * 
+ * @author Pete Bankhead
+ *
+ * @param <T>
+ * 
+ * @see CellExpansion
+ */
+public class CellExpansionPlugin<T> extends AbstractInteractivePlugin<T> {
+	
+	private final static Logger logger = LoggerFactory.getLogger(CellExpansionPlugin.class);
+	
+	private ParameterList params = new ParameterList()
+			.addDoubleParameter("distanceMicrons", "Cell expansion", 5, GeneralTools.micrometerSymbol(), "Maximum distance to expand each nucleus to approximate the cell")
+			.addDoubleParameter("distancePixels", "Cell expansion", 10, "px", "Maximum distance to expand each nucleus to approximate the cell")
+			.addDoubleParameter("downsample", "Downsample factor", 1, null, "Downsample factor at which to compute the expansion - higher values are faster, but give coarser boundaries")
+			;
+	
+	private String resultString = null;
+	
+	@Override
+	public Collection<Class<? extends PathObject>> getSupportedParentObjectClasses() {
+		return Arrays.asList(PathAnnotationObject.class, TMACoreObject.class);
+	}
+
+	@Override
+	public String getName() {
+		return "Expand nuclei to cells";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Create cells by expanding existing nuclei, without needing to run cell detection again";
+	}
+
+	@Override
+	public String getLastResultsDescription() {
+		return resultString;
+	}
+
+	@Override
+	public ParameterList getDefaultParameterList(ImageData<T> imageData) {
+		boolean hasMicrons = imageData.getServer().hasPixelSizeMicrons();
+		params.setHiddenParameters(hasMicrons, "distancePixels");
+		params.setHiddenParameters(!hasMicrons, "distanceMicrons");
+		return params;
+	}
+
+	@Override
+	protected Collection<? extends PathObject> getParentObjects(PluginRunner<T> runner) {
+		return runner.getHierarchy().getSelectionModel().getSelectedObjects().stream().filter(p -> p.isAnnotation() || p.isTMACore()).collect(Collectors.toList());
+	}
+
+	@Override
+	protected void addRunnableTasks(ImageData<T> imageData, PathObject parentObject, List<Runnable> tasks) {}
+	
+	protected Collection<Runnable> getTasks(final PluginRunner<T> runner) {
+		Collection<? extends PathObject> parentObjects = getParentObjects(runner);
+		if (parentObjects == null || parentObjects.isEmpty())
+			return Collections.emptyList();
+		
+		ImageServer<T> server = runner.getImageServer();
+		double distancePixels;
+		if (server.hasPixelSizeMicrons())
+			distancePixels = params.getDoubleParameterValue("distanceMicrons") / server.getAveragedPixelSizeMicrons();
+		else
+			distancePixels = params.getDoubleParameterValue("distancePixels");
+		double downsample = Math.max(1, params.getDoubleParameterValue("downsample"));
+		
+		CellExpansion expansion = new CellExpansion(server.getWidth(), server.getHeight(), distancePixels);
+		expansion.setDownsample(downsample);
+		PathObjectHierarchy hierarchy = runner.getHierarchy();
+		
+		// Add a single task, since the expansion is parallelized internally & cells may be affected by nuclei of other parents
+		List<Runnable> tasks = new ArrayList<>(1);
+		tasks.add(() -> {
+			Map<PathObject, PathObject> parents = new HashMap<>();
+			List<PathObject> nuclei = new ArrayList<>();
+			for (PathObject parent : parentObjects) {
+				for (PathObject child : parent.getChildObjects()) {
+					if (child.isDetection() && !child.isTile()) {
+						nuclei.add(child);
+						parents.put(child, parent);
+					}
+				}
+			}
+			
+			Map<PathObject, List<PathObject>> cells = new HashMap<>();
+			Map<PathObject, List<PathObject>> replaced = new HashMap<>();
+			expansion.expand(nuclei, (nucleus, cell) -> {
+				PathObject parent = parents.get(nucleus);
+				cells.computeIfAbsent(parent, p -> new ArrayList<>()).add(cell);
+				replaced.computeIfAbsent(parent, p -> new ArrayList<>()).add(nucleus);
+			});
+			
+			int nCells = 0;
+			for (PathObject parent : parentObjects) {
+				List<PathObject> parentCells = cells.get(parent);
+				if (parentCells == null)
+					continue;
+				parent.removePathObjects(replaced.get(parent));
+				parent.addPathObjects(parentCells);
+				nCells += parentCells.size();
+			}
+			hierarchy.fireHierarchyChangedEvent(this);
+			
+			resultString = String.format("%d nuclei expanded to cells", nCells);
+			logger.info(resultString);
+		});
+		return tasks;
+	}
+
+}
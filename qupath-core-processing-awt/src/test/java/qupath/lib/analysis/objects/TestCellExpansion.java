@@ -0,0 +1,124 @@
+package qupath.lib.analysis.objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.ROIRasterizer;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestCellExpansion {
+
+	@Test
+	public void test_singleNucleus() {
+		PathObject nucleus = new PathDetectionObject(new RectangleROI(20, 30, 10, 5));
+		nucleus.getMeasurementList().putMeasurement("Area", 50);
+		CellExpansion expansion = new CellExpansion(100, 100, 3);
+		List<PathCellObject> cells = expansion.expand(List.of(nucleus));
+		assertEquals(1, cells.size());
+		PathCellObject cell = cells.get(0);
+		assertSame(nucleus.getROI(), cell.getNucleusROI());
+		assertEquals(50, cell.getMeasurementList().getMeasurementValue("Area"), 0.0);
+		// Rectangle expanded by 3 pixels, with corners including pixels within a distance of 3
+		ROI roi = cell.getROI();
+		assertEquals(38, roi.getBoundsY() + roi.getBoundsHeight(), 0.0);
+		assertEquals(16 * 11 - 4 * 5, ((PathArea)roi).getArea(), 1e-6);
+		
+		// Expansion should be constrained to the image
+		expansion = new CellExpansion(32, 100, 10);
+		roi = expansion.expand(List.of(nucleus)).get(0).getROI();
+		assertEquals(32, roi.getBoundsX() + roi.getBoundsWidth(), 0.0);
+	}
+	
+	@Test
+	public void test_compareToBruteForce() {
+		Random rand = new Random(48L);
+		int width = 157;
+		int height = 123;
+		List<PathObject> nuclei = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			double x = rand.nextDouble() * width;
+			double y = rand.nextDouble() * height;
+			double w = 2 + rand.nextDouble() * 10;
+			double h = 2 + rand.nextDouble() * 10;
+			nuclei.add(new PathDetectionObject(new EllipseROI(x - w/2, y - h/2, w, h)));
+		}
+		double distance = 6.5;
+		
+		// Compute the expected area of each cell by brute force
+		int[] labels = new int[width * height];
+		ROIRasterizer rasterizer = new ROIRasterizer(0, 0, 1, width, height);
+		for (int i = nuclei.size() - 1; i >= 0; i--)
+			rasterizer.fill(nuclei.get(i).getROI(), i + 1, labels);
+		int r = (int)Math.ceil(distance);
+		int[] expectedCounts = new int[nuclei.size() + 1];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int bestDistSq = Integer.MAX_VALUE;
+				int bestLabel = 0;
+				for (int yy = Math.max(0, y - r); yy <= Math.min(height - 1, y + r); yy++) {
+					for (int xx = Math.max(0, x - r); xx <= Math.min(width - 1, x + r); xx++) {
+						int label = labels[yy * width + xx];
+						if (label == 0)
+							continue;
+						int distSq = (x - xx) * (x - xx) + (y - yy) * (y - yy);
+						if (distSq < bestDistSq || (distSq == bestDistSq && label < bestLabel)) {
+							bestDistSq = distSq;
+							bestLabel = label;
+						}
+					}
+				}
+				if (bestDistSq <= distance * distance)
+					expectedCounts[bestLabel]++;
+			}
+		}
+		
+		// Results should match for all tile sizes
+		for (int tileSize : new int[] {CellExpansion.DEFAULT_TILE_SIZE, 50, 16, 3}) {
+			CellExpansion expansion = new CellExpansion(width, height, distance);
+			expansion.setTileSize(tileSize);
+			List<PathObject> nucleiOut = new ArrayList<>();
+			List<PathCellObject> cells = new ArrayList<>();
+			expansion.expand(nuclei, (nucleus, cell) -> {
+				nucleiOut.add(nucleus);
+				cells.add(cell);
+			});
+			assertEquals(nuclei.size(), cells.size());
+			for (int i = 0; i < cells.size(); i++) {
+				int label = nuclei.indexOf(nucleiOut.get(i)) + 1;
+				PathCellObject cell = cells.get(i);
+				assertSame(nucleiOut.get(i).getROI(), cell.getNucleusROI());
+				if (expectedCounts[label] > 0)
+					assertEquals("Tile size " + tileSize + ", label " + label, expectedCounts[label], ((PathArea)cell.getROI()).getArea(), 1e-6);
+			}
+		}
+	}
+	
+	@Test
+	public void test_equidistant() {
+		// A pixel column equidistant between two nuclei should be assigned to the first
+		PathObject nucleus1 = new PathDetectionObject(new RectangleROI(10, 10, 2, 2));
+		PathObject nucleus2 = new PathDetectionObject(new RectangleROI(21, 10, 2, 2));
+		for (int tileSize : new int[] {512, 16, 7}) {
+			CellExpansion expansion = new CellExpansion(40, 40, 20);
+			expansion.setTileSize(tileSize);
+			List<PathCellObject> cells = expansion.expand(List.of(nucleus1, nucleus2));
+			ROI roi1 = cells.get(0).getROI();
+			ROI roi2 = cells.get(1).getROI();
+			assertEquals(17, roi1.getBoundsX() + roi1.getBoundsWidth(), 0.0);
+			assertEquals(17, roi2.getBoundsX(), 0.0);
+		}
+	}
+
+}
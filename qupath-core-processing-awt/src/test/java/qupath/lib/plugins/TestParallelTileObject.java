@@ -0,0 +1,304 @@
+package qupath.lib.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.RectangleROI;
+
+public class TestParallelTileObject {
+
+	@Test
+	public void test_resolveOverlaps() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 180, 100));
+		hierarchy.addPathObject(parent, false);
+		
+		AtomicInteger countdown = new AtomicInteger(2);
+		ParallelTileObject tile1 = new ParallelTileObject(new RectangleROI(0, 0, 100, 100), hierarchy, countdown);
+		ParallelTileObject tile2 = new ParallelTileObject(new RectangleROI(80, 0, 100, 100), hierarchy, countdown);
+		parent.addPathObject(tile1);
+		parent.addPathObject(tile2);
+		assertTrue(tile1.suggestNeighbor(tile2));
+		assertTrue(tile2.suggestNeighbor(tile1));
+		
+		// Detected twice, but truncated by the edge of the first tile
+		PathObject truncated1 = new PathDetectionObject(new RectangleROI(85, 0, 15, 10));
+		PathObject complete1 = new PathDetectionObject(new RectangleROI(85, 0, 20, 10));
+		// Truncated object is larger, but should still be removed
+		PathObject truncated2 = new PathDetectionObject(new RectangleROI(82, 20, 18, 30));
+		PathObject complete2 = new PathDetectionObject(new RectangleROI(85, 25, 10, 10));
+		// Neither truncated, so keep the larger one
+		PathObject smaller = new PathDetectionObject(new EllipseROI(84, 60, 10, 10));
+		PathObject larger = new PathDetectionObject(new RectangleROI(83, 59, 12, 12));
+		// Barely overlapping objects should both be kept
+		PathObject touching1 = new PathDetectionObject(new RectangleROI(81, 80, 10, 10));
+		PathObject touching2 = new PathDetectionObject(new RectangleROI(90.5, 80, 8, 10));
+		// Objects away from the overlap should always be kept
+		PathObject inside1 = new PathDetectionObject(new RectangleROI(10, 10, 10, 10));
+		PathObject inside2 = new PathDetectionObject(new RectangleROI(150, 10, 10, 10));
+		
+		List<PathObject> detections1 = Arrays.asList(truncated1, truncated2, smaller, touching1, inside1);
+		List<PathObject> detections2 = Arrays.asList(complete1, complete2, larger, touching2, inside2);
+		tile1.recordSeamObjects(detections1);
+		tile1.addPathObjects(detections1);
+		// Objects for the second tile are found from its children
+		tile2.addPathObjects(detections2);
+		
+		tile1.setComplete();
+		assertEquals(2, countdown.get());
+		tile2.setComplete();
+		assertEquals(0, countdown.get());
+		
+		// Tiles should have been replaced by the detections
+		assertFalse(parent.getChildObjects().contains(tile1));
+		assertFalse(parent.getChildObjects().contains(tile2));
+		assertEquals(7, parent.nChildObjects());
+		for (PathObject pathObject : Arrays.asList(complete1, complete2, larger, touching1, touching2, inside1, inside2))
+			assertTrue(parent.getChildObjects().contains(pathObject));
+	}
+	
+	@Test
+	public void test_mergeSplitObjects() {
+		for (boolean doMerge : new boolean[] {true, false}) {
+			PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+			PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 200, 100));
+			hierarchy.addPathObject(parent, false);
+			
+			// Merge detections by combining their bounding boxes, or decline to merge them
+			List<PathObject[]> merged = new ArrayList<>();
+			DetectionMerger merger = (p1, p2) -> {
+				merged.add(new PathObject[] {p1, p2});
+				if (!doMerge)
+					return null;
+				double x1 = Math.min(p1.getROI().getBoundsX(), p2.getROI().getBoundsX());
+				double y1 = Math.min(p1.getROI().getBoundsY(), p2.getROI().getBoundsY());
+				double x2 = Math.max(p1.getROI().getBoundsX() + p1.getROI().getBoundsWidth(), p2.getROI().getBoundsX() + p2.getROI().getBoundsWidth());
+				double y2 = Math.max(p1.getROI().getBoundsY() + p1.getROI().getBoundsHeight(), p2.getROI().getBoundsY() + p2.getROI().getBoundsHeight());
+				return new PathDetectionObject(new RectangleROI(x1, y1, x2 - x1, y2 - y1));
+			};
+			
+			// Tiles that only touch should be neighbors, since objects may be split between them
+			AtomicInteger countdown = new AtomicInteger(2);
+			ParallelTileObject tile1 = new ParallelTileObject(new RectangleROI(0, 0, 100, 100), hierarchy, countdown, 1.0, null, merger);
+			ParallelTileObject tile2 = new ParallelTileObject(new RectangleROI(100, 0, 100, 100), hierarchy, countdown, 1.0, null, merger);
+			parent.addPathObject(tile1);
+			parent.addPathObject(tile2);
+			assertTrue(tile1.suggestNeighbor(tile2));
+			assertTrue(tile2.suggestNeighbor(tile1));
+			
+			// Two halves of the same object
+			PathObject half1 = new PathDetectionObject(new RectangleROI(90, 10, 10, 10));
+			PathObject half2 = new PathDetectionObject(new RectangleROI(100, 11, 8, 10));
+			// Separate objects touching the boundary, but not lining up along it
+			PathObject separate1 = new PathDetectionObject(new RectangleROI(95, 40, 5, 10));
+			PathObject separate2 = new PathDetectionObject(new RectangleROI(100, 55, 5, 10));
+			// Objects away from the boundary
+			PathObject inside1 = new PathDetectionObject(new RectangleROI(10, 10, 10, 10));
+			PathObject inside2 = new PathDetectionObject(new RectangleROI(150, 10, 10, 10));
+			
+			List<PathObject> detections1 = Arrays.asList(half1, separate1, inside1);
+			tile1.recordSeamObjects(detections1);
+			tile1.addPathObjects(detections1);
+			tile2.addPathObjects(Arrays.asList(half2, separate2, inside2));
+			
+			tile1.setComplete();
+			tile2.setComplete();
+			assertEquals(0, countdown.get());
+			
+			// Only the halves should have been passed to the merger
+			assertEquals(1, merged.size());
+			assertTrue(Arrays.asList(merged.get(0)).containsAll(Arrays.asList(half1, half2)));
+			for (PathObject pathObject : Arrays.asList(separate1, separate2, inside1, inside2))
+				assertTrue(parent.getChildObjects().contains(pathObject));
+			if (doMerge) {
+				// The halves should be replaced by the merged object
+				assertEquals(5, parent.nChildObjects());
+				assertFalse(parent.getChildObjects().contains(half1));
+				assertFalse(parent.getChildObjects().contains(half2));
+				boolean found = false;
+				for (PathObject pathObject : parent.getChildObjects()) {
+					if (pathObject.getROI().getBoundsX() == 90 && pathObject.getROI().getBoundsWidth() == 18)
+						found = true;
+				}
+				assertTrue(found);
+			} else {
+				// Without any overlap, both halves should be kept
+				assertEquals(6, parent.nChildObjects());
+			}
+		}
+	}
+	
+	@Test
+	public void test_mergeOverlappingTiles() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 180, 100));
+		hierarchy.addPathObject(parent, false);
+		
+		DetectionMerger merger = (p1, p2) -> new PathDetectionObject(new RectangleROI(60, 10, 60, 10));
+		AtomicInteger countdown = new AtomicInteger(2);
+		ParallelTileObject tile1 = new ParallelTileObject(new RectangleROI(0, 0, 100, 100), hierarchy, countdown, 1.0, null, merger);
+		ParallelTileObject tile2 = new ParallelTileObject(new RectangleROI(80, 0, 100, 100), hierarchy, countdown, 1.0, null, merger);
+		parent.addPathObject(tile1);
+		parent.addPathObject(tile2);
+		tile1.suggestNeighbor(tile2);
+		tile2.suggestNeighbor(tile1);
+		
+		// An object longer than the overlap is cut by both tiles
+		PathObject part1 = new PathDetectionObject(new RectangleROI(60, 10, 40, 10));
+		PathObject part2 = new PathDetectionObject(new RectangleROI(80, 10, 40, 10));
+		// Objects cut by different edges within the overlap are not parts of the same object, so are resolved as usual
+		PathObject truncated1 = new PathDetectionObject(new RectangleROI(90, 50, 10, 10));
+		PathObject complete1 = new PathDetectionObject(new RectangleROI(90, 50, 15, 10));
+		PathObject truncated2 = new PathDetectionObject(new RectangleROI(80, 52, 8, 10));
+		PathObject complete2 = new PathDetectionObject(new RectangleROI(75, 52, 13, 10));
+		tile1.addPathObjects(Arrays.asList(part1, truncated1, complete2));
+		tile2.addPathObjects(Arrays.asList(part2, complete1, truncated2));
+		tile1.setComplete();
+		tile2.setComplete();
+		
+		assertEquals(3, parent.nChildObjects());
+		assertTrue(parent.getChildObjects().contains(complete1));
+		assertTrue(parent.getChildObjects().contains(complete2));
+		assertFalse(parent.getChildObjects().contains(part1));
+		assertFalse(parent.getChildObjects().contains(part2));
+	}
+	
+	@Test
+	public void test_edgeToleranceDownsample() {
+		// An object ending 5 pixels from the tile edge is only truncated if detection was performed at a lower resolution
+		for (double downsample : new double[] {1.0, 4.0}) {
+			PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+			PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 180, 100));
+			hierarchy.addPathObject(parent, false);
+			
+			AtomicInteger countdown = new AtomicInteger(2);
+			ParallelTileObject tile1 = new ParallelTileObject(new RectangleROI(0, 0, 100, 100), hierarchy, countdown, downsample, null);
+			ParallelTileObject tile2 = new ParallelTileObject(new RectangleROI(80, 0, 100, 100), hierarchy, countdown, downsample, null);
+			parent.addPathObject(tile1);
+			parent.addPathObject(tile2);
+			tile1.suggestNeighbor(tile2);
+			tile2.suggestNeighbor(tile1);
+			
+			PathObject larger = new PathDetectionObject(new RectangleROI(82, 10, 13, 20));
+			PathObject smaller = new PathDetectionObject(new RectangleROI(89, 10, 6, 20));
+			tile1.addPathObject(larger);
+			tile2.addPathObject(smaller);
+			tile1.setComplete();
+			tile2.setComplete();
+			
+			assertEquals(1, parent.nChildObjects());
+			if (downsample == 1.0)
+				assertTrue(parent.getChildObjects().contains(larger));
+			else
+				assertTrue(parent.getChildObjects().contains(smaller));
+		}
+	}
+	
+	@Test
+	public void test_spillToDisk() throws IOException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 300, 100));
+		hierarchy.addPathObject(parent, false);
+		
+		DetectionSpillStore store = new DetectionSpillStore();
+		AtomicInteger countdown = new AtomicInteger(3);
+		List<ParallelTileObject> tiles = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			ParallelTileObject tile = new ParallelTileObject(new RectangleROI(i * 90, 0, 110, 100), hierarchy, countdown, 1.0, store);
+			parent.addPathObject(tile);
+			for (ParallelTileObject tileTemp : tiles) {
+				if (tileTemp.suggestNeighbor(tile))
+					tile.suggestNeighbor(tileTemp);
+			}
+			tiles.add(tile);
+		}
+		
+		// Add detections, including one duplicate in the overlap between the first two tiles
+		for (ParallelTileObject tile : tiles) {
+			List<PathObject> detections = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				PathObject detection = new PathDetectionObject(new RectangleROI(tile.bounds.getX() + 30 + i, 5 + i * 4, 2, 2));
+				detection.getMeasurementList().putMeasurement("Index", i);
+				detection.getMeasurementList().closeList();
+				detections.add(detection);
+			}
+			if (tile == tiles.get(0))
+				detections.add(new PathDetectionObject(new RectangleROI(95, 50, 4, 4)));
+			else if (tile == tiles.get(1))
+				detections.add(new PathDetectionObject(new RectangleROI(95, 50, 5, 5)));
+			tile.recordSeamObjects(detections);
+			tile.addPathObjects(detections);
+		}
+		
+		// The first tile can't be written until its neighbor is complete
+		tiles.get(0).setComplete();
+		assertEquals(21, tiles.get(0).nChildObjects());
+		tiles.get(1).setComplete();
+		assertEquals(0, tiles.get(0).nChildObjects());
+		assertEquals(20, tiles.get(0).spilled.size());
+		assertEquals(21, tiles.get(1).nChildObjects());
+		tiles.get(2).setComplete();
+		assertEquals(0, countdown.get());
+		
+		// All the detections should be restored, without the tiles
+		assertEquals(61, parent.nChildObjects());
+		double sum = 0;
+		for (PathObject pathObject : parent.getChildObjects()) {
+			assertTrue(pathObject instanceof PathDetectionObject);
+			assertEquals(parent, pathObject.getParent());
+			if (pathObject.getROI().getBoundsWidth() == 5)
+				continue;
+			sum += pathObject.getMeasurementList().getMeasurementValue("Index");
+		}
+		assertEquals(3 * 19 * 20 / 2, sum, 0.0);
+	}
+	
+	@Test
+	public void test_spillToDiskFailure() throws IOException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent = new PathAnnotationObject(new RectangleROI(0, 0, 200, 100));
+		hierarchy.addPathObject(parent, false);
+		
+		// Two separate tiles, so that each can be written as soon as it is complete
+		DetectionSpillStore store = new DetectionSpillStore();
+		AtomicInteger countdown = new AtomicInteger(2);
+		List<ParallelTileObject> tiles = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			ParallelTileObject tile = new ParallelTileObject(new RectangleROI(i * 100, 0, 100, 100), hierarchy, countdown, 1.0, store);
+			parent.addPathObject(tile);
+			tile.addPathObject(new PathDetectionObject(new RectangleROI(i * 100 + 10, 10, 5, 5)));
+			tiles.add(tile);
+		}
+		tiles.get(0).setComplete();
+		assertEquals(1, tiles.get(0).spilled.size());
+		
+		// If the spilled detections can't be read back, this should not fail silently
+		store.close();
+		boolean failed = false;
+		try {
+			tiles.get(1).setComplete();
+		} catch (UncheckedIOException e) {
+			failed = true;
+		}
+		assertTrue(failed);
+		assertEquals(0, countdown.get());
+		assertEquals(1, parent.nChildObjects());
+		assertFalse(parent.getChildObjects().iterator().next() instanceof ParallelTileObject);
+	}
+
+}
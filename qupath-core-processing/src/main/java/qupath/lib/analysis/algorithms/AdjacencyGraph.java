@@ -0,0 +1,260 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Compact, immutable representation of an undirected graph in compressed sparse row (CSR) form.
+ * <p>
+ * Nodes are identified by an index from 0 to {@code nNodes() - 1}.  The neighbors of node {@code i} are stored
+ * (sorted in ascending order) in {@code getIndices()} from {@code getOffsets()[i]} (inclusive) to {@code getOffsets()[i+1]} (exclusive).
+ *
+ * @author Pete Bankhead
+ *
+ */
+public class AdjacencyGraph {
+
+	/**
+	 * Filter used to decide whether an edge between two nodes should be retained.
+	 */
+	@FunctionalInterface
+	public static interface EdgeFilter {
+
+		/**
+		 * Returns true if the edge between nodes i and j should be retained.
+		 *
+		 * @param i
+		 * @param j
+		 * @return
+		 */
+		public boolean accept(int i, int j);
+
+	}
+
+	private final int[] offsets;
+	private final int[] indices;
+
+	/**
+	 * Create a graph from CSR arrays; these are used directly, and should not be modified later.
+	 *
+	 * @param offsets array of length nNodes + 1
+	 * @param indices neighbor indices, sorted in ascending order for each node
+	 */
+	public AdjacencyGraph(final int[] offsets, final int[] indices) {
+		this.offsets = offsets;
+		this.indices = indices;
+	}
+
+	/**
+	 * Create a graph from directed edges, retaining an edge only if it is found in both directions.
+	 * Duplicate edges and self-connections are removed.
+	 *
+	 * @param nNodes total number of nodes
+	 * @param sources source node for each directed edge
+	 * @param targets target node for each directed edge
+	 * @param nEdges number of directed edges (which may be less than the length of the source and target arrays)
+	 * @return
+	 */
+	public static AdjacencyGraph createSymmetric(final int nNodes, final int[] sources, final int[] targets, final int nEdges) {
+		// Count edges for each node
+		int[] offsets = new int[nNodes+1];
+		for (int e = 0; e < nEdges; e++)
+			offsets[sources[e]+1]++;
+		for (int i = 0; i < nNodes; i++)
+			offsets[i+1] += offsets[i];
+
+		// Fill in targets
+		int[] indices = new int[nEdges];
+		int[] counts = new int[nNodes];
+		for (int e = 0; e < nEdges; e++) {
+			int s = sources[e];
+			indices[offsets[s] + counts[s]++] = targets[e];
+		}
+
+		// Sort & remove duplicates
+		int[] sortedCounts = counts;
+		for (int i = 0; i < nNodes; i++) {
+			int start = offsets[i];
+			int end = offsets[i+1];
+			Arrays.sort(indices, start, end);
+			int n = 0;
+			int last = -1;
+			for (int k = start; k < end; k++) {
+				int j = indices[k];
+				if (j == last || j == i)
+					continue;
+				indices[start + n++] = j;
+				last = j;
+			}
+			sortedCounts[i] = n;
+		}
+		AdjacencyGraph directed = new AdjacencyGraph(offsets, indices);
+
+		// Retain only edges found in both directions, compacting as we go
+		int[] offsetsOutput = new int[nNodes+1];
+		int[] indicesOutput = new int[nEdges];
+		int count = 0;
+		for (int i = 0; i < nNodes; i++) {
+			int start = offsets[i];
+			int end = start + sortedCounts[i];
+			offsetsOutput[i] = count;
+			for (int k = start; k < end; k++) {
+				int j = indices[k];
+				if (directed.containsDirected(j, i, sortedCounts[j]))
+					indicesOutput[count++] = j;
+			}
+		}
+		offsetsOutput[nNodes] = count;
+		return new AdjacencyGraph(offsetsOutput, Arrays.copyOf(indicesOutput, count));
+	}
+
+	/**
+	 * Check for an edge using only the first count neighbors of i (used only during construction, after removing duplicates).
+	 */
+	private boolean containsDirected(final int i, final int j, final int count) {
+		int start = offsets[i];
+		return Arrays.binarySearch(indices, start, start + count, j) >= 0;
+	}
+
+	/**
+	 * Number of nodes in the graph.
+	 * @return
+	 */
+	public int nNodes() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Total number of stored (directed) edges; each undirected edge is counted twice.
+	 * @return
+	 */
+	public int nDirectedEdges() {
+		return offsets[offsets.length-1];
+	}
+
+	/**
+	 * Number of neighbors for a specified node.
+	 * @param i
+	 * @return
+	 */
+	public int nNeighbors(final int i) {
+		return offsets[i+1] - offsets[i];
+	}
+
+	/**
+	 * Get the kth neighbor of node i.
+	 * @param i
+	 * @param k
+	 * @return
+	 */
+	public int getNeighbor(final int i, final int k) {
+		return indices[offsets[i] + k];
+	}
+
+	/**
+	 * Returns true if nodes i and j are connected.
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	public boolean isConnected(final int i, final int j) {
+		return Arrays.binarySearch(indices, offsets[i], offsets[i+1], j) >= 0;
+	}
+
+	/**
+	 * Get the CSR offsets array; this is returned directly, and must not be modified.
+	 * @return
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Get the CSR indices array; this is returned directly, and must not be modified.
+	 * @return
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Create a new graph retaining only those edges accepted by a filter.
+	 * The filter should be symmetric, so that the resulting graph remains undirected.
+	 *
+	 * @param filter
+	 * @return
+	 */
+	public AdjacencyGraph filterEdges(final EdgeFilter filter) {
+		int nNodes = nNodes();
+		int[] offsetsOutput = new int[nNodes+1];
+		int[] indicesOutput = new int[indices.length];
+		int count = 0;
+		for (int i = 0; i < nNodes; i++) {
+			offsetsOutput[i] = count;
+			for (int k = offsets[i]; k < offsets[i+1]; k++) {
+				int j = indices[k];
+				if (filter.accept(i, j))
+					indicesOutput[count++] = j;
+			}
+		}
+		offsetsOutput[nNodes] = count;
+		return new AdjacencyGraph(offsetsOutput, Arrays.copyOf(indicesOutput, count));
+	}
+
+	/**
+	 * Label the connected components of the graph.
+	 *
+	 * @param labels optional array of length nNodes() to store the output
+	 * @return an array containing a component label (from 0 to the number of components - 1) for each node
+	 */
+	public int[] getConnectedComponents(int[] labels) {
+		int nNodes = nNodes();
+		if (labels == null || labels.length < nNodes)
+			labels = new int[nNodes];
+		Arrays.fill(labels, 0, nNodes, -1);
+		int[] stack = new int[Math.max(1, nNodes)];
+		int label = 0;
+		for (int i = 0; i < nNodes; i++) {
+			if (labels[i] >= 0)
+				continue;
+			int n = 0;
+			stack[n++] = i;
+			labels[i] = label;
+			while (n > 0) {
+				int current = stack[--n];
+				for (int k = offsets[current]; k < offsets[current+1]; k++) {
+					int j = indices[k];
+					if (labels[j] < 0) {
+						labels[j] = label;
+						stack[n++] = j;
+					}
+				}
+			}
+			label++;
+		}
+		return labels;
+	}
+
+}
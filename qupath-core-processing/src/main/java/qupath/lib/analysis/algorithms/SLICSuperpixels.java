@@ -0,0 +1,430 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Implementation of SLIC superpixels working directly on primitive arrays.
+ * <p>
+ * Features are provided as one {@code float[]} plane per channel, and cluster centers are stored
+ * as parallel arrays rather than as objects.  Assignment and update steps are computed for each pixel
+ * by considering only nearby centers on the (initial) seed grid, which means that they can be
+ * computed for bands of rows in parallel without any locking.
+ * <p>
+ * Seeds are placed on a grid that may be offset according to the location of the image within a larger
+ * image, so that adjacent tiles share the same seed grid.  A superpixel cut by a tile boundary can then be identified 
+ * in both tiles by the location of its seed in the larger image (see {@link #getSeedLocations(int, int, double, int, int)}), 
+ * and the parts stitched together.
+ *
+ * @author Pete Bankhead
+ *
+ */
+public class SLICSuperpixels {
+
+	/**
+	 * Number of neighboring grid cells to search (in each direction) when assigning pixels to centers.
+	 */
+	private static final int SEARCH_CELLS = 2;
+
+	/**
+	 * Compute SLIC superpixel labels.
+	 *
+	 * @param features feature planes, each of length width * height (e.g. L, a, b or color deconvolved channels)
+	 * @param width image width
+	 * @param height image height
+	 * @param spacing approximate spacing between superpixels, in pixels
+	 * @param m regularization parameter controlling the relative weight of feature &amp; spatial distances
+	 * @param adaptRegularization if true, adapt the regularization according to the maximum feature distance within each superpixel
+	 * @param maxIterations number of iterations to perform
+	 * @param xOffset x-coordinate of the image within a larger (e.g. whole slide) image, used to align the seed grid
+	 * @param yOffset y-coordinate of the image within a larger (e.g. whole slide) image, used to align the seed grid
+	 * @return an array of length width * height, containing the index of the closest center for each pixel (or -1 if no center was found)
+	 */
+	public static int[] computeLabels(final float[][] features, final int width, final int height, final double spacing, final double m, final boolean adaptRegularization, final int maxIterations, final int xOffset, final int yOffset) {
+
+		int s = (int)Math.max(1, Math.round(spacing));
+
+		// Determine seed grid, aligned to the larger image
+		int x0 = getGridStart(xOffset, width, s);
+		int y0 = getGridStart(yOffset, height, s);
+		int nx = (width - 1 - x0) / s + 1;
+		int ny = (height - 1 - y0) / s + 1;
+
+		Centers centers = new Centers(features, width, height, s, m, x0, y0, nx, ny);
+
+		int[] labels = new int[width * height];
+		Arrays.fill(labels, -1);
+
+		// Use several bands per processor, since some bands may contain more centers than others
+		int nBands = Math.max(1, Math.min(height, Runtime.getRuntime().availableProcessors() * 4));
+		int bandHeight = (int)Math.ceil(height / (double)nBands);
+		nBands = (int)Math.ceil(height / (double)bandHeight);
+		int[] bandStarts = new int[nBands+1];
+		for (int b = 0; b < nBands; b++)
+			bandStarts[b] = b * bandHeight;
+		bandStarts[nBands] = height;
+
+		for (int iter = 0; iter < maxIterations; iter++) {
+			if (Thread.currentThread().isInterrupted())
+				break;
+			IntStream.range(0, nBands).parallel().forEach(b -> centers.assignRows(labels, bandStarts[b], bandStarts[b+1]));
+
+			Accumulator accumulator = IntStream.range(0, nBands).parallel()
+					.mapToObj(b -> centers.accumulateRows(labels, bandStarts[b], bandStarts[b+1]))
+					.reduce(Accumulator::combine)
+					.orElse(null);
+			if (accumulator != null)
+				centers.update(accumulator);
+
+			if (adaptRegularization) {
+				double[] maxDistances = IntStream.range(0, nBands).parallel()
+						.mapToObj(b -> centers.maxColorDistancesSquared(labels, bandStarts[b], bandStarts[b+1]))
+						.reduce(SLICSuperpixels::max)
+						.orElse(null);
+				if (maxDistances != null)
+					centers.updateRegularization(maxDistances);
+			}
+		}
+		// Ensure the final labels reflect the final centers
+		IntStream.range(0, nBands).parallel().forEach(b -> centers.assignRows(labels, bandStarts[b], bandStarts[b+1]));
+
+		return labels;
+	}
+
+
+	/**
+	 * Get the location of each seed within the larger image, using the same seed grid as 
+	 * {@link #computeLabels(float[][], int, int, double, double, boolean, int, int, int)}.
+	 * <p>
+	 * The index of each seed is the label assigned to pixels by computeLabels.  Superpixels computed for adjacent tiles 
+	 * have the same seed location if they were computed from the same seed of the larger image.
+	 *
+	 * @param width image width
+	 * @param height image height
+	 * @param spacing approximate spacing between superpixels, in pixels
+	 * @param xOffset x-coordinate of the image within a larger (e.g. whole slide) image
+	 * @param yOffset y-coordinate of the image within a larger (e.g. whole slide) image
+	 * @return an array containing the x and y coordinate of each seed in turn, within the larger image
+	 */
+	public static int[] getSeedLocations(final int width, final int height, final double spacing, final int xOffset, final int yOffset) {
+		int s = (int)Math.max(1, Math.round(spacing));
+		int x0 = getGridStart(xOffset, width, s);
+		int y0 = getGridStart(yOffset, height, s);
+		int nx = (width - 1 - x0) / s + 1;
+		int ny = (height - 1 - y0) / s + 1;
+		int[] locations = new int[nx * ny * 2];
+		for (int iy = 0; iy < ny; iy++) {
+			for (int ix = 0; ix < nx; ix++) {
+				int c = iy * nx + ix;
+				locations[c*2] = xOffset + x0 + ix * s;
+				locations[c*2+1] = yOffset + y0 + iy * s;
+			}
+		}
+		return locations;
+	}
+
+
+	/**
+	 * Get the position of the first seed along one axis, so that seeds fall at (s/2 + k*s) within the larger image.
+	 * If the image is too small to contain a seed of the grid, the seed is placed in the center.
+	 */
+	private static int getGridStart(final int offset, final int size, final int s) {
+		int start = Math.floorMod(s/2 - offset, s);
+		if (start >= size)
+			start = size / 2;
+		return start;
+	}
+
+
+	private static double[] max(final double[] a, final double[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (b[i] > a[i])
+				a[i] = b[i];
+		}
+		return a;
+	}
+
+
+	/**
+	 * Relabel an image so that each label corresponds to a single 4-connected region, merging small regions
+	 * into the previously-visited neighboring region.
+	 *
+	 * @param labels labels to update in place; after relabelling, labels will be in the range 1 to the returned value
+	 * @param width image width
+	 * @param height image height
+	 * @param minSize regions with this number of pixels or fewer will be merged with a neighbor
+	 * @return the largest label assigned
+	 */
+	public static int enforceConnectivity(final int[] labels, final int width, final int height, final int minSize) {
+		int[] newLabels = new int[labels.length];
+		int[] xyCurrent = new int[labels.length];
+		int label = 1;
+		for (int y = 0; y < height; y++) {
+			// Maintain a reference to the previous label
+			int lastNewLabel = y > 0 ? newLabels[(y-1)*width] : 1;
+			for (int x = 0; x < width; x++) {
+				int i = y*width + x;
+				// Check if we've already labelled this
+				int currentNewLabel = newLabels[i];
+				if (currentNewLabel != 0) {
+					lastNewLabel = currentNewLabel;
+					continue;
+				}
+
+				// Determine pixels for the current region
+				int currentOldLabel = labels[i];
+				int count = 1;
+				xyCurrent[0] = i;
+				newLabels[i] = label;
+				int c = 0;
+				while (c < count) {
+					int ii = xyCurrent[c];
+					int xx = ii % width;
+					int yy = ii / width;
+					c++;
+					// Check 4-connected neighbors
+					if (xx > 0 && newLabels[ii-1] == 0 && labels[ii-1] == currentOldLabel) {
+						xyCurrent[count++] = ii-1;
+						newLabels[ii-1] = label;
+					}
+					if (yy > 0 && newLabels[ii-width] == 0 && labels[ii-width] == currentOldLabel) {
+						xyCurrent[count++] = ii-width;
+						newLabels[ii-width] = label;
+					}
+					if (xx < width-1 && newLabels[ii+1] == 0 && labels[ii+1] == currentOldLabel) {
+						xyCurrent[count++] = ii+1;
+						newLabels[ii+1] = label;
+					}
+					if (yy < height-1 && newLabels[ii+width] == 0 && labels[ii+width] == currentOldLabel) {
+						xyCurrent[count++] = ii+width;
+						newLabels[ii+width] = label;
+					}
+				}
+				// Check if small, relabelling if required
+				if (count <= minSize && lastNewLabel != label) {
+					for (c = 0; c < count; c++)
+						newLabels[xyCurrent[c]] = lastNewLabel;
+				} else {
+					lastNewLabel = label;
+					label++;
+				}
+			}
+		}
+		System.arraycopy(newLabels, 0, labels, 0, labels.length);
+		return label - 1;
+	}
+
+
+	/**
+	 * Cluster centers, stored as parallel arrays.
+	 */
+	private static class Centers {
+
+		private final float[][] features;
+		private final int nChannels;
+		private final int width;
+		private final int s;
+		private final double sSquared;
+		private final int x0, y0, nx, ny;
+
+		private final double[] x;
+		private final double[] y;
+		// Center features, stored as [center * nChannels + channel]
+		private final double[] f;
+		private final double[] mSquared;
+
+		Centers(final float[][] features, final int width, final int height, final int s, final double m, final int x0, final int y0, final int nx, final int ny) {
+			this.features = features;
+			this.nChannels = features.length;
+			this.width = width;
+			this.s = s;
+			this.sSquared = (double)s * s;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.nx = nx;
+			this.ny = ny;
+			int n = nx * ny;
+			x = new double[n];
+			y = new double[n];
+			f = new double[n * nChannels];
+			mSquared = new double[n];
+			Arrays.fill(mSquared, m * m);
+			for (int iy = 0; iy < ny; iy++) {
+				for (int ix = 0; ix < nx; ix++) {
+					int c = iy * nx + ix;
+					int xx = x0 + ix * s;
+					int yy = y0 + iy * s;
+					x[c] = xx;
+					y[c] = yy;
+					int ind = yy * width + xx;
+					for (int k = 0; k < nChannels; k++)
+						f[c*nChannels + k] = features[k][ind];
+				}
+			}
+		}
+
+		int size() {
+			return x.length;
+		}
+
+		/**
+		 * Assign each pixel in the specified rows to the nearest center, considering only centers
+		 * whose search window (of size 2s x 2s) contains the pixel.
+		 */
+		void assignRows(final int[] labels, final int yStart, final int yEnd) {
+			for (int yy = yStart; yy < yEnd; yy++) {
+				int iyCell = Math.floorDiv(yy - y0, s);
+				int iyMin = Math.max(0, iyCell - SEARCH_CELLS);
+				int iyMax = Math.min(ny - 1, iyCell + SEARCH_CELLS);
+				for (int xx = 0; xx < width; xx++) {
+					int ixCell = Math.floorDiv(xx - x0, s);
+					int ixMin = Math.max(0, ixCell - SEARCH_CELLS);
+					int ixMax = Math.min(nx - 1, ixCell + SEARCH_CELLS);
+					int ind = yy * width + xx;
+					int bestLabel = -1;
+					double bestDistance = Double.POSITIVE_INFINITY;
+					for (int iy = iyMin; iy <= iyMax; iy++) {
+						for (int ix = ixMin; ix <= ixMax; ix++) {
+							int c = iy * nx + ix;
+							// NaN coordinates indicate an empty center
+							double dx = x[c] - xx;
+							if (!(Math.abs(dx) < s))
+								continue;
+							double dy = y[c] - yy;
+							if (!(Math.abs(dy) < s))
+								continue;
+							double distance = colorDistanceSquared(c, ind) / mSquared[c] + (dx*dx + dy*dy) / sSquared;
+							if (distance < bestDistance) {
+								bestDistance = distance;
+								bestLabel = c;
+							}
+						}
+					}
+					labels[ind] = bestLabel;
+				}
+			}
+		}
+
+		double colorDistanceSquared(final int c, final int ind) {
+			double DC2 = 0;
+			int offset = c * nChannels;
+			for (int k = 0; k < nChannels; k++) {
+				double d = features[k][ind] - f[offset + k];
+				if (Double.isFinite(d))
+					DC2 += d*d;
+			}
+			return DC2;
+		}
+
+		Accumulator accumulateRows(final int[] labels, final int yStart, final int yEnd) {
+			Accumulator accumulator = new Accumulator(size(), nChannels);
+			for (int yy = yStart; yy < yEnd; yy++) {
+				for (int xx = 0; xx < width; xx++) {
+					int ind = yy * width + xx;
+					int c = labels[ind];
+					if (c < 0)
+						continue;
+					accumulator.counts[c]++;
+					accumulator.x[c] += xx;
+					accumulator.y[c] += yy;
+					int offset = c * nChannels;
+					for (int k = 0; k < nChannels; k++)
+						accumulator.f[offset + k] += features[k][ind];
+				}
+			}
+			return accumulator;
+		}
+
+		void update(final Accumulator accumulator) {
+			for (int c = 0; c < size(); c++) {
+				int n = accumulator.counts[c];
+				int offset = c * nChannels;
+				if (n == 0) {
+					x[c] = Double.NaN;
+					y[c] = Double.NaN;
+					continue;
+				}
+				x[c] = accumulator.x[c] / n;
+				y[c] = accumulator.y[c] / n;
+				for (int k = 0; k < nChannels; k++)
+					f[offset + k] = accumulator.f[offset + k] / n;
+			}
+		}
+
+		double[] maxColorDistancesSquared(final int[] labels, final int yStart, final int yEnd) {
+			double[] maxDistances = new double[size()];
+			for (int ind = yStart * width; ind < yEnd * width; ind++) {
+				int c = labels[ind];
+				if (c < 0)
+					continue;
+				double d = colorDistanceSquared(c, ind);
+				if (d > maxDistances[c])
+					maxDistances[c] = d;
+			}
+			return maxDistances;
+		}
+
+		void updateRegularization(final double[] maxDistances) {
+			for (int c = 0; c < size(); c++) {
+				if (maxDistances[c] > 0)
+					mSquared[c] = maxDistances[c];
+			}
+		}
+
+	}
+
+
+	/**
+	 * Running sums for updating centers, computed independently for each band &amp; then combined.
+	 */
+	private static class Accumulator {
+
+		private final int[] counts;
+		private final double[] x;
+		private final double[] y;
+		private final double[] f;
+
+		Accumulator(final int n, final int nChannels) {
+			counts = new int[n];
+			x = new double[n];
+			y = new double[n];
+			f = new double[n * nChannels];
+		}
+
+		Accumulator combine(final Accumulator other) {
+			for (int c = 0; c < counts.length; c++) {
+				counts[c] += other.counts[c];
+				x[c] += other.x[c];
+				y[c] += other.y[c];
+			}
+			for (int i = 0; i < f.length; i++)
+				f[i] += other.f[i];
+			return this;
+		}
+
+	}
+
+}
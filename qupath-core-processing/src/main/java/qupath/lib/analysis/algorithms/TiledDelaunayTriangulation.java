@@ -0,0 +1,683 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pure Java Delaunay triangulation, computed in parallel for overlapping tiles.
+ * <p>
+ * Points are binned into square tiles.  Each tile is triangulated along with the points falling within
+ * an overlap region around it, and contributes only the edges of the points it owns.  Edges are retained
+ * only if they are found from both of their end points, so that spurious edges at the boundary of a tile's
+ * overlap region are discarded.  The result is exact provided that the circumcircles of the Delaunay triangles
+ * are smaller than the overlap, which is normally the case for densely-packed objects such as cells.
+ * The exception is the convex hull of the full point set, where long 'sliver' edges may differ from those
+ * of a single triangulation; these are typically removed anyway when applying a distance threshold.
+ * <p>
+ * Each tile is triangulated using a sweep-hull algorithm (following the approach of the 'Delaunator' library),
+ * storing triangles and half-edges in primitive arrays.
+ *
+ * @author Pete Bankhead
+ *
+ */
+public class TiledDelaunayTriangulation {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiledDelaunayTriangulation.class);
+
+	/**
+	 * Preferred average number of points in each tile.
+	 */
+	private static final int PREFERRED_POINTS_PER_TILE = 50_000;
+
+	/**
+	 * Compute the Delaunay triangulation for a set of points, choosing the tile size and overlap automatically
+	 * from the point density.
+	 *
+	 * @param x x-coordinates
+	 * @param y y-coordinates
+	 * @param minOverlap minimum overlap between tiles; this may be increased based upon the point density.
+	 * @return a graph containing one node per point (in the same order as the input arrays); points with NaN coordinates have no neighbors
+	 */
+	public static AdjacencyGraph computeAdjacency(final double[] x, final double[] y, final double minOverlap) {
+		int n = x.length;
+		double[] bounds = getBounds(x, y);
+		double area = (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+		if (n <= PREFERRED_POINTS_PER_TILE * 2 || !(area > 0))
+			return computeAdjacency(x, y, Double.POSITIVE_INFINITY, 0);
+		double spacing = Math.sqrt(area / n);
+		double tileSize = Math.sqrt(area * PREFERRED_POINTS_PER_TILE / n);
+		double overlap = Math.max(spacing * 10, Double.isFinite(minOverlap) ? minOverlap : 0);
+		return computeAdjacency(x, y, Math.max(tileSize, overlap * 2), overlap);
+	}
+
+	/**
+	 * Compute the Delaunay triangulation for a set of points, using the specified tile size and overlap.
+	 *
+	 * @param x x-coordinates
+	 * @param y y-coordinates
+	 * @param tileSize width &amp; height of each tile; if infinite, a single tile will be used
+	 * @param overlap width of the overlap region around each tile
+	 * @return a graph containing one node per point (in the same order as the input arrays); points with NaN coordinates have no neighbors
+	 */
+	public static AdjacencyGraph computeAdjacency(final double[] x, final double[] y, final double tileSize, final double overlap) {
+		int n = x.length;
+		double[] bounds = getBounds(x, y);
+		if (!(bounds[2] >= bounds[0]))
+			return new AdjacencyGraph(new int[n+1], new int[0]);
+
+		// Determine tiles
+		double minX = bounds[0];
+		double minY = bounds[1];
+		int nTilesX = Double.isFinite(tileSize) ? Math.max(1, (int)Math.ceil((bounds[2] - minX) / tileSize + 1e-6)) : 1;
+		int nTilesY = Double.isFinite(tileSize) ? Math.max(1, (int)Math.ceil((bounds[3] - minY) / tileSize + 1e-6)) : 1;
+		double tileWidth = nTilesX == 1 ? bounds[2] - minX + 1 : tileSize;
+		double tileHeight = nTilesY == 1 ? bounds[3] - minY + 1 : tileSize;
+		int nTiles = nTilesX * nTilesY;
+
+		// Bin the points into tiles (CSR style)
+		int[] tileForPoint = new int[n];
+		int[] tileOffsets = new int[nTiles+1];
+		for (int i = 0; i < n; i++) {
+			if (Double.isNaN(x[i]) || Double.isNaN(y[i])) {
+				tileForPoint[i] = -1;
+				continue;
+			}
+			int tx = Math.min(nTilesX-1, (int)((x[i] - minX) / tileWidth));
+			int ty = Math.min(nTilesY-1, (int)((y[i] - minY) / tileHeight));
+			int t = ty * nTilesX + tx;
+			tileForPoint[i] = t;
+			tileOffsets[t+1]++;
+		}
+		for (int t = 0; t < nTiles; t++)
+			tileOffsets[t+1] += tileOffsets[t];
+		int[] tilePoints = new int[tileOffsets[nTiles]];
+		int[] counts = new int[nTiles];
+		for (int i = 0; i < n; i++) {
+			int t = tileForPoint[i];
+			if (t >= 0)
+				tilePoints[tileOffsets[t] + counts[t]++] = i;
+		}
+
+		logger.debug("Computing Delaunay triangulation for {} points using {} tile(s)", n, nTiles);
+
+		// Triangulate each tile in parallel, retaining directed edges from the points each tile owns
+		int tilesOverlap = nTiles == 1 ? 0 : (int)Math.ceil(overlap / Math.min(tileWidth, tileHeight));
+		List<int[]> tileEdges = IntStream.range(0, nTiles).parallel().mapToObj(t -> {
+			if (tileOffsets[t] == tileOffsets[t+1])
+				return null;
+			int tx = t % nTilesX;
+			int ty = t / nTilesX;
+			double x1 = minX + tx * tileWidth - overlap;
+			double y1 = minY + ty * tileHeight - overlap;
+			double x2 = minX + (tx + 1) * tileWidth + overlap;
+			double y2 = minY + (ty + 1) * tileHeight + overlap;
+			// Gather points from this tile & its overlap region
+			int nLocal = 0;
+			for (int tty = Math.max(0, ty - tilesOverlap); tty <= Math.min(nTilesY-1, ty + tilesOverlap); tty++) {
+				for (int ttx = Math.max(0, tx - tilesOverlap); ttx <= Math.min(nTilesX-1, tx + tilesOverlap); ttx++) {
+					int tt = tty * nTilesX + ttx;
+					nLocal += tileOffsets[tt+1] - tileOffsets[tt];
+				}
+			}
+			int[] localIndices = new int[nLocal];
+			nLocal = 0;
+			for (int tty = Math.max(0, ty - tilesOverlap); tty <= Math.min(nTilesY-1, ty + tilesOverlap); tty++) {
+				for (int ttx = Math.max(0, tx - tilesOverlap); ttx <= Math.min(nTilesX-1, tx + tilesOverlap); ttx++) {
+					int tt = tty * nTilesX + ttx;
+					for (int k = tileOffsets[tt]; k < tileOffsets[tt+1]; k++) {
+						int i = tilePoints[k];
+						if (tt == t || (x[i] >= x1 && x[i] < x2 && y[i] >= y1 && y[i] < y2))
+							localIndices[nLocal++] = i;
+					}
+				}
+			}
+			double[] coords = new double[nLocal * 2];
+			for (int k = 0; k < nLocal; k++) {
+				coords[k*2] = x[localIndices[k]];
+				coords[k*2+1] = y[localIndices[k]];
+			}
+			int[] edges = new SweepHullTriangulation(coords).getEdges();
+			// Convert to global indices, retaining only directed edges starting from owned points
+			int nEdges = 0;
+			int[] output = new int[edges.length * 2];
+			for (int e = 0; e < edges.length; e += 2) {
+				int i = localIndices[edges[e]];
+				int j = localIndices[edges[e+1]];
+				if (tileForPoint[i] == t) {
+					output[nEdges++] = i;
+					output[nEdges++] = j;
+				}
+				if (tileForPoint[j] == t) {
+					output[nEdges++] = j;
+					output[nEdges++] = i;
+				}
+			}
+			return Arrays.copyOf(output, nEdges);
+		}).collect(Collectors.toList());
+
+		// Merge edges from all tiles
+		int nEdges = 0;
+		for (int[] edges : tileEdges) {
+			if (edges != null)
+				nEdges += edges.length / 2;
+		}
+		int[] sources = new int[nEdges];
+		int[] targets = new int[nEdges];
+		int e = 0;
+		for (int[] edges : tileEdges) {
+			if (edges == null)
+				continue;
+			for (int k = 0; k < edges.length; k += 2) {
+				sources[e] = edges[k];
+				targets[e] = edges[k+1];
+				e++;
+			}
+		}
+		return AdjacencyGraph.createSymmetric(n, sources, targets, nEdges);
+	}
+
+
+	/**
+	 * Get bounds as [minX, minY, maxX, maxY], ignoring NaNs.
+	 */
+	private static double[] getBounds(final double[] x, final double[] y) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < x.length; i++) {
+			if (Double.isNaN(x[i]) || Double.isNaN(y[i]))
+				continue;
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		return new double[] {minX, minY, maxX, maxY};
+	}
+
+
+	/**
+	 * Sweep-hull Delaunay triangulation for a single set of points.
+	 */
+	static class SweepHullTriangulation {
+
+		private static final double EPSILON = Math.ulp(1.0) * 2;
+
+		private final double[] coords;
+		private final int[] triangles;
+		private final int[] halfedges;
+		private int trianglesLen = 0;
+
+		private final int hashSize;
+		private final int[] hullPrev;
+		private final int[] hullNext;
+		private final int[] hullTri;
+		private final int[] hullHash;
+		private int hullStart;
+		private double cx, cy;
+
+		private final int[] edgeStack = new int[512];
+
+		SweepHullTriangulation(final double[] coords) {
+			this.coords = coords;
+			int n = coords.length / 2;
+			int maxTriangles = Math.max(2 * n - 5, 0);
+			triangles = new int[maxTriangles * 3];
+			halfedges = new int[maxTriangles * 3];
+			hashSize = (int)Math.ceil(Math.sqrt(n));
+			hullPrev = new int[n];
+			hullNext = new int[n];
+			hullTri = new int[n];
+			hullHash = new int[Math.max(1, hashSize)];
+			if (n >= 3)
+				triangulate();
+		}
+
+		/**
+		 * Get the edges of the triangulation, as consecutive pairs of point indices; each edge is included once.
+		 */
+		int[] getEdges() {
+			int[] edges = new int[trianglesLen * 2];
+			int n = 0;
+			for (int e = 0; e < trianglesLen; e++) {
+				int opposite = halfedges[e];
+				if (opposite == -1 || e > opposite) {
+					edges[n++] = triangles[e];
+					edges[n++] = triangles[e % 3 == 2 ? e - 2 : e + 1];
+				}
+			}
+			return Arrays.copyOf(edges, n);
+		}
+
+		private void triangulate() {
+			int n = coords.length / 2;
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			int[] ids = new int[n];
+			for (int i = 0; i < n; i++) {
+				double x = coords[2*i];
+				double y = coords[2*i+1];
+				minX = Math.min(minX, x);
+				minY = Math.min(minY, y);
+				maxX = Math.max(maxX, x);
+				maxY = Math.max(maxY, y);
+				ids[i] = i;
+			}
+			double centerX = (minX + maxX) / 2;
+			double centerY = (minY + maxY) / 2;
+
+			// Pick a seed point close to the center
+			double minDist = Double.POSITIVE_INFINITY;
+			int i0 = 0, i1 = 0, i2 = 0;
+			for (int i = 0; i < n; i++) {
+				double d = dist(centerX, centerY, coords[2*i], coords[2*i+1]);
+				if (d < minDist) {
+					i0 = i;
+					minDist = d;
+				}
+			}
+			double i0x = coords[2*i0];
+			double i0y = coords[2*i0+1];
+
+			// Find the point closest to the seed
+			minDist = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				if (i == i0)
+					continue;
+				double d = dist(i0x, i0y, coords[2*i], coords[2*i+1]);
+				if (d < minDist && d > 0) {
+					i1 = i;
+					minDist = d;
+				}
+			}
+			double i1x = coords[2*i1];
+			double i1y = coords[2*i1+1];
+
+			// Find the third point which forms the smallest circumcircle with the first two
+			double minRadius = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				if (i == i0 || i == i1)
+					continue;
+				double r = circumradius(i0x, i0y, i1x, i1y, coords[2*i], coords[2*i+1]);
+				if (r < minRadius) {
+					i2 = i;
+					minRadius = r;
+				}
+			}
+			// All points are collinear (or duplicates) - no triangles can be formed
+			if (minRadius == Double.POSITIVE_INFINITY)
+				return;
+			double i2x = coords[2*i2];
+			double i2y = coords[2*i2+1];
+
+			// Orient the seed triangle counter-clockwise
+			if (orient(i0x, i0y, i1x, i1y, i2x, i2y)) {
+				int i = i1;
+				double x = i1x;
+				double y = i1y;
+				i1 = i2;
+				i1x = i2x;
+				i1y = i2y;
+				i2 = i;
+				i2x = x;
+				i2y = y;
+			}
+
+			double[] center = circumcenter(i0x, i0y, i1x, i1y, i2x, i2y);
+			cx = center[0];
+			cy = center[1];
+
+			// Sort the points by distance from the seed triangle circumcenter
+			double[] dists = new double[n];
+			for (int i = 0; i < n; i++)
+				dists[i] = dist(coords[2*i], coords[2*i+1], cx, cy);
+			quicksort(ids, dists, 0, n - 1);
+
+			// Set up the seed triangle as the starting hull
+			hullStart = i0;
+			hullNext[i0] = hullPrev[i2] = i1;
+			hullNext[i1] = hullPrev[i0] = i2;
+			hullNext[i2] = hullPrev[i1] = i0;
+			hullTri[i0] = 0;
+			hullTri[i1] = 1;
+			hullTri[i2] = 2;
+			Arrays.fill(hullHash, -1);
+			hullHash[hashKey(i0x, i0y)] = i0;
+			hullHash[hashKey(i1x, i1y)] = i1;
+			hullHash[hashKey(i2x, i2y)] = i2;
+
+			addTriangle(i0, i1, i2, -1, -1, -1);
+
+			double xp = 0, yp = 0;
+			for (int k = 0; k < n; k++) {
+				int i = ids[k];
+				double x = coords[2*i];
+				double y = coords[2*i+1];
+
+				// Skip near-duplicate points
+				if (k > 0 && Math.abs(x - xp) <= EPSILON && Math.abs(y - yp) <= EPSILON)
+					continue;
+				xp = x;
+				yp = y;
+
+				// Skip seed triangle points
+				if (i == i0 || i == i1 || i == i2)
+					continue;
+
+				// Find a visible edge on the convex hull using the edge hash
+				int start = 0;
+				int key = hashKey(x, y);
+				for (int j = 0; j < hashSize; j++) {
+					start = hullHash[(key + j) % hashSize];
+					if (start != -1 && start != hullNext[start])
+						break;
+				}
+
+				start = hullPrev[start];
+				int e = start;
+				int q;
+				while (true) {
+					q = hullNext[e];
+					if (orient(x, y, coords[2*e], coords[2*e+1], coords[2*q], coords[2*q+1]))
+						break;
+					e = q;
+					if (e == start) {
+						e = -1;
+						break;
+					}
+				}
+				// Likely a near-duplicate point - skip it
+				if (e == -1)
+					continue;
+
+				// Add the first triangle from the point
+				int t = addTriangle(e, i, hullNext[e], -1, -1, hullTri[e]);
+
+				// Recursively flip triangles from the point until they satisfy the Delaunay condition
+				hullTri[i] = legalize(t + 2);
+				hullTri[e] = t;
+
+				// Walk forward through the hull, adding more triangles and flipping recursively
+				int next = hullNext[e];
+				while (true) {
+					q = hullNext[next];
+					if (!orient(x, y, coords[2*next], coords[2*next+1], coords[2*q], coords[2*q+1]))
+						break;
+					t = addTriangle(next, i, q, hullTri[i], -1, hullTri[next]);
+					hullTri[i] = legalize(t + 2);
+					hullNext[next] = next; // Mark as removed
+					next = q;
+				}
+
+				// Walk backward from the other side, adding more triangles and flipping
+				if (e == start) {
+					while (true) {
+						q = hullPrev[e];
+						if (!orient(x, y, coords[2*q], coords[2*q+1], coords[2*e], coords[2*e+1]))
+							break;
+						t = addTriangle(q, i, e, -1, hullTri[e], hullTri[q]);
+						legalize(t + 2);
+						hullTri[q] = t;
+						hullNext[e] = e; // Mark as removed
+						e = q;
+					}
+				}
+
+				// Update the hull indices
+				hullStart = hullPrev[i] = e;
+				hullNext[e] = hullPrev[next] = i;
+				hullNext[i] = next;
+
+				// Save the two new edges in the hash table
+				hullHash[hashKey(x, y)] = i;
+				hullHash[hashKey(coords[2*e], coords[2*e+1])] = e;
+			}
+		}
+
+		private int hashKey(final double x, final double y) {
+			return (int)Math.floor(pseudoAngle(x - cx, y - cy) * hashSize) % hashSize;
+		}
+
+		private int legalize(int a) {
+			int i = 0;
+			int ar = 0;
+
+			// Recursion eliminated with a fixed-size stack
+			while (true) {
+				int b = halfedges[a];
+
+				int a0 = a - a % 3;
+				ar = a0 + (a + 2) % 3;
+
+				// Convex hull edge
+				if (b == -1) {
+					if (i == 0)
+						break;
+					a = edgeStack[--i];
+					continue;
+				}
+
+				int b0 = b - b % 3;
+				int al = a0 + (a + 1) % 3;
+				int bl = b0 + (b + 2) % 3;
+
+				int p0 = triangles[ar];
+				int pr = triangles[a];
+				int pl = triangles[al];
+				int p1 = triangles[bl];
+
+				boolean illegal = inCircle(
+						coords[2*p0], coords[2*p0+1],
+						coords[2*pr], coords[2*pr+1],
+						coords[2*pl], coords[2*pl+1],
+						coords[2*p1], coords[2*p1+1]);
+
+				if (illegal) {
+					triangles[a] = p1;
+					triangles[b] = p0;
+
+					int hbl = halfedges[bl];
+
+					// Edge swapped on the other side of the hull (rare); fix the halfedge reference
+					if (hbl == -1) {
+						int e = hullStart;
+						do {
+							if (hullTri[e] == bl) {
+								hullTri[e] = a;
+								break;
+							}
+							e = hullPrev[e];
+						} while (e != hullStart);
+					}
+					link(a, hbl);
+					link(b, halfedges[ar]);
+					link(ar, bl);
+
+					int br = b0 + (b + 1) % 3;
+
+					// Don't worry about hitting the cap: it can only happen on extremely degenerate input
+					if (i < edgeStack.length)
+						edgeStack[i++] = br;
+				} else {
+					if (i == 0)
+						break;
+					a = edgeStack[--i];
+				}
+			}
+			return ar;
+		}
+
+		private void link(final int a, final int b) {
+			halfedges[a] = b;
+			if (b != -1)
+				halfedges[b] = a;
+		}
+
+		private int addTriangle(final int i0, final int i1, final int i2, final int a, final int b, final int c) {
+			int t = trianglesLen;
+			triangles[t] = i0;
+			triangles[t + 1] = i1;
+			triangles[t + 2] = i2;
+			link(t, a);
+			link(t + 1, b);
+			link(t + 2, c);
+			trianglesLen += 3;
+			return t;
+		}
+
+		/**
+		 * Monotonically increases with the real angle, but doesn't need expensive trigonometry.
+		 */
+		private static double pseudoAngle(final double dx, final double dy) {
+			double p = dx / (Math.abs(dx) + Math.abs(dy));
+			return (dy > 0 ? 3 - p : 1 + p) / 4; // [0..1]
+		}
+
+		private static double dist(final double ax, final double ay, final double bx, final double by) {
+			double dx = ax - bx;
+			double dy = ay - by;
+			return dx * dx + dy * dy;
+		}
+
+		private static boolean orient(final double px, final double py, final double qx, final double qy, final double rx, final double ry) {
+			return (qy - py) * (rx - qx) - (qx - px) * (ry - qy) < 0;
+		}
+
+		private static boolean inCircle(final double ax, final double ay, final double bx, final double by, final double cx, final double cy, final double px, final double py) {
+			double dx = ax - px;
+			double dy = ay - py;
+			double ex = bx - px;
+			double ey = by - py;
+			double fx = cx - px;
+			double fy = cy - py;
+
+			double ap = dx * dx + dy * dy;
+			double bp = ex * ex + ey * ey;
+			double cp = fx * fx + fy * fy;
+
+			return dx * (ey * cp - bp * fy) -
+					dy * (ex * cp - bp * fx) +
+					ap * (ex * fy - ey * fx) < 0;
+		}
+
+		private static double circumradius(final double ax, final double ay, final double bx, final double by, final double cx, final double cy) {
+			double dx = bx - ax;
+			double dy = by - ay;
+			double ex = cx - ax;
+			double ey = cy - ay;
+
+			double bl = dx * dx + dy * dy;
+			double cl = ex * ex + ey * ey;
+			double d = 0.5 / (dx * ey - dy * ex);
+
+			double x = (ey * bl - dy * cl) * d;
+			double y = (dx * cl - ex * bl) * d;
+
+			double r = x * x + y * y;
+			return Double.isNaN(r) ? Double.POSITIVE_INFINITY : r;
+		}
+
+		private static double[] circumcenter(final double ax, final double ay, final double bx, final double by, final double cx, final double cy) {
+			double dx = bx - ax;
+			double dy = by - ay;
+			double ex = cx - ax;
+			double ey = cy - ay;
+
+			double bl = dx * dx + dy * dy;
+			double cl = ex * ex + ey * ey;
+			double d = 0.5 / (dx * ey - dy * ex);
+
+			double x = ax + (ey * bl - dy * cl) * d;
+			double y = ay + (dx * cl - ex * bl) * d;
+
+			return new double[] {x, y};
+		}
+
+		/**
+		 * Sort ids according to the corresponding distances.
+		 */
+		private static void quicksort(final int[] ids, final double[] dists, final int left, final int right) {
+			if (right - left <= 20) {
+				for (int i = left + 1; i <= right; i++) {
+					int temp = ids[i];
+					double tempDist = dists[temp];
+					int j = i - 1;
+					while (j >= left && dists[ids[j]] > tempDist)
+						ids[j + 1] = ids[j--];
+					ids[j + 1] = temp;
+				}
+			} else {
+				int median = (left + right) >> 1;
+				int i = left + 1;
+				int j = right;
+				swap(ids, median, i);
+				if (dists[ids[left]] > dists[ids[right]])
+					swap(ids, left, right);
+				if (dists[ids[i]] > dists[ids[right]])
+					swap(ids, i, right);
+				if (dists[ids[left]] > dists[ids[i]])
+					swap(ids, left, i);
+
+				int temp = ids[i];
+				double tempDist = dists[temp];
+				while (true) {
+					do i++; while (dists[ids[i]] < tempDist);
+					do j--; while (dists[ids[j]] > tempDist);
+					if (j < i)
+						break;
+					swap(ids, i, j);
+				}
+				ids[left + 1] = ids[j];
+				ids[j] = temp;
+
+				if (right - i + 1 >= j - left) {
+					quicksort(ids, dists, i, right);
+					quicksort(ids, dists, left, j - 1);
+				} else {
+					quicksort(ids, dists, left, j - 1);
+					quicksort(ids, dists, i, right);
+				}
+			}
+		}
+
+		private static void swap(final int[] arr, final int i, final int j) {
+			int tmp = arr[i];
+			arr[i] = arr[j];
+			arr[j] = tmp;
+		}
+
+	}
+
+}
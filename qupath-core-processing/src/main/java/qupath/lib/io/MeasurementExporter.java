@@ -0,0 +1,506 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+package qupath.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Locale.Category;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.GeneralTools;
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.objects.PathObject;
+
+/**
+ * Static methods for exporting measurements, without first building the entire table in memory.
+ * <p>
+ * Measurements for a collection of objects are read directly from their measurement lists, so no table model is needed.
+ * Other kinds of values can be exported by providing a {@link Column} for each.
+ * <p>
+ * Rows are formatted in chunks, in parallel where possible, and written in order to a channel as soon as they are ready.
+ * Two formats are supported:
+ * <ul>
+ * <li>Delimited text (e.g. CSV or tab-separated)</li>
+ * <li>A simple columnar binary format, in which numeric columns are stored as 64-bit floating point values</li>
+ * </ul>
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MeasurementExporter {
+	
+	final private static Logger logger = LoggerFactory.getLogger(MeasurementExporter.class);
+	
+	/**
+	 * Default file extension for the columnar binary format.
+	 */
+	final public static String BINARY_EXTENSION = ".qptable";
+	
+	private final static byte[] BINARY_MAGIC = "QPTB".getBytes(StandardCharsets.US_ASCII);
+	private final static int BINARY_VERSION = 1;
+	
+	private final static byte COLUMN_NUMERIC = 0;
+	private final static byte COLUMN_STRING = 1;
+	
+	private static int ROWS_PER_CHUNK = 4096;
+	
+	/**
+	 * A column of values to export, with one value for each entry.
+	 * <p>
+	 * Implementations must be safe to call from multiple threads if used for a parallel export.
+	 *
+	 * @param <T>
+	 */
+	public static interface Column<T> {
+		
+		/**
+		 * Name of the column, used in the header.
+		 * 
+		 * @return
+		 */
+		public String getName();
+		
+		/**
+		 * Returns true if the column contains numeric values, which are stored as doubles in the binary format.
+		 * 
+		 * @return
+		 */
+		public boolean isNumeric();
+		
+		/**
+		 * Get the numeric value for an entry.
+		 * 
+		 * @param entry
+		 * @return
+		 */
+		public double getNumericValue(T entry);
+		
+		/**
+		 * Get the value for an entry as a String, or null if there is no value.
+		 * 
+		 * @param entry
+		 * @return
+		 */
+		public String getStringValue(T entry);
+		
+		/**
+		 * Append the value for an entry to a StringBuilder, for delimited text.
+		 * By default, this appends the String value.
+		 * 
+		 * @param sb
+		 * @param entry
+		 * @param decimalSeparator
+		 * @return the StringBuilder provided as input
+		 */
+		public default StringBuilder appendValue(StringBuilder sb, T entry, char decimalSeparator) {
+			String val = getStringValue(entry);
+			return val == null ? sb : sb.append(val);
+		}
+		
+	}
+	
+	/**
+	 * Create a column that reads a measurement directly from the measurement list of each object.
+	 * Values are written with up to 4 decimal places in delimited text.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static Column<PathObject> createMeasurementColumn(final String name) {
+		return new MeasurementColumn(name);
+	}
+	
+	/**
+	 * Get the names of all the measurements found in the measurement lists of a collection of objects, 
+	 * in the order in which they are first encountered.
+	 * 
+	 * @param pathObjects
+	 * @return
+	 */
+	public static List<String> getMeasurementNames(final Collection<? extends PathObject> pathObjects) {
+		Set<String> names = new LinkedHashSet<>();
+		for (PathObject pathObject : pathObjects)
+			names.addAll(pathObject.getMeasurementList().getMeasurementNames());
+		return new ArrayList<>(names);
+	}
+	
+	/**
+	 * Write measurements for a collection of objects as delimited text to a file, using the default Locale to format numbers.
+	 * 
+	 * @param pathObjects
+	 * @param measurements names of the measurements to export, in order
+	 * @param delimiter
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void writeDelimited(final Collection<? extends PathObject> pathObjects, final List<String> measurements, final String delimiter, final File file) throws IOException {
+		try (FileChannel channel = openChannel(file)) {
+			writeDelimited(new ArrayList<>(pathObjects), createMeasurementColumns(measurements), delimiter, true, channel);
+		}
+	}
+	
+	/**
+	 * Write measurements for a collection of objects to a file in the columnar binary format.
+	 * 
+	 * @param pathObjects
+	 * @param measurements names of the measurements to export, in order
+	 * @param file
+	 * @throws IOException
+	 * 
+	 * @see #readBinary(File)
+	 */
+	public static void writeBinary(final Collection<? extends PathObject> pathObjects, final List<String> measurements, final File file) throws IOException {
+		try (FileChannel channel = openChannel(file)) {
+			writeBinary(new ArrayList<>(pathObjects), createMeasurementColumns(measurements), true, channel);
+		}
+	}
+	
+	private static List<Column<PathObject>> createMeasurementColumns(final List<String> measurements) {
+		List<Column<PathObject>> columns = new ArrayList<>();
+		for (String name : measurements)
+			columns.add(createMeasurementColumn(name));
+		return columns;
+	}
+	
+	/**
+	 * Open a channel to write to a file, replacing any existing contents.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static FileChannel openChannel(final File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+	
+	/**
+	 * Write columns as delimited text to a channel, using the default Locale to format numbers.
+	 * <p>
+	 * The output is encoded as UTF-8, with a header containing the column names.
+	 * 
+	 * @param entries
+	 * @param columns
+	 * @param delimiter
+	 * @param doParallel if true, rows may be formatted in parallel
+	 * @param channel
+	 * @throws IOException
+	 */
+	public static <T> void writeDelimited(final List<? extends T> entries, final List<? extends Column<? super T>> columns, final String delimiter, final boolean doParallel, final WritableByteChannel channel) throws IOException {
+		long startTime = System.currentTimeMillis();
+		String newline = System.lineSeparator();
+		
+		// Write the header
+		StringBuilder sb = new StringBuilder();
+		for (int col = 0; col < columns.size(); col++) {
+			if (col > 0)
+				sb.append(delimiter);
+			sb.append(columns.get(col).getName());
+		}
+		sb.append(newline);
+		writeFully(channel, sb.toString().getBytes(StandardCharsets.UTF_8));
+		
+		// Write the rows
+		char decimalSeparator = DecimalFormatSymbols.getInstance(Locale.getDefault(Category.FORMAT)).getDecimalSeparator();
+		List<Callable<byte[]>> tasks = new ArrayList<>();
+		for (int start = 0; start < entries.size(); start += ROWS_PER_CHUNK) {
+			int startRow = start;
+			int endRow = Math.min(entries.size(), start + ROWS_PER_CHUNK);
+			tasks.add(() -> formatRows(entries, startRow, endRow, columns, delimiter, decimalSeparator, newline));
+		}
+		runInOrder(tasks, doParallel, channel);
+		
+		long endTime = System.currentTimeMillis();
+		logger.debug("Exported {} rows x {} columns in {} ms", entries.size(), columns.size(), endTime - startTime);
+	}
+	
+	private static <T> byte[] formatRows(final List<? extends T> entries, final int startRow, final int endRow, 
+			final List<? extends Column<? super T>> columns, final String delimiter, final char decimalSeparator, final String newline) {
+		StringBuilder sb = new StringBuilder((endRow - startRow) * columns.size() * 8);
+		for (int row = startRow; row < endRow; row++) {
+			T entry = entries.get(row);
+			for (int col = 0; col < columns.size(); col++) {
+				if (col > 0)
+					sb.append(delimiter);
+				columns.get(col).appendValue(sb, entry, decimalSeparator);
+			}
+			sb.append(newline);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Write columns to a channel in a columnar binary format.
+	 * <p>
+	 * This consists of a header (magic number 'QPTB', version, row count, column count, then the type &amp; name of each column) 
+	 * followed by the values for each column in turn.  Numeric columns are stored as big-endian 64-bit floating point values, 
+	 * while String columns store the length of each (UTF-8 encoded) value, followed by its bytes - with a length of -1 indicating null.
+	 * 
+	 * @param entries
+	 * @param columns
+	 * @param doParallel if true, columns may be converted in parallel
+	 * @param channel
+	 * @throws IOException
+	 * 
+	 * @see #readBinary(File)
+	 */
+	public static <T> void writeBinary(final List<? extends T> entries, final List<? extends Column<? super T>> columns, final boolean doParallel, final WritableByteChannel channel) throws IOException {
+		long startTime = System.currentTimeMillis();
+		
+		// Write the header
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream stream = new DataOutputStream(bytes);
+		stream.write(BINARY_MAGIC);
+		stream.writeInt(BINARY_VERSION);
+		stream.writeInt(entries.size());
+		stream.writeInt(columns.size());
+		for (Column<? super T> column : columns) {
+			stream.writeByte(column.isNumeric() ? COLUMN_NUMERIC : COLUMN_STRING);
+			stream.writeUTF(column.getName());
+		}
+		stream.flush();
+		writeFully(channel, bytes.toByteArray());
+		
+		// Write the columns
+		List<Callable<byte[]>> tasks = new ArrayList<>();
+		for (Column<? super T> column : columns) {
+			for (int start = 0; start < entries.size(); start += ROWS_PER_CHUNK) {
+				int startRow = start;
+				int endRow = Math.min(entries.size(), start + ROWS_PER_CHUNK);
+				if (column.isNumeric())
+					tasks.add(() -> getNumericBytes(entries, startRow, endRow, column));
+				else
+					tasks.add(() -> getStringBytes(entries, startRow, endRow, column));
+			}
+		}
+		runInOrder(tasks, doParallel, channel);
+		
+		long endTime = System.currentTimeMillis();
+		logger.debug("Exported {} rows x {} columns (binary) in {} ms", entries.size(), columns.size(), endTime - startTime);
+	}
+	
+	private static <T> byte[] getNumericBytes(final List<? extends T> entries, final int startRow, final int endRow, final Column<? super T> column) {
+		ByteBuffer buffer = ByteBuffer.allocate((endRow - startRow) * Double.BYTES);
+		for (int row = startRow; row < endRow; row++)
+			buffer.putDouble(column.getNumericValue(entries.get(row)));
+		return buffer.array();
+	}
+	
+	private static <T> byte[] getStringBytes(final List<? extends T> entries, final int startRow, final int endRow, final Column<? super T> column) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((endRow - startRow) * 16);
+		DataOutputStream stream = new DataOutputStream(bytes);
+		for (int row = startRow; row < endRow; row++) {
+			String val = column.getStringValue(entries.get(row));
+			if (val == null)
+				stream.writeInt(-1);
+			else {
+				byte[] b = val.getBytes(StandardCharsets.UTF_8);
+				stream.writeInt(b.length);
+				stream.write(b);
+			}
+		}
+		stream.flush();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Read a table written in the columnar binary format.
+	 * 
+	 * @param file
+	 * @return an ordered map of column names to values, where each value is either a double[] (numeric columns) or a String[] (String columns)
+	 * @throws IOException
+	 * 
+	 * @see #writeBinary(Collection, List, File)
+	 */
+	public static Map<String, Object> readBinary(final File file) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			DataInputStream stream = new DataInputStream(in);
+			byte[] magic = new byte[BINARY_MAGIC.length];
+			stream.readFully(magic);
+			for (int i = 0; i < magic.length; i++) {
+				if (magic[i] != BINARY_MAGIC[i])
+					throw new IOException(file + " is not a valid binary measurement table");
+			}
+			int version = stream.readInt();
+			if (version != BINARY_VERSION)
+				logger.warn("Unexpected binary table version {}", version);
+			int nRows = stream.readInt();
+			int nColumns = stream.readInt();
+			byte[] types = new byte[nColumns];
+			String[] names = new String[nColumns];
+			for (int col = 0; col < nColumns; col++) {
+				types[col] = stream.readByte();
+				names[col] = stream.readUTF();
+			}
+			Map<String, Object> map = new LinkedHashMap<>();
+			for (int col = 0; col < nColumns; col++) {
+				if (types[col] == COLUMN_NUMERIC) {
+					byte[] b = new byte[nRows * Double.BYTES];
+					stream.readFully(b);
+					double[] values = new double[nRows];
+					ByteBuffer.wrap(b).asDoubleBuffer().get(values);
+					map.put(names[col], values);
+				} else {
+					String[] values = new String[nRows];
+					for (int row = 0; row < nRows; row++) {
+						int length = stream.readInt();
+						if (length < 0)
+							continue;
+						byte[] b = new byte[length];
+						stream.readFully(b);
+						values[row] = new String(b, StandardCharsets.UTF_8);
+					}
+					map.put(names[col], values);
+				}
+			}
+			return map;
+		}
+	}
+	
+	
+	/**
+	 * Column that reads values directly from the measurement list of each object.
+	 */
+	private static class MeasurementColumn implements Column<PathObject> {
+		
+		private final String name;
+		
+		MeasurementColumn(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isNumeric() {
+			return true;
+		}
+
+		@Override
+		public double getNumericValue(final PathObject pathObject) {
+			return pathObject.getMeasurementList().getMeasurementValue(name);
+		}
+
+		@Override
+		public String getStringValue(final PathObject pathObject) {
+			double val = getNumericValue(pathObject);
+			if (Double.isNaN(val))
+				return "NaN";
+			return GeneralTools.formatNumber(val, 4);
+		}
+		
+		@Override
+		public StringBuilder appendValue(final StringBuilder sb, final PathObject pathObject, final char decimalSeparator) {
+			return GeneralTools.appendNumber(sb, getNumericValue(pathObject), 4, decimalSeparator);
+		}
+		
+	}
+	
+	/**
+	 * Run tasks that each produce a chunk of bytes, writing the results to a channel in the order of the tasks.
+	 * The number of pending chunks is bounded, so that memory use does not depend on the total size of the output.
+	 */
+	private static void runInOrder(final List<Callable<byte[]>> tasks, final boolean doParallel, final WritableByteChannel channel) throws IOException {
+		int nThreads = doParallel ? Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()) : 1;
+		if (nThreads <= 1) {
+			for (Callable<byte[]> task : tasks) {
+				try {
+					writeFully(channel, task.call());
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new SimpleThreadFactory("measurement-export", true));
+		try {
+			Deque<Future<byte[]>> pending = new ArrayDeque<>();
+			int maxPending = nThreads * 2;
+			for (Callable<byte[]> task : tasks) {
+				pending.add(pool.submit(task));
+				if (pending.size() >= maxPending)
+					writeFully(channel, getResult(pending.poll()));
+			}
+			while (!pending.isEmpty())
+				writeFully(channel, getResult(pending.poll()));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	private static byte[] getResult(final Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Measurement export interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private static void writeFully(final WritableByteChannel channel, final byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+}
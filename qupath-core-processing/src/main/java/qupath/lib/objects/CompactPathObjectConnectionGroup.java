@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.analysis.algorithms.AdjacencyGraph;
+
+/**
+ * PathObjectConnectionGroup backed by an array of objects and an {@link AdjacencyGraph}.
+ * <p>
+ * This requires much less memory than {@link DefaultPathObjectConnectionGroup} when there are many objects,
+ * since connections are stored as primitive arrays rather than as lists of objects.
+ *
+ * @author Pete Bankhead
+ *
+ */
+public class CompactPathObjectConnectionGroup implements PathObjectConnectionGroup, Externalizable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(CompactPathObjectConnectionGroup.class);
+
+	private PathObject[] pathObjects;
+	private AdjacencyGraph graph;
+
+	private transient volatile Map<PathObject, Integer> indexMap;
+
+	public CompactPathObjectConnectionGroup() {}
+
+	/**
+	 * Create a connection group.
+	 *
+	 * @param pathObjects objects corresponding to the nodes of the graph; this array is used directly, and should not be modified later
+	 * @param graph graph with the same number of nodes as there are objects
+	 */
+	public CompactPathObjectConnectionGroup(final PathObject[] pathObjects, final AdjacencyGraph graph) {
+		if (pathObjects.length != graph.nNodes())
+			throw new IllegalArgumentException("Number of objects (" + pathObjects.length + ") does not match the number of nodes (" + graph.nNodes() + ")");
+		this.pathObjects = pathObjects;
+		this.graph = graph;
+	}
+
+	/**
+	 * Get the graph representing the connections; node indices correspond to the object indices.
+	 * @return
+	 */
+	public AdjacencyGraph getAdjacencyGraph() {
+		return graph;
+	}
+
+	/**
+	 * Number of objects in the group.
+	 * @return
+	 */
+	public int nObjects() {
+		return pathObjects.length;
+	}
+
+	/**
+	 * Get the object with the specified index.
+	 * @param index
+	 * @return
+	 */
+	public PathObject getObject(final int index) {
+		return pathObjects[index];
+	}
+
+	/**
+	 * Get the index of an object, or -1 if the object is not contained within the group.
+	 * @param pathObject
+	 * @return
+	 */
+	public int getIndex(final PathObject pathObject) {
+		Integer index = getIndexMap().get(pathObject);
+		return index == null ? -1 : index.intValue();
+	}
+
+	private Map<PathObject, Integer> getIndexMap() {
+		if (indexMap == null) {
+			synchronized (this) {
+				if (indexMap == null) {
+					Map<PathObject, Integer> map = new IdentityHashMap<>(pathObjects.length);
+					for (int i = 0; i < pathObjects.length; i++)
+						map.put(pathObjects[i], i);
+					indexMap = map;
+				}
+			}
+		}
+		return indexMap;
+	}
+
+	@Override
+	public boolean containsObject(final PathObject pathObject) {
+		return getIndex(pathObject) >= 0;
+	}
+
+	@Override
+	public Collection<PathObject> getPathObjects() {
+		return Collections.unmodifiableList(Arrays.asList(pathObjects));
+	}
+
+	@Override
+	public List<PathObject> getConnectedObjects(final PathObject pathObject) {
+		int index = getIndex(pathObject);
+		if (index < 0)
+			return Collections.emptyList();
+		return new AbstractList<PathObject>() {
+
+			@Override
+			public PathObject get(int k) {
+				return pathObjects[graph.getNeighbor(index, k)];
+			}
+
+			@Override
+			public int size() {
+				return graph.nNeighbors(index);
+			}
+
+		};
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeLong(1);
+		out.writeObject(pathObjects);
+		out.writeObject(graph.getOffsets());
+		out.writeObject(graph.getIndices());
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		long version = in.readLong();
+		if (version != 1) {
+			logger.warn("Unexpected {} version number {}", CompactPathObjectConnectionGroup.class, version);
+		}
+		pathObjects = (PathObject[])in.readObject();
+		int[] offsets = (int[])in.readObject();
+		int[] indices = (int[])in.readObject();
+		graph = new AdjacencyGraph(offsets, indices);
+		indexMap = null;
+	}
+
+}
@@ -25,7 +25,9 @@ package qupath.lib.plugins.objects;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +43,7 @@ import qupath.lib.objects.TMACoreObject;
 import qupath.lib.plugins.AbstractInteractivePlugin;
 import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
+import qupath.lib.roi.PolygonShapeStatistics;
 import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.ROI;
 
@@ -53,6 +56,55 @@ import qupath.lib.roi.interfaces.ROI;
  */
 public class ShapeFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 	
+	/**
+	 * Shape measurements that may be added to objects.
+	 */
+	public static enum ShapeFeatures {
+		/**
+		 * Area of the ROI
+		 */
+		AREA("area"),
+		/**
+		 * Perimeter of the ROI
+		 */
+		PERIMETER("perimeter"),
+		/**
+		 * Circularity, between 0 (a line) and 1 (a circle)
+		 */
+		CIRCULARITY("circularity"),
+		/**
+		 * Area of the ROI divided by the area of its convex hull
+		 */
+		SOLIDITY("solidity"),
+		/**
+		 * Maximum caliper (Feret) diameter
+		 */
+		MAX_CALIPER("maxCaliper"),
+		/**
+		 * Minimum caliper (Feret) diameter
+		 */
+		MIN_CALIPER("minCaliper"),
+		/**
+		 * Eccentricity of the ellipse with the same second moments as the ROI
+		 */
+		ECCENTRICITY("eccentricity");
+		
+		private final String key;
+		
+		ShapeFeatures(final String key) {
+			this.key = key;
+		}
+		
+		/**
+		 * Returns true if the measurement requires the convex hull or second moments of the ROI,
+		 * rather than only its area and perimeter.
+		 */
+		boolean requiresStatistics() {
+			return this == SOLIDITY || this == MAX_CALIPER || this == MIN_CALIPER || this == ECCENTRICITY;
+		}
+		
+	}
+	
 	private ParameterList params;
 	
 	final private static Logger logger = LoggerFactory.getLogger(ShapeFeaturesPlugin.class);
@@ -64,6 +116,10 @@ public class ShapeFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 				.addBooleanParameter("area", "Area", true, "Compute area of ROI")
 				.addBooleanParameter("perimeter", "Perimeter", false, "Compute perimeter of ROI")
 				.addBooleanParameter("circularity", "Circularity", false, "Compute circularity of ROI, between 0 (a line) and 1 (a circle)")
+				.addBooleanParameter("solidity", "Solidity", false, "Compute solidity of ROI, i.e. the ROI area divided by the area of its convex hull")
+				.addBooleanParameter("maxCaliper", "Max caliper", false, "Compute the maximum caliper (Feret) diameter of ROI")
+				.addBooleanParameter("minCaliper", "Min caliper", false, "Compute the minimum caliper (Feret) diameter of ROI")
+				.addBooleanParameter("eccentricity", "Eccentricity", false, "Compute eccentricity of the ellipse with the same second moments as ROI, between 0 (a circle) and 1 (a line)")
 				.addTitleParameter("Units")
 				.addBooleanParameter("useMicrons", "Use microns", true, "Compute measurements using " + GeneralTools.micrometerSymbol() + ", where possible");
 	}
@@ -101,37 +157,19 @@ public class ShapeFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 		double pixelHeight = useMicrons ? imageData.getServer().getPixelHeightMicrons() : 1;
 		String unit = useMicrons ? GeneralTools.micrometerSymbol() : "px";
 		
-		boolean doArea = params.getBooleanParameterValue("area");
-		boolean doPerimeter = params.getBooleanParameterValue("perimeter");
-		boolean doCircularity = params.getBooleanParameterValue("circularity");
+		Set<ShapeFeatures> features = EnumSet.noneOf(ShapeFeatures.class);
+		for (ShapeFeatures feature : ShapeFeatures.values()) {
+			if (params.getBooleanParameterValue(feature.key))
+				features.add(feature);
+		}
 		
-		PathArea roi = (parentObject.getROI() instanceof PathArea) ? (PathArea)parentObject.getROI() : null;
-		if (roi instanceof PathArea) {
+		if (parentObject.getROI() instanceof PathArea) {
 			tasks.add(new Runnable() {
 	
 				@Override
 				public void run() {
 					try {
-						MeasurementList measurementList = parentObject.getMeasurementList();
-						
-						ROI roi;
-						if (parentObject instanceof PathCellObject) {
-							
-							roi = ((PathCellObject)parentObject).getNucleusROI();
-							if (roi instanceof PathArea)
-								addMeasurements(measurementList, (PathArea)roi, "Nucleus Shape: ", pixelWidth, pixelHeight, unit, doArea, doPerimeter, doCircularity);
-							
-							roi = parentObject.getROI();
-							if (roi instanceof PathArea)
-								addMeasurements(measurementList, (PathArea)roi, "Cell Shape: ", pixelWidth, pixelHeight, unit, doArea, doPerimeter, doCircularity);
-							
-						} else {
-							roi = parentObject.getROI();
-							if (roi instanceof PathArea)
-								addMeasurements(measurementList, (PathArea)roi, "ROI Shape: ", pixelWidth, pixelHeight, unit, doArea, doPerimeter, doCircularity);
-						}
-						
-						measurementList.closeList();
+						addShapeMeasurements(parentObject, pixelWidth, pixelHeight, unit, features);
 					} catch (Exception e) {
 						e.printStackTrace();
 						throw(e);
@@ -141,15 +179,73 @@ public class ShapeFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 		}
 	}
 	
+	
+	/**
+	 * Add shape measurements to a collection of existing objects, in parallel.
+	 * <p>
+	 * This does not require any pixel data, and so may be used to update measurements after importing
+	 * objects or editing their ROIs - without the need to rerun any detection.
+	 * 
+	 * @param pathObjects objects to measure; objects without area ROIs are ignored
+	 * @param pixelWidth pixel width, used to scale measurements
+	 * @param pixelHeight pixel height, used to scale measurements
+	 * @param unit unit to use in measurement names, e.g. "px" or a micrometer symbol
+	 * @param features measurements to add
+	 */
+	public static void addShapeMeasurements(final Collection<? extends PathObject> pathObjects, final double pixelWidth, final double pixelHeight, final String unit, final Collection<ShapeFeatures> features) {
+		Set<ShapeFeatures> featureSet = features.isEmpty() ? EnumSet.noneOf(ShapeFeatures.class) : EnumSet.copyOf(features);
+		pathObjects.parallelStream()
+			.filter(p -> p.getROI() instanceof PathArea)
+			.forEach(p -> addShapeMeasurements(p, pixelWidth, pixelHeight, unit, featureSet));
+	}
+	
+	private static void addShapeMeasurements(final PathObject pathObject, final double pixelWidth, final double pixelHeight, final String unit, final Set<ShapeFeatures> features) {
+		MeasurementList measurementList = pathObject.getMeasurementList();
+		
+		ROI roi;
+		if (pathObject instanceof PathCellObject) {
+			
+			roi = ((PathCellObject)pathObject).getNucleusROI();
+			if (roi instanceof PathArea)
+				addMeasurements(measurementList, (PathArea)roi, "Nucleus Shape: ", pixelWidth, pixelHeight, unit, features);
+			
+			roi = pathObject.getROI();
+			if (roi instanceof PathArea)
+				addMeasurements(measurementList, (PathArea)roi, "Cell Shape: ", pixelWidth, pixelHeight, unit, features);
+			
+		} else {
+			roi = pathObject.getROI();
+			if (roi instanceof PathArea)
+				addMeasurements(measurementList, (PathArea)roi, "ROI Shape: ", pixelWidth, pixelHeight, unit, features);
+		}
+		
+		measurementList.closeList();
+	}
+	
 
 	private static void addMeasurements(final MeasurementList measurementList, final PathArea roi, final String prefix, final double pixelWidth, final double pixelHeight, final String unit,
-			final boolean doArea, final boolean doPerimeter, final boolean doCircularity) {
-		if (doArea)
+			final Set<ShapeFeatures> features) {
+		if (features.contains(ShapeFeatures.AREA))
 			measurementList.putMeasurement(prefix + "Area " + unit + "^2", roi.getScaledArea(pixelWidth, pixelHeight));
-		if (doPerimeter)
+		if (features.contains(ShapeFeatures.PERIMETER))
 			measurementList.putMeasurement(prefix + "Perimeter " + unit, roi.getScaledPerimeter(pixelWidth, pixelHeight));
-		if (doCircularity)
-			measurementList.putMeasurement(prefix + "Circularity", roi.getCircularity());		
+		if (features.contains(ShapeFeatures.CIRCULARITY))
+			measurementList.putMeasurement(prefix + "Circularity", roi.getCircularity());
+		
+		// Only compute the convex hull & moments if they are needed
+		if (features.stream().noneMatch(ShapeFeatures::requiresStatistics))
+			return;
+		PolygonShapeStatistics stats = PolygonShapeStatistics.compute(roi, pixelWidth, pixelHeight);
+		if (stats == null)
+			return;
+		if (features.contains(ShapeFeatures.SOLIDITY))
+			measurementList.putMeasurement(prefix + "Solidity", stats.getSolidity());
+		if (features.contains(ShapeFeatures.MAX_CALIPER))
+			measurementList.putMeasurement(prefix + "Max caliper " + unit, stats.getMaxCaliper());
+		if (features.contains(ShapeFeatures.MIN_CALIPER))
+			measurementList.putMeasurement(prefix + "Min caliper " + unit, stats.getMinCaliper());
+		if (features.contains(ShapeFeatures.ECCENTRICITY))
+			measurementList.putMeasurement(prefix + "Eccentricity", stats.getEccentricity());
 	}
 	
 	
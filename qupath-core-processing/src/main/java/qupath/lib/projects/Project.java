@@ -101,6 +101,15 @@ public class Project<T> {
 		return true;
 	}
 	
+	/**
+	 * Add an entry, replacing any existing entry for the same image while retaining its position.
+	 * 
+	 * @param entry
+	 */
+	void putImage(final ProjectImageEntry<T> entry) {
+		images.put(cleanServerPath(entry.getServerPath()), entry);
+	}
+	
 	public File getFile() {
 		return file;
 	}
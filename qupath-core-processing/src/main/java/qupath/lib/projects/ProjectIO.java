@@ -24,12 +24,18 @@
 package qupath.lib.projects;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,12 +49,18 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.classes.PathClassFactory;
 
 /**
  * Read/write QuPath projects.
+ * <p>
+ * The full project is written as a JSON file.  Changes to individual image entries can also be appended to a 
+ * journal file alongside it, so that (for example) editing the metadata for one image in a project with thousands of 
+ * images does not require the entire project to be rewritten.  The journal is applied whenever the project is read, 
+ * and is merged back into the main project file when it becomes large or the full project is written.
  * 
  * @author Pete Bankhead
  *
@@ -60,6 +72,13 @@ public class ProjectIO {
 	private static final String DEFAULT_PROJECT_NAME = "project";
 	
 	private static final String DEFAULT_PROJECT_EXTENSION = "qpproj";
+	
+	private static final String JOURNAL_EXTENSION = ".journal";
+	
+	private static final int JOURNAL_VERSION = 1;
+	
+	// Minimum journal size before it is merged into the project file
+	private static final long MIN_JOURNAL_COMPACTION_BYTES = 1024L * 1024L;
 
 	/**
 	 * Read project from file.
@@ -102,27 +121,10 @@ public class ProjectIO {
 
 			JsonArray images = element.getAsJsonArray("images");
 			for (JsonElement imageElement : images) {
-				JsonObject imageObject = imageElement.getAsJsonObject();
-				JsonElement metadataObject = imageObject.get("metadata");
-				Map<String, String> metadataMap = null;
-				if (metadataObject != null) {
-					JsonObject metadata = metadataObject.getAsJsonObject();
-					if (metadata != null) {
-						metadataMap = new HashMap<>();
-						for (Entry<String, JsonElement> entry : metadata.entrySet()) {
-							String value = entry.getValue().getAsString();
-							if (value != null)
-								metadataMap.put(entry.getKey(), value);
-						}
-					}
-				}
-				String description = null;
-				if (imageObject.has("description"))
-					description = imageObject.get("description").getAsString();
-				String path = imageObject.get("path").getAsString();
-				String name = imageObject.has("name") ? imageObject.get("name").getAsString() : null;
-				project.addImage(new ProjectImageEntry<>(project, path, name, description, metadataMap));
+				project.addImage(parseEntry(project, imageElement.getAsJsonObject()));
 			}
+			
+			readJournal(project, fileProject);
 
 			return project;
 		} catch (Exception e) {
@@ -130,6 +132,54 @@ public class ProjectIO {
 		}
 		return null;
 	}
+	
+	
+	/**
+	 * Create an image entry from its JSON representation.
+	 * The metadata map is only created when it is first requested.
+	 */
+	private static <T> ProjectImageEntry<T> parseEntry(final Project<T> project, final JsonObject imageObject) {
+		String description = null;
+		if (imageObject.has("description"))
+			description = imageObject.get("description").getAsString();
+		String path = imageObject.get("path").getAsString();
+		String name = imageObject.has("name") ? imageObject.get("name").getAsString() : null;
+		JsonElement metadataObject = imageObject.get("metadata");
+		if (metadataObject == null)
+			return new ProjectImageEntry<>(project, path, name, description, null);
+		JsonObject metadata = metadataObject.getAsJsonObject();
+		return ProjectImageEntry.createWithLazyMetadata(project, path, name, description, () -> {
+			Map<String, String> metadataMap = new HashMap<>();
+			for (Entry<String, JsonElement> entry : metadata.entrySet()) {
+				String value = entry.getValue().getAsString();
+				if (value != null)
+					metadataMap.put(entry.getKey(), value);
+			}
+			return metadataMap;
+		});
+	}
+	
+	
+	/**
+	 * Create the JSON representation of an image entry.
+	 */
+	private static JsonObject toJson(final ProjectImageEntry<?> entry) {
+		JsonObject jsonEntry = new JsonObject();
+	    jsonEntry.addProperty("path", entry.getStoredServerPath());
+	    jsonEntry.addProperty("name", entry.getImageName());
+	    
+	    if (entry.hasDescription())
+	    		jsonEntry.addProperty("description", entry.getDescription());
+
+	    Map<String, String> metadata = entry.getMetadataMap();
+	    if (!metadata.isEmpty()) {
+	    	JsonObject metadataBuilder = new JsonObject();
+	        for (Map.Entry<String, String> metadataEntry : metadata.entrySet())
+	            metadataBuilder.addProperty(metadataEntry.getKey(), metadataEntry.getValue());
+	        jsonEntry.add("metadata", metadataBuilder);
+		}
+	    return jsonEntry;
+	}
 
 
 	/**
@@ -145,11 +195,13 @@ public class ProjectIO {
 
 	/**
 	 * Write project, setting the name of the project file.
+	 * <p>
+	 * The entire project is written, and any journal of changes for the project file is removed.
 	 * 
 	 * @param project
 	 * @param name
 	 */
-	public static void writeProject(final Project<?> project, final String name) {
+	public static synchronized void writeProject(final Project<?> project, final String name) {
 		File fileProject = getProjectFile(project, name);
 		if (fileProject == null) {
 			logger.error("No file found, cannot write project: {}", project);
@@ -170,32 +222,27 @@ public class ProjectIO {
 			}
 		}		
 		
-		JsonArray array = new JsonArray();
-		for (ProjectImageEntry<?> entry : project.getImageList()) {
-			JsonObject jsonEntry = new JsonObject();
-		    jsonEntry.addProperty("path", entry.getStoredServerPath());
-		    jsonEntry.addProperty("name", entry.getImageName());
-		    
-		    if (entry.hasDescription())
-		    		jsonEntry.addProperty("description", entry.getDescription());
-
-		    Map<String, String> metadata = entry.getMetadataMap();
-		    if (!metadata.isEmpty()) {
-		    	JsonObject metadataBuilder = new JsonObject();
-		        for (Map.Entry<String, String> metadataEntry : metadata.entrySet())
-		            metadataBuilder.addProperty(metadataEntry.getKey(), metadataEntry.getValue());
-		        jsonEntry.add("metadata", metadataBuilder);
+		// Stream the project to a temporary file, rather than building the entire JSON string in memory
+		File fileTemp = new File(fileProject.getAbsolutePath() + ".tmp");
+		try (JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new FileWriter(fileTemp)))) {
+			writer.beginObject();
+			writer.name("createTimestamp").value(project.getCreationTimestamp());
+			writer.name("modifyTimestamp").value(project.getModificationTimestamp());
+			if (pathClassArray != null) {
+				writer.name("pathClasses");
+				gson.toJson(pathClassArray, writer);
 			}
-			array.add(jsonEntry);
-		}
-
-		JsonObject builder = new JsonObject();
-		builder.addProperty("createTimestamp", project.getCreationTimestamp());
-		builder.addProperty("modifyTimestamp", project.getModificationTimestamp());
-		if (pathClassArray != null) {
-			builder.add("pathClasses", pathClassArray);			
+			writer.name("images");
+			writer.beginArray();
+			for (ProjectImageEntry<?> entry : project.getImageList())
+				gson.toJson(toJson(entry), writer);
+			writer.endArray();
+			writer.endObject();
+		} catch (IOException e) {
+			logger.error("Error writing project", e);
+			fileTemp.delete();
+			return;
 		}
-		builder.add("images", array);
 
 		// If we already have a project, back it up
 		if (fileProject.exists()) {
@@ -204,24 +251,185 @@ public class ProjectIO {
 				logger.debug("Existing project file backed up at {}", fileBackup.getAbsolutePath());
 		}
 
-		// Write project
-		try (PrintWriter writer = new PrintWriter(fileProject)) {
-			writer.write(gson.toJson(builder));
-		} catch (FileNotFoundException e) {
+		// Move the new project into place
+		try {
+			moveFile(fileTemp, fileProject);
+		} catch (IOException e) {
 			logger.error("Error writing project", e);
+			return;
+		}
+		
+		// The journal is now incorporated into the project file
+		File fileJournal = getJournalFile(fileProject);
+		if (fileJournal.exists() && !fileJournal.delete())
+			logger.warn("Unable to delete project journal {}", fileJournal);
+	}
+	
+	
+	private static void moveFile(final File fileSource, final File fileTarget) throws IOException {
+		try {
+			Files.move(fileSource.toPath(), fileTarget.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(fileSource.toPath(), fileTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	
+	/**
+	 * Write changes to the specified image entries, which have been added to or updated within the project.
+	 * <p>
+	 * This is much faster than writing the entire project, since the entries are appended to the project's journal.
+	 * 
+	 * @param project
+	 * @param entries
+	 */
+	public static void writeProjectEntries(final Project<?> project, final Collection<? extends ProjectImageEntry<?>> entries) {
+		List<JsonObject> records = new ArrayList<>();
+		for (ProjectImageEntry<?> entry : entries) {
+			JsonObject record = new JsonObject();
+			record.addProperty("op", "put");
+			record.add("entry", toJson(entry));
+			records.add(record);
+		}
+		appendToJournal(project, records);
+	}
+	
+	/**
+	 * Write the removal of the specified image entries from the project.
+	 * <p>
+	 * This is much faster than writing the entire project, since the removals are appended to the project's journal.
+	 * 
+	 * @param project
+	 * @param entries
+	 */
+	public static void writeProjectEntriesRemoved(final Project<?> project, final Collection<? extends ProjectImageEntry<?>> entries) {
+		List<JsonObject> records = new ArrayList<>();
+		for (ProjectImageEntry<?> entry : entries) {
+			JsonObject record = new JsonObject();
+			record.addProperty("op", "remove");
+			record.addProperty("path", entry.getStoredServerPath());
+			records.add(record);
 		}
+		appendToJournal(project, records);
+	}
+	
+	
+	private static synchronized void appendToJournal(final Project<?> project, final List<JsonObject> records) {
+		if (records.isEmpty())
+			return;
+		File fileProject = getProjectFile(project, null);
+		if (fileProject == null) {
+			logger.error("No file found, cannot write project: {}", project);
+			return;
+		}
+		// We need a complete project file to build upon
+		if (!fileProject.isFile()) {
+			writeProject(project);
+			return;
+		}
+		File fileJournal = getJournalFile(fileProject);
+		boolean isCurrent = fileJournal.isFile() && isJournalCurrent(fileJournal, fileProject);
 		
-//		Map<String, ?> properties = Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true);
-//		JsonWriter writer;
-//		try {
-//			writer = Json.createWriterFactory(properties).createWriter(new BufferedWriter(new FileWriter(fileProject)));
-//			//			writer = Json.createWriter(new BufferedWriter(new FileWriter(fileProject)));
-//			writer.writeObject(builder.build());
-//			writer.close();
-//		} catch (IOException e) {
-//			e.printStackTrace();
-//		}
+		// Merge the journal into the project if it has become large
+		if (isCurrent && fileJournal.length() > Math.max(MIN_JOURNAL_COMPACTION_BYTES, fileProject.length())) {
+			logger.debug("Merging project journal {} into project", fileJournal);
+			writeProject(project);
+			return;
+		}
 		
+		// Each record is written on a single line
+		Gson gson = new Gson();
+		try (Writer writer = new BufferedWriter(new FileWriter(fileJournal, isCurrent))) {
+			if (!isCurrent) {
+				JsonObject header = new JsonObject();
+				header.addProperty("journalVersion", JOURNAL_VERSION);
+				header.addProperty("projectLength", fileProject.length());
+				header.addProperty("projectModified", fileProject.lastModified());
+				writer.write(gson.toJson(header));
+				writer.write("\n");
+			}
+			for (JsonObject record : records) {
+				writer.write(gson.toJson(record));
+				writer.write("\n");
+			}
+		} catch (IOException e) {
+			// Fall back to writing everything, which also removes any incomplete journal
+			logger.error("Error writing project journal - will try to write full project instead", e);
+			writeProject(project);
+		}
+	}
+	
+	
+	/**
+	 * Apply any changes recorded in the journal for a project file.
+	 */
+	private static <T> void readJournal(final Project<T> project, final File fileProject) {
+		File fileJournal = getJournalFile(fileProject);
+		if (!fileJournal.isFile())
+			return;
+		if (!isJournalCurrent(fileJournal, fileProject)) {
+			logger.warn("Ignoring project journal {} - the project file has been modified since it was written", fileJournal);
+			return;
+		}
+		Gson gson = new Gson();
+		int nRecords = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(fileJournal))) {
+			// Skip header
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				try {
+					JsonObject record = gson.fromJson(line, JsonObject.class);
+					String op = record.get("op").getAsString();
+					if ("put".equals(op)) {
+						project.putImage(parseEntry(project, record.getAsJsonObject("entry")));
+					} else if ("remove".equals(op)) {
+						ProjectImageEntry<T> entry = project.getImageEntry(record.get("path").getAsString());
+						if (entry != null)
+							project.removeImage(entry);
+					} else
+						logger.warn("Unknown project journal operation: {}", op);
+					nRecords++;
+				} catch (Exception e) {
+					// May occur if a record was only partially written
+					logger.warn("Skipping invalid project journal record: {}", e.getLocalizedMessage());
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Error reading project journal " + fileJournal, e);
+		}
+		logger.debug("Applied {} records from project journal {}", nRecords, fileJournal);
+	}
+	
+	
+	/**
+	 * Check whether a journal was written for the current version of a project file, based on its header.
+	 */
+	private static boolean isJournalCurrent(final File fileJournal, final File fileProject) {
+		try (BufferedReader reader = new BufferedReader(new FileReader(fileJournal))) {
+			String line = reader.readLine();
+			if (line == null)
+				return false;
+			JsonObject header = new Gson().fromJson(line, JsonObject.class);
+			return header.get("journalVersion").getAsInt() == JOURNAL_VERSION &&
+					header.get("projectLength").getAsLong() == fileProject.length() &&
+					header.get("projectModified").getAsLong() == fileProject.lastModified();
+		} catch (Exception e) {
+			logger.debug("Unable to read project journal header: {}", e.getLocalizedMessage());
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Get the journal file corresponding to a project file.
+	 * 
+	 * @param fileProject
+	 * @return
+	 */
+	static File getJournalFile(final File fileProject) {
+		return new File(fileProject.getAbsolutePath() + JOURNAL_EXTENSION);
 	}
 
 
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 
 import qupath.lib.common.URLTools;
 
@@ -51,6 +52,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	private String imageName;
 	
 	private Map<String, String> metadata = new HashMap<>();
+	private transient Supplier<Map<String, String>> metadataSupplier; // Optional supplier used to read metadata lazily
 	
 	private String description;
 
@@ -82,6 +84,36 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 		this(project, serverPath, imageName, null, metadataMap);
 	}
 	
+	/**
+	 * Create an entry for which the metadata is only read when it is first needed.
+	 * <p>
+	 * This avoids creating metadata maps for every entry when a large project is read, most of which may never be used.
+	 * 
+	 * @param project
+	 * @param serverPath
+	 * @param imageName
+	 * @param description
+	 * @param metadataSupplier
+	 * @return
+	 */
+	static <T> ProjectImageEntry<T> createWithLazyMetadata(final Project<T> project, final String serverPath, final String imageName, final String description, final Supplier<Map<String, String>> metadataSupplier) {
+		ProjectImageEntry<T> entry = new ProjectImageEntry<>(project, serverPath, imageName, description, null);
+		entry.metadata = null;
+		entry.metadataSupplier = metadataSupplier;
+		return entry;
+	}
+	
+	private synchronized Map<String, String> getMetadata() {
+		if (metadata == null) {
+			metadata = new HashMap<>();
+			Map<String, String> map = metadataSupplier.get();
+			if (map != null)
+				metadata.putAll(map);
+			metadataSupplier = null;
+		}
+		return metadata;
+	}
+	
 	/**
 	 * Get the path used to represent this image, which can be used to construct an <code>ImageServer</code>.
 	 * 
@@ -110,7 +142,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	@Override
 	public String toString() {
 		String s = getImageName();
-		if (!metadata.isEmpty())
+		if (!getMetadata().isEmpty())
 			s += " - " + getMetadataSummaryString();
 		return s;
 		//			return getServerPath();
@@ -159,7 +191,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return
 	 */
 	public String removeMetadataValue(final String key) {
-		return metadata.remove(key);
+		return getMetadata().remove(key);
 	}
 	
 	/**
@@ -170,7 +202,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return
 	 */
 	public String getMetadataValue(final String key) {
-		return metadata.get(key);
+		return getMetadata().get(key);
 	}
 
 	/**
@@ -183,7 +215,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return
 	 */
 	public String putMetadataValue(final String key, final String value) {
-		return metadata.put(key, value);
+		return getMetadata().put(key, value);
 	}
 	
 	/**
@@ -193,7 +225,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return <code>true</code> if <code>getDescription()</code> does not return null or an empty string, <code>false</code> otherwise.
 	 */
 	public boolean containsMetadata(final String key) {
-		return metadata.containsKey(key);
+		return getMetadata().containsKey(key);
 	}
 	
 	/**
@@ -227,7 +259,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * Remove all metadata.
 	 */
 	public void clearMetadata() {
-		this.metadata.clear();
+		getMetadata().clear();
 	}
 	
 	/**
@@ -236,7 +268,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return
 	 */
 	public Map<String, String> getMetadataMap() {
-		return Collections.unmodifiableMap(metadata);
+		return Collections.unmodifiableMap(getMetadata());
 	}
 	
 	/**
@@ -245,7 +277,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	 * @return
 	 */
 	public Collection<String> getMetadataKeys() {
-		return Collections.unmodifiableSet(metadata.keySet());
+		return Collections.unmodifiableSet(getMetadata().keySet());
 	}
 	
 	/**
@@ -256,7 +288,7 @@ public class ProjectImageEntry<T> implements Comparable<ProjectImageEntry<T>> {
 	public String getMetadataSummaryString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{");
-		for (Entry<String, String> entry : metadata.entrySet()) {
+		for (Entry<String, String> entry : getMetadata().entrySet()) {
 			if (sb.length() > 1)
 				sb.append(", ");
 			sb.append(entry.getKey());
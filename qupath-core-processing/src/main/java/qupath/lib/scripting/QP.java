@@ -29,14 +29,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.WeakHashMap;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -55,6 +52,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.helpers.MeasurementPredicate;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.TMAGrid;
@@ -90,7 +88,7 @@ public class QP {
 	final public static ImageData.ImageType FLUORESCENCE = ImageData.ImageType.FLUORESCENCE;
 	final public static ImageData.ImageType OTHER = ImageData.ImageType.OTHER;
 	
-	private static WeakHashMap<Thread, ImageData<?>> batchImageData = new WeakHashMap<>();
+	private static Map<Thread, ImageData<?>> batchImageData = Collections.synchronizedMap(new WeakHashMap<>());
 	
 	
 	/**
@@ -888,6 +886,9 @@ public class QP {
 	 * @return
 	 */
 	public static List<PathObject> getObjects(final PathObjectHierarchy hierarchy, final Predicate<PathObject> predicate) {
+		// Measurement predicates can resolve measurement names once & test objects in parallel
+		if (predicate instanceof MeasurementPredicate)
+			return ((MeasurementPredicate)predicate).filter(hierarchy.getFlattenedObjectList(null));
 		return hierarchy.getFlattenedObjectList(null).stream().filter(predicate).collect(Collectors.toList());
 	}
 
@@ -1006,76 +1007,7 @@ public class QP {
 	// TODO: Update parsePredicate to something more modern... a proper DSL
 	@Deprecated
 	public static Predicate<PathObject> parsePredicate(final String command) throws NoSuchElementException {
-		String s = command.trim();
-		if (s.length() == 0)
-			throw new NoSuchElementException("No command provided!");
-		Scanner scanner = new Scanner(s);
-
-		try {
-			Map<String, Predicate<Integer>> mapComparison = new HashMap<>();
-			mapComparison.put(">=", v -> v >= 0);
-			mapComparison.put("<=", v -> v <= 0);
-			mapComparison.put(">", v -> v > 0);
-			mapComparison.put("<", v -> v < 0);
-			mapComparison.put("=", v -> v == 0);
-			mapComparison.put("==", v -> v == 0);
-			mapComparison.put("!=", v -> v != 0);
-			mapComparison.put("~=", v -> v != 0);
-
-			Predicate<PathObject> predicate = null;
-			Pattern comparePattern = Pattern.compile(">=|<=|==|!=|~=|=|>|<");
-			Pattern combinePattern = Pattern.compile("and|AND|or|OR");
-			Pattern notPattern = Pattern.compile("not|NOT");
-			while (scanner.hasNext()) {
-				String combine = null;
-				scanner.reset();
-				if (predicate != null) {
-					if (scanner.hasNext(combinePattern))
-						combine = scanner.next(combinePattern).trim().toUpperCase();
-					else
-						throw new NoSuchElementException("Missing combiner (AND, OR) between comparisons!");
-				}
-
-				boolean negate = false;
-				if (scanner.hasNext(notPattern)) {
-					negate = true;
-					scanner.next(notPattern);
-				}
-
-				scanner.useDelimiter(comparePattern);
-				String measurement = scanner.next().trim();
-				scanner.reset();
-				if (!scanner.hasNext(comparePattern))
-					throw new NoSuchElementException("Missing comparison operator (<, >, <=, >=, ==) for measurement \"" + measurement + "\"");
-				String comparison = scanner.next(comparePattern).trim();
-				
-				if (!scanner.hasNextDouble())
-					throw new NoSuchElementException("Missing comparison value after \"" + measurement + " " + comparison + "\"");
-				double value = scanner.nextDouble();
-
-				Predicate<PathObject> predicateNew = p -> {
-					double v = p.getMeasurementList().getMeasurementValue(measurement);
-					return !Double.isNaN(v) && mapComparison.get(comparison).test(Double.compare(p.getMeasurementList().getMeasurementValue(measurement), value));
-				};
-				if (negate)
-					predicateNew = predicateNew.negate();
-
-				if (predicate == null) {
-					predicate = predicateNew;
-				} else {
-					if ("AND".equals(combine))
-						predicate = predicate.and(predicateNew);
-					else if ("OR".equals(combine))
-						predicate = predicate.or(predicateNew);
-					else
-						throw new NoSuchElementException("Unrecognised combination of predicates: " + combine);
-				}
-			}
-
-			return predicate;
-		} finally {
-			scanner.close();
-		}
+		return MeasurementPredicate.parse(command);
 	}
 
 
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSLICSuperpixels {
+	
+	@Test
+	public void test_labels() {
+		int width = 200;
+		int height = 100;
+		int edge = 85;
+		float[] pixels = new float[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				pixels[y*width + x] = x < edge ? 10 : 100;
+		}
+		int[] labels = SLICSuperpixels.computeLabels(new float[][] {pixels}, width, height, 20, 10, false, 10, 0, 0);
+		int nLabels = SLICSuperpixels.enforceConnectivity(labels, width, height, 100);
+		
+		// One superpixel per grid cell
+		assertEquals(50, nLabels);
+		for (int label : labels)
+			assertTrue(label >= 1 && label <= nLabels);
+		
+		// Superpixels should not cross the intensity edge
+		for (int y = 0; y < height; y++)
+			assertNotEquals(labels[y*width + edge - 1], labels[y*width + edge]);
+	}
+	
+	@Test
+	public void test_seedLocations() {
+		// Seeds should be at the same locations in the larger image, regardless of the tile offset
+		int s = 20;
+		int[] locations1 = SLICSuperpixels.getSeedLocations(100, 60, s, 0, 0);
+		int[] locations2 = SLICSuperpixels.getSeedLocations(100, 60, s, 93, 47);
+		assertEquals(5 * 3 * 2, locations1.length);
+		assertEquals(10, locations1[0]);
+		assertEquals(10, locations1[1]);
+		for (int[] locations : new int[][] {locations1, locations2}) {
+			for (int v : locations)
+				assertEquals(s/2, Math.floorMod(v, s));
+		}
+		assertEquals(110, locations2[0]);
+		assertEquals(50, locations2[1]);
+		
+		// Labels should index the seeds
+		float[] pixels = new float[100 * 60];
+		int[] labels = SLICSuperpixels.computeLabels(new float[][] {pixels}, 100, 60, s, 10, false, 5, 93, 47);
+		for (int label : labels)
+			assertTrue(label >= 0 && label * 2 < locations2.length);
+		assertEquals(0, labels[(50 - 47) * 100 + (110 - 93)]);
+	}
+
+}
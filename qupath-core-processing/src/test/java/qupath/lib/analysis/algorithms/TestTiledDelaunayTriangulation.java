@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestTiledDelaunayTriangulation {
+	
+	@Test
+	public void test_tiledMatchesSingle() {
+		// Jittered grid, large enough to require several tiles
+		int nx = 400;
+		int ny = 400;
+		int n = nx * ny;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		Random random = new Random(100);
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				x[j*nx + i] = i * 10 + random.nextDouble() * 5;
+				y[j*nx + i] = j * 10 + random.nextDouble() * 5;
+			}
+		}
+		AdjacencyGraph single = TiledDelaunayTriangulation.computeAdjacency(x, y, Double.POSITIVE_INFINITY, 0);
+		AdjacencyGraph tiled = TiledDelaunayTriangulation.computeAdjacency(x, y, 1000, 100);
+		
+		assertEquals(n, single.nNodes());
+		assertEquals(n, tiled.nNodes());
+		for (int i = 0; i < n; i++) {
+			// Graph should be symmetric
+			for (int k = 0; k < single.nNeighbors(i); k++)
+				assertTrue(single.isConnected(single.getNeighbor(i, k), i));
+			// Away from the convex hull, tiling should make no difference
+			if (x[i] < 20 || y[i] < 20 || x[i] > nx * 10 - 30 || y[i] > ny * 10 - 30)
+				continue;
+			assertTrue(single.nNeighbors(i) >= 3);
+			assertEquals(single.nNeighbors(i), tiled.nNeighbors(i));
+			for (int k = 0; k < single.nNeighbors(i); k++)
+				assertEquals(single.getNeighbor(i, k), tiled.getNeighbor(i, k));
+		}
+		
+		// Single connected component
+		int[] labels = single.getConnectedComponents(null);
+		for (int label : labels)
+			assertEquals(0, label);
+	}
+
+}
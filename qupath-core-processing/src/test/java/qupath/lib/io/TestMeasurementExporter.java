@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Locale.Category;
+import java.util.Map;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.RectangleROI;
+
+public class TestMeasurementExporter {
+	
+	@Test
+	public void test_writeDelimited() throws Exception {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			PathObject pathObject = new PathDetectionObject(new RectangleROI(i, 0, 1, 1));
+			pathObject.getMeasurementList().putMeasurement("Index", i);
+			if (i != 1)
+				pathObject.getMeasurementList().putMeasurement("Half", i + 0.5);
+			pathObjects.add(pathObject);
+		}
+		assertEquals(Arrays.asList("Index", "Half"), MeasurementExporter.getMeasurementNames(pathObjects));
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		List<MeasurementExporter.Column<PathObject>> columns = Arrays.asList(
+				MeasurementExporter.createMeasurementColumn("Half"),
+				MeasurementExporter.createMeasurementColumn("Index"));
+		MeasurementExporter.writeDelimited(pathObjects, columns, "\t", true, Channels.newChannel(bytes));
+		
+		char sep = DecimalFormatSymbols.getInstance(Locale.getDefault(Category.FORMAT)).getDecimalSeparator();
+		String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator());
+		assertArrayEquals(new String[] {"Half\tIndex", "0" + sep + "5\t0", "NaN\t1", "2" + sep + "5\t2"}, lines);
+	}
+	
+	@Test
+	public void test_binary() throws Exception {
+		// Use enough objects to need several chunks, so that the order of the output is checked
+		int n = 10000;
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			PathObject pathObject = new PathDetectionObject(new RectangleROI(i, 0, 1, 1));
+			pathObject.getMeasurementList().putMeasurement("Index", i);
+			pathObject.getMeasurementList().putMeasurement("Half", i + 0.5);
+			pathObjects.add(pathObject);
+		}
+		File file = File.createTempFile("measurements", MeasurementExporter.BINARY_EXTENSION);
+		try {
+			MeasurementExporter.writeBinary(pathObjects, MeasurementExporter.getMeasurementNames(pathObjects), file);
+			Map<String, Object> map = MeasurementExporter.readBinary(file);
+			assertEquals(Arrays.asList("Index", "Half"), new ArrayList<>(map.keySet()));
+			double[] index = (double[])map.get("Index");
+			double[] half = (double[])map.get("Half");
+			assertEquals(n, index.length);
+			for (int i = 0; i < n; i++) {
+				assertEquals(i, index[i], 0.0);
+				assertEquals(i + 0.5, half[i], 0.0);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -27,6 +27,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -258,6 +260,76 @@ public class GeneralTools {
 	}
 	
 	
+	private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+	
+	/**
+	 * Append a value to a StringBuilder with a maximum number of decimal places.
+	 * <p>
+	 * The output matches that of {@link #formatNumber(Locale, double, int)} for a Locale with the specified decimal separator 
+	 * (and ASCII digits), but this method is not synchronized and usually avoids using a formatter at all - 
+	 * making it much more suitable for writing very large numbers of values, possibly from multiple threads.
+	 * 
+	 * @param sb
+	 * @param value
+	 * @param maxDecimalPlaces
+	 * @param decimalSeparator
+	 * @return the StringBuilder provided as input
+	 */
+	public static StringBuilder appendNumber(final StringBuilder sb, final double value, final int maxDecimalPlaces, final char decimalSeparator) {
+		if (Double.isNaN(value))
+			return sb.append("NaN");
+		boolean isNegative = value < 0 || (value == 0 && 1.0/value < 0);
+		if (Double.isInfinite(value))
+			return sb.append(isNegative ? "-\u221E" : "\u221E");
+		int dp = Math.max(0, maxDecimalPlaces);
+		double absValue = Math.abs(value);
+		if (isNegative)
+			sb.append('-');
+		
+		// Use integer arithmetic whenever the rounding can be determined reliably
+		if (dp < POW10.length) {
+			double scaled = absValue * POW10[dp];
+			if (scaled < 1e15) {
+				double fraction = scaled - Math.floor(scaled);
+				if (Math.abs(fraction - 0.5) > 1e-6 + scaled * 1e-15) {
+					long rounded = Math.round(scaled);
+					long intPart = rounded / POW10[dp];
+					long fracPart = rounded % POW10[dp];
+					sb.append(intPart);
+					if (fracPart != 0) {
+						int nDigits = dp;
+						while (fracPart % 10 == 0) {
+							fracPart /= 10;
+							nDigits--;
+						}
+						sb.append(decimalSeparator);
+						for (int d = nDigits - 1; d > 0 && fracPart < POW10[d]; d--)
+							sb.append('0');
+						sb.append(fracPart);
+					}
+					return sb;
+				}
+			}
+		}
+		
+		// Defer to a (thread-local) formatter for large values & (near) ties, where the rounding is more subtle
+		DecimalFormat df = localFormatters.get();
+		DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+		if (symbols.getDecimalSeparator() != decimalSeparator) {
+			symbols.setDecimalSeparator(decimalSeparator);
+			df.setDecimalFormatSymbols(symbols);
+		}
+		df.setMaximumFractionDigits(dp);
+		return sb.append(df.format(absValue));
+	}
+	
+	private static ThreadLocal<DecimalFormat> localFormatters = ThreadLocal.withInitial(() -> {
+		DecimalFormat df = new DecimalFormat("0", DecimalFormatSymbols.getInstance(Locale.US));
+		df.setGroupingUsed(false);
+		return df;
+	});
+	
+	
 
 	/**
 	 * Parse the contents of a JSON String.
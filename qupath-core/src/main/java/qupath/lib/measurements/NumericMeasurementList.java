@@ -177,6 +177,9 @@ class NumericMeasurementList {
 
 		@Override
 		public synchronized List<String> getMeasurementNames() {
+			// Closed lists share an unmodifiable list of names, which can be returned directly
+			if (isClosed())
+				return names;
 			return Collections.unmodifiableList(names);
 		}
 		
@@ -68,6 +68,9 @@ public abstract class PathObject implements Externalizable {
 
 	transient private Collection<PathObject> cachedUnmodifiableChildren = null;
 	
+	// Compact ID assigned by a PathObjectIdRegistry - this is retained after the object is released, so may be stale
+	transient int id = -1;
+	
 
 	/**
 	 * Create a PathObject with a specific measurement list.
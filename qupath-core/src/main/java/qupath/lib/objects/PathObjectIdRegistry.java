@@ -0,0 +1,351 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Registry that assigns dense integer IDs to the objects within a hierarchy.
+ * <p>
+ * IDs are small, non-negative integers, and those belonging to objects that are released are reused, 
+ * so that the range of IDs remains close to the number of objects.  This means IDs can be used to index 
+ * primitive arrays and bitsets, avoiding the need to hash objects.
+ * <p>
+ * The ID is stored within the object itself, so that looking it up is always fast.  
+ * Consequently, an object can only have a valid ID in one registry at a time; 
+ * adding it to a second registry invalidates its ID in the first.
+ * <p>
+ * Generally the registry is maintained by a {@link qupath.lib.objects.hierarchy.PathObjectHierarchy}, 
+ * and other code should only query it.
+ * <p>
+ * When the hierarchy reports that the structure has changed below a particular object, only the objects below 
+ * it are registered; objects that were removed are released lazily (either when they are looked up, or with a single pass 
+ * through all IDs the next time this is required).  This keeps the cost of an update proportional to the size of the change.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PathObjectIdRegistry {
+	
+	private PathObject[] objects = new PathObject[256];
+	private BitSet used = new BitSet();
+	private int firstFree = 0;
+	private int size = 0;
+	
+	/**
+	 * Root object of the hierarchy, used to identify objects that have been removed from it.
+	 */
+	private PathObject rootObject = null;
+	/**
+	 * True if objects may have been removed from the hierarchy without their IDs being released.
+	 */
+	private boolean hasDetached = false;
+	
+	/**
+	 * Get the ID of an object within this registry, or -1 if the object is not registered.
+	 * 
+	 * @param pathObject
+	 * @return
+	 */
+	public synchronized int getId(final PathObject pathObject) {
+		int id = getIdHint(pathObject);
+		if (id < 0 || id >= objects.length || objects[id] != pathObject)
+			return -1;
+		if (isDetached(pathObject)) {
+			releaseId(id);
+			return -1;
+		}
+		return id;
+	}
+	
+	/**
+	 * Get the ID most recently assigned to an object by any registry, without checking that it is still valid.
+	 * <p>
+	 * This is useful for classes that store objects in arrays indexed by ID, and which can confirm the 
+	 * object found at the index is the one expected.  The ID may be stale (i.e. the object was released and the ID reused), 
+	 * or -1 if no ID has ever been assigned.
+	 * 
+	 * @param pathObject
+	 * @return
+	 */
+	public static int getIdHint(final PathObject pathObject) {
+		return pathObject == null ? -1 : pathObject.id;
+	}
+	
+	/**
+	 * Get the object with the specified ID, or null if no object is registered with that ID.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public synchronized PathObject getObject(final int id) {
+		PathObject pathObject = id >= 0 && id < objects.length ? objects[id] : null;
+		if (pathObject != null && isDetached(pathObject)) {
+			releaseId(id);
+			return null;
+		}
+		return pathObject;
+	}
+	
+	/**
+	 * Returns true if the object has an ID in this registry.
+	 * 
+	 * @param pathObject
+	 * @return
+	 */
+	public boolean contains(final PathObject pathObject) {
+		return getId(pathObject) >= 0;
+	}
+	
+	/**
+	 * Number of registered objects.
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		releaseDetached();
+		return size;
+	}
+	
+	/**
+	 * Get the upper bound of the IDs currently in use (exclusive), which can be used to size arrays indexed by ID.
+	 * 
+	 * @return
+	 */
+	public synchronized int getIdLimit() {
+		releaseDetached();
+		return used.length();
+	}
+	
+	/**
+	 * Assign an ID to an object, if it does not already have one.
+	 * 
+	 * @param pathObject
+	 * @return the ID of the object
+	 */
+	public synchronized int register(final PathObject pathObject) {
+		int id = getId(pathObject);
+		if (id >= 0)
+			return id;
+		id = used.nextClearBit(firstFree);
+		firstFree = id + 1;
+		setObject(pathObject, id);
+		return id;
+	}
+	
+	private void setObject(final PathObject pathObject, final int id) {
+		if (id >= objects.length)
+			objects = Arrays.copyOf(objects, Math.max(objects.length * 2, id + 1));
+		objects[id] = pathObject;
+		pathObject.id = id;
+		used.set(id);
+		size++;
+	}
+	
+	/**
+	 * Release the ID of an object, so that it may be reused.
+	 * 
+	 * @param pathObject
+	 * @return true if the object was registered, false otherwise
+	 */
+	public synchronized boolean release(final PathObject pathObject) {
+		int id = getIdHint(pathObject);
+		if (id < 0 || id >= objects.length || objects[id] != pathObject)
+			return false;
+		releaseId(id);
+		return true;
+	}
+	
+	private void releaseId(final int id) {
+		objects[id] = null;
+		used.clear(id);
+		firstFree = Math.min(firstFree, id);
+		size--;
+	}
+	
+	/**
+	 * Release all IDs.
+	 */
+	public synchronized void clear() {
+		objects = new PathObject[256];
+		used.clear();
+		firstFree = 0;
+		size = 0;
+		hasDetached = false;
+	}
+	
+	/**
+	 * Register an object and all its descendants.
+	 * 
+	 * @param pathObject
+	 */
+	public synchronized void registerDescendants(final PathObject pathObject) {
+		for (PathObject temp : getObjectsDepthFirst(pathObject)) {
+			if (!temp.isRootObject())
+				register(temp);
+		}
+	}
+	
+	/**
+	 * Release an object and all its descendants, unless they (still) belong to the hierarchy with the specified root.
+	 * 
+	 * @param pathObject
+	 * @param rootObject
+	 */
+	public synchronized void releaseDescendants(final PathObject pathObject, final PathObject rootObject) {
+		this.rootObject = rootObject;
+		for (PathObject temp : getObjectsDepthFirst(pathObject)) {
+			if (getRoot(temp) != rootObject)
+				release(temp);
+		}
+	}
+	
+	/**
+	 * Update the registry after an unspecified change below a base object.
+	 * All objects below the base that do not have IDs are registered.
+	 * <p>
+	 * If the base is the root object (or null), all registered objects that no longer belong to the hierarchy 
+	 * are released immediately.  Otherwise, these are released lazily; the work required is then proportional to the 
+	 * number of objects below the base.
+	 * 
+	 * @param rootObject root object of the hierarchy
+	 * @param baseObject object below which changes occurred; if null, the root object is used
+	 */
+	public synchronized void update(final PathObject rootObject, final PathObject baseObject) {
+		this.rootObject = rootObject;
+		// Objects may have been removed, but we don't know which - so check them later, or now if everything might have changed
+		hasDetached = true;
+		if (baseObject == null || baseObject == rootObject || getRoot(baseObject) != rootObject) {
+			releaseDetached();
+			registerDescendants(rootObject);
+		} else
+			registerDescendants(baseObject);
+	}
+	
+	/**
+	 * Returns true if an object may have been removed from the hierarchy without its ID being released, 
+	 * and it no longer belongs to the hierarchy.
+	 */
+	private boolean isDetached(final PathObject pathObject) {
+		return hasDetached && rootObject != null && getRoot(pathObject) != rootObject;
+	}
+	
+	/**
+	 * Release the IDs of all registered objects that no longer belong to the hierarchy, if there may be any.
+	 */
+	private void releaseDetached() {
+		if (!hasDetached)
+			return;
+		if (rootObject != null) {
+			for (int id = used.nextSetBit(0); id >= 0; id = used.nextSetBit(id+1)) {
+				if (getRoot(objects[id]) != rootObject)
+					releaseId(id);
+			}
+		}
+		hasDetached = false;
+	}
+	
+	/**
+	 * Reset the registry to contain all the objects below a root object.
+	 * <p>
+	 * If an array of IDs is provided, with one ID for each object in the order returned by {@link #getIds(PathObject)}, 
+	 * then these IDs will be used wherever possible.  Otherwise, any existing IDs the objects have will be retained where possible.
+	 * 
+	 * @param rootObject
+	 * @param ids
+	 */
+	public synchronized void reset(final PathObject rootObject, final int[] ids) {
+		clear();
+		this.rootObject = rootObject;
+		List<PathObject> pathObjects = getObjectsDepthFirst(rootObject);
+		pathObjects.remove(0);
+		boolean useIds = ids != null && ids.length == pathObjects.size();
+		// Assign preferred IDs first, then everything else
+		List<PathObject> remaining = new ArrayList<>();
+		int i = 0;
+		for (PathObject pathObject : pathObjects) {
+			int preferredId = useIds ? ids[i] : pathObject.id;
+			i++;
+			if (preferredId >= 0 && !used.get(preferredId))
+				setObject(pathObject, preferredId);
+			else
+				remaining.add(pathObject);
+		}
+		for (PathObject pathObject : remaining)
+			register(pathObject);
+	}
+	
+	/**
+	 * Get the IDs of all objects below a root object, in depth-first order (excluding the root itself).
+	 * Objects that are not registered have the ID -1.
+	 * <p>
+	 * This can be stored and passed to {@link #reset(PathObject, int[])} to restore the same IDs later.
+	 * 
+	 * @param rootObject
+	 * @return
+	 */
+	public synchronized int[] getIds(final PathObject rootObject) {
+		List<PathObject> pathObjects = getObjectsDepthFirst(rootObject);
+		int[] ids = new int[pathObjects.size() - 1];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = getId(pathObjects.get(i+1));
+		return ids;
+	}
+	
+	
+	private static PathObject getRoot(PathObject pathObject) {
+		PathObject parent = pathObject.getParent();
+		while (parent != null) {
+			pathObject = parent;
+			parent = pathObject.getParent();
+		}
+		return pathObject;
+	}
+	
+	/**
+	 * Get an object and all its descendants, in depth-first order.
+	 */
+	private static List<PathObject> getObjectsDepthFirst(final PathObject pathObject) {
+		List<PathObject> list = new ArrayList<>();
+		Deque<PathObject> stack = new ArrayDeque<>();
+		stack.push(pathObject);
+		while (!stack.isEmpty()) {
+			PathObject temp = stack.pop();
+			list.add(temp);
+			if (temp.hasChildren()) {
+				PathObject[] children = temp.getChildObjects().toArray(new PathObject[0]);
+				for (int i = children.length - 1; i >= 0; i--)
+					stack.push(children[i]);
+			}
+		}
+		return list;
+	}
+
+}
@@ -0,0 +1,369 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.objects.PathObject;
+
+/**
+ * Predicate for selecting objects based upon simple measurement comparisons, 
+ * e.g. {@code "Nucleus: Area > 50 AND NOT Nucleus: Hematoxylin OD mean < 0.2"}.
+ * <p>
+ * Each comparison has the form {@code measurement operator value}, where the operator is one of 
+ * {@code >=, <=, ==, !=, ~=, =, >, <}, optionally preceded by {@code NOT}.
+ * Comparisons are combined from left to right using {@code AND} or {@code OR}.
+ * A comparison involving a missing (NaN) measurement is always false.
+ * <p>
+ * Expressions are parsed once into flat arrays.  When testing many objects, measurement names are resolved to 
+ * list indices once for each shared list of measurement names - rather than being looked up for every object - 
+ * and large collections are tested in parallel.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MeasurementPredicate implements Predicate<PathObject> {
+	
+	// Minimum number of objects to test in each parallel chunk
+	private static final int CHUNK_SIZE = 10000;
+	
+	private static final int OP_GE = 0;
+	private static final int OP_LE = 1;
+	private static final int OP_GT = 2;
+	private static final int OP_LT = 3;
+	private static final int OP_EQ = 4;
+	private static final int OP_NE = 5;
+	
+	private static final Pattern comparePattern = Pattern.compile(">=|<=|==|!=|~=|=|>|<");
+	private static final Pattern combinePattern = Pattern.compile("and|AND|or|OR");
+	private static final Pattern notPattern = Pattern.compile("not|NOT");
+	
+	private final String[] names;
+	private final int[] ops;
+	private final double[] values;
+	private final boolean[] negate;
+	private final boolean[] and; // Combination with the previous result; ignored for the first comparison
+	
+	private MeasurementPredicate(final List<String> names, final List<Integer> ops, final List<Double> values, final List<Boolean> negate, final List<Boolean> and) {
+		int n = names.size();
+		this.names = names.toArray(new String[n]);
+		this.ops = new int[n];
+		this.values = new double[n];
+		this.negate = new boolean[n];
+		this.and = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			this.ops[i] = ops.get(i);
+			this.values[i] = values.get(i);
+			this.negate[i] = negate.get(i);
+			this.and[i] = and.get(i);
+		}
+	}
+	
+	/**
+	 * Parse a predicate from a String expression.
+	 * 
+	 * @param command
+	 * @return
+	 * @throws NoSuchElementException if the expression could not be parsed
+	 */
+	public static MeasurementPredicate parse(final String command) throws NoSuchElementException {
+		String s = command.trim();
+		if (s.length() == 0)
+			throw new NoSuchElementException("No command provided!");
+		
+		List<String> names = new ArrayList<>();
+		List<Integer> ops = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		List<Boolean> negate = new ArrayList<>();
+		List<Boolean> and = new ArrayList<>();
+		
+		Scanner scanner = new Scanner(s);
+		try {
+			while (scanner.hasNext()) {
+				boolean isAnd = true;
+				scanner.reset();
+				if (!names.isEmpty()) {
+					if (scanner.hasNext(combinePattern))
+						isAnd = "AND".equals(scanner.next(combinePattern).trim().toUpperCase());
+					else
+						throw new NoSuchElementException("Missing combiner (AND, OR) between comparisons!");
+				}
+
+				boolean isNegated = false;
+				if (scanner.hasNext(notPattern)) {
+					isNegated = true;
+					scanner.next(notPattern);
+				}
+
+				scanner.useDelimiter(comparePattern);
+				String measurement = scanner.next().trim();
+				scanner.reset();
+				if (!scanner.hasNext(comparePattern))
+					throw new NoSuchElementException("Missing comparison operator (<, >, <=, >=, ==) for measurement \"" + measurement + "\"");
+				String comparison = scanner.next(comparePattern).trim();
+				
+				if (!scanner.hasNextDouble())
+					throw new NoSuchElementException("Missing comparison value after \"" + measurement + " " + comparison + "\"");
+				double value = scanner.nextDouble();
+				
+				names.add(measurement);
+				ops.add(parseOperator(comparison));
+				values.add(value);
+				negate.add(isNegated);
+				and.add(isAnd);
+			}
+		} finally {
+			scanner.close();
+		}
+		return new MeasurementPredicate(names, ops, values, negate, and);
+	}
+	
+	private static int parseOperator(final String comparison) {
+		switch (comparison) {
+		case ">=":
+			return OP_GE;
+		case "<=":
+			return OP_LE;
+		case ">":
+			return OP_GT;
+		case "<":
+			return OP_LT;
+		case "=":
+		case "==":
+			return OP_EQ;
+		case "!=":
+		case "~=":
+			return OP_NE;
+		default:
+			throw new NoSuchElementException("Unrecognised comparison operator: " + comparison);
+		}
+	}
+	
+	/**
+	 * Get the names of the measurements used by this predicate, in the order they appear in the expression.
+	 * 
+	 * @return
+	 */
+	public List<String> getMeasurementNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+	
+	@Override
+	public boolean test(final PathObject pathObject) {
+		MeasurementList list = pathObject.getMeasurementList();
+		boolean result = false;
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0 && (and[i] ? !result : result))
+				continue;
+			result = compare(i, list.getMeasurementValue(names[i]));
+		}
+		return result;
+	}
+	
+	/**
+	 * Get all objects in a collection that match this predicate, in their original order.
+	 * <p>
+	 * Large collections are tested in parallel.
+	 * 
+	 * @param pathObjects
+	 * @return
+	 */
+	public <T extends PathObject> List<T> filter(final Collection<T> pathObjects) {
+		List<T> list = pathObjects instanceof List ? (List<T>)pathObjects : new ArrayList<>(pathObjects);
+		int n = list.size();
+		int nChunks = Math.max(1, Math.min(n / CHUNK_SIZE, Runtime.getRuntime().availableProcessors() * 4));
+		BitSet[] matches = new BitSet[nChunks];
+		IntStream stream = IntStream.range(0, nChunks);
+		if (nChunks > 1)
+			stream = stream.parallel();
+		stream.forEach(c -> {
+			int start = (int)((long)n * c / nChunks);
+			int end = (int)((long)n * (c + 1) / nChunks);
+			BitSet bits = new BitSet(end - start);
+			IndexResolver resolver = new IndexResolver();
+			for (int i = start; i < end; i++) {
+				if (test(list.get(i).getMeasurementList(), resolver))
+					bits.set(i - start);
+			}
+			matches[c] = bits;
+		});
+		List<T> results = new ArrayList<>();
+		for (int c = 0; c < nChunks; c++) {
+			int start = (int)((long)n * c / nChunks);
+			BitSet bits = matches[c];
+			for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+				results.add(list.get(start + i));
+		}
+		return results;
+	}
+	
+	/**
+	 * Test rows of measurements stored in columns, e.g. when measurements have already been cached as arrays.
+	 * <p>
+	 * Missing columns are treated as containing only NaNs.
+	 * 
+	 * @param columns function returning the values of the named measurement, with one entry per row
+	 * @param nRows the number of rows; no column should be shorter than this
+	 * @return a BitSet with the indices of all rows that match the predicate set
+	 */
+	public BitSet testRows(final Function<String, double[]> columns, final int nRows) {
+		double[][] data = new double[names.length][];
+		for (int i = 0; i < names.length; i++)
+			data[i] = columns.apply(names[i]);
+		boolean[] matches = new boolean[nRows];
+		IntStream stream = IntStream.range(0, nRows);
+		if (nRows >= CHUNK_SIZE * 2)
+			stream = stream.parallel();
+		stream.forEach(row -> {
+			boolean result = false;
+			for (int i = 0; i < names.length; i++) {
+				if (i > 0 && (and[i] ? !result : result))
+					continue;
+				result = compare(i, data[i] == null ? Double.NaN : data[i][row]);
+			}
+			matches[row] = result;
+		});
+		BitSet bits = new BitSet(nRows);
+		for (int row = 0; row < nRows; row++) {
+			if (matches[row])
+				bits.set(row);
+		}
+		return bits;
+	}
+	
+	private boolean test(final MeasurementList list, final IndexResolver resolver) {
+		int[] indices = resolver.getIndices(list);
+		boolean result = false;
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0 && (and[i] ? !result : result))
+				continue;
+			double v = indices == null ? list.getMeasurementValue(names[i]) : list.getMeasurementValue(indices[i]);
+			result = compare(i, v);
+		}
+		return result;
+	}
+	
+	private boolean compare(final int i, final double v) {
+		boolean result;
+		if (Double.isNaN(v))
+			result = false;
+		else {
+			int cmp = Double.compare(v, values[i]);
+			switch (ops[i]) {
+			case OP_GE:
+				result = cmp >= 0;
+				break;
+			case OP_LE:
+				result = cmp <= 0;
+				break;
+			case OP_GT:
+				result = cmp > 0;
+				break;
+			case OP_LT:
+				result = cmp < 0;
+				break;
+			case OP_EQ:
+				result = cmp == 0;
+				break;
+			default:
+				result = cmp != 0;
+			}
+		}
+		return negate[i] ? !result : result;
+	}
+	
+	/**
+	 * Helper to resolve measurement indices, reusing them while consecutive lists share the same names.
+	 * <p>
+	 * Each instance should only be used by a single thread.
+	 */
+	private class IndexResolver {
+		
+		private List<String> lastNames;
+		private int[] lastIndices;
+		
+		/**
+		 * Get the indices of the measurements within a list, or null if measurements should be requested by name.
+		 */
+		int[] getIndices(final MeasurementList list) {
+			// Lists supporting dynamic measurements may compute their values on request
+			if (list.supportsDynamicMeasurements())
+				return null;
+			List<String> listNames = list.getMeasurementNames();
+			if (listNames != lastNames) {
+				int[] indices = new int[names.length];
+				for (int i = 0; i < names.length; i++)
+					indices[i] = listNames.indexOf(names[i]);
+				lastNames = listNames;
+				lastIndices = indices;
+			}
+			return lastIndices;
+		}
+		
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				sb.append(and[i] ? " AND " : " OR ");
+			if (negate[i])
+				sb.append("NOT ");
+			sb.append(names[i]).append(" ").append(getOperatorString(ops[i])).append(" ").append(values[i]);
+		}
+		return sb.toString();
+	}
+	
+	private static String getOperatorString(final int op) {
+		switch (op) {
+		case OP_GE:
+			return ">=";
+		case OP_LE:
+			return "<=";
+		case OP_GT:
+			return ">";
+		case OP_LT:
+			return "<";
+		case OP_EQ:
+			return "==";
+		default:
+			return "!=";
+		}
+	}
+
+}
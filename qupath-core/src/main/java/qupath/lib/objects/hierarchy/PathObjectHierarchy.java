@@ -23,6 +23,8 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,6 +34,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Vector;
 
 import org.slf4j.Logger;
@@ -42,9 +45,11 @@ import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathCellObject;
 import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectIdRegistry;
 import qupath.lib.objects.PathRootObject;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.helpers.PathObjectTools;
+import qupath.lib.objects.hierarchy.events.CoalescingHierarchyEventDispatcher;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectSelectionModel;
@@ -101,8 +106,13 @@ public class PathObjectHierarchy implements Serializable {
 	private TMAGrid tmaGrid = null;
 	private PathObject rootObject = new PathRootObject();
 	
+	// Object IDs in depth-first order - only set during serialization, so that IDs can be restored later
+	private int[] objectIds = null;
+	
+	transient private PathObjectIdRegistry idRegistry = new PathObjectIdRegistry();
 	transient private PathObjectSelectionModel selectionModel = new PathObjectSelectionModel();
 	transient private Vector<PathObjectHierarchyListener> listeners = new Vector<>();
+	transient private CoalescingHierarchyEventDispatcher asyncDispatcher;
 
 	// Cache enabling faster access of objects according to location
 	transient private PathObjectTileCache tileCache = new PathObjectTileCache(this, 512);
@@ -130,9 +140,47 @@ public class PathObjectHierarchy implements Serializable {
 		listeners.remove(listener);
 	}
 	
+	/**
+	 * Add a listener that is notified asynchronously, after events occurring within a short time have been coalesced.
+	 * <p>
+	 * This is preferable for listeners that respond to changes slowly, e.g. by updating a user interface, 
+	 * since they will be called less often and do not delay the thread modifying the hierarchy.
+	 * However, by the time the listener is called the hierarchy may have changed further.
+	 * 
+	 * @param listener
+	 * @param eventTypes types of event the listener requires; if null or empty, all events will be passed on
+	 * 
+	 * @see CoalescingHierarchyEventDispatcher
+	 */
+	public void addAsyncPathObjectListener(PathObjectHierarchyListener listener, Set<HierarchyEventType> eventTypes) {
+		getAsyncDispatcher().addListener(listener, eventTypes);
+	}
+	
+	public void removeAsyncPathObjectListener(PathObjectHierarchyListener listener) {
+		getAsyncDispatcher().removeListener(listener);
+	}
+	
+	private synchronized CoalescingHierarchyEventDispatcher getAsyncDispatcher() {
+		if (asyncDispatcher == null)
+			asyncDispatcher = new CoalescingHierarchyEventDispatcher(this);
+		return asyncDispatcher;
+	}
+	
 	public PathObject getRootObject() {
 		return rootObject;
 	}
+	
+	/**
+	 * Get the registry containing compact integer IDs for all objects within the hierarchy.
+	 * <p>
+	 * IDs are updated whenever a hierarchy event is fired, and are retained when the hierarchy is saved and reloaded.
+	 * They can be used to index arrays or bitsets rather than using maps keyed by object.
+	 * 
+	 * @return
+	 */
+	public PathObjectIdRegistry getIdRegistry() {
+		return idRegistry;
+	}
 		
 	public synchronized TMAGrid getTMAGrid() {
 		return tmaGrid;
@@ -625,6 +673,8 @@ public class PathObjectHierarchy implements Serializable {
 			return;
 		rootObject = hierarchy.getRootObject();
 		tmaGrid = hierarchy.tmaGrid;
+		if (idRegistry != null)
+			idRegistry.reset(rootObject, hierarchy.objectIds);
 		fireHierarchyChangedEvent(rootObject);
 	}
 	
@@ -691,10 +741,43 @@ public class PathObjectHierarchy implements Serializable {
 	
 	
 	void fireEvent(PathObjectHierarchyEvent event) {
+		updateObjectIds(event);
 		if (listeners != null) {
 			for (PathObjectHierarchyListener listener : listeners.toArray(new PathObjectHierarchyListener[0]))
 				listener.hierarchyChanged(event);
 		}
+		if (asyncDispatcher != null)
+			asyncDispatcher.post(event);
+	}
+	
+	
+	private void updateObjectIds(PathObjectHierarchyEvent event) {
+		if (idRegistry == null)
+			return;
+		switch (event.getEventType()) {
+		case ADDED:
+			for (PathObject pathObject : event.getChangedObjects())
+				idRegistry.registerDescendants(pathObject);
+			break;
+		case REMOVED:
+			for (PathObject pathObject : event.getChangedObjects())
+				idRegistry.releaseDescendants(pathObject, rootObject);
+			break;
+		case OTHER_STRUCTURE_CHANGE:
+			idRegistry.update(rootObject, event.getStructureChangeBase());
+			break;
+		default:
+			break;
+		}
+	}
+	
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		objectIds = idRegistry == null ? null : idRegistry.getIds(rootObject);
+		try {
+			out.defaultWriteObject();
+		} finally {
+			objectIds = null;
+		}
 	}
 	
 	
@@ -0,0 +1,317 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.hierarchy.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+
+/**
+ * Dispatcher that passes hierarchy events to listeners asynchronously, after coalescing all the events 
+ * that occur within a short time window.
+ * <p>
+ * This is intended for listeners that perform expensive work in response to changes (e.g. refreshing tables), 
+ * so that they are not called repeatedly when objects are modified in many small batches, and do not hold up 
+ * the thread that modified the hierarchy (which will usually hold the hierarchy lock).
+ * <p>
+ * Events are coalesced as follows:
+ * <ul>
+ *   <li>Objects added (or removed) under the same parent are combined into a single added (or removed) event.</li>
+ *   <li>Any other combination of structural changes is collapsed into a single {@link HierarchyEventType#OTHER_STRUCTURE_CHANGE} 
+ *   event, based at the lowest common ancestor of all the objects whose children changed.</li>
+ *   <li>Classification, measurement and other object changes are combined into one event for each type, 
+ *   containing all the changed objects.</li>
+ * </ul>
+ * When the coalesced events are dispatched, any structural change event is passed first, followed by the object change events.
+ * Each listener only receives events of the types it was registered for.
+ * <p>
+ * All dispatchers share a single daemon thread, so listeners must not block for long - and must themselves 
+ * pass any work onto the JavaFX thread if required.  If listeners are slow, events continue to be coalesced while 
+ * they are busy, so the number of events dispatched decreases rather than forming a queue.
+ * Furthermore, if the number of changed objects waiting to be dispatched exceeds a limit, they are discarded and 
+ * replaced by a single structure change event for the root object, which is passed to all listeners 
+ * (regardless of the event types they requested) as an indication that everything should be refreshed.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class CoalescingHierarchyEventDispatcher {
+	
+	private final static Logger logger = LoggerFactory.getLogger(CoalescingHierarchyEventDispatcher.class);
+	
+	/**
+	 * Default time window within which events are coalesced, in milliseconds.
+	 */
+	public static final long DEFAULT_WINDOW_MILLIS = 50;
+	
+	/**
+	 * Default maximum number of changed objects to retain before collapsing to a single event.
+	 */
+	public static final int DEFAULT_MAX_PENDING_OBJECTS = 100_000;
+	
+	private static ScheduledExecutorService pool = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "hierarchy-event-dispatcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final PathObjectHierarchy hierarchy;
+	private final long windowMillis;
+	private final int maxPendingObjects;
+	
+	private final List<ListenerEntry> listeners = new CopyOnWriteArrayList<>();
+	
+	// Pending events - all guarded by 'this'
+	private boolean flushScheduled = false;
+	private boolean overflow = false;
+	private Object structureSource;
+	private HierarchyEventType structureType;
+	private PathObject structureParent;
+	private Map<PathObject, Boolean> structureObjects = new LinkedHashMap<>();
+	private Map<HierarchyEventType, PendingChange> changes = new EnumMap<>(HierarchyEventType.class);
+	private int nPendingObjects = 0;
+	
+	
+	/**
+	 * Create a dispatcher for events from a hierarchy, using the default time window and object limit.
+	 * 
+	 * @param hierarchy
+	 */
+	public CoalescingHierarchyEventDispatcher(final PathObjectHierarchy hierarchy) {
+		this(hierarchy, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_PENDING_OBJECTS);
+	}
+
+	/**
+	 * Create a dispatcher for events from a hierarchy.
+	 * 
+	 * @param hierarchy the hierarchy, used as the source of any events with multiple sources
+	 * @param windowMillis time to wait after the first event before dispatching, so that later events can be combined with it
+	 * @param maxPendingObjects maximum number of changed objects to retain before collapsing to a single structure change event
+	 */
+	public CoalescingHierarchyEventDispatcher(final PathObjectHierarchy hierarchy, final long windowMillis, final int maxPendingObjects) {
+		this.hierarchy = hierarchy;
+		this.windowMillis = Math.max(0, windowMillis);
+		this.maxPendingObjects = Math.max(1, maxPendingObjects);
+	}
+	
+	/**
+	 * Add a listener to receive coalesced events.
+	 * 
+	 * @param listener
+	 * @param eventTypes the types of event to pass to the listener; if null or empty, all events will be passed
+	 */
+	public void addListener(final PathObjectHierarchyListener listener, final Set<HierarchyEventType> eventTypes) {
+		Set<HierarchyEventType> types = eventTypes == null || eventTypes.isEmpty() ? 
+				EnumSet.allOf(HierarchyEventType.class) : EnumSet.copyOf(eventTypes);
+		listeners.add(new ListenerEntry(listener, types));
+	}
+	
+	/**
+	 * Remove a listener, so that it will no longer receive events.
+	 * <p>
+	 * Note that the listener may still receive an event if dispatching is already in progress.
+	 * 
+	 * @param listener
+	 */
+	public void removeListener(final PathObjectHierarchyListener listener) {
+		listeners.removeIf(entry -> entry.listener == listener);
+	}
+	
+	/**
+	 * Returns true if at least one listener is registered.
+	 * 
+	 * @return
+	 */
+	public boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+	
+	/**
+	 * Post an event, which will be coalesced with any other pending events and dispatched later.
+	 * This method returns immediately.
+	 * 
+	 * @param event
+	 */
+	public synchronized void post(final PathObjectHierarchyEvent event) {
+		if (listeners.isEmpty())
+			return;
+		if (!overflow) {
+			HierarchyEventType type = event.getEventType();
+			if (event.isStructureChangeEvent())
+				mergeStructureEvent(event);
+			else {
+				PendingChange change = changes.get(type);
+				if (change == null) {
+					change = new PendingChange(event.getSource());
+					changes.put(type, change);
+				} else if (change.source != event.getSource())
+					change.source = hierarchy;
+				change.isChanging = event.isChanging();
+				for (PathObject pathObject : event.getChangedObjects()) {
+					if (change.pathObjects.put(pathObject, Boolean.TRUE) == null)
+						nPendingObjects++;
+				}
+			}
+			if (nPendingObjects > maxPendingObjects) {
+				logger.debug("More than {} changed objects pending - collapsing to a single event", maxPendingObjects);
+				overflow = true;
+				structureObjects.clear();
+				changes.clear();
+				nPendingObjects = 0;
+			}
+		}
+		if (!flushScheduled) {
+			flushScheduled = true;
+			pool.schedule(this::dispatchPending, windowMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private void mergeStructureEvent(final PathObjectHierarchyEvent event) {
+		HierarchyEventType type = event.getEventType();
+		PathObject parent = event.getStructureChangeBase();
+		if (structureType == null) {
+			structureType = type;
+			structureParent = parent;
+			structureSource = event.getSource();
+		} else {
+			if (structureSource != event.getSource())
+				structureSource = hierarchy;
+			if (structureType != type || structureParent != parent || type == HierarchyEventType.OTHER_STRUCTURE_CHANGE) {
+				structureType = HierarchyEventType.OTHER_STRUCTURE_CHANGE;
+				structureParent = getCommonAncestor(structureParent, parent);
+				nPendingObjects -= structureObjects.size();
+				structureObjects.clear();
+			}
+		}
+		if (structureType != HierarchyEventType.OTHER_STRUCTURE_CHANGE) {
+			for (PathObject pathObject : event.getChangedObjects()) {
+				if (structureObjects.put(pathObject, Boolean.TRUE) == null)
+					nPendingObjects++;
+			}
+		}
+	}
+	
+	/**
+	 * Get the lowest common ancestor of two objects, or the root object if there is none.
+	 */
+	private PathObject getCommonAncestor(final PathObject pathObject1, final PathObject pathObject2) {
+		if (pathObject1 == pathObject2 && pathObject1 != null)
+			return pathObject1;
+		Map<PathObject, Boolean> ancestors = new IdentityHashMap<>();
+		for (PathObject temp = pathObject1; temp != null; temp = temp.getParent())
+			ancestors.put(temp, Boolean.TRUE);
+		for (PathObject temp = pathObject2; temp != null; temp = temp.getParent()) {
+			if (ancestors.containsKey(temp))
+				return temp;
+		}
+		return hierarchy.getRootObject();
+	}
+	
+	/**
+	 * Create events from everything pending, and pass them to the listeners.
+	 */
+	private void dispatchPending() {
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		boolean wasOverflow;
+		synchronized (this) {
+			flushScheduled = false;
+			wasOverflow = overflow;
+			if (overflow) {
+				events.add(PathObjectHierarchyEvent.createStructureChangeEvent(hierarchy, hierarchy, hierarchy.getRootObject()));
+			} else {
+				if (structureType != null) {
+					events.add(new PathObjectHierarchyEvent(structureSource, hierarchy, structureType, structureParent, 
+							new ArrayList<>(structureObjects.keySet()), false));
+				}
+				for (Map.Entry<HierarchyEventType, PendingChange> entry : changes.entrySet()) {
+					PendingChange change = entry.getValue();
+					events.add(new PathObjectHierarchyEvent(change.source, hierarchy, entry.getKey(), null, 
+							new ArrayList<>(change.pathObjects.keySet()), change.isChanging));
+				}
+			}
+			overflow = false;
+			structureType = null;
+			structureParent = null;
+			structureSource = null;
+			structureObjects = new LinkedHashMap<>();
+			changes = new EnumMap<>(HierarchyEventType.class);
+			nPendingObjects = 0;
+		}
+		for (PathObjectHierarchyEvent event : events) {
+			for (ListenerEntry entry : listeners) {
+				if (!wasOverflow && !entry.eventTypes.contains(event.getEventType()))
+					continue;
+				try {
+					entry.listener.hierarchyChanged(event);
+				} catch (Exception e) {
+					logger.error("Error dispatching hierarchy event to " + entry.listener, e);
+				}
+			}
+		}
+	}
+	
+	
+	private static class PendingChange {
+		
+		private Object source;
+		private boolean isChanging;
+		private final Map<PathObject, Boolean> pathObjects = new LinkedHashMap<>();
+		
+		PendingChange(final Object source) {
+			this.source = source;
+		}
+		
+	}
+	
+	private static class ListenerEntry {
+		
+		private final PathObjectHierarchyListener listener;
+		private final Set<HierarchyEventType> eventTypes;
+		
+		ListenerEntry(final PathObjectHierarchyListener listener, final Set<HierarchyEventType> eventTypes) {
+			this.listener = listener;
+			this.eventTypes = Collections.unmodifiableSet(eventTypes);
+		}
+		
+	}
+
+}
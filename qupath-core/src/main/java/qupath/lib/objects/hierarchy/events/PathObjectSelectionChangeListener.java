@@ -0,0 +1,43 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.hierarchy.events;
+
+import java.util.EventListener;
+
+/**
+ * A listener to selection changes within a PathObjectSelectionModel, which is informed 
+ * of the objects that were added to or removed from the selection.
+ * <p>
+ * This is preferable to {@link PathObjectSelectionListener} whenever many objects may be selected, 
+ * since listeners can then update only what has changed.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public interface PathObjectSelectionChangeListener extends EventListener {
+	
+	public void selectionChanged(PathObjectSelectionEvent event);
+
+}
@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.hierarchy.events;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * An event describing a change in the objects selected within a {@link PathObjectSelectionModel}.
+ * <p>
+ * Rather than requiring listeners to compare the full selection before and after the change, 
+ * the event describes only the objects that were added to or removed from the selection.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PathObjectSelectionEvent {
+	
+	private final PathObjectSelectionModel source;
+	private final PathObject selectedObject;
+	private final PathObject previousObject;
+	private final Collection<PathObject> added;
+	private final Collection<PathObject> removed;
+	private final boolean cleared;
+	
+	PathObjectSelectionEvent(final PathObjectSelectionModel source, final PathObject selectedObject, final PathObject previousObject, 
+			final Collection<PathObject> added, final Collection<PathObject> removed, final boolean cleared) {
+		this.source = source;
+		this.selectedObject = selectedObject;
+		this.previousObject = previousObject;
+		this.added = Collections.unmodifiableCollection(added);
+		this.removed = Collections.unmodifiableCollection(removed);
+		this.cleared = cleared;
+	}
+	
+	/**
+	 * Get the selection model that fired the event.
+	 * 
+	 * @return
+	 */
+	public PathObjectSelectionModel getSource() {
+		return source;
+	}
+	
+	/**
+	 * Get the primary selected object after the change.
+	 * 
+	 * @return
+	 */
+	public PathObject getSelectedObject() {
+		return selectedObject;
+	}
+	
+	/**
+	 * Get the primary selected object before the change.
+	 * 
+	 * @return
+	 */
+	public PathObject getPreviousObject() {
+		return previousObject;
+	}
+	
+	/**
+	 * Get the objects that were added to the selection.
+	 * 
+	 * @return
+	 */
+	public Collection<PathObject> getAddedObjects() {
+		return added;
+	}
+
+	/**
+	 * Get the objects that were removed from the selection.
+	 * 
+	 * @return
+	 */
+	public Collection<PathObject> getRemovedObjects() {
+		return removed;
+	}
+	
+	/**
+	 * Returns true if the selection is now empty.
+	 * 
+	 * @return
+	 */
+	public boolean isCleared() {
+		return cleared;
+	}
+	
+	@Override
+	public String toString() {
+		return "Selection event: " + added.size() + " added, " + removed.size() + " removed";
+	}
+
+}
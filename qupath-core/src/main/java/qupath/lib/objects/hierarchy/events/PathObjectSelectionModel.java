@@ -20,21 +20,37 @@
  * <http://www.gnu.org/licenses/gpl-3.0.html>.
  * #L%
  */
-
 package qupath.lib.objects.hierarchy.events;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
+import java.util.function.Predicate;
 
 import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectIdRegistry;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
  * Model for handling selection of single and multiple PathObjects.
+ * <p>
+ * Objects with IDs assigned by a {@link PathObjectIdRegistry} (i.e. generally those within a hierarchy) are stored 
+ * in an array indexed by ID, along with a {@link BitSet} indicating which IDs are selected.  
+ * This means that selecting, deselecting and testing many objects (e.g. all detections in a large image) 
+ * remains fast without needing to hash the objects.
+ * Any other objects are stored separately in a set.
+ * <p>
+ * Bulk changes fire a single event, and listeners that need to know exactly what changed can register a 
+ * {@link PathObjectSelectionChangeListener} to receive the objects added and removed.
  * 
  * @author Pete Bankhead
  * 
@@ -44,9 +60,16 @@ import qupath.lib.roi.interfaces.ROI;
 public class PathObjectSelectionModel {
 	
 	private Vector<PathObjectSelectionListener> listeners = new Vector<>();
+	private Vector<PathObjectSelectionChangeListener> changeListeners = new Vector<>();
+	
+	// Selected objects - all guarded by 'this'
+	// Objects are stored according to their ID where possible; the object is also stored so that stale IDs can be identified
+	private PathObject[] selectedById = new PathObject[0];
+	private BitSet selectedBits = new BitSet();
+	private Set<PathObject> selectedOther = new LinkedHashSet<>();
+	private int nSelected = 0;
 	
-	private Set<PathObject> selectedSet = Collections.synchronizedSet(new LinkedHashSet<>(256));
-	private Set<PathObject> selectedSetUnmodifiable = Collections.unmodifiableSet(selectedSet);
+	private Set<PathObject> selectedSetUnmodifiable = new SelectedSet();
 	private PathObject pathObjectSelected = null;
 	
 	public void setSelectedObjects(Collection<? extends PathObject> pathObjects, final PathObject selectedObject) {
@@ -54,22 +77,48 @@ public class PathObjectSelectionModel {
 			clearSelection();
 			return;
 		}
-		// Check if we have any changes to make
-		if (selectedSet.size() == pathObjects.size() && selectedSet.containsAll(pathObjects))
-			return;
-		
-		// Update selected objects
-		PathObject previousSelected = pathObjectSelected;
-		selectedSet.clear();
-		selectedSet.addAll(pathObjects);
-		selectedSet.remove(null); // This shouldn't be needed... and yet it is?
-//		if (selectedObject == null) {
-//			updateToLastSelectedObject();
-//		} else
-			pathObjectSelected = selectedObject;
-		firePathObjectSelectionChangedEvent(pathObjectSelected, previousSelected);
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			// Select all the objects, keeping track of them so that everything else can be deselected
+			BitSet keepBits = new BitSet();
+			Set<PathObject> keepOther = new LinkedHashSet<>();
+			for (PathObject pathObject : pathObjects) {
+				if (pathObject == null)
+					continue;
+				select(pathObject, changes);
+				int id = PathObjectIdRegistry.getIdHint(pathObject);
+				if (id >= 0 && selectedById[id] == pathObject)
+					keepBits.set(id);
+				else
+					keepOther.add(pathObject);
+			}
+			BitSet removeBits = (BitSet)selectedBits.clone();
+			removeBits.andNot(keepBits);
+			for (int i = removeBits.nextSetBit(0); i >= 0; i = removeBits.nextSetBit(i+1))
+				deselect(selectedById[i], changes);
+			if (selectedOther.size() > keepOther.size() || !keepOther.containsAll(selectedOther)) {
+				for (PathObject pathObject : selectedOther.toArray(new PathObject[0])) {
+					if (!keepOther.contains(pathObject))
+						deselect(pathObject, changes);
+				}
+			}
+			// Check if we have any changes to make
+			if (!changes.hasChanges())
+				return;
+			event = createEvent(changes, selectedObject);
+		}
+		fireSelectionEvent(event);
 	}
 	
+	/**
+	 * Get all the selected objects.
+	 * <p>
+	 * The returned set is an unmodifiable view that reflects later changes in the selection.
+	 * Iteration order is not guaranteed to match the order in which objects were selected.
+	 * 
+	 * @return
+	 */
 	public Set<PathObject> getSelectedObjects() {
 		return selectedSetUnmodifiable;
 	}
@@ -80,8 +129,8 @@ public class PathObjectSelectionModel {
 	 * 
 	 * @return
 	 */
-	public boolean noSelection() {
-		return pathObjectSelected == null && selectedSet.isEmpty();
+	public synchronized boolean noSelection() {
+		return pathObjectSelected == null && nSelected == 0;
 	}
 
 	/**
@@ -89,8 +138,8 @@ public class PathObjectSelectionModel {
 	 * 
 	 * @return
 	 */
-	public boolean singleSelection() {
-		return selectedSet.size() == 1 || (selectedSet.isEmpty() && pathObjectSelected != null);
+	public synchronized boolean singleSelection() {
+		return nSelected == 1 || (nSelected == 0 && pathObjectSelected != null);
 	}
 	
 	
@@ -101,30 +150,41 @@ public class PathObjectSelectionModel {
 		}
 		if (pathObject == null)
 			return;
-		PathObject previousSelected = pathObjectSelected;
-		selectedSet.add(pathObject);
-		pathObjectSelected = pathObject;
-		firePathObjectSelectionChangedEvent(pathObjectSelected, previousSelected);
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			select(pathObject, changes);
+			event = createEvent(changes, pathObject);
+		}
+		fireSelectionEvent(event);
 	}
 	
 	
-	private void updateToLastSelectedObject() {
-		Iterator<? extends PathObject> iter = selectedSet.iterator();
-		while (iter.hasNext())
-			pathObjectSelected = iter.next();
+	private PathObject getLastSelectedObject() {
+		if (!selectedOther.isEmpty()) {
+			PathObject last = null;
+			for (PathObject pathObject : selectedOther)
+				last = pathObject;
+			return last;
+		}
+		int ind = selectedBits.length() - 1;
+		return ind < 0 ? null : selectedById[ind];
 	}
 	
 
 	public void deselectObject(PathObject pathObject) {
-		PathObject previousSelected = pathObjectSelected;
-		boolean changes = selectedSet.remove(pathObject);
-		if (pathObjectSelected == previousSelected) {
-			pathObjectSelected = null;
-			updateToLastSelectedObject();
-			changes = true;
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			deselect(pathObject, changes);
+			PathObject selected = pathObjectSelected;
+			if (pathObjectSelected == pathObject)
+				selected = getLastSelectedObject();
+			else if (!changes.hasChanges())
+				return;
+			event = createEvent(changes, selected);
 		}
-		if (changes)
-			firePathObjectSelectionChangedEvent(pathObjectSelected, previousSelected);
+		fireSelectionEvent(event);
 	}
 	
 	
@@ -136,12 +196,62 @@ public class PathObjectSelectionModel {
 	 * @param pathObjects
 	 */
 	public void deselectObjects(Collection<? extends PathObject> pathObjects) {
-		if (selectedSet.removeAll(pathObjects)) {
-			PathObject previousSelected = pathObjectSelected;
-			if (pathObjects.contains(pathObjectSelected))
-				updateToLastSelectedObject();
-			firePathObjectSelectionChangedEvent(pathObjectSelected, previousSelected);
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			boolean primaryRemoved = false;
+			for (PathObject pathObject : pathObjects) {
+				deselect(pathObject, changes);
+				if (pathObject == pathObjectSelected)
+					primaryRemoved = true;
+			}
+			if (!changes.hasChanges())
+				return;
+			event = createEvent(changes, primaryRemoved ? getLastSelectedObject() : pathObjectSelected);
 		}
+		fireSelectionEvent(event);
+	}
+	
+	/**
+	 * Deselect all the currently-selected objects that match a predicate.
+	 * <p>
+	 * This can be used to remove objects of a particular type or classification from the selection, 
+	 * without needing to first create a collection of objects to deselect.
+	 * 
+	 * @param predicate
+	 */
+	public void deselectObjects(Predicate<? super PathObject> predicate) {
+		retainSelectedObjects(predicate.negate());
+	}
+	
+	/**
+	 * Deselect all the currently-selected objects that do not match a predicate.
+	 * <p>
+	 * This is equivalent to taking the intersection of the current selection with all objects matching the predicate, 
+	 * e.g. to keep only the selected objects with a specified classification.
+	 * 
+	 * @param predicate
+	 */
+	public void retainSelectedObjects(Predicate<? super PathObject> predicate) {
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			for (int i = selectedBits.nextSetBit(0); i >= 0; i = selectedBits.nextSetBit(i+1)) {
+				if (!predicate.test(selectedById[i]))
+					deselect(selectedById[i], changes);
+			}
+			for (PathObject pathObject : selectedOther.toArray(new PathObject[0])) {
+				if (!predicate.test(pathObject))
+					deselect(pathObject, changes);
+			}
+			PathObject selected = pathObjectSelected;
+			if (selected != null && !predicate.test(selected))
+				selected = getLastSelectedObject();
+			if (!changes.hasChanges() && selected == pathObjectSelected)
+				return;
+			event = createEvent(changes, selected);
+		}
+		fireSelectionEvent(event);
 	}
 	
 	
@@ -153,12 +263,35 @@ public class PathObjectSelectionModel {
 	 * @param pathObjects
 	 */
 	public void selectObjects(Collection<? extends PathObject> pathObjects) {
-		if (selectedSet.addAll(pathObjects)) {
-			PathObject previousSelected = pathObjectSelected;
-			if (previousSelected == null)
-				updateToLastSelectedObject();
-			firePathObjectSelectionChangedEvent(pathObjectSelected, previousSelected);
+		selectObjects(pathObjects, null);
+	}
+	
+	/**
+	 * Ensure all the specified objects that match a predicate are selected.
+	 * <p>
+	 * This is equivalent to taking the union of the current selection with all objects matching the predicate, 
+	 * e.g. to add all objects with a specified classification to the selection.
+	 * The selection state of other objects will not be modified.
+	 * 
+	 * @param pathObjects
+	 * @param predicate predicate used to filter the objects; if null, all the objects will be selected
+	 */
+	public void selectObjects(Collection<? extends PathObject> pathObjects, Predicate<? super PathObject> predicate) {
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			for (PathObject pathObject : pathObjects) {
+				if (pathObject != null && (predicate == null || predicate.test(pathObject)))
+					select(pathObject, changes);
+			}
+			if (!changes.hasChanges())
+				return;
+			PathObject selected = pathObjectSelected;
+			if (selected == null)
+				selected = getLastSelectedObject();
+			event = createEvent(changes, selected);
 		}
+		fireSelectionEvent(event);
 	}
 	
 	
@@ -168,21 +301,46 @@ public class PathObjectSelectionModel {
 		// in the hierarchy - and some listeners respond differently depending upon which is the case
 //		if (this.pathObjectSelected == pathObject)
 //			return;
-		PathObject previousObject = pathObjectSelected;
-		pathObjectSelected = pathObject;
-		
-		selectedSet.clear();
-		if (pathObjectSelected != null)
-			selectedSet.add(pathObjectSelected);
-		firePathObjectSelectionChangedEvent(pathObjectSelected, previousObject);
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			SelectionChanges changes = new SelectionChanges();
+			boolean wasSelected = pathObject != null && isInSelectedSet(pathObject);
+			deselectAll(changes);
+			if (pathObject != null) {
+				select(pathObject, changes);
+				// Don't report the object as both removed and added
+				if (wasSelected && changes.added != null) {
+					changes.added.remove(pathObject);
+					changes.removed.remove(pathObject);
+				}
+			}
+			event = createEvent(changes, pathObject);
+		}
+		fireSelectionEvent(event);
 	}
 	
-	public PathObject getSelectedObject() {
+	public synchronized PathObject getSelectedObject() {
 		return pathObjectSelected;
 	}
 	
-	public boolean isSelected(PathObject pathObject) {
-		return pathObjectSelected == pathObject || selectedSet.contains(pathObject);
+	public synchronized boolean isSelected(PathObject pathObject) {
+		return pathObjectSelected == pathObject || isInSelectedSet(pathObject);
+	}
+	
+	private boolean isInSelectedSet(PathObject pathObject) {
+		int id = PathObjectIdRegistry.getIdHint(pathObject);
+		if (id >= 0 && id < selectedById.length && selectedById[id] == pathObject)
+			return true;
+		return !selectedOther.isEmpty() && selectedOther.contains(pathObject);
+	}
+	
+	/**
+	 * Get the number of selected objects.
+	 * 
+	 * @return
+	 */
+	public synchronized int getSelectedCount() {
+		return nSelected;
 	}
 	
 	/**
@@ -190,18 +348,89 @@ public class PathObjectSelectionModel {
 	 * @return
 	 */
 	public ROI getSelectedROI() {
-		if (pathObjectSelected != null)
-			return pathObjectSelected.getROI();
+		PathObject pathObject = getSelectedObject();
+		if (pathObject != null)
+			return pathObject.getROI();
 		return null;
 	}
 	
 	public void clearSelection() {
-		if (noSelection())
+		PathObjectSelectionEvent event;
+		synchronized (this) {
+			if (noSelection())
+				return;
+			SelectionChanges changes = new SelectionChanges();
+			deselectAll(changes);
+			event = createEvent(changes, null);
+		}
+		fireSelectionEvent(event);
+	}
+	
+	
+	private void select(PathObject pathObject, SelectionChanges changes) {
+		int id = PathObjectIdRegistry.getIdHint(pathObject);
+		if (id < 0) {
+			if (selectedOther.add(pathObject)) {
+				nSelected++;
+				changes.add(pathObject);
+			}
 			return;
-		selectedSet.clear();
-		PathObject previous = pathObjectSelected;
-		pathObjectSelected = null;
-		firePathObjectSelectionChangedEvent(null, previous);
+		}
+		if (id >= selectedById.length)
+			selectedById = Arrays.copyOf(selectedById, Math.max(id + 1, Math.max(256, selectedById.length * 2)));
+		PathObject previous = selectedById[id];
+		if (previous == pathObject)
+			return;
+		// Check if the object is already selected, but stored separately
+		if (selectedOther.isEmpty() || !selectedOther.remove(pathObject)) {
+			nSelected++;
+			changes.add(pathObject);
+		}
+		// If the ID was previously used by another object, keep that object selected
+		if (previous != null)
+			selectedOther.add(previous);
+		selectedById[id] = pathObject;
+		selectedBits.set(id);
+	}
+	
+	private void deselect(PathObject pathObject, SelectionChanges changes) {
+		int id = PathObjectIdRegistry.getIdHint(pathObject);
+		if (id >= 0 && id < selectedById.length && selectedById[id] == pathObject) {
+			selectedById[id] = null;
+			selectedBits.clear(id);
+		} else if (selectedOther.isEmpty() || !selectedOther.remove(pathObject))
+			return;
+		nSelected--;
+		changes.remove(pathObject);
+	}
+	
+	private void deselectAll(SelectionChanges changes) {
+		for (int i = selectedBits.nextSetBit(0); i >= 0; i = selectedBits.nextSetBit(i+1))
+			changes.remove(selectedById[i]);
+		for (PathObject pathObject : selectedOther)
+			changes.remove(pathObject);
+		// Avoid retaining a large array when nothing is selected
+		selectedById = new PathObject[0];
+		selectedBits = new BitSet();
+		selectedOther = new LinkedHashSet<>();
+		nSelected = 0;
+	}
+	
+	/**
+	 * Create the event that should be fired after a change (which should be done after releasing the lock).
+	 */
+	private PathObjectSelectionEvent createEvent(SelectionChanges changes, PathObject selectedObject) {
+		PathObject previousSelected = pathObjectSelected;
+		pathObjectSelected = selectedObject;
+		List<PathObject> added = changes.added == null ? Collections.emptyList() : changes.added;
+		List<PathObject> removed = changes.removed == null ? Collections.emptyList() : changes.removed;
+		return new PathObjectSelectionEvent(this, selectedObject, previousSelected, added, removed, nSelected == 0);
+	}
+	
+	private void fireSelectionEvent(PathObjectSelectionEvent event) {
+		firePathObjectSelectionChangedEvent(event.getSelectedObject(), event.getPreviousObject());
+		for (PathObjectSelectionChangeListener listener : changeListeners.toArray(new PathObjectSelectionChangeListener[0]))
+			listener.selectionChanged(event);
 	}
 
 	protected void firePathObjectSelectionChangedEvent(PathObject pathObjectSelected, PathObject previousObject) {
@@ -221,4 +450,127 @@ public class PathObjectSelectionModel {
 		listeners.remove(listener);
 	}
 	
+	/**
+	 * Add a listener that is informed of the objects added to and removed from the selection.
+	 * 
+	 * @param listener
+	 */
+	public void addSelectionChangeListener(PathObjectSelectionChangeListener listener) {
+		changeListeners.add(listener);
+	}
+	
+	public void removeSelectionChangeListener(PathObjectSelectionChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+	
+	
+	/**
+	 * Changes made during a single update of the selection.
+	 * Lists of objects are only created if there are listeners that require them.
+	 */
+	private class SelectionChanges {
+		
+		private List<PathObject> added, removed;
+		private int nChanges;
+		
+		SelectionChanges() {
+			if (!changeListeners.isEmpty()) {
+				added = new ArrayList<>();
+				removed = new ArrayList<>();
+			}
+		}
+		
+		void add(PathObject pathObject) {
+			nChanges++;
+			if (added != null)
+				added.add(pathObject);
+		}
+		
+		void remove(PathObject pathObject) {
+			nChanges++;
+			if (removed != null)
+				removed.add(pathObject);
+		}
+		
+		boolean hasChanges() {
+			return nChanges > 0;
+		}
+		
+	}
+	
+	
+	/**
+	 * Unmodifiable view of the selected objects.
+	 */
+	private class SelectedSet extends AbstractSet<PathObject> {
+
+		@Override
+		public Iterator<PathObject> iterator() {
+			synchronized (PathObjectSelectionModel.this) {
+				return new SelectedIterator((BitSet)selectedBits.clone(), selectedById, new ArrayList<>(selectedOther));
+			}
+		}
+
+		@Override
+		public int size() {
+			return getSelectedCount();
+		}
+		
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof PathObject))
+				return false;
+			synchronized (PathObjectSelectionModel.this) {
+				return isInSelectedSet((PathObject)o);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Iterator over a snapshot of the selected IDs.
+	 * Objects deselected after the snapshot was taken are skipped.
+	 */
+	private class SelectedIterator implements Iterator<PathObject> {
+		
+		private final BitSet bits;
+		private final PathObject[] objects;
+		private final Iterator<PathObject> iterOther;
+		private int ind;
+		private PathObject next;
+		
+		SelectedIterator(BitSet bits, PathObject[] objects, List<PathObject> other) {
+			this.bits = bits;
+			this.objects = objects;
+			this.iterOther = other.iterator();
+			this.ind = bits.nextSetBit(0);
+			next = computeNext();
+		}
+		
+		private PathObject computeNext() {
+			while (ind >= 0) {
+				PathObject pathObject = objects[ind];
+				ind = bits.nextSetBit(ind + 1);
+				if (pathObject != null)
+					return pathObject;
+			}
+			return iterOther.hasNext() ? iterOther.next() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public PathObject next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			PathObject current = next;
+			next = computeNext();
+			return current;
+		}
+		
+	}
+	
 }
@@ -0,0 +1,1153 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.roi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+import qupath.lib.roi.interfaces.PathShape;
+import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
+
+/**
+ * Boolean operations (union, intersection, difference, exclusive or) for polygonal ROIs, 
+ * operating directly on their vertices rather than converting them to {@code java.awt.geom.Area} objects.
+ * <p>
+ * The algorithm works in three stages:
+ * <ol>
+ *   <li>All edges of all operands are split where they intersect or overlap, using a sweep along the x-axis to find candidate pairs. 
+ *   Vertices closer than a small tolerance are then merged, so that the edges afterwards only meet at shared vertices.</li>
+ *   <li>Identical edges are grouped, and for each group the winding number of every operand is computed on both sides 
+ *   (using ray casting against edges sorted into bands).  An edge is retained if the result of the boolean operation differs 
+ *   between its two sides, and oriented so that the result is on its left.</li>
+ *   <li>The retained edges are linked into closed rings.  Shells are then oriented counter-clockwise and holes clockwise 
+ *   (in a y-up coordinate system), so the non-zero winding rule gives the result.</li>
+ * </ol>
+ * Each operand is interpreted using the non-zero winding rule, as for {@link AreaROI#contains(double, double)}.
+ * <p>
+ * Unions of many ROIs are computed as a parallel reduction tree, in which spatially nearby ROIs are combined first.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PolygonClipper {
+	
+	/**
+	 * Boolean operations that can be applied.
+	 */
+	public static enum Op {
+		/**
+		 * Region inside any operand.
+		 */
+		UNION,
+		/**
+		 * Region inside all operands.
+		 */
+		INTERSECTION,
+		/**
+		 * Region inside the first operand, but not any other.
+		 */
+		DIFFERENCE,
+		/**
+		 * Region inside an odd number of operands.
+		 */
+		XOR
+	}
+	
+	/**
+	 * Maximum number of operands to combine in one step when computing unions.
+	 */
+	private static final int UNION_LEAF_SIZE = 8;
+	
+	/**
+	 * Maximum number of passes to find intersections; usually only one or two are needed.
+	 */
+	private static final int MAX_SPLIT_PASSES = 5;
+	
+	/**
+	 * Minimum number of edge groups before winding numbers are computed in parallel.
+	 */
+	private static final int MIN_PARALLEL_GROUPS = 5000;
+	
+	private PolygonClipper() {}
+	
+	
+	/**
+	 * Returns true if a ROI can be used with this class, i.e. if it is a polygon, rectangle or area.
+	 * <p>
+	 * Other areas (e.g. ellipses) are not supported directly, since they would need to be flattened first.
+	 * 
+	 * @param roi
+	 * @return
+	 */
+	public static boolean isSupported(final ROI roi) {
+		return roi instanceof PolygonROI || roi instanceof RectangleROI || roi instanceof AreaROI;
+	}
+	
+	/**
+	 * Compute the union of two or more ROIs, which must all be on the same image plane.
+	 * 
+	 * @param rois
+	 * @return
+	 */
+	public static PathShape union(final Collection<? extends ROI> rois) {
+		if (rois.isEmpty())
+			throw new IllegalArgumentException("Cannot compute the union of an empty collection of ROIs");
+		ROI first = rois.iterator().next();
+		List<Polygon> polygons = new ArrayList<>();
+		for (ROI roi : rois) {
+			if (!ROIHelpers.sameImagePlane(first, roi))
+				throw new IllegalArgumentException("Cannot combine - ROIs " + first + " and " + roi + " do not share the same image plane");
+			polygons.add(toPolygon(roi));
+		}
+		Polygon result = polygons.size() == 1 ? 
+				compute(polygons, Op.UNION) :
+				ForkJoinPool.commonPool().invoke(new UnionTask(polygons));
+		return toROI(result, first.getC(), first.getZ(), first.getT());
+	}
+	
+	/**
+	 * Compute the union of two ROIs.
+	 * 
+	 * @param roi1
+	 * @param roi2
+	 * @return
+	 */
+	public static PathShape union(final ROI roi1, final ROI roi2) {
+		return combine(roi1, roi2, Op.UNION);
+	}
+	
+	/**
+	 * Compute the intersection of two ROIs.
+	 * 
+	 * @param roi1
+	 * @param roi2
+	 * @return
+	 */
+	public static PathShape intersection(final ROI roi1, final ROI roi2) {
+		return combine(roi1, roi2, Op.INTERSECTION);
+	}
+	
+	/**
+	 * Subtract the second ROI from the first.
+	 * 
+	 * @param roi1
+	 * @param roi2
+	 * @return
+	 */
+	public static PathShape difference(final ROI roi1, final ROI roi2) {
+		return combine(roi1, roi2, Op.DIFFERENCE);
+	}
+	
+	/**
+	 * Compute the exclusive or of two ROIs.
+	 * 
+	 * @param roi1
+	 * @param roi2
+	 * @return
+	 */
+	public static PathShape xor(final ROI roi1, final ROI roi2) {
+		return combine(roi1, roi2, Op.XOR);
+	}
+	
+	/**
+	 * Combine two ROIs, which must be on the same image plane.  The result will be on the plane of the first ROI.
+	 * 
+	 * @param roi1
+	 * @param roi2
+	 * @param op
+	 * @return a RectangleROI or PolygonROI if either can represent the result (or an empty RectangleROI if the result is empty), otherwise an AreaROI
+	 */
+	public static PathShape combine(final ROI roi1, final ROI roi2, final Op op) {
+		if (!ROIHelpers.sameImagePlane(roi1, roi2))
+			throw new IllegalArgumentException("Cannot combine - ROIs " + roi1 + " and " + roi2 + " do not share the same image plane");
+		Polygon result = compute(Arrays.asList(toPolygon(roi1), toPolygon(roi2)), op);
+		return toROI(result, roi1.getC(), roi1.getZ(), roi1.getT());
+	}
+	
+	
+	/**
+	 * Get the vertices of each closed ring of a (supported) ROI.
+	 */
+	static Polygon toPolygon(final ROI roi) {
+		if (roi instanceof RectangleROI) {
+			double x1 = roi.getBoundsX();
+			double y1 = roi.getBoundsY();
+			double x2 = x1 + roi.getBoundsWidth();
+			double y2 = y1 + roi.getBoundsHeight();
+			return new Polygon(Collections.singletonList(new double[] {x1, y1, x2, y1, x2, y2, x1, y2}));
+		}
+		if (roi instanceof PolygonROI)
+			return new Polygon(Collections.singletonList(toRing(((PolygonROI)roi).getVertices())));
+		if (roi instanceof AreaROI) {
+			List<double[]> rings = new ArrayList<>();
+			for (Vertices v : ((AreaROI)roi).vertices)
+				rings.add(toRing(v));
+			return new Polygon(rings);
+		}
+		throw new IllegalArgumentException("Unsupported ROI " + roi);
+	}
+	
+	private static double[] toRing(final Vertices vertices) {
+		int n = vertices.size();
+		double[] ring = new double[n * 2];
+		for (int i = 0; i < n; i++) {
+			ring[i*2] = vertices.getX(i);
+			ring[i*2+1] = vertices.getY(i);
+		}
+		return ring;
+	}
+	
+	/**
+	 * Convert rings to the simplest ROI that can represent them.
+	 */
+	static PathShape toROI(final Polygon polygon, final int c, final int z, final int t) {
+		List<double[]> rings = polygon.rings;
+		// Use an empty rectangle for an empty result, as is done when converting an empty java.awt.geom.Area
+		if (rings.isEmpty())
+			return new RectangleROI(0, 0, 0, 0, c, z, t);
+		if (rings.size() == 1) {
+			double[] ring = rings.get(0);
+			if (ring.length == 8 && isAxisAlignedRectangle(ring)) {
+				double x1 = Math.min(Math.min(ring[0], ring[2]), ring[4]);
+				double y1 = Math.min(Math.min(ring[1], ring[3]), ring[5]);
+				double x2 = Math.max(Math.max(ring[0], ring[2]), ring[4]);
+				double y2 = Math.max(Math.max(ring[1], ring[3]), ring[5]);
+				return new RectangleROI(x1, y1, x2 - x1, y2 - y1, c, z, t);
+			}
+			Vertices vertices = toVertices(ring);
+			return new PolygonROI(vertices.getX(null), vertices.getY(null), c, z, t, false);
+		}
+		List<Vertices> list = new ArrayList<>();
+		for (double[] ring : rings)
+			list.add(toVertices(ring));
+		return new AreaROI(list, c, z, t);
+	}
+	
+	private static boolean isAxisAlignedRectangle(final double[] ring) {
+		for (int i = 0; i < 4; i++) {
+			int j = (i + 1) % 4;
+			if (ring[i*2] != ring[j*2] && ring[i*2+1] != ring[j*2+1])
+				return false;
+		}
+		return true;
+	}
+	
+	private static Vertices toVertices(final double[] ring) {
+		int n = ring.length / 2;
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = (float)ring[i*2];
+			y[i] = (float)ring[i*2+1];
+		}
+		return VerticesFactory.createVertices(x, y, false);
+	}
+	
+	
+	/**
+	 * Polygon represented by one or more closed rings, each stored as interleaved x and y coordinates.
+	 */
+	static class Polygon {
+		
+		final List<double[]> rings;
+		final double minX, minY, maxX, maxY;
+		
+		Polygon(final List<double[]> rings) {
+			this.rings = rings;
+			double x1 = Double.POSITIVE_INFINITY, y1 = Double.POSITIVE_INFINITY;
+			double x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+			for (double[] ring : rings) {
+				for (int i = 0; i < ring.length; i += 2) {
+					x1 = Math.min(x1, ring[i]);
+					x2 = Math.max(x2, ring[i]);
+					y1 = Math.min(y1, ring[i+1]);
+					y2 = Math.max(y2, ring[i+1]);
+				}
+			}
+			minX = x1;
+			minY = y1;
+			maxX = x2;
+			maxY = y2;
+		}
+		
+		boolean isEmpty() {
+			return rings.isEmpty();
+		}
+		
+		boolean boundsIntersect(final Polygon other) {
+			return !isEmpty() && !other.isEmpty() &&
+					minX <= other.maxX && other.minX <= maxX && minY <= other.maxY && other.minY <= maxY;
+		}
+		
+		double getCenterX() {
+			return isEmpty() ? 0 : (minX + maxX) / 2.0;
+		}
+		
+		double getCenterY() {
+			return isEmpty() ? 0 : (minY + maxY) / 2.0;
+		}
+		
+	}
+	
+	
+	/**
+	 * Apply an operation to any number of polygons.
+	 */
+	static Polygon compute(final List<Polygon> polygons, final Op op) {
+		// Handle trivial cases where the bounding boxes are sufficient
+		boolean anyIntersect = false;
+		for (int i = 0; i < polygons.size() && !anyIntersect; i++) {
+			for (int j = i + 1; j < polygons.size(); j++) {
+				if (polygons.get(i).boundsIntersect(polygons.get(j))) {
+					anyIntersect = true;
+					break;
+				}
+			}
+		}
+		if (!anyIntersect && polygons.size() > 1) {
+			switch (op) {
+			case INTERSECTION:
+				return new Polygon(Collections.emptyList());
+			case DIFFERENCE:
+				return new Clipper(Collections.singletonList(polygons.get(0)), Op.UNION).run();
+			default:
+				// Union and exclusive or are the same for disjoint polygons - but still need to compute each to remove self-intersections
+				List<double[]> rings = new ArrayList<>();
+				for (Polygon polygon : polygons)
+					rings.addAll(new Clipper(Collections.singletonList(polygon), Op.UNION).run().rings);
+				return new Polygon(rings);
+			}
+		}
+		return new Clipper(polygons, op).run();
+	}
+	
+	
+	/**
+	 * Compute a union as a reduction tree, splitting operands based on their locations so that nearby operands are combined first.
+	 * Operands are split in half along whichever axis their centers are most spread out, so that the two halves 
+	 * overlap as little as possible.
+	 */
+	private static class UnionTask extends RecursiveTask<Polygon> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<Polygon> polygons;
+		
+		UnionTask(final List<Polygon> polygons) {
+			this.polygons = polygons;
+		}
+
+		@Override
+		protected Polygon compute() {
+			if (polygons.size() <= UNION_LEAF_SIZE)
+				return PolygonClipper.compute(polygons, Op.UNION);
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (Polygon polygon : polygons) {
+				minX = Math.min(minX, polygon.getCenterX());
+				maxX = Math.max(maxX, polygon.getCenterX());
+				minY = Math.min(minY, polygon.getCenterY());
+				maxY = Math.max(maxY, polygon.getCenterY());
+			}
+			List<Polygon> sorted = new ArrayList<>(polygons);
+			if (maxX - minX >= maxY - minY)
+				sorted.sort(Comparator.comparingDouble(Polygon::getCenterX));
+			else
+				sorted.sort(Comparator.comparingDouble(Polygon::getCenterY));
+			int mid = sorted.size() / 2;
+			UnionTask left = new UnionTask(sorted.subList(0, mid));
+			UnionTask right = new UnionTask(sorted.subList(mid, sorted.size()));
+			left.fork();
+			Polygon resultRight = right.compute();
+			Polygon resultLeft = left.join();
+			if (resultLeft.isEmpty())
+				return resultRight;
+			if (resultRight.isEmpty())
+				return resultLeft;
+			return union(resultLeft, resultRight);
+		}
+		
+		/**
+		 * Compute the union of two polygons that are already the output of the clipper (i.e. with no self-intersections).
+		 * Rings lying entirely outside the bounding box of the other polygon cannot be changed by the union, 
+		 * and so are passed through directly.  Often this means only rings close to the seam between the two need to be processed.
+		 */
+		private static Polygon union(final Polygon p1, final Polygon p2) {
+			List<double[]> rings = new ArrayList<>();
+			List<double[]> rings1 = new ArrayList<>();
+			List<double[]> rings2 = new ArrayList<>();
+			for (double[] ring : p1.rings) {
+				if (ringIntersectsBounds(ring, p2))
+					rings1.add(ring);
+				else
+					rings.add(ring);
+			}
+			for (double[] ring : p2.rings) {
+				if (ringIntersectsBounds(ring, p1))
+					rings2.add(ring);
+				else
+					rings.add(ring);
+			}
+			if (rings1.isEmpty() || rings2.isEmpty()) {
+				rings.addAll(rings1);
+				rings.addAll(rings2);
+			} else
+				rings.addAll(new Clipper(Arrays.asList(new Polygon(rings1), new Polygon(rings2)), Op.UNION, true).run().rings);
+			return new Polygon(rings);
+		}
+		
+		private static boolean ringIntersectsBounds(final double[] ring, final Polygon polygon) {
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < ring.length; i += 2) {
+				minX = Math.min(minX, ring[i]);
+				maxX = Math.max(maxX, ring[i]);
+				minY = Math.min(minY, ring[i+1]);
+				maxY = Math.max(maxY, ring[i+1]);
+			}
+			return minX <= polygon.maxX && polygon.minX <= maxX && minY <= polygon.maxY && polygon.minY <= maxY;
+		}
+		
+	}
+	
+	
+	/**
+	 * Performs a single boolean operation.
+	 */
+	static class Clipper {
+		
+		private final Op op;
+		private final int nOperands;
+		
+		private int nEdges = 0;
+		private double[] x1 = new double[64], y1 = new double[64], x2 = new double[64], y2 = new double[64];
+		private int[] operand = new int[64];
+		private boolean[] fixed = new boolean[64];
+		
+		private double eps;
+		
+		// Vertices & edge groups, used after splitting
+		private int nVertices;
+		private double[] vx, vy;
+		private int[] edgeStart, edgeEnd, edgeGroup;
+		private int nGroups;
+		private int[] groupStart, groupEnd, groupFirstEdge, edgeNextInGroup;
+		
+		Clipper(final List<Polygon> polygons, final Op op) {
+			this(polygons, op, false);
+		}
+		
+		/**
+		 * Create a clipper to apply an operation to polygons.
+		 * <p>
+		 * If the polygons are known to be 'clean' (i.e. generated by a previous clipper, so that rings do not cross 
+		 * and interiors are on the left), then the union of two polygons can be computed more efficiently: 
+		 * edges outside the bounding box of the other polygon can neither be split nor removed, and so are 
+		 * retained without further checks.
+		 * 
+		 * @param polygons
+		 * @param op
+		 * @param operandsClean
+		 */
+		Clipper(final List<Polygon> polygons, final Op op, final boolean operandsClean) {
+			this.op = op;
+			this.nOperands = polygons.size();
+			double scale = 1;
+			for (Polygon polygon : polygons) {
+				if (!polygon.isEmpty())
+					scale = Math.max(scale, Math.max(Math.max(Math.abs(polygon.minX), Math.abs(polygon.maxX)), Math.max(Math.abs(polygon.minY), Math.abs(polygon.maxY))));
+			}
+			eps = scale * 1e-10;
+			double[] overlap = null;
+			if (operandsClean && op == Op.UNION && polygons.size() == 2 && polygons.get(0).boundsIntersect(polygons.get(1))) {
+				Polygon p1 = polygons.get(0);
+				Polygon p2 = polygons.get(1);
+				overlap = new double[] {
+						Math.max(p1.minX, p2.minX) - eps, Math.max(p1.minY, p2.minY) - eps,
+						Math.min(p1.maxX, p2.maxX) + eps, Math.min(p1.maxY, p2.maxY) + eps
+				};
+			}
+			for (int i = 0; i < polygons.size(); i++) {
+				for (double[] ring : polygons.get(i).rings)
+					addRing(ring, i, overlap);
+			}
+		}
+		
+		private void addRing(final double[] ring, final int op, final double[] overlap) {
+			int n = ring.length / 2;
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1) % n;
+				double xa = ring[i*2], ya = ring[i*2+1];
+				double xb = ring[j*2], yb = ring[j*2+1];
+				boolean isFixed = overlap != null && (
+						Math.max(xa, xb) < overlap[0] || Math.max(ya, yb) < overlap[1] ||
+						Math.min(xa, xb) > overlap[2] || Math.min(ya, yb) > overlap[3]);
+				addEdge(xa, ya, xb, yb, op, isFixed);
+			}
+		}
+		
+		private void addEdge(final double xa, final double ya, final double xb, final double yb, final int op, final boolean isFixed) {
+			if (xa == xb && ya == yb)
+				return;
+			if (nEdges == x1.length) {
+				int n = nEdges * 2;
+				x1 = Arrays.copyOf(x1, n);
+				y1 = Arrays.copyOf(y1, n);
+				x2 = Arrays.copyOf(x2, n);
+				y2 = Arrays.copyOf(y2, n);
+				operand = Arrays.copyOf(operand, n);
+				fixed = Arrays.copyOf(fixed, n);
+			}
+			x1[nEdges] = xa;
+			y1[nEdges] = ya;
+			x2[nEdges] = xb;
+			y2[nEdges] = yb;
+			operand[nEdges] = op;
+			fixed[nEdges] = isFixed;
+			nEdges++;
+		}
+		
+		Polygon run() {
+			if (nEdges == 0)
+				return new Polygon(Collections.emptyList());
+			for (int pass = 0; pass < MAX_SPLIT_PASSES; pass++) {
+				if (!splitEdges())
+					break;
+			}
+			buildGroups();
+			return new Polygon(traceRings(findBoundaryEdges()));
+		}
+		
+		
+		// Split points for each edge, stored as interleaved x & y coordinates
+		private double[][] splits;
+		private int[] nSplits;
+		
+		/**
+		 * Split all edges at their intersections with other edges.
+		 * @return true if any edges were split
+		 */
+		private boolean splitEdges() {
+			splits = new double[nEdges][];
+			nSplits = new int[nEdges];
+			
+			// Sweep along x, maintaining lists of edges that overlap the sweep line.
+			// The active edges are divided into bands along the y-axis, so that each edge is only checked against nearby edges.
+			// To avoid boxing, edges are sorted using their minimum x coordinate (as a float) packed with their index - 
+			// the loss of precision is compensated for by a larger tolerance when removing active edges
+			long[] order = new long[nEdges];
+			int nOrder = 0;
+			for (int e = 0; e < nEdges; e++) {
+				if (fixed[e])
+					continue;
+				int bits = Float.floatToIntBits((float)Math.min(x1[e], x2[e]));
+				order[nOrder++] = ((long)(bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | e;
+			}
+			order = Arrays.copyOf(order, nOrder);
+			Arrays.sort(order);
+			double sweepTolerance = eps * 1e4;
+			Bands bands = new Bands(y1, y2, nEdges, false);
+			int[][] active = new int[bands.nBands][];
+			int[] nActive = new int[bands.nBands];
+			int[] firstBand = new int[nEdges];
+			boolean anySplits = false;
+			for (long packed : order) {
+				int e = (int)packed;
+				double minX = Math.min(x1[e], x2[e]);
+				double minY = Math.min(y1[e], y2[e]) - eps;
+				double maxY = Math.max(y1[e], y2[e]) + eps;
+				int b1 = bands.getBand(minY);
+				int b2 = bands.getBand(maxY);
+				firstBand[e] = b1;
+				for (int b = b1; b <= b2; b++) {
+					int[] list = active[b];
+					int n = nActive[b];
+					int j = 0;
+					while (j < n) {
+						int a = list[j];
+						if (Math.max(x1[a], x2[a]) < minX - sweepTolerance) {
+							list[j] = list[--n];
+							continue;
+						}
+						// Only check each pair in the first band they share
+						if (b == Math.max(b1, firstBand[a]) &&
+								Math.max(y1[a], y2[a]) >= minY && Math.min(y1[a], y2[a]) <= maxY) {
+							if (intersect(a, e))
+								anySplits = true;
+						}
+						j++;
+					}
+					if (list == null)
+						active[b] = list = new int[8];
+					else if (n == list.length)
+						active[b] = list = Arrays.copyOf(list, n * 2);
+					list[n++] = e;
+					nActive[b] = n;
+				}
+			}
+			if (!anySplits) {
+				splits = null;
+				nSplits = null;
+				return false;
+			}
+			
+			// Replace the edges by their split versions
+			double[] ox1 = x1, oy1 = y1, ox2 = x2, oy2 = y2;
+			int[] oOperand = operand;
+			boolean[] oFixed = fixed;
+			int nOld = nEdges;
+			double[][] oldSplits = splits;
+			int[] oldNSplits = nSplits;
+			x1 = new double[nOld * 2];
+			y1 = new double[nOld * 2];
+			x2 = new double[nOld * 2];
+			y2 = new double[nOld * 2];
+			operand = new int[nOld * 2];
+			fixed = new boolean[nOld * 2];
+			nEdges = 0;
+			for (int e = 0; e < nOld; e++) {
+				int n = oldNSplits[e];
+				if (n == 0) {
+					addEdge(ox1[e], oy1[e], ox2[e], oy2[e], oOperand[e], oFixed[e]);
+					continue;
+				}
+				// Sort the split points along the edge
+				double[] pts = oldSplits[e];
+				double dx = ox2[e] - ox1[e];
+				double dy = oy2[e] - oy1[e];
+				Integer[] inds = new Integer[n];
+				double[] params = new double[n];
+				for (int i = 0; i < n; i++) {
+					inds[i] = i;
+					params[i] = (pts[i*2] - ox1[e]) * dx + (pts[i*2+1] - oy1[e]) * dy;
+				}
+				Arrays.sort(inds, Comparator.comparingDouble(i -> params[i]));
+				double xPrevious = ox1[e], yPrevious = oy1[e];
+				for (int i : inds) {
+					double xx = pts[i*2];
+					double yy = pts[i*2+1];
+					if (xx == xPrevious && yy == yPrevious)
+						continue;
+					addEdge(xPrevious, yPrevious, xx, yy, oOperand[e], false);
+					xPrevious = xx;
+					yPrevious = yy;
+				}
+				addEdge(xPrevious, yPrevious, ox2[e], oy2[e], oOperand[e], false);
+			}
+			splits = null;
+			nSplits = null;
+			return true;
+		}
+		
+		private void addSplit(final int e, final double x, final double y) {
+			if ((x == x1[e] && y == y1[e]) || (x == x2[e] && y == y2[e]))
+				return;
+			double[] pts = splits[e];
+			int n = nSplits[e];
+			if (pts == null)
+				splits[e] = pts = new double[4];
+			else if (pts.length < (n + 1) * 2)
+				splits[e] = pts = Arrays.copyOf(pts, pts.length * 2);
+			pts[n*2] = x;
+			pts[n*2+1] = y;
+			nSplits[e]++;
+		}
+		
+		/**
+		 * Find the intersection of two edges, adding split points as needed.
+		 * <p>
+		 * Endpoints lying on (or within a small tolerance of) the other edge are handled first, 
+		 * and used directly as split points.  This deals with collinear overlaps and T-junctions without 
+		 * introducing new, slightly different, vertices through rounding errors.
+		 * 
+		 * @return true if a split point was added
+		 */
+		private boolean intersect(final int a, final int b) {
+			int nBefore = nSplits[a] + nSplits[b];
+			boolean touching = false;
+			touching |= splitIfTouching(a, x1[b], y1[b]);
+			touching |= splitIfTouching(a, x2[b], y2[b]);
+			touching |= splitIfTouching(b, x1[a], y1[a]);
+			touching |= splitIfTouching(b, x2[a], y2[a]);
+			if (touching)
+				return nSplits[a] + nSplits[b] > nBefore;
+			
+			// Check for a proper crossing
+			double px = x1[a], py = y1[a];
+			double rx = x2[a] - px, ry = y2[a] - py;
+			double qx = x1[b], qy = y1[b];
+			double sx = x2[b] - qx, sy = y2[b] - qy;
+			double denom = rx * sy - ry * sx;
+			if (denom == 0)
+				return false;
+			double qpx = qx - px, qpy = qy - py;
+			double t = (qpx * sy - qpy * sx) / denom;
+			double u = (qpx * ry - qpy * rx) / denom;
+			if (t <= 0 || t >= 1 || u <= 0 || u >= 1)
+				return false;
+			double x = px + t * rx;
+			double y = py + t * ry;
+			addSplit(a, x, y);
+			addSplit(b, x, y);
+			return nSplits[a] + nSplits[b] > nBefore;
+		}
+		
+		/**
+		 * Split an edge at a point if the point lies on the edge, within a small tolerance.
+		 * @return true if the point touches the edge (including at its endpoints), false otherwise
+		 */
+		private boolean splitIfTouching(final int e, final double x, final double y) {
+			if ((x == x1[e] && y == y1[e]) || (x == x2[e] && y == y2[e]))
+				return true;
+			double dx = x2[e] - x1[e];
+			double dy = y2[e] - y1[e];
+			double len = Math.sqrt(dx*dx + dy*dy);
+			double t = ((x - x1[e]) * dx + (y - y1[e]) * dy) / (len * len);
+			double tol = eps / len;
+			if (t < -tol || t > 1 + tol)
+				return false;
+			if (Math.abs((x - x1[e]) * dy - (y - y1[e]) * dx) > eps * len)
+				return false;
+			if (t > tol && t < 1 - tol)
+				addSplit(e, x, y);
+			return true;
+		}
+		
+		
+		/**
+		 * Assign indices to vertices, and group edges that connect the same vertices.
+		 * Vertices closer than the tolerance are merged, and the edge coordinates updated accordingly.
+		 */
+		private void buildGroups() {
+			Map<Long, int[]> vertexMap = new HashMap<>();
+			vx = new double[nEdges * 2];
+			vy = new double[nEdges * 2];
+			nVertices = 0;
+			edgeStart = new int[nEdges];
+			edgeEnd = new int[nEdges];
+			for (int e = 0; e < nEdges; e++) {
+				int v1 = getVertex(vertexMap, x1[e], y1[e]);
+				int v2 = getVertex(vertexMap, x2[e], y2[e]);
+				edgeStart[e] = v1;
+				edgeEnd[e] = v2;
+				x1[e] = vx[v1];
+				y1[e] = vy[v1];
+				x2[e] = vx[v2];
+				y2[e] = vy[v2];
+			}
+			// Groups starting at each vertex are stored as linked lists, since vertices usually have very few edges
+			int[] vertexFirstGroup = new int[nVertices];
+			Arrays.fill(vertexFirstGroup, -1);
+			int[] groupNext = new int[nEdges];
+			edgeGroup = new int[nEdges];
+			edgeNextInGroup = new int[nEdges];
+			groupStart = new int[nEdges];
+			groupEnd = new int[nEdges];
+			groupFirstEdge = new int[nEdges];
+			nGroups = 0;
+			for (int e = 0; e < nEdges; e++) {
+				int v1 = Math.min(edgeStart[e], edgeEnd[e]);
+				int v2 = Math.max(edgeStart[e], edgeEnd[e]);
+				if (v1 == v2) {
+					edgeGroup[e] = -1;
+					continue;
+				}
+				int group = vertexFirstGroup[v1];
+				while (group >= 0 && groupEnd[group] != v2)
+					group = groupNext[group];
+				if (group < 0) {
+					group = nGroups++;
+					groupNext[group] = vertexFirstGroup[v1];
+					vertexFirstGroup[v1] = group;
+					groupStart[group] = v1;
+					groupEnd[group] = v2;
+					groupFirstEdge[group] = -1;
+				}
+				edgeGroup[e] = group;
+				edgeNextInGroup[e] = groupFirstEdge[group];
+				groupFirstEdge[group] = e;
+			}
+		}
+		
+		/**
+		 * Get the index of the vertex at the specified location, or within the tolerance of it, 
+		 * creating a new vertex if necessary.
+		 * Vertices are stored in a hash grid with a cell size much larger than the tolerance, 
+		 * so that usually only one cell needs to be checked.
+		 */
+		private int getVertex(final Map<Long, int[]> vertexMap, final double x, final double y) {
+			double cellSize = eps * 16;
+			long cx1 = (long)Math.floor((x - eps) / cellSize);
+			long cx2 = (long)Math.floor((x + eps) / cellSize);
+			long cy1 = (long)Math.floor((y - eps) / cellSize);
+			long cy2 = (long)Math.floor((y + eps) / cellSize);
+			for (long cy = cy1; cy <= cy2; cy++) {
+				for (long cx = cx1; cx <= cx2; cx++) {
+					int[] cell = vertexMap.get(getCellKey(cx, cy));
+					if (cell == null)
+						continue;
+					for (int i = 1; i <= cell[0]; i++) {
+						int v = cell[i];
+						if (Math.abs(vx[v] - x) <= eps && Math.abs(vy[v] - y) <= eps)
+							return v;
+					}
+				}
+			}
+			int v = nVertices++;
+			vx[v] = x;
+			vy[v] = y;
+			long key = getCellKey((long)Math.floor(x / cellSize), (long)Math.floor(y / cellSize));
+			int[] cell = vertexMap.get(key);
+			if (cell == null)
+				cell = new int[2];
+			else if (cell[0] + 1 == cell.length)
+				cell = Arrays.copyOf(cell, cell.length * 2);
+			cell[++cell[0]] = v;
+			vertexMap.put(key, cell);
+			return v;
+		}
+		
+		private static long getCellKey(final long x, final long y) {
+			return x * 0x9E3779B97F4A7C15L + y;
+		}
+		
+		
+		private boolean isInside(final int[] windings) {
+			switch (op) {
+			case INTERSECTION:
+				for (int w : windings) {
+					if (w == 0)
+						return false;
+				}
+				return true;
+			case DIFFERENCE:
+				if (windings[0] == 0)
+					return false;
+				for (int i = 1; i < windings.length; i++) {
+					if (windings[i] != 0)
+						return false;
+				}
+				return true;
+			case XOR:
+				int count = 0;
+				for (int w : windings) {
+					if (w != 0)
+						count++;
+				}
+				return count % 2 == 1;
+			case UNION:
+			default:
+				for (int w : windings) {
+					if (w != 0)
+						return true;
+				}
+				return false;
+			}
+		}
+		
+		
+		/**
+		 * Determine which edge groups form part of the boundary of the result, and how they should be oriented.
+		 * 
+		 * @return an array giving +1 if the group should be directed from its start to its end vertex, 
+		 *         -1 if it should be directed from end to start, or 0 if it isn't part of the boundary
+		 */
+		private byte[] findBoundaryEdges() {
+			Bands bandsY = new Bands(y1, y2, nEdges, true);
+			Bands bandsX = new Bands(x1, x2, nEdges, true);
+			byte[] direction = new byte[nGroups];
+			IntStream groups = IntStream.range(0, nGroups);
+			if (nGroups >= MIN_PARALLEL_GROUPS)
+				groups = groups.parallel();
+			groups.forEach(g -> direction[g] = computeDirection(g, bandsX, bandsY));
+			return direction;
+		}
+		
+		/**
+		 * Compute the direction of a group of edges by casting a ray from its midpoint, perpendicular to the edge as far as possible.
+		 * Rays are cast towards whichever end of the bounds is closer, to reduce the number of edges that must be checked.
+		 */
+		private byte computeDirection(final int g, final Bands bandsX, final Bands bandsY) {
+			double ax = vx[groupStart[g]], ay = vy[groupStart[g]];
+			double bx = vx[groupEnd[g]], by = vy[groupEnd[g]];
+			int first = groupFirstEdge[g];
+			if (fixed[first] && edgeNextInGroup[first] < 0)
+				return (byte)(edgeStart[first] == groupStart[g] ? 1 : -1);
+			double mx = (ax + bx) / 2.0;
+			double my = (ay + by) / 2.0;
+			int[] windings = new int[nOperands];
+			
+			if (Math.abs(by - ay) > Math.abs(bx - ax)) {
+				// Steep edge: cast a horizontal ray, counting upward crossings as +1 when looking towards +x
+				boolean towardsMax = bandsX.max - mx <= mx - bandsX.min;
+				int sign = towardsMax ? 1 : -1;
+				int band = bandsY.getBand(my);
+				for (int i = bandsY.offsets[band]; i < bandsY.offsets[band+1]; i++) {
+					int e = bandsY.edges[i];
+					if (edgeGroup[e] == g)
+						continue;
+					if ((y1[e] <= my) != (y2[e] <= my)) {
+						double xCross = x1[e] + (my - y1[e]) * (x2[e] - x1[e]) / (y2[e] - y1[e]);
+						if (towardsMax ? xCross > mx : xCross < mx)
+							windings[operand[e]] += y2[e] > y1[e] ? sign : -sign;
+					}
+				}
+				boolean insideNear = isInside(windings);
+				for (int e = groupFirstEdge[g]; e >= 0; e = edgeNextInGroup[e])
+					windings[operand[e]] += y2[e] > y1[e] ? sign : -sign;
+				boolean insideFar = isInside(windings);
+				if (insideNear == insideFar)
+					return 0;
+				boolean insideLeft = towardsMax ? insideFar : insideNear;
+				// The result should be to the left of the edge (in a y-up coordinate system) - i.e. on the smaller x side if going up
+				boolean startToEnd = insideLeft == (by > ay);
+				return (byte)(startToEnd ? 1 : -1);
+			} else {
+				// Shallow edge: cast a vertical ray, counting leftward crossings as +1 when looking towards +y
+				boolean towardsMax = bandsY.max - my <= my - bandsY.min;
+				int sign = towardsMax ? 1 : -1;
+				int band = bandsX.getBand(mx);
+				for (int i = bandsX.offsets[band]; i < bandsX.offsets[band+1]; i++) {
+					int e = bandsX.edges[i];
+					if (edgeGroup[e] == g)
+						continue;
+					if ((x1[e] <= mx) != (x2[e] <= mx)) {
+						double yCross = y1[e] + (mx - x1[e]) * (y2[e] - y1[e]) / (x2[e] - x1[e]);
+						if (towardsMax ? yCross > my : yCross < my)
+							windings[operand[e]] += x2[e] < x1[e] ? sign : -sign;
+					}
+				}
+				boolean insideNear = isInside(windings);
+				for (int e = groupFirstEdge[g]; e >= 0; e = edgeNextInGroup[e])
+					windings[operand[e]] += x2[e] < x1[e] ? sign : -sign;
+				boolean insideFar = isInside(windings);
+				if (insideNear == insideFar)
+					return 0;
+				boolean insideBelow = towardsMax ? insideFar : insideNear;
+				// The result should be to the left of the edge (in a y-up coordinate system) - i.e. on the smaller y side if going towards -x
+				boolean startToEnd = insideBelow == (bx < ax);
+				return (byte)(startToEnd ? 1 : -1);
+			}
+		}
+		
+		
+		/**
+		 * Link directed boundary edges into closed rings.
+		 * Where several edges leave the same vertex, the one turning most sharply to the left is chosen, 
+		 * so that shells touching at a single vertex are kept separate.
+		 */
+		private List<double[]> traceRings(final byte[] direction) {
+			int[] from = new int[nGroups];
+			int[] to = new int[nGroups];
+			int nBoundary = 0;
+			int[] outCount = new int[nVertices + 1];
+			for (int g = 0; g < nGroups; g++) {
+				if (direction[g] == 0)
+					continue;
+				from[nBoundary] = direction[g] > 0 ? groupStart[g] : groupEnd[g];
+				to[nBoundary] = direction[g] > 0 ? groupEnd[g] : groupStart[g];
+				outCount[from[nBoundary] + 1]++;
+				nBoundary++;
+			}
+			// Compressed adjacency lists of outgoing edges for each vertex
+			for (int v = 0; v < nVertices; v++)
+				outCount[v + 1] += outCount[v];
+			int[] outOffsets = outCount;
+			int[] outEdges = new int[nBoundary];
+			int[] fill = Arrays.copyOf(outOffsets, nVertices);
+			for (int i = 0; i < nBoundary; i++)
+				outEdges[fill[from[i]]++] = i;
+			
+			boolean[] used = new boolean[nBoundary];
+			List<double[]> rings = new ArrayList<>();
+			double[] coords = new double[64];
+			for (int start = 0; start < nBoundary; start++) {
+				if (used[start])
+					continue;
+				int n = 0;
+				int current = start;
+				while (true) {
+					used[current] = true;
+					if (n*2 + 2 > coords.length)
+						coords = Arrays.copyOf(coords, coords.length * 2);
+					coords[n*2] = vx[from[current]];
+					coords[n*2+1] = vy[from[current]];
+					n++;
+					int v = to[current];
+					double dxIn = vx[v] - vx[from[current]];
+					double dyIn = vy[v] - vy[from[current]];
+					double angleIn = Math.atan2(dyIn, dxIn);
+					int next = -1;
+					double bestTurn = Double.NEGATIVE_INFINITY;
+					for (int i = outOffsets[v]; i < outOffsets[v+1]; i++) {
+						int candidate = outEdges[i];
+						if (used[candidate] && candidate != start)
+							continue;
+						double turn = Math.atan2(vy[to[candidate]] - vy[v], vx[to[candidate]] - vx[v]) - angleIn;
+						while (turn <= -Math.PI)
+							turn += 2 * Math.PI;
+						while (turn > Math.PI)
+							turn -= 2 * Math.PI;
+						if (turn > bestTurn) {
+							bestTurn = turn;
+							next = candidate;
+						}
+					}
+					if (next < 0 || next == start)
+						break;
+					current = next;
+				}
+				double[] ring = cleanRing(coords, n);
+				if (ring != null)
+					rings.add(ring);
+			}
+			return rings;
+		}
+		
+		/**
+		 * Remove collinear vertices from a ring.
+		 * @return the cleaned ring, or null if it does not enclose any area
+		 */
+		private double[] cleanRing(final double[] coords, int n) {
+			double[] ring = Arrays.copyOf(coords, n * 2);
+			boolean changed = true;
+			while (changed && n >= 3) {
+				changed = false;
+				int k = 0;
+				for (int i = 0; i < n; i++) {
+					int prev = k > 0 ? k - 1 : n - 1;
+					double xp = k > 0 ? ring[prev*2] : ring[(n-1)*2];
+					double yp = k > 0 ? ring[prev*2+1] : ring[(n-1)*2+1];
+					double x = ring[i*2], y = ring[i*2+1];
+					int iNext = (i + 1) % n;
+					double xn = ring[iNext*2], yn = ring[iNext*2+1];
+					double cross = (x - xp) * (yn - y) - (y - yp) * (xn - x);
+					double len = Math.hypot(x - xp, y - yp) + Math.hypot(xn - x, yn - y);
+					if (Math.abs(cross) <= eps * len) {
+						changed = true;
+						continue;
+					}
+					ring[k*2] = x;
+					ring[k*2+1] = y;
+					k++;
+				}
+				n = k;
+			}
+			if (n < 3)
+				return null;
+			double area = 0;
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1) % n;
+				area += ring[i*2] * ring[j*2+1] - ring[j*2] * ring[i*2+1];
+			}
+			if (Math.abs(area) <= eps * eps)
+				return null;
+			return Arrays.copyOf(ring, n * 2);
+		}
+		
+	}
+	
+	
+	/**
+	 * Partition of one axis into equal-sized bands, optionally storing the edges that overlap each band.
+	 * <p>
+	 * The number of bands is chosen so that most edges fall into only a few bands, 
+	 * while long edges do not cause the total number of entries to become excessive.
+	 */
+	private static class Bands {
+		
+		private final double min, max;
+		private final double scale;
+		private final int nBands;
+		private int[] offsets;
+		private int[] edges;
+		
+		Bands(final double[] c1, final double[] c2, final int nEdges, final boolean storeEdges) {
+			double minValue = Double.POSITIVE_INFINITY;
+			double maxValue = Double.NEGATIVE_INFINITY;
+			for (int e = 0; e < nEdges; e++) {
+				minValue = Math.min(minValue, Math.min(c1[e], c2[e]));
+				maxValue = Math.max(maxValue, Math.max(c1[e], c2[e]));
+			}
+			min = minValue;
+			max = maxValue;
+			double range = maxValue - minValue;
+			int n = Math.max(1, nEdges / 4);
+			if (range > 0) {
+				// Reduce the number of bands if edges would be stored too many times
+				while (n > 1) {
+					long count = 0;
+					for (int e = 0; e < nEdges; e++)
+						count += (long)(Math.abs(c2[e] - c1[e]) / range * n) + 1;
+					if (count <= nEdges * 8L)
+						break;
+					n /= 2;
+				}
+			} else
+				n = 1;
+			nBands = n;
+			scale = range > 0 ? nBands / range : 0;
+			if (storeEdges)
+				buildIndex(c1, c2, nEdges);
+		}
+		
+		private void buildIndex(final double[] c1, final double[] c2, final int nEdges) {
+			offsets = new int[nBands + 1];
+			for (int e = 0; e < nEdges; e++) {
+				int b1 = getBand(Math.min(c1[e], c2[e]));
+				int b2 = getBand(Math.max(c1[e], c2[e]));
+				for (int b = b1; b <= b2; b++)
+					offsets[b + 1]++;
+			}
+			for (int b = 0; b < nBands; b++)
+				offsets[b + 1] += offsets[b];
+			edges = new int[offsets[nBands]];
+			int[] fill = Arrays.copyOf(offsets, nBands);
+			for (int e = 0; e < nEdges; e++) {
+				int b1 = getBand(Math.min(c1[e], c2[e]));
+				int b2 = getBand(Math.max(c1[e], c2[e]));
+				for (int b = b1; b <= b2; b++)
+					edges[fill[b]++] = e;
+			}
+		}
+		
+		int getBand(final double value) {
+			int b = (int)((value - min) * scale);
+			return Math.max(0, Math.min(nBands - 1, b));
+		}
+		
+	}
+
+}
@@ -0,0 +1,446 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.roi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import qupath.lib.geom.Point2;
+import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
+
+/**
+ * Calculate shape measurements directly from the vertices of a polygon (or several polygons, representing an area with holes).
+ * <p>
+ * In addition to the area, perimeter and centroid (as provided by {@link ClosedShapeStatistics}), this calculates 
+ * the convex hull area, the maximum and minimum caliper (Feret) diameters, and the axis lengths of the ellipse 
+ * with the same second moments as the shape.
+ * <p>
+ * All calculations are performed on primitive arrays, without creating ImageJ ROIs or Java AWT shapes, and 
+ * instances are immutable - so measurements can be computed for many objects in parallel.
+ * <p>
+ * Ellipses are handled analytically, rather than using a polygon approximation.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PolygonShapeStatistics {
+	
+	private double area, perimeter, centroidX, centroidY;
+	private double convexArea, maxCaliper, minCaliper;
+	private double majorAxis = Double.NaN, minorAxis = Double.NaN;
+	private int nVertices;
+	
+	/**
+	 * Calculate shape statistics for an area ROI, scaling the x and y coordinates according to a pixel width &amp; height.
+	 * 
+	 * @param roi
+	 * @param pixelWidth
+	 * @param pixelHeight
+	 * @return the statistics, or null if the ROI does not represent an area
+	 */
+	public static PolygonShapeStatistics compute(final ROI roi, final double pixelWidth, final double pixelHeight) {
+		if (roi instanceof PolygonROI)
+			return new PolygonShapeStatistics(((PolygonROI)roi).getVertices(), pixelWidth, pixelHeight);
+		if (roi instanceof AreaROI) {
+			List<? extends Vertices> vertices = ((AreaROI)roi).vertices;
+			if (vertices != null)
+				return new PolygonShapeStatistics(vertices, pixelWidth, pixelHeight);
+		}
+		if (roi instanceof EllipseROI)
+			return new PolygonShapeStatistics((EllipseROI)roi, pixelWidth, pixelHeight);
+		if (roi instanceof PathArea) {
+			// Rectangles etc. can be handled by their polygon approximations
+			List<Point2> points = roi.getPolygonPoints();
+			float[] x = new float[points.size()];
+			float[] y = new float[points.size()];
+			for (int i = 0; i < x.length; i++) {
+				x[i] = (float)points.get(i).getX();
+				y[i] = (float)points.get(i).getY();
+			}
+			return new PolygonShapeStatistics(Collections.singletonList(VerticesFactory.createVertices(x, y, false)), pixelWidth, pixelHeight);
+		}
+		return null;
+	}
+
+	/**
+	 * Calculate shape statistics for an ellipse exactly.
+	 * Scaling an axis-aligned ellipse gives another axis-aligned ellipse, so the semi-axes can be taken from the scaled bounds.
+	 */
+	private PolygonShapeStatistics(final EllipseROI roi, final double pixelWidth, final double pixelHeight) {
+		double width = roi.getBoundsWidth() * pixelWidth;
+		double height = roi.getBoundsHeight() * pixelHeight;
+		area = roi.getScaledArea(pixelWidth, pixelHeight);
+		perimeter = roi.getScaledPerimeter(pixelWidth, pixelHeight);
+		centroidX = roi.getCentroidX();
+		centroidY = roi.getCentroidY();
+		convexArea = area;
+		maxCaliper = Math.max(width, height);
+		minCaliper = Math.min(width, height);
+		majorAxis = maxCaliper;
+		minorAxis = minCaliper;
+		nVertices = 0;
+	}
+
+	/**
+	 * Calculate shape statistics for a single polygon.
+	 * 
+	 * @param vertices
+	 * @param pixelWidth
+	 * @param pixelHeight
+	 */
+	public PolygonShapeStatistics(final Vertices vertices, final double pixelWidth, final double pixelHeight) {
+		this(Collections.singletonList(vertices), pixelWidth, pixelHeight);
+	}
+
+	/**
+	 * Calculate shape statistics for an area represented by multiple polygons.
+	 * <p>
+	 * As with {@link ClosedShapeStatistics}, holes are expected to have the opposite orientation to the outer boundaries.
+	 * The perimeter is the total length of all boundaries, including those of holes.
+	 * 
+	 * @param verticesList
+	 * @param pixelWidth
+	 * @param pixelHeight
+	 */
+	public PolygonShapeStatistics(final List<? extends Vertices> verticesList, final double pixelWidth, final double pixelHeight) {
+		int n = 0;
+		for (Vertices vertices : verticesList)
+			n += vertices.size();
+		nVertices = n;
+		if (n == 0) {
+			area = 0;
+			perimeter = 0;
+			centroidX = Double.NaN;
+			centroidY = Double.NaN;
+			return;
+		}
+		
+		// Accumulate area, perimeter and moments for each ring
+		// Coordinates are shifted relative to the first vertex to reduce rounding errors
+		float[] x = null, y = null;
+		double x0 = verticesList.get(0).isEmpty() ? 0 : verticesList.get(0).getX(0);
+		double y0 = verticesList.get(0).isEmpty() ? 0 : verticesList.get(0).getY(0);
+		double sumArea = 0, sumCx = 0, sumCy = 0, sumXX = 0, sumYY = 0, sumXY = 0, sumPerimeter = 0;
+		long[] points = new long[n];
+		int nPoints = 0;
+		for (Vertices vertices : verticesList) {
+			int nv = vertices.size();
+			if (nv == 0)
+				continue;
+			x = vertices.getX(x == null || x.length < nv ? null : x);
+			y = vertices.getY(y == null || y.length < nv ? null : y);
+			double xPrev = (x[nv-1] - x0) * pixelWidth;
+			double yPrev = (y[nv-1] - y0) * pixelHeight;
+			for (int i = 0; i < nv; i++) {
+				double xi = (x[i] - x0) * pixelWidth;
+				double yi = (y[i] - y0) * pixelHeight;
+				double cross = xPrev * yi - xi * yPrev;
+				double dx = xi - xPrev;
+				double dy = yi - yPrev;
+				sumPerimeter += Math.sqrt(dx*dx + dy*dy);
+				sumArea += cross;
+				sumCx += (xPrev + xi) * cross;
+				sumCy += (yPrev + yi) * cross;
+				sumXX += (xPrev*xPrev + xPrev*xi + xi*xi) * cross;
+				sumYY += (yPrev*yPrev + yPrev*yi + yi*yi) * cross;
+				sumXY += (xPrev*yi + 2*xPrev*yPrev + 2*xi*yi + xi*yPrev) * cross;
+				xPrev = xi;
+				yPrev = yi;
+				points[nPoints++] = pack(x[i], y[i]);
+			}
+		}
+		double signedArea = sumArea * 0.5;
+		area = Math.abs(signedArea);
+		perimeter = sumPerimeter;
+		if (signedArea == 0) {
+			centroidX = Double.NaN;
+			centroidY = Double.NaN;
+		} else {
+			double cx = sumCx / (6 * signedArea);
+			double cy = sumCy / (6 * signedArea);
+			centroidX = cx / pixelWidth + x0;
+			centroidY = cy / pixelHeight + y0;
+			// Central second moments, used to find the ellipse with the same moments as the shape
+			double mxx = sumXX / (12 * signedArea) - cx*cx;
+			double myy = sumYY / (12 * signedArea) - cy*cy;
+			double mxy = sumXY / (24 * signedArea) - cx*cy;
+			double common = Math.sqrt((mxx - myy)*(mxx - myy)*0.25 + mxy*mxy);
+			double lambda1 = (mxx + myy) * 0.5 + common;
+			double lambda2 = Math.max(0, (mxx + myy) * 0.5 - common);
+			// For an ellipse, the variance along each axis is (axis length / 4)^2
+			majorAxis = 4 * Math.sqrt(lambda1);
+			minorAxis = 4 * Math.sqrt(lambda2);
+		}
+		
+		computeConvexHullMeasurements(points, nPoints, pixelWidth, pixelHeight);
+	}
+	
+	
+	/**
+	 * Compute the convex hull using Andrew's monotone chain algorithm, and then the calipers using rotating calipers.
+	 * <p>
+	 * Points are sorted as packed longs, so that no objects need to be created.
+	 * The hull is computed using the original (unscaled) coordinates, since scaling does not affect convexity.
+	 */
+	private void computeConvexHullMeasurements(final long[] points, final int n, final double pixelWidth, final double pixelHeight) {
+		Arrays.sort(points, 0, n);
+		double[] hx = new double[2 * n + 1];
+		double[] hy = new double[2 * n + 1];
+		int k = 0;
+		// Lower hull
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && points[i] == points[i-1])
+				continue;
+			double px = unpackX(points[i]) * pixelWidth;
+			double py = unpackY(points[i]) * pixelHeight;
+			while (k >= 2 && cross(hx[k-2], hy[k-2], hx[k-1], hy[k-1], px, py) <= 0)
+				k--;
+			hx[k] = px;
+			hy[k] = py;
+			k++;
+		}
+		// Upper hull
+		int lower = k + 1;
+		for (int i = n - 2; i >= 0; i--) {
+			if (points[i] == points[i+1])
+				continue;
+			double px = unpackX(points[i]) * pixelWidth;
+			double py = unpackY(points[i]) * pixelHeight;
+			while (k >= lower && cross(hx[k-2], hy[k-2], hx[k-1], hy[k-1], px, py) <= 0)
+				k--;
+			hx[k] = px;
+			hy[k] = py;
+			k++;
+		}
+		// Last point is the same as the first
+		int h = Math.max(1, k - 1);
+		
+		// Hull area
+		double sum = 0;
+		for (int i = 0; i < h; i++) {
+			int j = i + 1 == h ? 0 : i + 1;
+			sum += hx[i] * hy[j] - hx[j] * hy[i];
+		}
+		convexArea = Math.abs(sum * 0.5);
+		
+		if (h == 1) {
+			maxCaliper = 0;
+			minCaliper = 0;
+			return;
+		}
+		if (h == 2) {
+			maxCaliper = Math.sqrt(distanceSq(hx[0], hy[0], hx[1], hy[1]));
+			minCaliper = 0;
+			return;
+		}
+		
+		// Rotating calipers - for each edge, find the furthest (antipodal) vertex
+		double maxDistSq = 0;
+		double minWidth = Double.POSITIVE_INFINITY;
+		int j = 1;
+		for (int i = 0; i < h; i++) {
+			int i2 = i + 1 == h ? 0 : i + 1;
+			while (true) {
+				int j2 = j + 1 == h ? 0 : j + 1;
+				if (cross(hx[i], hy[i], hx[i2], hy[i2], hx[j2], hy[j2]) > cross(hx[i], hy[i], hx[i2], hy[i2], hx[j], hy[j]))
+					j = j2;
+				else
+					break;
+			}
+			double edgeLength = Math.sqrt(distanceSq(hx[i], hy[i], hx[i2], hy[i2]));
+			if (edgeLength > 0) {
+				double width = cross(hx[i], hy[i], hx[i2], hy[i2], hx[j], hy[j]) / edgeLength;
+				if (width < minWidth)
+					minWidth = width;
+			}
+			maxDistSq = Math.max(maxDistSq, Math.max(distanceSq(hx[i], hy[i], hx[j], hy[j]), distanceSq(hx[i2], hy[i2], hx[j], hy[j])));
+		}
+		maxCaliper = Math.sqrt(maxDistSq);
+		minCaliper = Double.isFinite(minWidth) ? minWidth : 0;
+	}
+	
+	private static double cross(double x0, double y0, double x1, double y1, double x2, double y2) {
+		return (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+	}
+	
+	private static double distanceSq(double x0, double y0, double x1, double y1) {
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		return dx*dx + dy*dy;
+	}
+	
+	/**
+	 * Pack float coordinates into a long, so that sorting the long sorts the coordinates by x and then by y.
+	 */
+	private static long pack(final float x, final float y) {
+		long kx = toSortableInt(x);
+		long ky = toSortableInt(y) ^ 0x80000000;
+		return (kx << 32) | (ky & 0xffffffffL);
+	}
+	
+	private static float unpackX(final long packed) {
+		return fromSortableInt((int)(packed >> 32));
+	}
+
+	private static float unpackY(final long packed) {
+		return fromSortableInt((int)packed ^ 0x80000000);
+	}
+	
+	private static int toSortableInt(final float value) {
+		// Normalize -0 so that it matches 0
+		int bits = Float.floatToIntBits(value == 0 ? 0f : value);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	private static float fromSortableInt(final int value) {
+		return Float.intBitsToFloat(value ^ ((value >> 31) & 0x7fffffff));
+	}
+	
+	
+	/**
+	 * Area of the shape.
+	 * 
+	 * @return
+	 */
+	public double getArea() {
+		return area;
+	}
+	
+	/**
+	 * Total length of all boundaries of the shape.
+	 * 
+	 * @return
+	 */
+	public double getPerimeter() {
+		return perimeter;
+	}
+
+	/**
+	 * Centroid x-coordinate, in the original (unscaled) coordinate space.
+	 * 
+	 * @return
+	 */
+	public double getCentroidX() {
+		return centroidX;
+	}
+
+	/**
+	 * Centroid y-coordinate, in the original (unscaled) coordinate space.
+	 * 
+	 * @return
+	 */
+	public double getCentroidY() {
+		return centroidY;
+	}
+	
+	/**
+	 * Area of the convex hull of the shape.
+	 * 
+	 * @return
+	 */
+	public double getConvexArea() {
+		return convexArea;
+	}
+	
+	/**
+	 * Ratio of the area to the convex area, between 0 and 1.
+	 * 
+	 * @return
+	 */
+	public double getSolidity() {
+		return area / convexArea;
+	}
+	
+	/**
+	 * Circularity, between 0 (a line) and 1 (a circle).
+	 * 
+	 * @return
+	 */
+	public double getCircularity() {
+		return Math.min(4.0 * Math.PI * area / (perimeter * perimeter), 1);
+	}
+	
+	/**
+	 * Maximum caliper (Feret) diameter, i.e. the maximum distance between any two vertices.
+	 * 
+	 * @return
+	 */
+	public double getMaxCaliper() {
+		return maxCaliper;
+	}
+
+	/**
+	 * Minimum caliper (Feret) diameter, i.e. the minimum width of the shape across all orientations.
+	 * 
+	 * @return
+	 */
+	public double getMinCaliper() {
+		return minCaliper;
+	}
+	
+	/**
+	 * Major axis length of the ellipse with the same second moments as the shape.
+	 * 
+	 * @return
+	 */
+	public double getMajorAxisLength() {
+		return majorAxis;
+	}
+
+	/**
+	 * Minor axis length of the ellipse with the same second moments as the shape.
+	 * 
+	 * @return
+	 */
+	public double getMinorAxisLength() {
+		return minorAxis;
+	}
+	
+	/**
+	 * Eccentricity of the ellipse with the same second moments as the shape, 
+	 * between 0 (a circle) and 1 (a line).
+	 * 
+	 * @return
+	 */
+	public double getEccentricity() {
+		if (majorAxis == 0)
+			return Double.NaN;
+		double ratio = minorAxis / majorAxis;
+		return Math.sqrt(1 - ratio * ratio);
+	}
+	
+	/**
+	 * Total number of vertices, or 0 if the statistics were calculated analytically (e.g. for an ellipse).
+	 * 
+	 * @return
+	 */
+	public int getNVertices() {
+		return nVertices;
+	}
+
+}
@@ -27,9 +27,12 @@ package qupath.lib.common;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
+import java.text.DecimalFormatSymbols;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
@@ -76,6 +79,26 @@ public class TestGeneralTools {
 	}
 	
 	
+	@Test
+	public void test_appendNumber() {
+		// Check we get the same output as with a NumberFormat
+		Random random = new Random(100L);
+		double[] specialValues = {0, -0.0, -0.00001, 0.5, 1.5, 2.5, 0.125, 1.00005, 0.00005, 99999.99995, 
+				123456789.123456, 1e20, -1e-20, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (Locale locale : new Locale[] {Locale.US, Locale.GERMANY}) {
+			char decimalSeparator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+			for (int dp = 0; dp <= 6; dp++) {
+				for (double value : specialValues)
+					assertEquals(GeneralTools.formatNumber(locale, value, dp), GeneralTools.appendNumber(new StringBuilder(), value, dp, decimalSeparator).toString());
+				for (int i = 0; i < 10000; i++) {
+					double value = random.nextGaussian() * Math.pow(10, random.nextInt(16) - 6);
+					assertEquals(GeneralTools.formatNumber(locale, value, dp), GeneralTools.appendNumber(new StringBuilder(), value, dp, decimalSeparator).toString());
+				}
+			}
+		}
+	}
+	
+	
 	
 	/**
 	 * The legacy method previously used for parsing in QuPath <= 0.1.2
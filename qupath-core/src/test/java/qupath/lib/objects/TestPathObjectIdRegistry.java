@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectSelectionModel;
+import qupath.lib.roi.RectangleROI;
+
+public class TestPathObjectIdRegistry {
+	
+	@Test
+	public void test_denseIds() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectIdRegistry registry = hierarchy.getIdRegistry();
+		PathObject annotation = new PathAnnotationObject(new RectangleROI(0, 0, 1000, 1000));
+		hierarchy.addPathObject(annotation, false);
+		List<PathObject> detections = createDetections(100);
+		hierarchy.addPathObjectBelowParent(annotation, detections.get(0), false, true);
+		annotation.addPathObjects(detections.subList(1, detections.size()));
+		hierarchy.fireHierarchyChangedEvent(this, annotation);
+		
+		assertEquals(101, registry.size());
+		assertEquals(101, registry.getIdLimit());
+		Set<Integer> ids = new HashSet<>();
+		for (PathObject pathObject : detections) {
+			int id = registry.getId(pathObject);
+			assertTrue(id >= 0);
+			assertSame(pathObject, registry.getObject(id));
+			ids.add(id);
+		}
+		ids.add(registry.getId(annotation));
+		assertEquals(101, ids.size());
+		assertEquals(-1, registry.getId(hierarchy.getRootObject()));
+		
+		// Removed IDs should be recycled
+		int id = registry.getId(detections.get(10));
+		hierarchy.removeObject(detections.get(10), false);
+		assertFalse(registry.contains(detections.get(10)));
+		assertNull(registry.getObject(id));
+		PathObject newObject = createDetections(1).get(0);
+		hierarchy.addPathObjectBelowParent(annotation, newObject, false, true);
+		assertEquals(id, registry.getId(newObject));
+		
+		// Removing a parent (without keeping children) should release all descendants
+		hierarchy.removeObject(annotation, false);
+		assertEquals(0, registry.size());
+	}
+	
+	@Test
+	public void test_serialization() throws IOException, ClassNotFoundException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		List<PathObject> detections = createDetections(50);
+		hierarchy.addPathObjects(detections, false);
+		// Remove some objects so that IDs are no longer in the same order as the objects
+		for (int i = 0; i < 50; i += 3)
+			hierarchy.removeObject(detections.get(i), false);
+		hierarchy.addPathObjects(createDetections(10), false);
+		
+		List<PathObject> pathObjects = new ArrayList<>(hierarchy.getRootObject().getChildObjects());
+		int[] ids = new int[pathObjects.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = hierarchy.getIdRegistry().getId(pathObjects.get(i));
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(hierarchy);
+		}
+		PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			hierarchy2.setHierarchy((PathObjectHierarchy)in.readObject());
+		}
+		
+		List<PathObject> pathObjects2 = new ArrayList<>(hierarchy2.getRootObject().getChildObjects());
+		assertEquals(pathObjects.size(), pathObjects2.size());
+		for (int i = 0; i < ids.length; i++) {
+			assertNotSame(pathObjects.get(i), pathObjects2.get(i));
+			assertEquals(ids[i], hierarchy2.getIdRegistry().getId(pathObjects2.get(i)));
+		}
+	}
+	
+	@Test
+	public void test_selectionWithRecycledIds() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectSelectionModel model = hierarchy.getSelectionModel();
+		List<PathObject> detections = createDetections(100);
+		hierarchy.addPathObjects(detections, false);
+		
+		model.selectObjects(detections);
+		assertEquals(100, model.getSelectedCount());
+		
+		// Remove an object, but leave it selected - its ID is then reused by a new object
+		PathObject removed = detections.get(5);
+		int id = hierarchy.getIdRegistry().getId(removed);
+		hierarchy.removeObject(removed, false);
+		PathObject newObject = createDetections(1).get(0);
+		hierarchy.addPathObject(newObject, false);
+		assertEquals(id, hierarchy.getIdRegistry().getId(newObject));
+		
+		assertTrue(model.isSelected(removed));
+		assertFalse(model.isSelected(newObject));
+		model.setSelectedObject(newObject, true);
+		assertTrue(model.isSelected(removed));
+		assertTrue(model.isSelected(newObject));
+		assertEquals(101, model.getSelectedObjects().size());
+		assertEquals(101, new HashSet<>(model.getSelectedObjects()).size());
+		
+		model.deselectObject(removed);
+		assertFalse(model.isSelected(removed));
+		assertTrue(model.isSelected(newObject));
+		assertEquals(100, model.getSelectedCount());
+	}
+	
+	@Test
+	public void test_structureChangeBelowParent() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectIdRegistry registry = hierarchy.getIdRegistry();
+		PathObject annotation1 = new PathAnnotationObject(new RectangleROI(0, 0, 1000, 1000));
+		PathObject annotation2 = new PathAnnotationObject(new RectangleROI(2000, 0, 1000, 1000));
+		hierarchy.addPathObjects(Arrays.asList(annotation1, annotation2), false);
+		List<PathObject> detections1 = createDetections(20);
+		List<PathObject> detections2 = createDetections(20);
+		annotation1.addPathObjects(detections1);
+		hierarchy.fireHierarchyChangedEvent(this, annotation1);
+		annotation2.addPathObjects(detections2);
+		hierarchy.fireHierarchyChangedEvent(this, annotation2);
+		assertEquals(42, registry.size());
+		
+		// Replace the detections below one parent, as a detection command would
+		int id = registry.getId(detections1.get(0));
+		annotation1.clearPathObjects();
+		List<PathObject> detectionsNew = createDetections(10);
+		annotation1.addPathObjects(detectionsNew);
+		hierarchy.fireHierarchyChangedEvent(this, annotation1);
+		
+		// New objects are registered immediately, and removed objects are released as soon as they are queried
+		for (PathObject pathObject : detectionsNew)
+			assertTrue(registry.contains(pathObject));
+		assertNull(registry.getObject(id));
+		assertFalse(registry.contains(detections1.get(1)));
+		for (PathObject pathObject : detections2)
+			assertTrue(registry.contains(pathObject));
+		assertEquals(32, registry.size());
+		
+		// Released IDs should be recycled
+		PathObject newObject = createDetections(1).get(0);
+		annotation2.addPathObject(newObject);
+		hierarchy.fireHierarchyChangedEvent(this, annotation2);
+		assertEquals(id, registry.getId(newObject));
+		assertEquals(33, registry.size());
+	}
+	
+	static List<PathObject> createDetections(int n) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			pathObjects.add(new PathDetectionObject(new RectangleROI(i, i, 10, 10)));
+		return pathObjects;
+	}
+
+}
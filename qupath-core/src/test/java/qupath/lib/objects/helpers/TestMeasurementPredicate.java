@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+
+public class TestMeasurementPredicate {
+	
+	private static PathObject createObject(final double area, final double intensity) {
+		MeasurementList list = MeasurementListFactory.createMeasurementList(2, MeasurementList.TYPE.FLOAT);
+		list.addMeasurement("Area", area);
+		if (!Double.isNaN(intensity))
+			list.addMeasurement("Intensity", intensity);
+		list.closeList();
+		return new PathDetectionObject(null, null, list);
+	}
+
+	@Test
+	public void test_parse() {
+		PathObject pathObject = createObject(50, 0.5);
+		assertTrue(MeasurementPredicate.parse("Area > 40").test(pathObject));
+		assertFalse(MeasurementPredicate.parse("Area < 40").test(pathObject));
+		assertTrue(MeasurementPredicate.parse("Area >= 50").test(pathObject));
+		assertTrue(MeasurementPredicate.parse("Area == 50").test(pathObject));
+		assertFalse(MeasurementPredicate.parse("Area != 50").test(pathObject));
+		assertTrue(MeasurementPredicate.parse("NOT Area < 40").test(pathObject));
+		assertTrue(MeasurementPredicate.parse("Area > 40 AND Intensity <= 0.5").test(pathObject));
+		assertFalse(MeasurementPredicate.parse("Area > 40 and Intensity > 0.5").test(pathObject));
+		assertTrue(MeasurementPredicate.parse("Area > 100 OR Intensity > 0.25").test(pathObject));
+		
+		// Missing measurements never match, unless negated
+		PathObject missing = createObject(50, Double.NaN);
+		assertFalse(MeasurementPredicate.parse("Intensity < 1").test(missing));
+		assertTrue(MeasurementPredicate.parse("NOT Intensity < 1").test(missing));
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void test_missingCombiner() {
+		MeasurementPredicate.parse("Area > 40 Intensity < 1");
+	}
+	
+	@Test
+	public void test_filter() {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 50000; i++)
+			pathObjects.add(createObject(i % 100, i % 7 == 0 ? Double.NaN : (i % 13) / 13.0));
+		
+		for (String command : new String[] {"Area > 50", "Area >= 20 AND NOT Intensity > 0.5", "Area < 10 OR Intensity = 0"}) {
+			MeasurementPredicate predicate = MeasurementPredicate.parse(command);
+			List<PathObject> expected = pathObjects.stream().filter(predicate).collect(Collectors.toList());
+			assertEquals(expected, predicate.filter(pathObjects));
+			
+			Map<String, double[]> columns = new HashMap<>();
+			for (String name : predicate.getMeasurementNames())
+				columns.put(name, pathObjects.stream().mapToDouble(p -> p.getMeasurementList().getMeasurementValue(name)).toArray());
+			BitSet bits = predicate.testRows(columns::get, pathObjects.size());
+			assertEquals(expected.size(), bits.cardinality());
+			for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+				assertTrue(predicate.test(pathObjects.get(i)));
+		}
+	}
+
+}
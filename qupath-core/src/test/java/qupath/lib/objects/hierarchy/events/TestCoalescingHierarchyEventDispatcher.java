@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+import qupath.lib.roi.RectangleROI;
+
+public class TestCoalescingHierarchyEventDispatcher {
+	
+	@Test
+	public void test_coalesceChanges() throws InterruptedException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		CoalescingHierarchyEventDispatcher dispatcher = new CoalescingHierarchyEventDispatcher(hierarchy, 200, 1000);
+		EventCollector collector = new EventCollector(1);
+		dispatcher.addListener(collector, EnumSet.of(HierarchyEventType.CHANGE_MEASUREMENTS));
+		
+		List<PathObject> pathObjects = createObjects(10);
+		for (PathObject pathObject : pathObjects) {
+			dispatcher.post(PathObjectHierarchyEvent.createObjectsChangedEvent(this, hierarchy, HierarchyEventType.CHANGE_MEASUREMENTS, Collections.singletonList(pathObject), false));
+			// Should be filtered out
+			dispatcher.post(PathObjectHierarchyEvent.createObjectsChangedEvent(this, hierarchy, HierarchyEventType.CHANGE_CLASSIFICATION, Collections.singletonList(pathObject), false));
+		}
+		// Duplicates should only be included once
+		dispatcher.post(PathObjectHierarchyEvent.createObjectsChangedEvent(this, hierarchy, HierarchyEventType.CHANGE_MEASUREMENTS, pathObjects, false));
+		
+		List<PathObjectHierarchyEvent> events = collector.await();
+		assertEquals(1, events.size());
+		PathObjectHierarchyEvent event = events.get(0);
+		assertEquals(HierarchyEventType.CHANGE_MEASUREMENTS, event.getEventType());
+		assertEquals(pathObjects, event.getChangedObjects());
+		assertSame(this, event.getSource());
+	}
+	
+	@Test
+	public void test_coalesceStructure() throws InterruptedException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent1 = new PathAnnotationObject(new RectangleROI(0, 0, 100, 100));
+		PathObject parent2 = new PathAnnotationObject(new RectangleROI(200, 0, 100, 100));
+		hierarchy.addPathObject(parent1, false);
+		hierarchy.addPathObject(parent2, false);
+
+		CoalescingHierarchyEventDispatcher dispatcher = new CoalescingHierarchyEventDispatcher(hierarchy, 200, 1000);
+		
+		// Objects added to the same parent should be combined
+		EventCollector collector = new EventCollector(1);
+		dispatcher.addListener(collector, null);
+		List<PathObject> pathObjects = createObjects(5);
+		for (PathObject pathObject : pathObjects)
+			dispatcher.post(PathObjectHierarchyEvent.createObjectAddedEvent(this, hierarchy, parent1, pathObject));
+		List<PathObjectHierarchyEvent> events = collector.await();
+		assertEquals(1, events.size());
+		assertEquals(HierarchyEventType.ADDED, events.get(0).getEventType());
+		assertSame(parent1, events.get(0).getStructureChangeBase());
+		assertEquals(pathObjects, events.get(0).getChangedObjects());
+		dispatcher.removeListener(collector);
+		
+		// Additions to different parents should become a single change at the common ancestor, followed by other changes
+		collector = new EventCollector(2);
+		dispatcher.addListener(collector, null);
+		dispatcher.post(PathObjectHierarchyEvent.createObjectAddedEvent(this, hierarchy, parent1, pathObjects.get(0)));
+		dispatcher.post(PathObjectHierarchyEvent.createObjectsChangedEvent(this, hierarchy, HierarchyEventType.CHANGE_CLASSIFICATION, pathObjects, false));
+		dispatcher.post(PathObjectHierarchyEvent.createObjectRemovedEvent(this, hierarchy, parent2, pathObjects.get(1)));
+		events = collector.await();
+		assertEquals(2, events.size());
+		assertEquals(HierarchyEventType.OTHER_STRUCTURE_CHANGE, events.get(0).getEventType());
+		assertSame(hierarchy.getRootObject(), events.get(0).getStructureChangeBase());
+		assertEquals(HierarchyEventType.CHANGE_CLASSIFICATION, events.get(1).getEventType());
+	}
+	
+	@Test
+	public void test_overflow() throws InterruptedException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		CoalescingHierarchyEventDispatcher dispatcher = new CoalescingHierarchyEventDispatcher(hierarchy, 200, 10);
+		EventCollector collector = new EventCollector(1);
+		dispatcher.addListener(collector, EnumSet.of(HierarchyEventType.CHANGE_CLASSIFICATION));
+		
+		// Too many objects should result in a single structure change event, even though the listener didn't request it
+		dispatcher.post(PathObjectHierarchyEvent.createObjectsChangedEvent(this, hierarchy, HierarchyEventType.CHANGE_MEASUREMENTS, createObjects(20), false));
+		List<PathObjectHierarchyEvent> events = collector.await();
+		assertEquals(1, events.size());
+		assertEquals(HierarchyEventType.OTHER_STRUCTURE_CHANGE, events.get(0).getEventType());
+		assertSame(hierarchy.getRootObject(), events.get(0).getStructureChangeBase());
+	}
+	
+	@Test
+	public void test_hierarchyAsyncListener() throws InterruptedException {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		EventCollector collector = new EventCollector(1);
+		hierarchy.addAsyncPathObjectListener(collector, EnumSet.of(HierarchyEventType.ADDED));
+		List<PathObject> pathObjects = createObjects(100);
+		for (PathObject pathObject : pathObjects)
+			hierarchy.addPathObject(pathObject, false);
+		List<PathObjectHierarchyEvent> events = collector.await();
+		// Events should normally be combined - but allow for the (unlikely) possibility of a very slow thread
+		int nAdded = 0;
+		for (PathObjectHierarchyEvent event : events)
+			nAdded += event.getChangedObjects().size();
+		Thread.sleep(500);
+		for (PathObjectHierarchyEvent event : collector.getEvents().subList(events.size(), collector.getEvents().size()))
+			nAdded += event.getChangedObjects().size();
+		assertEquals(100, nAdded);
+		hierarchy.removeAsyncPathObjectListener(collector);
+	}
+	
+	
+	static List<PathObject> createObjects(int n) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			pathObjects.add(new PathAnnotationObject(new RectangleROI(i, i, 10, 10)));
+		return pathObjects;
+	}
+	
+	
+	static class EventCollector implements PathObjectHierarchyListener {
+		
+		private final List<PathObjectHierarchyEvent> events = Collections.synchronizedList(new ArrayList<>());
+		private final CountDownLatch latch;
+		
+		EventCollector(int nExpected) {
+			latch = new CountDownLatch(nExpected);
+		}
+
+		@Override
+		public void hierarchyChanged(PathObjectHierarchyEvent event) {
+			events.add(event);
+			latch.countDown();
+		}
+		
+		List<PathObjectHierarchyEvent> await() throws InterruptedException {
+			assertTrue("Timed out waiting for events", latch.await(5, TimeUnit.SECONDS));
+			return getEvents();
+		}
+		
+		List<PathObjectHierarchyEvent> getEvents() {
+			synchronized (events) {
+				return new ArrayList<>(events);
+			}
+		}
+		
+	}
+
+}
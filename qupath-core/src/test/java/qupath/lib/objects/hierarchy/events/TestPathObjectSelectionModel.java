@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.roi.RectangleROI;
+
+public class TestPathObjectSelectionModel {
+	
+	@Test
+	public void test_selection() {
+		PathObjectSelectionModel model = new PathObjectSelectionModel();
+		List<PathObject> pathObjects = createObjects(1000, null);
+		assertTrue(model.noSelection());
+		
+		model.setSelectedObject(pathObjects.get(0));
+		assertTrue(model.singleSelection());
+		assertTrue(model.isSelected(pathObjects.get(0)));
+		assertFalse(model.isSelected(pathObjects.get(1)));
+		
+		model.setSelectedObjects(pathObjects, pathObjects.get(5));
+		assertEquals(1000, model.getSelectedObjects().size());
+		assertEquals(new HashSet<>(pathObjects), new HashSet<>(model.getSelectedObjects()));
+		assertSame(pathObjects.get(5), model.getSelectedObject());
+		
+		model.deselectObject(pathObjects.get(5));
+		assertFalse(model.isSelected(pathObjects.get(5)));
+		assertNotNull(model.getSelectedObject());
+		assertTrue(model.isSelected(model.getSelectedObject()));
+		assertEquals(999, model.getSelectedCount());
+		
+		model.deselectObjects(pathObjects.subList(0, 500));
+		assertEquals(500, model.getSelectedObjects().size());
+		for (int i = 0; i < pathObjects.size(); i++)
+			assertEquals(i >= 500 && i != 5, model.isSelected(pathObjects.get(i)));
+		
+		model.clearSelection();
+		assertTrue(model.noSelection());
+		assertTrue(model.getSelectedObjects().isEmpty());
+	}
+	
+	@Test
+	public void test_bulkSelection() {
+		PathClass pathClass1 = PathClassFactory.getPathClass("Class 1");
+		PathClass pathClass2 = PathClassFactory.getPathClass("Class 2");
+		List<PathObject> objects1 = createObjects(100, pathClass1);
+		List<PathObject> objects2 = createObjects(100, pathClass2);
+		List<PathObject> all = new ArrayList<>(objects1);
+		all.addAll(objects2);
+		
+		PathObjectSelectionModel model = new PathObjectSelectionModel();
+		model.selectObjects(all, p -> p.getPathClass() == pathClass1);
+		assertEquals(new HashSet<>(objects1), new HashSet<>(model.getSelectedObjects()));
+		
+		model.selectObjects(objects2);
+		assertEquals(200, model.getSelectedCount());
+		
+		model.retainSelectedObjects(p -> p.getPathClass() == pathClass2);
+		assertEquals(new HashSet<>(objects2), new HashSet<>(model.getSelectedObjects()));
+		assertTrue(model.getSelectedObject() == null || model.getSelectedObject().getPathClass() == pathClass2);
+		
+		model.deselectObjects(p -> p.getPathClass() == pathClass2);
+		assertTrue(model.getSelectedObjects().isEmpty());
+	}
+	
+	@Test
+	public void test_changeEvents() {
+		PathObjectSelectionModel model = new PathObjectSelectionModel();
+		List<PathObjectSelectionEvent> events = new ArrayList<>();
+		int[] nSimpleEvents = new int[1];
+		model.addSelectionChangeListener(e -> events.add(e));
+		model.addPathObjectSelectionListener((s, p) -> nSimpleEvents[0]++);
+		
+		List<PathObject> pathObjects = createObjects(100, null);
+		model.selectObjects(pathObjects.subList(0, 60));
+		model.setSelectedObjects(pathObjects.subList(40, 100), null);
+		model.clearSelection();
+		
+		assertEquals(3, events.size());
+		assertEquals(3, nSimpleEvents[0]);
+		
+		assertEquals(60, events.get(0).getAddedObjects().size());
+		assertTrue(events.get(0).getRemovedObjects().isEmpty());
+		
+		assertEquals(new HashSet<>(pathObjects.subList(60, 100)), new HashSet<>(events.get(1).getAddedObjects()));
+		assertEquals(new HashSet<>(pathObjects.subList(0, 40)), new HashSet<>(events.get(1).getRemovedObjects()));
+		
+		assertTrue(events.get(2).getAddedObjects().isEmpty());
+		assertEquals(60, events.get(2).getRemovedObjects().size());
+		assertTrue(events.get(2).isCleared());
+	}
+	
+	@Test
+	public void test_repeatedSelection() {
+		// Repeatedly selecting and deselecting many objects should not affect the rest of the selection
+		PathObjectSelectionModel model = new PathObjectSelectionModel();
+		PathObject keep = createObjects(1, null).get(0);
+		model.setSelectedObject(keep);
+		for (int i = 0; i < 20; i++) {
+			List<PathObject> pathObjects = createObjects(1000, null);
+			model.selectObjects(pathObjects);
+			Set<PathObject> expected = new HashSet<>(pathObjects);
+			expected.add(keep);
+			assertEquals(expected, new HashSet<>(model.getSelectedObjects()));
+			model.deselectObjects(pathObjects);
+			assertEquals(1, model.getSelectedCount());
+			assertTrue(model.isSelected(keep));
+		}
+	}
+	
+	static List<PathObject> createObjects(int n, PathClass pathClass) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			pathObjects.add(new PathDetectionObject(new RectangleROI(i, i, 10, 10), pathClass));
+		return pathObjects;
+	}
+
+}
@@ -0,0 +1,140 @@
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.PathShape;
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestPolygonClipper {
+
+	@Test
+	public void overlappingRectangles() {
+		ROI r1 = new RectangleROI(0, 0, 100, 100);
+		ROI r2 = new RectangleROI(50, 50, 100, 100);
+
+		assertEquals(17500, area(PolygonClipper.union(r1, r2)), 1e-6);
+		assertEquals(2500, area(PolygonClipper.intersection(r1, r2)), 1e-6);
+		assertEquals(7500, area(PolygonClipper.difference(r1, r2)), 1e-6);
+		assertEquals(15000, area(PolygonClipper.xor(r1, r2)), 1e-6);
+
+		assertTrue(PolygonClipper.intersection(r1, r2) instanceof RectangleROI);
+		assertTrue(PolygonClipper.union(r1, r2) instanceof PolygonROI);
+		assertTrue(PolygonClipper.xor(r1, r2) instanceof AreaROI);
+
+		// No overlap
+		ROI r3 = new RectangleROI(500, 500, 10, 10);
+		assertEquals(0, area(PolygonClipper.intersection(r1, r3)), 0.0);
+		assertEquals(10000, area(PolygonClipper.difference(r1, r3)), 0.0);
+		assertEquals(10100, area(PolygonClipper.union(r1, r3)), 0.0);
+	}
+
+	@Test
+	public void adjacentRectangles() {
+		// Rectangles sharing an edge should merge into a single rectangle
+		PathShape union = PolygonClipper.union(new RectangleROI(0, 0, 10, 20), new RectangleROI(10, 0, 10, 20));
+		assertTrue(union instanceof RectangleROI);
+		assertEquals(0, union.getBoundsX(), 0.0);
+		assertEquals(20, union.getBoundsWidth(), 0.0);
+
+		// A grid of tiles should merge in the same way
+		List<ROI> tiles = new ArrayList<>();
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++)
+				tiles.add(new RectangleROI(x * 16, y * 16, 16, 16));
+		}
+		union = PolygonClipper.union(tiles);
+		assertTrue(union instanceof RectangleROI);
+		assertEquals(160 * 160, area(union), 0.0);
+	}
+
+	@Test
+	public void holes() {
+		ROI outer = new RectangleROI(0, 0, 100, 100);
+		ROI inner = new PolygonROI(new float[] {30, 70, 50}, new float[] {30, 30, 70}, -1, 0, 0);
+		PathShape diff = PolygonClipper.difference(outer, inner);
+		assertTrue(diff instanceof AreaROI);
+		assertEquals(10000 - 800, area(diff), 1e-6);
+		assertFalse(((PathArea)diff).contains(50, 40));
+		assertTrue(((PathArea)diff).contains(10, 10));
+
+		// Filling the hole again should give back the rectangle
+		assertTrue(PolygonClipper.union(diff, inner) instanceof RectangleROI);
+	}
+
+	@Test
+	public void randomPolygons() {
+		Random rand = new Random(100L);
+		for (int iter = 0; iter < 20; iter++) {
+			ROI roi1 = createRandomPolygon(rand, 20);
+			ROI roi2 = createRandomPolygon(rand, 20);
+			Area area1 = createArea(roi1);
+			Area area2 = createArea(roi2);
+			for (PolygonClipper.Op op : PolygonClipper.Op.values()) {
+				PathArea result = (PathArea)PolygonClipper.combine(roi1, roi2, op);
+				Area expected = new Area(area1);
+				switch (op) {
+				case UNION:
+					expected.add(area2);
+					break;
+				case INTERSECTION:
+					expected.intersect(area2);
+					break;
+				case DIFFERENCE:
+					expected.subtract(area2);
+					break;
+				case XOR:
+					expected.exclusiveOr(area2);
+					break;
+				}
+				// Compare away from the boundaries
+				Area resultArea = createArea(result);
+				for (double y = 0.5; y < 100; y += 1.3) {
+					for (double x = 0.5; x < 100; x += 1.3) {
+						if (expected.intersects(x - 0.01, y - 0.01, 0.02, 0.02) && !expected.contains(x - 0.01, y - 0.01, 0.02, 0.02))
+							continue;
+						assertEquals(op + " at " + x + ", " + y, expected.contains(x, y), resultArea.contains(x, y));
+						assertEquals(op + " at " + x + ", " + y, expected.contains(x, y), result.contains(x, y));
+					}
+				}
+			}
+		}
+	}
+
+	static double area(final PathShape roi) {
+		return ((PathArea)roi).getArea();
+	}
+
+	static ROI createRandomPolygon(final Random rand, final int n) {
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = rand.nextInt(100);
+			y[i] = rand.nextInt(100);
+		}
+		return new PolygonROI(x, y, -1, 0, 0);
+	}
+
+	static Area createArea(final ROI roi) {
+		Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+		List<double[]> rings = PolygonClipper.toPolygon(roi).rings;
+		for (double[] ring : rings) {
+			path.moveTo(ring[0], ring[1]);
+			for (int i = 2; i < ring.length; i += 2)
+				path.lineTo(ring[i], ring[i+1]);
+			path.closePath();
+		}
+		return new Area(path);
+	}
+
+}
@@ -0,0 +1,158 @@
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestPolygonShapeStatistics {
+
+	@Test
+	public void rectangle() {
+		ROI roi = new PolygonROI(new float[] {10, 20, 20, 10}, new float[] {5, 5, 25, 25}, -1, 0, 0);
+		PolygonShapeStatistics stats = PolygonShapeStatistics.compute(roi, 1, 1);
+		assertEquals(200, stats.getArea(), 1e-6);
+		assertEquals(60, stats.getPerimeter(), 1e-6);
+		assertEquals(15, stats.getCentroidX(), 1e-6);
+		assertEquals(15, stats.getCentroidY(), 1e-6);
+		assertEquals(200, stats.getConvexArea(), 1e-6);
+		assertEquals(1, stats.getSolidity(), 1e-6);
+		assertEquals(Math.sqrt(500), stats.getMaxCaliper(), 1e-6);
+		assertEquals(10, stats.getMinCaliper(), 1e-6);
+		assertEquals(Math.sqrt(0.75), stats.getEccentricity(), 1e-6);
+		
+		// Rectangle ROIs should give the same result
+		PolygonShapeStatistics stats2 = PolygonShapeStatistics.compute(new RectangleROI(10, 5, 10, 20), 1, 1);
+		assertEquals(stats.getArea(), stats2.getArea(), 1e-6);
+		assertEquals(stats.getMinCaliper(), stats2.getMinCaliper(), 1e-6);
+		
+		// Scaling should be applied to all measurements, except the centroid
+		stats = PolygonShapeStatistics.compute(roi, 0.5, 2);
+		assertEquals(200, stats.getArea(), 1e-6);
+		assertEquals(2 * 5 + 2 * 40, stats.getPerimeter(), 1e-6);
+		assertEquals(15, stats.getCentroidX(), 1e-6);
+		assertEquals(5, stats.getMinCaliper(), 1e-6);
+		assertEquals(Math.sqrt(25 + 1600), stats.getMaxCaliper(), 1e-6);
+		
+		assertNull(PolygonShapeStatistics.compute(new LineROI(0, 0, 10, 10), 1, 1));
+	}
+	
+	@Test
+	public void circle() {
+		int n = 360;
+		double r = 50;
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = (float)(100 + r * Math.cos(2 * Math.PI * i / n));
+			y[i] = (float)(100 + r * Math.sin(2 * Math.PI * i / n));
+		}
+		PolygonShapeStatistics stats = PolygonShapeStatistics.compute(new PolygonROI(x, y, -1, 0, 0), 1, 1);
+		assertEquals(Math.PI * r * r, stats.getArea(), 1.0);
+		assertEquals(1, stats.getCircularity(), 1e-3);
+		assertEquals(1, stats.getSolidity(), 1e-6);
+		assertEquals(2 * r, stats.getMaxCaliper(), 1e-3);
+		assertEquals(2 * r, stats.getMinCaliper(), 0.01);
+		assertEquals(2 * r, stats.getMajorAxisLength(), 0.01);
+		assertEquals(0, stats.getEccentricity(), 0.01);
+	}
+	
+	@Test
+	public void ellipse() {
+		EllipseROI roi = new EllipseROI(50, 100, 200, 100, -1, 0, 0);
+		PolygonShapeStatistics stats = PolygonShapeStatistics.compute(roi, 1, 1);
+		assertEquals(Math.PI * 100 * 50, stats.getArea(), 1e-6);
+		assertEquals(roi.getPerimeter(), stats.getPerimeter(), 1e-6);
+		assertEquals(150, stats.getCentroidX(), 1e-6);
+		assertEquals(150, stats.getCentroidY(), 1e-6);
+		assertEquals(1, stats.getSolidity(), 1e-6);
+		assertEquals(200, stats.getMaxCaliper(), 1e-6);
+		assertEquals(100, stats.getMinCaliper(), 1e-6);
+		assertEquals(200, stats.getMajorAxisLength(), 1e-6);
+		assertEquals(100, stats.getMinorAxisLength(), 1e-6);
+		assertEquals(Math.sqrt(0.75), stats.getEccentricity(), 1e-6);
+		
+		// Results should match a finely-sampled polygon
+		int n = 3600;
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = (float)(150 + 100 * Math.cos(2 * Math.PI * i / n));
+			y[i] = (float)(150 + 50 * Math.sin(2 * Math.PI * i / n));
+		}
+		PolygonShapeStatistics statsPolygon = PolygonShapeStatistics.compute(new PolygonROI(x, y, -1, 0, 0), 1, 1);
+		assertEquals(statsPolygon.getArea(), stats.getArea(), 1.0);
+		assertEquals(statsPolygon.getPerimeter(), stats.getPerimeter(), 0.1);
+		assertEquals(statsPolygon.getMinCaliper(), stats.getMinCaliper(), 0.01);
+		assertEquals(statsPolygon.getMajorAxisLength(), stats.getMajorAxisLength(), 0.01);
+		assertEquals(statsPolygon.getMinorAxisLength(), stats.getMinorAxisLength(), 0.01);
+		
+		// Scaling should be applied to the axes
+		stats = PolygonShapeStatistics.compute(roi, 0.25, 2);
+		assertEquals(200, stats.getMaxCaliper(), 1e-6);
+		assertEquals(50, stats.getMinCaliper(), 1e-6);
+		assertEquals(200, stats.getMajorAxisLength(), 1e-6);
+		assertEquals(50, stats.getMinorAxisLength(), 1e-6);
+	}
+	
+	@Test
+	public void randomPolygons() {
+		Random rand = new Random(47L);
+		for (int iter = 0; iter < 100; iter++) {
+			// Create a star-shaped (and therefore simple) polygon
+			int n = 3 + rand.nextInt(50);
+			double[] angles = new double[n];
+			for (int i = 0; i < n; i++)
+				angles[i] = rand.nextDouble() * 2 * Math.PI;
+			Arrays.sort(angles);
+			float[] x = new float[n];
+			float[] y = new float[n];
+			for (int i = 0; i < n; i++) {
+				double r = 5 + rand.nextDouble() * 50;
+				x[i] = (float)(200 + r * Math.cos(angles[i]));
+				y[i] = (float)(200 + r * Math.sin(angles[i]));
+			}
+			PolygonROI roi = new PolygonROI(x, y, -1, 0, 0);
+			PolygonShapeStatistics stats = PolygonShapeStatistics.compute(roi, 1, 1);
+			
+			assertEquals(roi.getArea(), stats.getArea(), 1e-3);
+			assertEquals(roi.getPerimeter(), stats.getPerimeter(), 1e-3);
+			assertEquals(roi.getCentroidX(), stats.getCentroidX(), 1e-3);
+			assertEquals(roi.getCentroidY(), stats.getCentroidY(), 1e-3);
+			assertEquals(roi.getConvexArea(), stats.getConvexArea(), 1e-3);
+			assertTrue(stats.getSolidity() <= 1 + 1e-6);
+			
+			// Brute force calipers
+			double maxDist = 0;
+			double minWidth = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					maxDist = Math.max(maxDist, Math.hypot(x[i] - x[j], y[i] - y[j]));
+					if (i == j)
+						continue;
+					// Width perpendicular to the line through i & j, if all points are on one side
+					double dx = x[j] - x[i];
+					double dy = y[j] - y[i];
+					double len = Math.hypot(dx, dy);
+					double min = 0, max = 0;
+					for (int k = 0; k < n; k++) {
+						double d = (dx * (y[k] - y[i]) - dy * (x[k] - x[i])) / len;
+						min = Math.min(min, d);
+						max = Math.max(max, d);
+					}
+					if (min > -1e-6 || max < 1e-6)
+						minWidth = Math.min(minWidth, max - min);
+				}
+			}
+			assertEquals(maxDist, stats.getMaxCaliper(), 1e-3);
+			assertEquals(minWidth, stats.getMinCaliper(), 1e-3);
+		}
+	}
+
+}
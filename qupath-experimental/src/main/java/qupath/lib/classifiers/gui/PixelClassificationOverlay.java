@@ -1,5 +1,7 @@
 package qupath.lib.classifiers.gui;
 
+import qupath.lib.classifiers.pixel.BoundedTileCache;
+import qupath.lib.classifiers.pixel.PixelClassificationImageServer;
 import qupath.lib.classifiers.pixel.PixelClassifier;
 import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.gui.viewer.QuPathViewer;
@@ -18,11 +20,11 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -36,11 +38,11 @@ public class PixelClassificationOverlay extends AbstractOverlay {
     private QuPathViewer viewer;
 
     private PixelClassifier classifier;
-    private Map<RegionRequest, BufferedImage> cache = new HashMap<>();
-    private Map<BufferedImage, BufferedImage> cacheRGB = new HashMap<>();
+    private Map<RegionRequest, BufferedImage> cache = BoundedTileCache.createDefault();
+    private Map<BufferedImage, BufferedImage> cacheRGB = Collections.synchronizedMap(new WeakHashMap<>());
     private Set<RegionRequest> pendingRequests = Collections.synchronizedSet(new HashSet<>());
 
-    private ExecutorService pool = Executors.newFixedThreadPool(8, new SimpleThreadFactory("classifier-overlay", true));
+    private ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new SimpleThreadFactory("classifier-overlay", true));
 
     PixelClassificationOverlay(final QuPathViewer viewer, final PixelClassifier classifier) {
         super();
@@ -129,22 +131,18 @@ public class PixelClassificationOverlay extends AbstractOverlay {
         if (pendingRequests.add(request)) {
             pool.submit(() -> {
                 try {
-                    // We might need to rescale or add padding, so request the tile from the region store
+                    // Add padding (replicating pixels at the image boundary if necessary)
                     int padding = classifier.requestedPadding();
                     ImageServer<BufferedImage> server = viewer.getServer();
-                    double downsample = request.getDownsample();
-					BufferedImage img2 = server.readBufferedImage(RegionRequest.createInstance(
-						request.getPath(), request.getDownsample(), 
-						(int)(request.getX()-padding*downsample), (int)(request.getY()-padding*downsample),
-						(int)Math.round(request.getWidth()+padding*downsample*2),
-						(int)Math.round(request.getHeight()+padding*downsample*2)));
+                    BufferedImage img2 = PixelClassificationImageServer.readPaddedImage(server, request, padding);
 
                     BufferedImage imgResult = classifier.applyClassification(img2, padding);
                     cache.put(request, imgResult);
-                    pendingRequests.remove(request);
                     viewer.repaint();
                 } catch (Exception e) {
                    logger.error("Error requesting tile classification", e);
+                } finally {
+                    pendingRequests.remove(request);
                 }
             });
         }
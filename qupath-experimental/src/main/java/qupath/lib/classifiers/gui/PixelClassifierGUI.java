@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.imagej.helpers.IJTools;
 import qupath.lib.classifiers.pixel.OpenCVPixelClassifier;
+import qupath.lib.classifiers.pixel.PixelClassificationEngine;
 import qupath.lib.classifiers.pixel.PixelClassifier;
 import qupath.lib.classifiers.pixel.PixelClassifierMetadata;
 import qupath.lib.classifiers.pixel.PixelClassifierOutputChannel;
@@ -47,6 +48,7 @@ import qupath.lib.classifiers.pixel.features.BasicMultiscaleOpenCVFeatureCalcula
 import qupath.lib.classifiers.pixel.features.OpenCVFeatureCalculator;
 import qupath.lib.classifiers.pixel.features.OpenCVFeatureCalculatorDNN;
 import qupath.lib.classifiers.pixel.features.SmoothedOpenCVFeatureCalculator;
+import qupath.lib.common.GeneralTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.commands.interfaces.PathCommand;
 import qupath.lib.gui.helpers.ColorToolsFX;
@@ -267,6 +269,11 @@ public class PixelClassifierGUI implements PathCommand, QuPathViewerListener, Pa
         btnUpdate.disableProperty().bind(autoUpdate);
         btnUpdate.setMaxWidth(Double.MAX_VALUE);
         btnUpdate.setOnAction( e -> updateClassification());
+        
+        // Apply the classifier to the whole image, to measure the area of each class
+        Button btnMeasure = new Button("Measure areas");
+        btnMeasure.setMaxWidth(Double.MAX_VALUE);
+        btnMeasure.setOnAction(e -> measureAreas());
 
 
         GridPane pane = new GridPane();
@@ -286,6 +293,7 @@ public class PixelClassifierGUI implements PathCommand, QuPathViewerListener, Pa
         pane.add(cbAutoUpdate, 0, row++, 3, 1);
         pane.add(listClassifications, 0, row++, 3, 1);
         pane.add(btnUpdate, 0, row++, 3, 1);
+        pane.add(btnMeasure, 0, row++, 3, 1);
 
 
         stage.setScene(new Scene(pane));
@@ -402,6 +410,38 @@ public class PixelClassifierGUI implements PathCommand, QuPathViewerListener, Pa
         replaceOverlay(new PixelClassificationOverlay(viewer, classifier));
     }
 
+    /**
+     * Apply the current classifier to the whole image in a background thread, and show the area of each class.
+     */
+    void measureAreas() {
+        ImageData<BufferedImage> imageData = viewer.getImageData();
+        PixelClassifier classifier = this.classifier;
+        if (imageData == null || classifier == null) {
+            DisplayHelpers.showErrorMessage("Measure areas", "An image and a trained classifier are needed to measure areas!");
+            return;
+        }
+        PixelClassificationEngine engine = new PixelClassificationEngine(imageData.getServer(), classifier);
+        engine.setMaxLevel(0);
+        PixelClassificationEngine.AreaMeasurementWriter writer = new PixelClassificationEngine.AreaMeasurementWriter(engine.getServer());
+        int z = viewer.getZPosition();
+        int t = viewer.getTPosition();
+        QuPathGUI.getInstance().createSingleThreadExecutor(this).execute(() -> {
+            try {
+                engine.run(writer, z, t);
+            } catch (Exception e) {
+                Platform.runLater(() -> DisplayHelpers.showErrorMessage("Measure areas", e));
+                return;
+            }
+            double[] areas = writer.getAreas();
+            String units = imageData.getServer().hasPixelSizeMicrons() ? GeneralTools.micrometerSymbol() + "^2" : "px^2";
+            StringBuilder sb = new StringBuilder();
+            List<PixelClassifierOutputChannel> channels = classifier.getMetadata().getChannels();
+            for (int i = 0; i < areas.length && i < channels.size(); i++)
+                sb.append(channels.get(i).getName()).append(": ").append(GeneralTools.formatNumber(areas[i], 2)).append(" ").append(units).append("\n");
+            Platform.runLater(() -> DisplayHelpers.showPlainMessage("Measure areas", sb.toString()));
+        });
+    }
+
     /**
      * Replace the overlay - making sure to do this on the application thread
      *
@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import qupath.lib.awt.color.model.ColorModelFactory;
+import qupath.opencv.processing.MatScope;
 import qupath.opencv.processing.OpenCVTools;
 
 import java.awt.image.BufferedImage;
@@ -47,39 +48,35 @@ public abstract class AbstractOpenCVPixelClassifier implements PixelClassifier {
 
     @Override
     public BufferedImage applyClassification(BufferedImage img, int pad) {
-        // Get the pixels into a friendly format
-//        Mat matInput = OpenCVTools.imageToMatRGB(img, false);
-        Mat matInput = OpenCVTools.imageToMat(img);
-
-        // Do the classification, optionally with softmax
-        Mat matResult = doClassification(matInput, pad);
-        
-        // If we have a floating point or multi-channel result, we have probabilities
-        ColorModel colorModelLocal;
-        if (matResult.channels() > 1) {
-        	// Do softmax if needed
-            if (doSoftMax)
-                applySoftmax(matResult);
-
-            // Convert to 8-bit if needed
-            if (do8Bit)
-                matResult.convertTo(matResult, opencv_core.CV_8U, 255.0, 0.0);        	
-            colorModelLocal = colorModelProbabilities;
-        } else {
-            matResult.convertTo(matResult, opencv_core.CV_8U);
-            colorModelLocal = colorModelClassifications;
+        // Native memory is released (or pooled for the next tile) when the scope is closed
+        try (MatScope scope = new MatScope()) {
+            // Get the pixels into a friendly format, reusing a pooled Mat for tiles of the same size
+            Mat matInput = OpenCVTools.imageToMat(img, scope.create(img.getHeight(), img.getWidth(), OpenCVTools.getMatType(img)));
+
+            // Do the classification, optionally with softmax
+            Mat matResult = doClassification(matInput, pad);
+            if (matResult != matInput)
+                scope.track(matResult);
+
+            // If we have a floating point or multi-channel result, we have probabilities
+            ColorModel colorModelLocal;
+            if (matResult.channels() > 1) {
+                // Do softmax if needed
+                if (doSoftMax)
+                    applySoftmax(matResult);
+
+                // Convert to 8-bit if needed
+                if (do8Bit)
+                    matResult.convertTo(matResult, opencv_core.CV_8U, 255.0, 0.0);
+                colorModelLocal = colorModelProbabilities;
+            } else {
+                matResult.convertTo(matResult, opencv_core.CV_8U);
+                colorModelLocal = colorModelClassifications;
+            }
+
+            // Create & return BufferedImage
+            return OpenCVTools.matToBufferedImage(matResult, colorModelLocal);
         }
-
-        // Create & return BufferedImage
-        BufferedImage imgResult = OpenCVTools.matToBufferedImage(matResult, colorModelLocal);
-
-        // Free matrices
-        if (matInput != null)
-            matInput.release();
-        if (matResult != null && matResult != matInput)
-            matResult.release();
-
-        return imgResult;
     }
 
 
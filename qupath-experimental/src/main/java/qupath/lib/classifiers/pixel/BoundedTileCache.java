@@ -0,0 +1,119 @@
+package qupath.lib.classifiers.pixel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Least-recently-used tile cache, limited by the (approximate) number of bytes required by the cached images
+ * rather than by the number of entries.
+ * <p>
+ * All methods are synchronized, so the cache can be shared between the threads computing tiles.
+ */
+public class BoundedTileCache extends LinkedHashMap<RegionRequest, BufferedImage> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long maxBytes;
+	private long nBytes = 0;
+
+	/**
+	 * Create a cache that can hold up to a specified number of bytes.
+	 *
+	 * @param maxBytes
+	 */
+	public BoundedTileCache(final long maxBytes) {
+		super(64, 0.75f, true);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Create a cache using a default size, based upon the memory available to the JVM.
+	 *
+	 * @return
+	 */
+	public static BoundedTileCache createDefault() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		return new BoundedTileCache(Math.min(maxMemory / 8, 1024L * 1024L * 1024L));
+	}
+
+	/**
+	 * Approximate number of bytes required to store an image.
+	 *
+	 * @param img
+	 * @return
+	 */
+	public static long getBytes(final BufferedImage img) {
+		if (img == null)
+			return 0;
+		DataBuffer buffer = img.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/**
+	 * Maximum number of bytes to store.
+	 *
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Current number of bytes stored.
+	 *
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return nBytes;
+	}
+
+	@Override
+	public synchronized BufferedImage get(Object key) {
+		return super.get(key);
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return super.containsKey(key);
+	}
+
+	@Override
+	public synchronized BufferedImage put(RegionRequest key, BufferedImage value) {
+		BufferedImage previous = super.put(key, value);
+		nBytes += getBytes(value) - getBytes(previous);
+		// Remove the least recently used tiles, but always retain the most recent one
+		Iterator<Map.Entry<RegionRequest, BufferedImage>> iter = entrySet().iterator();
+		while (nBytes > maxBytes && size() > 1 && iter.hasNext()) {
+			Map.Entry<RegionRequest, BufferedImage> entry = iter.next();
+			if (entry.getKey().equals(key))
+				continue;
+			nBytes -= getBytes(entry.getValue());
+			iter.remove();
+		}
+		return previous;
+	}
+
+	@Override
+	public synchronized BufferedImage remove(Object key) {
+		BufferedImage previous = super.remove(key);
+		nBytes -= getBytes(previous);
+		return previous;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		nBytes = 0;
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+}
@@ -0,0 +1,333 @@
+package qupath.lib.classifiers.pixel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Headless engine to apply a {@link PixelClassifier} to an entire image.
+ * <p>
+ * The full resolution tiles of a {@link PixelClassificationImageServer} are classified in parallel.
+ * Lower resolution tiles are built as soon as all the tiles they depend upon are complete, by whichever thread 
+ * completed the last of them - so that these tiles are (almost) always still available in the bounded tile cache.
+ * Tiles are submitted in depth-first order for each pyramid, so that the tiles needed for each lower resolution tile 
+ * are computed close together.
+ * <p>
+ * Each tile is passed to a {@link TileWriter} as soon as it is complete; this may write the tile to disk,
+ * accumulate measurements, or both.  Tiles are never all held in memory at the same time.
+ */
+public class PixelClassificationEngine {
+
+	private static final Logger logger = LoggerFactory.getLogger(PixelClassificationEngine.class);
+
+	/**
+	 * Consumer for tiles generated by the engine.
+	 * <p>
+	 * Implementations must be thread-safe, since tiles are written from multiple threads.
+	 */
+	public static interface TileWriter {
+
+		/**
+		 * Handle a single tile.
+		 *
+		 * @param request region of the full resolution image corresponding to the tile
+		 * @param level resolution level, where 0 is the resolution at which the classifier was applied
+		 * @param img classified tile
+		 * @throws IOException
+		 */
+		public void writeTile(RegionRequest request, int level, BufferedImage img) throws IOException;
+
+	}
+
+	private PixelClassificationImageServer server;
+	private int nThreads;
+	private int maxLevel;
+
+	/**
+	 * Create an engine for applying a classifier to an image, using a default {@link BoundedTileCache}.
+	 *
+	 * @param server
+	 * @param classifier
+	 */
+	public PixelClassificationEngine(final ImageServer<BufferedImage> server, final PixelClassifier classifier) {
+		this(new PixelClassificationImageServer(server, classifier));
+	}
+
+	/**
+	 * Create an engine to generate all the tiles of a classification server.
+	 *
+	 * @param server
+	 */
+	public PixelClassificationEngine(final PixelClassificationImageServer server) {
+		this.server = server;
+		this.nThreads = Runtime.getRuntime().availableProcessors();
+		this.maxLevel = server.nLevels() - 1;
+	}
+
+	/**
+	 * Get the server providing classified tiles.
+	 *
+	 * @return
+	 */
+	public PixelClassificationImageServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Set the number of threads used for processing.
+	 *
+	 * @param nThreads
+	 */
+	public void setNumThreads(final int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Set the maximum resolution level to compute; by default, all levels are computed.
+	 * Setting this to 0 computes only the tiles at the resolution of the classifier.
+	 *
+	 * @param maxLevel
+	 */
+	public void setMaxLevel(final int maxLevel) {
+		this.maxLevel = Math.max(0, Math.min(maxLevel, server.nLevels() - 1));
+	}
+
+	/**
+	 * Classify all tiles for a specified z-slice and timepoint, passing each to a writer.
+	 *
+	 * @param writer
+	 * @param z
+	 * @param t
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run(final TileWriter writer, final int z, final int t) throws IOException, InterruptedException {
+		// Determine the full resolution tiles, and the tiles at each level that depend upon them
+		List<TileNode> leaves = new ArrayList<>();
+		for (RegionRequest request : server.getTileRequests(maxLevel, z, t))
+			addTileNodes(new TileNode(request, maxLevel, null), leaves);
+		
+		AtomicInteger counter = new AtomicInteger();
+		long startTime = System.currentTimeMillis();
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, leaves.size())));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (TileNode leaf : leaves) {
+				futures.add(pool.submit(() -> {
+					processTile(leaf, writer);
+					logger.debug("Completed {}/{} tiles", counter.incrementAndGet(), leaves.size());
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					for (Future<Void> f : futures)
+						f.cancel(true);
+					if (e.getCause() instanceof IOException)
+						throw (IOException)e.getCause();
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.info("Pixel classification of {} complete in {} ms", server.getWrappedServer(), endTime - startTime);
+	}
+	
+	/**
+	 * Add the full resolution tiles that a tile depends upon to a list, in depth-first order.
+	 */
+	private void addTileNodes(final TileNode node, final List<TileNode> leaves) {
+		if (node.level == 0) {
+			leaves.add(node);
+			return;
+		}
+		List<RegionRequest> children = server.getChildTileRequests(node.request);
+		node.remaining.set(children.size());
+		for (RegionRequest child : children)
+			addTileNodes(new TileNode(child, node.level - 1, node), leaves);
+	}
+
+	/**
+	 * Compute a full resolution tile, followed by any lower resolution tiles for which it was the last 
+	 * tile needed.
+	 */
+	private void processTile(final TileNode leaf, final TileWriter writer) throws IOException {
+		TileNode node = leaf;
+		while (node != null) {
+			if (Thread.currentThread().isInterrupted())
+				throw new IOException("Pixel classification interrupted");
+			writer.writeTile(node.request, node.level, server.getTile(node.request));
+			node = node.parent;
+			if (node != null && node.remaining.decrementAndGet() > 0)
+				break;
+		}
+	}
+	
+	/**
+	 * A tile within the pyramid, along with the number of tiles it depends upon that have not yet been completed.
+	 */
+	private static class TileNode {
+		
+		private final RegionRequest request;
+		private final int level;
+		private final TileNode parent;
+		private final AtomicInteger remaining = new AtomicInteger();
+		
+		TileNode(final RegionRequest request, final int level, final TileNode parent) {
+			this.request = request;
+			this.level = level;
+			this.parent = parent;
+		}
+		
+	}
+
+
+	/**
+	 * Create a writer that saves each tile as a separate TIFF image within a directory,
+	 * using a subdirectory for each resolution level.
+	 *
+	 * @param dir
+	 * @return
+	 */
+	public static TileWriter createDirectoryWriter(final File dir) {
+		return (request, level, img) -> {
+			File dirLevel = new File(dir, "level_" + level);
+			if (!dirLevel.isDirectory() && !dirLevel.mkdirs() && !dirLevel.isDirectory())
+				throw new IOException("Unable to create directory " + dirLevel);
+			String name = String.format("tile_z%d_t%d_x%d_y%d.tif", request.getZ(), request.getT(), request.getX(), request.getY());
+			if (!ImageIO.write(img, "TIFF", new File(dirLevel, name)))
+				throw new IOException("No TIFF writer available for " + name);
+		};
+	}
+
+	/**
+	 * Combine several writers, so that each tile is passed to all of them in turn.
+	 *
+	 * @param writers
+	 * @return
+	 */
+	public static TileWriter combineWriters(final TileWriter... writers) {
+		return (request, level, img) -> {
+			for (TileWriter writer : writers)
+				writer.writeTile(request, level, img);
+		};
+	}
+
+
+	/**
+	 * Writer that accumulates area measurements from the full resolution tiles, without retaining the tiles themselves.
+	 * <p>
+	 * For classification output, the area of each class is accumulated.
+	 * For probability output, the area in which each channel has the maximum value is accumulated.
+	 */
+	public static class AreaMeasurementWriter implements TileWriter {
+
+		private final double pixelAreaMicrons;
+		private final long[] counts;
+
+		/**
+		 * Create a writer to measure areas for the output of a classification server.
+		 *
+		 * @param server
+		 */
+		public AreaMeasurementWriter(final PixelClassificationImageServer server) {
+			double downsample = server.getPreferredDownsamples()[0];
+			if (server.hasPixelSizeMicrons())
+				pixelAreaMicrons = server.getPixelWidthMicrons() * server.getPixelHeightMicrons() * downsample * downsample;
+			else
+				pixelAreaMicrons = downsample * downsample;
+			counts = new long[Math.max(1, server.getClassifier().getMetadata().nOutputChannels())];
+		}
+
+		@Override
+		public void writeTile(final RegionRequest request, final int level, final BufferedImage img) {
+			if (level != 0)
+				return;
+			Raster raster = img.getRaster();
+			int w = raster.getWidth();
+			int h = raster.getHeight();
+			int nBands = raster.getNumBands();
+			long[] tileCounts = new long[counts.length];
+			if (nBands == 1) {
+				int[] row = new int[w];
+				for (int y = 0; y < h; y++) {
+					raster.getSamples(0, y, w, 1, 0, row);
+					for (int v : row) {
+						if (v >= 0 && v < tileCounts.length)
+							tileCounts[v]++;
+					}
+				}
+			} else {
+				float[][] rows = new float[nBands][w];
+				for (int y = 0; y < h; y++) {
+					for (int b = 0; b < nBands; b++)
+						raster.getSamples(0, y, w, 1, b, rows[b]);
+					for (int x = 0; x < w; x++) {
+						int ind = 0;
+						float max = rows[0][x];
+						for (int b = 1; b < nBands; b++) {
+							if (rows[b][x] > max) {
+								max = rows[b][x];
+								ind = b;
+							}
+						}
+						if (ind < tileCounts.length)
+							tileCounts[ind]++;
+					}
+				}
+			}
+			synchronized (counts) {
+				for (int i = 0; i < counts.length; i++)
+					counts[i] += tileCounts[i];
+			}
+		}
+
+		/**
+		 * Get the number of pixels (at the classification resolution) assigned to each output channel.
+		 *
+		 * @return
+		 */
+		public long[] getPixelCounts() {
+			synchronized (counts) {
+				return counts.clone();
+			}
+		}
+
+		/**
+		 * Get the area assigned to each output channel, in square microns if the pixel size is known
+		 * (or in full resolution pixels otherwise).
+		 *
+		 * @return
+		 */
+		public double[] getAreas() {
+			long[] pixelCounts = getPixelCounts();
+			double[] areas = new double[pixelCounts.length];
+			for (int i = 0; i < areas.length; i++)
+				areas[i] = pixelCounts[i] * pixelAreaMicrons;
+			return areas;
+		}
+
+	}
+
+}
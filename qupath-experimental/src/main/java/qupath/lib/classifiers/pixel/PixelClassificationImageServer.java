@@ -0,0 +1,339 @@
+package qupath.lib.classifiers.pixel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.ServerTools;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * ImageServer that provides the output of a {@link PixelClassifier} applied to another server.
+ * <p>
+ * Tiles at the full resolution of the server are computed on demand at the classifier's requested pixel size,
+ * with padding taken from the surrounding image (and edge pixels replicated at the image boundary).
+ * Lower resolution levels are computed by combining &amp; downsampling the 2x2 tiles of the level below,
+ * so that the output can be treated as a pyramidal image.
+ * <p>
+ * Tiles are stored in a bounded cache, so that memory use remains limited even for whole slide images.
+ */
+public class PixelClassificationImageServer extends AbstractTileableImageServer {
+
+	private static final Logger logger = LoggerFactory.getLogger(PixelClassificationImageServer.class);
+
+	private static int DEFAULT_TILE_SIZE = 512;
+
+	private ImageServer<BufferedImage> server;
+	private PixelClassifier classifier;
+	private Map<RegionRequest, BufferedImage> cache;
+
+	private ImageServerMetadata originalMetadata;
+
+	private double[] downsamples;
+	private int tileWidth, tileHeight;
+
+	/**
+	 * Create a server to apply a classifier to all pixels of another server, using a default {@link BoundedTileCache}.
+	 *
+	 * @param server
+	 * @param classifier
+	 */
+	public PixelClassificationImageServer(final ImageServer<BufferedImage> server, final PixelClassifier classifier) {
+		this(BoundedTileCache.createDefault(), server, classifier);
+	}
+
+	/**
+	 * Create a server to apply a classifier to all pixels of another server, storing tiles in the specified cache.
+	 *
+	 * @param cache
+	 * @param server
+	 * @param classifier
+	 */
+	public PixelClassificationImageServer(final Map<RegionRequest, BufferedImage> cache, final ImageServer<BufferedImage> server, final PixelClassifier classifier) {
+		super(cache);
+		this.cache = cache;
+		this.server = server;
+		this.classifier = classifier;
+
+		PixelClassifierMetadata metadata = classifier.getMetadata();
+
+		// Determine the tile size, excluding padding
+		int padding = classifier.requestedPadding();
+		tileWidth = metadata.getInputWidth() > 0 ? metadata.getInputWidth() - padding * 2 : DEFAULT_TILE_SIZE;
+		tileHeight = metadata.getInputHeight() > 0 ? metadata.getInputHeight() - padding * 2 : DEFAULT_TILE_SIZE;
+		if (tileWidth <= 0)
+			tileWidth = DEFAULT_TILE_SIZE;
+		if (tileHeight <= 0)
+			tileHeight = DEFAULT_TILE_SIZE;
+
+		// Determine downsamples, doubling each time until a single tile covers the image
+		double downsample = getClassificationDownsample(server, classifier);
+		List<Double> downsampleList = new ArrayList<>();
+		downsampleList.add(downsample);
+		while (server.getWidth() / downsample > tileWidth || server.getHeight() / downsample > tileHeight) {
+			downsample *= 2;
+			downsampleList.add(downsample);
+		}
+		downsamples = downsampleList.stream().mapToDouble(d -> d).toArray();
+
+		boolean isClassification = metadata.getOutputType() == PixelClassifierMetadata.OutputType.Classification;
+		int nChannels = isClassification ? 1 : metadata.nOutputChannels();
+
+		originalMetadata = new ImageServerMetadata.Builder(
+				server.getPath() + "::" + classifier.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(classifier)),
+				server.getWidth(), server.getHeight()).
+				setSizeC(nChannels).
+				setSizeZ(server.nZSlices()).
+				setSizeT(server.nTimepoints()).
+				setRGB(false).
+				setBitDepth(isClassification ? 8 : 32).
+				setPreferredTileSize(tileWidth, tileHeight).
+				setPixelSizeMicrons(server.getPixelWidthMicrons(), server.getPixelHeightMicrons()).
+				setZSpacingMicrons(server.getZSpacingMicrons()).
+				setTimeUnit(server.getTimeUnit()).
+				setMagnification(server.getMagnification()).
+				setPreferredDownsamples(downsamples).
+				build();
+	}
+
+	/**
+	 * Get the downsample factor at which a classifier should be applied to an image,
+	 * based upon the classifier's requested pixel size.
+	 *
+	 * @param server
+	 * @param classifier
+	 * @return
+	 */
+	public static double getClassificationDownsample(final ImageServer<?> server, final PixelClassifier classifier) {
+		double pixelSize = classifier.getMetadata().getInputPixelSizeMicrons();
+		if (!server.hasPixelSizeMicrons() || !(pixelSize > 0))
+			return 1.0;
+		return Math.max(1.0, pixelSize / server.getAveragedPixelSizeMicrons());
+	}
+
+	/**
+	 * Get the server to which the classifier is applied.
+	 *
+	 * @return
+	 */
+	public ImageServer<BufferedImage> getWrappedServer() {
+		return server;
+	}
+
+	/**
+	 * Get the classifier.
+	 *
+	 * @return
+	 */
+	public PixelClassifier getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * Number of resolution levels.
+	 *
+	 * @return
+	 */
+	public int nLevels() {
+		return downsamples.length;
+	}
+
+	/**
+	 * Get all the tile requests needed to cover the image at a specified resolution level.
+	 * <p>
+	 * Tiles are aligned so that each tile contains exactly the region covered by (up to) 2x2 tiles of the level below.
+	 *
+	 * @param level
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	public List<RegionRequest> getTileRequests(final int level, final int z, final int t) {
+		int tileFullWidth = getTileFullWidth(level);
+		int tileFullHeight = getTileFullHeight(level);
+		List<RegionRequest> requests = new ArrayList<>();
+		for (int y = 0; y < getHeight(); y += tileFullHeight) {
+			for (int x = 0; x < getWidth(); x += tileFullWidth) {
+				requests.add(createTileRequest(level, x, y, z, t));
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Get the tile requests for the level below that are combined to create a tile request.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public List<RegionRequest> getChildTileRequests(final RegionRequest request) {
+		int level = ServerTools.getClosestDownsampleIndex(downsamples, request.getDownsample());
+		if (level == 0)
+			return new ArrayList<>();
+		int tileFullWidth = getTileFullWidth(level-1);
+		int tileFullHeight = getTileFullHeight(level-1);
+		List<RegionRequest> requests = new ArrayList<>(4);
+		for (int y = request.getY(); y < request.getY() + request.getHeight(); y += tileFullHeight) {
+			for (int x = request.getX(); x < request.getX() + request.getWidth(); x += tileFullWidth) {
+				requests.add(createTileRequest(level-1, x, y, request.getZ(), request.getT()));
+			}
+		}
+		return requests;
+	}
+
+	private RegionRequest createTileRequest(final int level, final int x, final int y, final int z, final int t) {
+		int w = Math.min(getTileFullWidth(level), getWidth() - x);
+		int h = Math.min(getTileFullHeight(level), getHeight() - y);
+		return RegionRequest.createInstance(getPath(), downsamples[level], x, y, w, h, z, t);
+	}
+
+	private int getTileFullWidth(final int level) {
+		return (int)Math.round(tileWidth * downsamples[0]) << level;
+	}
+
+	private int getTileFullHeight(final int level) {
+		return (int)Math.round(tileHeight * downsamples[0]) << level;
+	}
+
+	/**
+	 * Get a tile, using the cache if possible.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public BufferedImage getTile(final RegionRequest request) {
+		BufferedImage img = cache.get(request);
+		if (img == null) {
+			img = readTile(request);
+			cache.put(request, img);
+		}
+		return img;
+	}
+
+	@Override
+	protected BufferedImage readTile(final RegionRequest request) {
+		int level = ServerTools.getClosestDownsampleIndex(downsamples, request.getDownsample());
+		if (level == 0) {
+			// Apply the classifier
+			int padding = classifier.requestedPadding();
+			BufferedImage img = readPaddedImage(server, request, padding);
+			return classifier.applyClassification(img, padding);
+		}
+
+		// Combine the tiles from the level below
+		List<RegionRequest> childRequests = getChildTileRequests(request);
+		int tileFullWidth = getTileFullWidth(level-1);
+		int tileFullHeight = getTileFullHeight(level-1);
+		int nCols = (request.getWidth() + tileFullWidth - 1) / tileFullWidth;
+		int nRows = (request.getHeight() + tileFullHeight - 1) / tileFullHeight;
+		BufferedImage[] tiles = new BufferedImage[childRequests.size()];
+		for (int i = 0; i < tiles.length; i++)
+			tiles[i] = getTile(childRequests.get(i));
+		int width = 0;
+		for (int c = 0; c < nCols; c++)
+			width += tiles[c].getWidth();
+		int height = 0;
+		for (int r = 0; r < nRows; r++)
+			height += tiles[r * nCols].getHeight();
+		BufferedImage first = tiles[0];
+		WritableRaster raster = first.getRaster().createCompatibleWritableRaster(width, height);
+		int y = 0;
+		for (int r = 0; r < nRows; r++) {
+			int x = 0;
+			for (int c = 0; c < nCols; c++) {
+				BufferedImage tile = tiles[r * nCols + c];
+				raster.setDataElements(x, y, tile.getRaster());
+				x += tile.getWidth();
+			}
+			y += tiles[r * nCols].getHeight();
+		}
+		BufferedImage img = new BufferedImage(first.getColorModel(), raster, first.isAlphaPremultiplied(), null);
+		int targetWidth = Math.max(1, (int)Math.round(request.getWidth() / request.getDownsample()));
+		int targetHeight = Math.max(1, (int)Math.round(request.getHeight() / request.getDownsample()));
+		return resize(img, targetWidth, targetHeight, false);
+	}
+
+
+	/**
+	 * Read an image for a region request, with additional padding on all sides.
+	 * <p>
+	 * Where the padded region extends beyond the image boundary, the edge pixels are replicated so that
+	 * the returned image always has the expected size.
+	 *
+	 * @param server
+	 * @param request
+	 * @param padding padding in pixels at the resolution of the request
+	 * @return
+	 */
+	public static BufferedImage readPaddedImage(final ImageServer<BufferedImage> server, final RegionRequest request, final int padding) {
+		double downsample = request.getDownsample();
+		int targetWidth = (int)Math.round(request.getWidth() / downsample) + padding * 2;
+		int targetHeight = (int)Math.round(request.getHeight() / downsample) + padding * 2;
+
+		int paddingFull = (int)Math.round(padding * downsample);
+		int x = request.getX() - paddingFull;
+		int y = request.getY() - paddingFull;
+		int x1 = Math.max(0, x);
+		int y1 = Math.max(0, y);
+		int x2 = Math.min(server.getWidth(), request.getX() + request.getWidth() + paddingFull);
+		int y2 = Math.min(server.getHeight(), request.getY() + request.getHeight() + paddingFull);
+		BufferedImage img = server.readBufferedImage(RegionRequest.createInstance(
+				server.getPath(), downsample, x1, y1, x2 - x1, y2 - y1, request.getZ(), request.getT()));
+		if (img.getWidth() == targetWidth && img.getHeight() == targetHeight)
+			return img;
+
+		// Insert the image into a larger raster
+		int left = Math.min(targetWidth - 1, (int)Math.round((x1 - x) / downsample));
+		int top = Math.min(targetHeight - 1, (int)Math.round((y1 - y) / downsample));
+		int w = Math.min(img.getWidth(), targetWidth - left);
+		int h = Math.min(img.getHeight(), targetHeight - top);
+		WritableRaster raster = img.getRaster().createCompatibleWritableRaster(targetWidth, targetHeight);
+		raster.setDataElements(left, top, img.getRaster().createChild(0, 0, w, h, 0, 0, null));
+
+		// Replicate edge columns, then edge rows
+		Object column = null;
+		for (int xx = 0; xx < left; xx++) {
+			column = raster.getDataElements(left, top, 1, h, column);
+			raster.setDataElements(xx, top, 1, h, column);
+		}
+		for (int xx = left + w; xx < targetWidth; xx++) {
+			column = raster.getDataElements(left + w - 1, top, 1, h, column);
+			raster.setDataElements(xx, top, 1, h, column);
+		}
+		Object row = null;
+		for (int yy = 0; yy < top; yy++) {
+			row = raster.getDataElements(0, top, targetWidth, 1, row);
+			raster.setDataElements(0, yy, targetWidth, 1, row);
+		}
+		for (int yy = top + h; yy < targetHeight; yy++) {
+			row = raster.getDataElements(0, top + h - 1, targetWidth, 1, row);
+			raster.setDataElements(0, yy, targetWidth, 1, row);
+		}
+		logger.trace("Padded {} to {}x{}", request, targetWidth, targetHeight);
+		return new BufferedImage(img.getColorModel(), raster, img.isAlphaPremultiplied(), null);
+	}
+
+	@Override
+	public String getServerType() {
+		return "Pixel classification";
+	}
+
+	@Override
+	public ImageServerMetadata getOriginalMetadata() {
+		return originalMetadata;
+	}
+
+	@Override
+	public boolean usesBaseServer(ImageServer<?> server) {
+		return this == server || this.server.usesBaseServer(server);
+	}
+
+}
@@ -0,0 +1,120 @@
+package qupath.lib.classifiers.pixel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import qupath.lib.awt.color.model.ColorModelFactory;
+import qupath.lib.images.servers.ImageIoImageServer;
+import qupath.lib.regions.RegionRequest;
+
+public class TestPixelClassificationEngine {
+
+	@Test
+	public void test_parallelTiles() throws Exception {
+		// Left half of the image is 0, right half is 255
+		int width = 2048;
+		int height = 1536;
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		WritableRaster raster = img.getRaster();
+		for (int y = 0; y < height; y++) {
+			for (int x = width/2; x < width; x++)
+				raster.setSample(x, y, 0, 255);
+		}
+		ImageIoImageServer server = new ImageIoImageServer("test", "test", img);
+
+		CountingClassifier classifier = new CountingClassifier();
+		PixelClassificationEngine engine = new PixelClassificationEngine(server, classifier);
+		engine.setNumThreads(4);
+		PixelClassificationImageServer classificationServer = engine.getServer();
+		assertEquals(3, classificationServer.nLevels());
+
+		// Check each tile is written exactly once, and only after the tiles it depends upon
+		Map<RegionRequest, Integer> written = new ConcurrentHashMap<>();
+		AtomicInteger missingChildren = new AtomicInteger();
+		PixelClassificationEngine.TileWriter orderWriter = (request, level, tile) -> {
+			for (RegionRequest child : classificationServer.getChildTileRequests(request)) {
+				if (!written.containsKey(child))
+					missingChildren.incrementAndGet();
+			}
+			written.merge(request, 1, Integer::sum);
+		};
+		PixelClassificationEngine.AreaMeasurementWriter areaWriter = new PixelClassificationEngine.AreaMeasurementWriter(classificationServer);
+		engine.run(PixelClassificationEngine.combineWriters(orderWriter, areaWriter), 0, 0);
+
+		// 4x3 full resolution tiles, 2x2 at the next level & 1 at the lowest resolution
+		assertEquals(12, classifier.nCalls.get());
+		assertEquals(12 + 4 + 1, written.size());
+		for (int count : written.values())
+			assertEquals(1, count);
+		assertEquals(0, missingChildren.get());
+
+		// Full resolution tiles should have been classified in parallel
+		assertTrue(classifier.maxConcurrent.get() > 1);
+		assertTrue(classifier.maxConcurrent.get() <= 4);
+
+		assertArrayEquals(new long[] {width*height/2, width*height/2}, areaWriter.getPixelCounts());
+	}
+
+
+	/**
+	 * Classifier that assigns pixels to the second channel in proportion to their value,
+	 * while recording how many tiles are classified at the same time.
+	 */
+	static class CountingClassifier implements PixelClassifier {
+
+		private PixelClassifierMetadata metadata = new PixelClassifierMetadata.Builder()
+				.channels(new PixelClassifierOutputChannel("Background", 0xFFFFFF), new PixelClassifierOutputChannel("Foreground", 0xFF0000))
+				.build();
+		private ColorModel colorModel = ColorModelFactory.createProbabilityColorModel(32, 2, false, 0xFFFFFF, 0xFF0000);
+
+		private AtomicInteger nCalls = new AtomicInteger();
+		private AtomicInteger nActive = new AtomicInteger();
+		private AtomicInteger maxConcurrent = new AtomicInteger();
+
+		@Override
+		public BufferedImage applyClassification(BufferedImage img, int pad) {
+			nCalls.incrementAndGet();
+			int active = nActive.incrementAndGet();
+			maxConcurrent.accumulateAndGet(active, Math::max);
+			try {
+				// Give other threads the chance to start
+				Thread.sleep(50);
+				WritableRaster raster = colorModel.createCompatibleWritableRaster(img.getWidth(), img.getHeight());
+				for (int y = 0; y < img.getHeight(); y++) {
+					for (int x = 0; x < img.getWidth(); x++) {
+						float val = img.getRaster().getSample(x, y, 0) / 255f;
+						raster.setSample(x, y, 0, 1f - val);
+						raster.setSample(x, y, 1, val);
+					}
+				}
+				return new BufferedImage(colorModel, raster, false, null);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				nActive.decrementAndGet();
+			}
+		}
+
+		@Override
+		public PixelClassifierMetadata getMetadata() {
+			return metadata;
+		}
+
+		@Override
+		public int requestedPadding() {
+			return 0;
+		}
+
+	}
+
+}
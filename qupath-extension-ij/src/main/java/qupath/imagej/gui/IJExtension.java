@@ -94,6 +94,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.helpers.PathObjectColorToolsAwt;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.objects.CellExpansionPlugin;
 import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.RectangleROI;
 import qupath.lib.roi.interfaces.ROI;
@@ -514,6 +515,7 @@ public class IJExtension implements QuPathExtension {
 				qupath.createPluginAction("Cell detection", WatershedCellDetection.class, null),
 				qupath.createPluginAction("Positive cell detection", PositiveCellDetection.class, null),
 				qupath.createPluginAction("Cell + membrane detection", WatershedCellMembraneDetection.class, null),
+				qupath.createPluginAction("Expand nuclei to cells (experimental)", CellExpansionPlugin.class, null),
 //				qupath.createPluginAction("Cell + membrane detection + percentage (experimental)", WatershedCellMembraneDetectionWithBoundaries.class, null, false),
 //				new SeparatorMenuItem(),
 //				qupath.createPluginAction("Lesion detection (experimental)", LesionDetector.class, null, false),
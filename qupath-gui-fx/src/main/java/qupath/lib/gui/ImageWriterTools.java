@@ -53,6 +53,8 @@ import qupath.lib.images.servers.ImageIoImageServer;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.writers.JpegWriter;
 import qupath.lib.images.writers.PNGWriter;
+import qupath.lib.images.writers.PyramidalTiffWriter;
+import qupath.lib.images.writers.PyramidalTiffWriter.TileSource;
 import qupath.lib.io.ImageWriter;
 import qupath.lib.regions.RegionRequest;
 
@@ -75,6 +77,7 @@ public class ImageWriterTools {
 		imageWriters = new HashMap<>();
 		imageWriters.put(PNGWriter.class, new PNGWriter());
 		imageWriters.put(JpegWriter.class, new JpegWriter());
+		imageWriters.put(PyramidalTiffWriter.class, new PyramidalTiffWriter());
 //		imageWriters.put(BioformatsWriter.class, new BioformatsWriter());
 //		imageWriters.put(TIFFWriter.class, new TIFFWriter());
 		
@@ -254,24 +257,48 @@ public class ImageWriterTools {
 //		SortedMap<ImageWriter, String> compatibleWriters = getRGBWriters(ext);
 		
 		// Get the image we need
-		BufferedImage img = server.readBufferedImage(request);
-		if (img.getType() != BufferedImage.TYPE_INT_RGB && img.getType() != BufferedImage.TYPE_INT_ARGB) {
-			BufferedImage img2 = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-			Graphics2D g2d = img2.createGraphics();
-			g2d.drawImage(img, 0, 0, null);
-			g2d.dispose();
-			img = img2;
-		}
+		BufferedImage img = ensureRGB(server.readBufferedImage(request));
 		return writeImageRegionWithOverlay(img, overlayLayers, request, path);
 	}
 	
 	
+	/**
+	 * Write an image region as a pyramidal TIFF, optionally with overlays painted on top.
+	 * <p>
+	 * The region is written tile by tile, so this can be used for regions too large to fit in memory.
+	 * 
+	 * @param server
+	 * @param overlayLayers overlay layers to paint on each tile, or null if no overlay is required
+	 * @param request
+	 * @param path
+	 * @return the lowest resolution level of the pyramid
+	 * @throws IOException
+	 */
+	public static BufferedImage writePyramidalImageRegion(final ImageServer<BufferedImage> server, final List<? extends PathOverlay> overlayLayers, final RegionRequest request, final String path) throws IOException {
+		PyramidalTiffWriter writer = new PyramidalTiffWriter();
+		TileSource source = null;
+		if (overlayLayers != null && !overlayLayers.isEmpty()) {
+			source = tileRequest -> {
+				BufferedImage img = ensureRGB(server.readBufferedImage(tileRequest));
+				paintOverlays(img, overlayLayers, tileRequest);
+				return img;
+			};
+		}
+		return writer.writePyramid(server, request, source, path);
+	}
 	
-	public static BufferedImage writeImageRegionWithOverlay(final BufferedImage img, final List<? extends PathOverlay> overlayLayers, final RegionRequest request, final String path) {
-		if (img == null)
-			return null;
-//		SortedMap<ImageWriter, String> compatibleWriters = getRGBWriters(ext);
-		
+	
+	private static BufferedImage ensureRGB(final BufferedImage img) {
+		if (img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB)
+			return img;
+		BufferedImage img2 = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img2.createGraphics();
+		g2d.drawImage(img, 0, 0, null);
+		g2d.dispose();
+		return img2;
+	}
+	
+	private static void paintOverlays(final BufferedImage img, final List<? extends PathOverlay> overlayLayers, final RegionRequest request) {
 		Graphics2D g2d = img.createGraphics();
 		AffineTransform transform = AffineTransform.getScaleInstance(1./request.getDownsample(), 1./request.getDownsample());
 		transform.translate(-request.getX(), -request.getY());
@@ -280,6 +307,16 @@ public class ImageWriterTools {
 			overlay.paintOverlay(g2d, request, request.getDownsample(), null, true);
 		}
 		g2d.dispose();
+	}
+	
+	
+	
+	public static BufferedImage writeImageRegionWithOverlay(final BufferedImage img, final List<? extends PathOverlay> overlayLayers, final RegionRequest request, final String path) {
+		if (img == null)
+			return null;
+//		SortedMap<ImageWriter, String> compatibleWriters = getRGBWriters(ext);
+		
+		paintOverlays(img, overlayLayers, request);
 		
 //		ImageServer server2 = new ImageServer<BufferedImage>(server.getServerPath() + ": (" + request.getX() + ", " + request.getY() + ", " + request.getWidth() + ", " + request.getHeight() + ")", null, img);
 		try {
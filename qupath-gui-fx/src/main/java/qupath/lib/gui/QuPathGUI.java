@@ -302,6 +302,7 @@ import qupath.lib.images.stores.DefaultImageRegionStore;
 import qupath.lib.images.stores.ImageRegionStore;
 import qupath.lib.images.stores.ImageRegionStoreFactory;
 import qupath.lib.io.PathIO;
+import qupath.lib.io.TMASummaryIO;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathCellObject;
 import qupath.lib.objects.PathDetectionObject;
@@ -313,6 +314,7 @@ import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.TMAGrid;
 import qupath.lib.plugins.AbstractPluginRunner;
+import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ParameterDialogWrapper;
 import qupath.lib.plugins.PathInteractivePlugin;
 import qupath.lib.plugins.PathPlugin;
@@ -496,6 +498,8 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 		// Set the number of threads at an early stage...
 		AbstractPluginRunner.setNumThreadsRequested(PathPrefs.getNumCommandThreads());
 		PathPrefs.numCommandThreadsProperty().addListener(o -> AbstractPluginRunner.setNumThreadsRequested(PathPrefs.getNumCommandThreads()));
+		AbstractTileableDetectionPlugin.setSpillToDisk(PathPrefs.getSpillDetectionsToDisk());
+		PathPrefs.spillDetectionsToDiskProperty().addListener(o -> AbstractTileableDetectionPlugin.setSpillToDisk(PathPrefs.getSpillDetectionsToDisk()));
 		
 		// Activate the log at an early stage
 		Action actionLog = getAction(GUIActions.SHOW_LOG);
@@ -2202,7 +2206,7 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 				if (imageData.isChanged()) {
 					DialogButton response = DisplayHelpers.showYesNoCancelDialog("Save changes", "Save changes to " + entryPrevious.getImageName() + "?");
 					if (response == DialogButton.YES)
-						PathIO.writeImageData(filePrevious, imageData);
+						saveImageData(filePrevious, imageData);
 					else if (response == DialogButton.CANCEL)
 						return;
 				}
@@ -2248,6 +2252,23 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 		return new File(dirData, entry.getImageName() + "." + PathPrefs.getSerializationExtension());
 	}
 	
+	/**
+	 * Write an ImageData to a file, along with a summary of any TMA core measurements 
+	 * (which can be read much more quickly than the full data when summarizing a project).
+	 * 
+	 * @param file
+	 * @param imageData
+	 * @return true if the ImageData was written successfully, false otherwise
+	 * 
+	 * @see TMASummaryIO
+	 */
+	public static boolean saveImageData(final File file, final ImageData<?> imageData) {
+		if (!PathIO.writeImageData(file, imageData))
+			return false;
+		TMASummaryIO.writeSummary(file, imageData);
+		return true;
+	}
+	
 	
 	
 	
@@ -4766,7 +4787,7 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 						if (filePrevious == null)
 							return false;
 					}
-					PathIO.writeImageData(filePrevious, imageData);
+					saveImageData(filePrevious, imageData);
 				}
 			}
 			viewer.setImageData(null);
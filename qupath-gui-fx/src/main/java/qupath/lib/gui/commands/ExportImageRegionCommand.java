@@ -25,7 +25,13 @@ package qupath.lib.gui.commands;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
@@ -49,6 +55,7 @@ import qupath.lib.gui.commands.interfaces.PathCommand;
 import qupath.lib.gui.helpers.DisplayHelpers;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.gui.viewer.overlays.PathOverlay;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathObject;
 import qupath.lib.regions.RegionRequest;
@@ -61,6 +68,10 @@ import qupath.lib.roi.interfaces.ROI;
  *
  */
 public class ExportImageRegionCommand implements PathCommand {
+	
+	private final static Logger logger = LoggerFactory.getLogger(ExportImageRegionCommand.class);
+	
+	private static final String PYRAMIDAL_TIFF = "TIFF (pyramidal)";
 
 	private QuPathGUI qupath;
 	
@@ -91,7 +102,7 @@ public class ExportImageRegionCommand implements PathCommand {
 		GridPane pane = new GridPane();
 		pane.add(new Label("Export format"), 0, 0);
 		ComboBox<String> comboImageType = new ComboBox<>();
-		comboImageType.getItems().setAll("PNG", "JPEG");
+		comboImageType.getItems().setAll("PNG", "JPEG", PYRAMIDAL_TIFF);
 		comboImageType.setTooltip(new Tooltip("Choose export image format"));
 		comboImageType.getSelectionModel().select(selectedImageType.get());
 		comboImageType.setMaxWidth(Double.MAX_VALUE);
@@ -101,7 +112,7 @@ public class ExportImageRegionCommand implements PathCommand {
 		pane.add(new Label("Downsample factor"), 0, 1);
 		TextField tfDownsample = new TextField();
 		pane.add(tfDownsample, 1, 1);
-		tfDownsample.setTooltip(new Tooltip("Amount to scale down image - choose 1 to export at full resolution (note: for large images this may not succeed for memory reasons)"));
+		tfDownsample.setTooltip(new Tooltip("Amount to scale down image - choose 1 to export at full resolution (note: for large images this may not succeed for memory reasons, unless exporting a pyramidal TIFF)"));
 		ObservableDoubleValue downsample = Bindings.createDoubleBinding(() -> {
 			try {
 				return Double.parseDouble(tfDownsample.getText());
@@ -129,7 +140,7 @@ public class ExportImageRegionCommand implements PathCommand {
 				long w = (long)(regionWidth / downsample.get() + 0.5);
 				long h = (long)(regionHeight / downsample.get() + 0.5);
 				String warning = "";
-				if (w * h > maxPixels) {
+				if (w * h > maxPixels && !PYRAMIDAL_TIFF.equals(comboImageType.getValue())) {
 					labelSize.setTextFill(Color.RED);
 					warning = " (too big!)";
 				} else if (w < 5 || h < 5) {
@@ -141,7 +152,7 @@ public class ExportImageRegionCommand implements PathCommand {
 						w, h, warning
 						);
 			}
-		}, downsample));
+		}, downsample, comboImageType.valueProperty()));
 		GridPane.setHgrow(labelSize, Priority.ALWAYS);
 		
 		CheckBox cbIncludeOverlay = new CheckBox("Include overlay");
@@ -156,9 +167,10 @@ public class ExportImageRegionCommand implements PathCommand {
 		if (!DisplayHelpers.showConfirmDialog("Export image region", pane))
 			return;
 		
-		int w = (int)(regionWidth / downsample.get() + 0.5);
-		int h = (int)(regionHeight / downsample.get() + 0.5);
-		if (w * h > maxPixels) {
+		boolean pyramidal = PYRAMIDAL_TIFF.equals(comboImageType.getSelectionModel().getSelectedItem());
+		long w = (long)(regionWidth / downsample.get() + 0.5);
+		long h = (long)(regionHeight / downsample.get() + 0.5);
+		if (w * h > maxPixels && !pyramidal) {
 			DisplayHelpers.showErrorNotification("Export image region", "Requested export region too large - try selecting a smaller region, or applying a higher downsample factor");
 			return;
 		}
@@ -179,14 +191,31 @@ public class ExportImageRegionCommand implements PathCommand {
 			request = RegionRequest.createInstance(server.getPath(), exportDownsample.get(), roi);				
 
 		// Create a sensible default file name, and prompt for the actual name
-		String ext = "JPEG".equals(selectedImageType.get()) ? "jpg" : selectedImageType.get().toLowerCase();
+		String ext;
+		if (pyramidal)
+			ext = "tif";
+		else
+			ext = "JPEG".equals(selectedImageType.get()) ? "jpg" : selectedImageType.get().toLowerCase();
 		String defaultName = roi == null ? server.getShortServerName() : 
 			String.format("%s (%s, %d, %d, %d, %d)", server.getShortServerName(), GeneralTools.formatNumber(request.getDownsample(), 2), request.getX(), request.getY(), request.getWidth(), request.getHeight());
 		File fileOutput = qupath.getDialogHelper().promptToSaveFile("Export image region", null, defaultName, selectedImageType.get(), ext);
 		if (fileOutput == null)
 			return;
 		
-		if (includeOverlay.get())
+		if (pyramidal) {
+			// Write tile by tile in the background, since this may take a long time
+			RegionRequest requestPyramid = request;
+			List<? extends PathOverlay> overlayLayers = includeOverlay.get() ? new ArrayList<>(viewer.getOverlayLayers()) : null;
+			qupath.createSingleThreadExecutor(this).submit(() -> {
+				try {
+					ImageWriterTools.writePyramidalImageRegion(server, overlayLayers, requestPyramid, fileOutput.getAbsolutePath());
+					Platform.runLater(() -> DisplayHelpers.showInfoNotification("Export image region", "Written " + fileOutput.getName()));
+				} catch (Exception e) {
+					logger.error("Error writing " + fileOutput, e);
+					DisplayHelpers.showErrorNotification("Export image region", e);
+				}
+			});
+		} else if (includeOverlay.get())
 			ImageWriterTools.writeImageRegionWithOverlay(viewer, request, fileOutput.getAbsolutePath());
 		else
 			ImageWriterTools.writeImageRegion(server, request, fileOutput.getAbsolutePath());
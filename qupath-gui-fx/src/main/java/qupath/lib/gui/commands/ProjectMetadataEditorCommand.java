@@ -197,11 +197,13 @@ public class ProjectMetadataEditorCommand implements PathCommand {
 		Optional<ButtonType> result = dialog.showAndWait();
 		if (result.isPresent() && result.get().getButtonData() == ButtonData.OK_DONE) {
 			// Make the changes
+			List<ProjectImageEntry<?>> changed = new ArrayList<>();
 			for (ImageEntryWrapper wrapper : entries) {
-				wrapper.commitChanges();
+				if (wrapper.commitChanges())
+					changed.add(wrapper.entry);
 			}
-			// Write the project
-			ProjectIO.writeProject(project);
+			// Write the changed entries
+			ProjectIO.writeProjectEntries(project, changed);
 			logger.info("Committing project metadata changes");
 		}
 		
@@ -359,14 +361,17 @@ public class ProjectMetadataEditorCommand implements PathCommand {
 		
 		/**
 		 * Update the underlying ProjectImageEntry to have the same metadata map.
+		 * 
+		 * @return true if the metadata of the entry was changed, false otherwise
 		 */
-		public void commitChanges() {
+		public boolean commitChanges() {
 			if (metadataMap.equals(entry.getMetadataMap()))
-				return;
+				return false;
 			entry.clearMetadata();
 			for (Entry<String, String> mapEntry : metadataMap.entrySet()) {
 				entry.putMetadataValue(mapEntry.getKey(), mapEntry.getValue());
 			}
+			return true;
 		}
 		
 		public ObservableStringValue getProperty(final String columnName) {
@@ -32,7 +32,6 @@ import qupath.lib.gui.helpers.DisplayHelpers;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
-import qupath.lib.io.PathIO;
 
 /**
  * Command to save the current ImageData.
@@ -79,7 +78,7 @@ public class SerializeImageDataCommand implements PathCommand {
 			if (file == null)
 				return;
 			
-			PathIO.writeImageData(file, imageData);
+			QuPathGUI.saveImageData(file, imageData);
 		}
 		
 		
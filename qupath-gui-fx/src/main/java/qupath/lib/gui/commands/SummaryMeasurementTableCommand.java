@@ -26,8 +26,7 @@ package qupath.lib.gui.commands;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -88,6 +87,7 @@ import qupath.lib.gui.models.HistogramDisplay;
 import qupath.lib.gui.models.ObservableMeasurementTableData;
 import qupath.lib.gui.models.PathTableData;
 import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.io.MeasurementTableExporter;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.gui.viewer.QuPathViewerListener;
 import qupath.lib.images.ImageData;
@@ -239,12 +239,12 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 			// Add column
 			if (model.isStringMeasurement(columnName)) {
 				TableColumn<PathObject, String> col = new TableColumn<>(columnName);
-				col.setCellValueFactory(column -> model.createStringMeasurement(column.getValue(), column.getTableColumn().getText()));
+				col.setCellValueFactory(column -> model.getStringCellValue(column.getValue(), column.getTableColumn().getText()));
 				col.setCellFactory(column -> new BasicTableCell<>());
 				table.getColumns().add(col);			
 			} else {
 				TableColumn<PathObject, Number> col = new TableColumn<>(columnName);
-				col.setCellValueFactory(column -> model.createNumericMeasurement(column.getValue(), column.getTableColumn().getText()));
+				col.setCellValueFactory(column -> model.getNumericCellValue(column.getValue(), column.getTableColumn().getText()));
 				col.setCellFactory(column -> new NumericTableCell<PathObject>(histogramDisplay));
 				table.getColumns().add(col);			
 			}
@@ -411,12 +411,13 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 		QuPathViewer viewer = qupath.getViewer();
 		TableViewerListener tableViewerListener = new TableViewerListener(viewer, table);
 
+		// Refreshing the table is expensive, so use coalesced events to avoid repeating it for every change
 		frame.setOnShowing(e -> {
-			hierarchy.addPathObjectListener(listener);
+			hierarchy.addAsyncPathObjectListener(listener, null);
 			viewer.addViewerListener(tableViewerListener);
 		});
 		frame.setOnHiding(e -> {
-			hierarchy.removePathObjectListener(listener);
+			hierarchy.removeAsyncPathObjectListener(listener);
 			viewer.removeViewerListener(tableViewerListener);
 		});
 
@@ -767,12 +768,13 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 				return false;
 		}
 		try {
-			PrintWriter writer = new PrintWriter(fileOutput);
-			writer.println(getTableModelString(tableModel, PathPrefs.getTableDelimiter(), excludeColumns));
-			writer.close();
+			if (fileOutput.getName().toLowerCase().endsWith(MeasurementTableExporter.BINARY_EXTENSION))
+				MeasurementTableExporter.writeBinary(tableModel, excludeColumns, fileOutput);
+			else
+				MeasurementTableExporter.writeDelimited(tableModel, excludeColumns, PathPrefs.getTableDelimiter(), fileOutput);
 			return true;
-		} catch (FileNotFoundException e) {
-			logger.error("File {} not found!", fileOutput);
+		} catch (IOException e) {
+			logger.error("Error writing " + fileOutput, e);
 		}
 		return false;
 	}
@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -35,7 +36,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,10 +49,13 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.binding.DoubleBinding;
 import javafx.beans.binding.IntegerBinding;
 import javafx.beans.binding.StringBinding;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.beans.property.ReadOnlyListWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.beans.value.ObservableDoubleValue;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import qupath.lib.classifiers.PathClassificationLabellingHelper;
@@ -97,6 +104,26 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 	private DerivedMeasurementManager manager;
 	private Map<String, MeasurementBuilder<?>> builderMap = new LinkedHashMap<>();
 	
+	// Numeric values for each column, computed lazily for all entries in the backing list
+	private Map<String, double[]> columnCache = new ConcurrentHashMap<>();
+	// Incremented whenever cached columns become invalid, so that columns computed in the meantime aren't cached
+	private final AtomicLong modCount = new AtomicLong();
+	// Index of each entry within the backing list
+	private volatile Map<PathObject, Integer> indexMap;
+	
+	/**
+	 * Minimum number of entries for which numeric columns are computed in parallel.
+	 */
+	private static int MIN_PARALLEL_ENTRIES = 10000;
+	
+	
+	public ObservableMeasurementTableData() {
+		list.addListener((ListChangeListener.Change<? extends PathObject> c) -> {
+			indexMap = null;
+			clearColumnCache();
+		});
+	}
+	
 	
 	public void setImageData(final ImageData<?> imageData, final Collection<? extends PathObject> pathObjects) {
 		this.imageData = imageData;
@@ -115,6 +142,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 //		PathPrefs.setAllredMinPercentagePositive(0);
 		
 		builderMap.clear();
+		clearColumnCache();
 		
 		// Include the object displayed name
 		builderMap.put("Name", new ObjectNameMeasurementBuilder());
@@ -272,9 +300,97 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 	
 	
 	public void refreshEntries() {
-		// Clear the cached map to force updates
+		// Clear the cached map & columns to force updates
 		if (manager != null)
 			manager.map.clear();
+		clearColumnCache();
+	}
+	
+	private void clearColumnCache() {
+		modCount.incrementAndGet();
+		columnCache.clear();
+	}
+	
+	
+	/**
+	 * Get an observable value for a numeric table cell.
+	 * <p>
+	 * Unlike {@link #createNumericMeasurement(PathObject, String)}, this does not create a binding - but rather 
+	 * returns a (cached) value that is updated only when {@link #refreshEntries()} is called.
+	 * This makes it much more efficient for large tables, particularly when sorting.
+	 * Since a table will request values for many entries, the whole column is computed and cached.
+	 * 
+	 * @param pathObject
+	 * @param column
+	 * @return
+	 */
+	public ObservableValue<Number> getNumericCellValue(final PathObject pathObject, final String column) {
+		int ind = getIndex(pathObject);
+		if (ind >= 0) {
+			double[] values = getColumnValues(column);
+			if (ind < values.length)
+				return new ReadOnlyDoubleWrapper(values[ind]);
+		}
+		return new ReadOnlyDoubleWrapper(computeNumericValue(pathObject, column));
+	}
+	
+	/**
+	 * Get an observable value for a String table cell.
+	 * <p>
+	 * Unlike {@link #createStringMeasurement(PathObject, String)}, this does not create a binding, and so the value 
+	 * is not updated automatically.
+	 * 
+	 * @param pathObject
+	 * @param column
+	 * @return
+	 */
+	public ObservableValue<String> getStringCellValue(final PathObject pathObject, final String column) {
+		return new ReadOnlyStringWrapper(getStringValue(pathObject, column));
+	}
+	
+	/**
+	 * Get the numeric values of a column for all entries in the backing list (ignoring any predicate), 
+	 * in the same order as {@link #getBackingListEntries()}.
+	 * <p>
+	 * Values are computed when first requested, and cached until {@link #refreshEntries()} is called or the entries change.
+	 * The array is returned directly, and must not be modified.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public double[] getColumnValues(final String column) {
+		double[] values = columnCache.get(column);
+		if (values == null) {
+			long count = modCount.get();
+			List<PathObject> entries = new ArrayList<>(list);
+			double[] computed = new double[entries.size()];
+			IntStream range = IntStream.range(0, computed.length);
+			if (computed.length >= MIN_PARALLEL_ENTRIES)
+				range = range.parallel();
+			range.forEach(i -> computed[i] = computeNumericValue(entries.get(i), column));
+			values = computed;
+			// Only cache the values if the entries haven't changed in the meantime - 
+			// checking again after caching, in case they changed while the values were being added
+			if (modCount.get() == count) {
+				columnCache.put(column, values);
+				if (modCount.get() != count)
+					columnCache.remove(column, values);
+			}
+		}
+		return values;
+	}
+	
+	private int getIndex(final PathObject pathObject) {
+		Map<PathObject, Integer> map = indexMap;
+		if (map == null) {
+			map = new IdentityHashMap<>(list.size());
+			int i = 0;
+			for (PathObject temp : list)
+				map.put(temp, i++);
+			indexMap = map;
+		}
+		Integer ind = map.get(pathObject);
+		return ind == null ? -1 : ind.intValue();
 	}
 	
 	
@@ -301,6 +417,16 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 	public boolean isStringMeasurement(final String name) {
 		return builderMap.get(name) instanceof StringMeasurementBuilder;
 	}
+
+	/**
+	 * Returns true if the values for a column are computed by the table, rather than read from the measurement list of each object.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean isDerivedMeasurement(final String name) {
+		return builderMap.containsKey(name);
+	}
 	
 	public boolean isNumericMeasurement(final String name) {
 		return !isStringMeasurement(name);
@@ -314,20 +440,28 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 	
 	@Override
 	public double[] getDoubleValues(final String column) {
+		double[] allValues = getColumnValues(column);
+		if (filterList.size() == allValues.length && filterList.getPredicate() == null)
+			return allValues.clone();
 		double[] values = new double[filterList.size()];
-		if (builderMap.containsKey(column)) {
-			for (int i = 0; i < filterList.size(); i++)
-				values[i] = getNumericValue(filterList.get(i), column);
-			return values;
-		}
-		// Good news! We just need a regular measurement
-		for (int i = 0; i < filterList.size(); i++)
-			values[i] = filterList.get(i).getMeasurementList().getMeasurementValue(column);
+		for (int i = 0; i < values.length; i++)
+			values[i] = allValues[filterList.getSourceIndex(i)];
 		return values;
 	}
 	
 	@Override
 	public double getNumericValue(final PathObject pathObject, final String column) {
+		// Use the column if it has already been computed, but don't compute all values if only one is needed
+		double[] values = columnCache.get(column);
+		if (values != null) {
+			int ind = getIndex(pathObject);
+			if (ind >= 0 && ind < values.length)
+				return values[ind];
+		}
+		return computeNumericValue(pathObject, column);
+	}
+	
+	private double computeNumericValue(final PathObject pathObject, final String column) {
 		if (builderMap.containsKey(column)) {
 			// Don't derive a measurement for a core marked as missing
 			if (pathObject instanceof TMACoreObject && ((TMACoreObject)pathObject).isMissing())
@@ -455,7 +589,8 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 		private List<MeasurementBuilder<?>> builders = new ArrayList<>();
 		
 		// Map to store cached counts, will be reset when the hierarchy changes (in any way)
-		private Map<PathObject, DetectionPathClassCounts> map = new WeakHashMap<>();
+		// Synchronized since measurements may be requested from multiple threads during export
+		private Map<PathObject, DetectionPathClassCounts> map = Collections.synchronizedMap(new WeakHashMap<>());
 		
 		private boolean containsAnnotations;
 		
@@ -1173,19 +1308,33 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 				return "NaN";
 			if (decimalPlaces == 0)
 				return Integer.toString((int)(val + 0.5));
-			int dp = decimalPlaces;
+			return GeneralTools.formatNumber(val, getDecimalPlaces(val, decimalPlaces));
+		}
+		
+		/**
+		 * Append the value to a StringBuilder, giving the same output as getStringValue.
+		 */
+		public StringBuilder appendValue(final StringBuilder sb, final PathObject pathObject, final int decimalPlaces, final char decimalSeparator) {
+			double val = computeValue(pathObject);
+			if (Double.isNaN(val))
+				return sb.append("NaN");
+			if (decimalPlaces == 0)
+				return sb.append((int)(val + 0.5));
+			return GeneralTools.appendNumber(sb, val, getDecimalPlaces(val, decimalPlaces), decimalSeparator);
+		}
+		
+		private static int getDecimalPlaces(final double val, final int decimalPlaces) {
 			// Format in some sensible way
-			if (decimalPlaces < 0) {
-				if (val > 1000)
-					dp = 1;
-				else if (val > 10)
-					dp = 2;
-				else if (val > 1)
-					dp = 3;
-				else
-					dp = 4;
-			}
-			return GeneralTools.formatNumber(val, dp);
+			if (decimalPlaces >= 0)
+				return decimalPlaces;
+			if (val > 1000)
+				return 1;
+			else if (val > 10)
+				return 2;
+			else if (val > 1)
+				return 3;
+			else
+				return 4;
 		}
 		
 	}
@@ -1561,6 +1710,35 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 		return GeneralTools.formatNumber(val, 4);
 	}
 
+	/**
+	 * Append the value of a column for an object to a StringBuilder.
+	 * <p>
+	 * This gives the same output as {@link #getStringValue(PathObject, String)}, using the specified decimal separator,
+	 * but avoids creating intermediate Strings and synchronizing on a shared formatter for numeric values.
+	 * It is therefore suitable for exporting large numbers of values from multiple threads, provided the objects are not modified.
+	 * 
+	 * @param sb
+	 * @param pathObject
+	 * @param column
+	 * @param decimalSeparator
+	 * @return the StringBuilder provided as input
+	 */
+	public StringBuilder appendValue(final StringBuilder sb, final PathObject pathObject, final String column, final char decimalSeparator) {
+		MeasurementBuilder<?> builder = builderMap.get(column);
+		if (builder instanceof StringMeasurementBuilder) {
+			String val = ((StringMeasurementBuilder)builder).getMeasurementValue(pathObject);
+			return val == null ? sb : sb.append(val);
+		}
+		else if (builder instanceof NumericMeasurementBuilder)
+			return ((NumericMeasurementBuilder)builder).appendValue(sb, pathObject, -1, decimalSeparator);
+		if (pathObject == null)
+			return sb;
+		double val = pathObject.getMeasurementList().getMeasurementValue(column);
+		if (Double.isNaN(val))
+			return sb.append("NaN");
+		return GeneralTools.appendNumber(sb, val, 4, decimalSeparator);
+	}
+	
 	public ReadOnlyListWrapper<String> getMetadataNames() {
 		return new ReadOnlyListWrapper<>(metadataList);
 	}	
@@ -28,6 +28,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -83,6 +84,7 @@ import qupath.lib.objects.classes.PathClassFactory;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectSelectionListener;
 import qupath.lib.projects.Project;
@@ -671,14 +673,15 @@ public class PathAnnotationPanel implements PathObjectSelectionListener, ImageDa
 
 		// Deal with listeners for the current ImageData
 		if (this.hierarchy != null) {
-			hierarchy.removePathObjectListener(this);
+			hierarchy.removeAsyncPathObjectListener(this);
 			hierarchy.getSelectionModel().removePathObjectSelectionListener(this);
 		}
 		this.imageData = imageData;
 		if (this.imageData != null) {
 			hierarchy = imageData.getHierarchy();
 			hierarchy.getSelectionModel().addPathObjectSelectionListener(this);
-			hierarchy.addPathObjectListener(this);
+			// Measurement changes don't alter the list, and can be very frequent when detections are being computed
+			hierarchy.addAsyncPathObjectListener(this, EnumSet.complementOf(EnumSet.of(HierarchyEventType.CHANGE_MEASUREMENTS)));
 			PathObject selected = hierarchy.getSelectionModel().getSelectedObject();
 			listAnnotations.getItems().setAll(hierarchy.getObjects(null, PathAnnotationObject.class));
 			hierarchy.getSelectionModel().setSelectedObject(selected);
@@ -121,6 +121,12 @@ public class PreferencePanel {
 						+ "\nIf outside this range, it will default to the available processors (here, " + Runtime.getRuntime().availableProcessors() + ")"
 						+ "\nIt's usually fine to use the default, but it may help to decrease it if you encounter out-of-memory errors.");
 
+		addPropertyPreference(PathPrefs.spillDetectionsToDiskProperty(), Boolean.class,
+				"Store detections on disk while running",
+				category,
+				"Temporarily write the detections for completed tiles to disk during large (tiled) detection runs, e.g. cell detection."
+						+ "\nThis reduces memory use while detection is running (but not once it is complete), and detections from completed tiles will be lost if the command is cancelled.");
+
 		addPropertyPreference(PathPrefs.autoEstimateImageTypeProperty(), Boolean.class,
 				"Auto-estimate image type on opening",
 				category,
@@ -43,11 +43,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
 import java.util.TreeMap;
 
-import javax.imageio.ImageIO;
-
 import org.controlsfx.control.MasterDetailPane;
 import org.controlsfx.control.action.Action;
 import org.controlsfx.control.action.ActionUtils;
@@ -57,7 +54,6 @@ import org.slf4j.LoggerFactory;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Insets;
 import javafx.geometry.Side;
 import javafx.scene.canvas.Canvas;
@@ -96,9 +92,11 @@ import qupath.lib.gui.helpers.PanelToolsFX;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.io.ThumbnailCache;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
 import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.regions.RegionRequest;
 
 /**
  * Component for previewing and selecting images within a project.
@@ -124,8 +122,9 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 	private ProjectImageTreeModel model = new ProjectImageTreeModel(null);
 	private TreeView<Object> tree = new TreeView<>();
 
-	// Keep a record of servers we've requested - don't want to keep putting in requests if the server is unavailable
-	private Set<String> serversRequested = new HashSet<>();
+	// Service providing thumbnails for the current project, created when first needed
+	private ProjectThumbnailService thumbnailService;
+	private Project<?> thumbnailProject;
 	
 	private StringProperty descriptionText = new SimpleStringProperty();
 
@@ -210,6 +209,7 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 					logger.info("Removing entry {} from project {}", path.getValue(), project);
 					project.removeImage(entry);
 					model.rebuildModel();
+					ProjectIO.writeProjectEntriesRemoved(project, Collections.singletonList(entry));
 				}
 			} else {
 				Collection<ProjectImageEntry<BufferedImage>> entries = getImageEntries(path, null);
@@ -218,9 +218,9 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 					logger.info("Removing {} entries from project {}", entries.size(), project);
 					project.removeAllImages(entries);
 					model.rebuildModel();
+					ProjectIO.writeProjectEntriesRemoved(project, entries);
 				}
 			}
-			ProjectIO.writeProject(project);
 			if (tree != null) {
 				boolean isExpanded = tree.getRoot() != null && tree.getRoot().isExpanded();
 				tree.setRoot(model.getRootFX());
@@ -249,11 +249,13 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 					logger.warn("Cannot refresh entry for image that is not open!");
 					return;
 				}
-				File fileThumbnail = getThumbnailFile(getProject(), entry);
+				ProjectThumbnailService service = getThumbnailService();
+				if (service == null)
+					return;
 				BufferedImage imgThumbnail = qupath.getViewer().getRGBThumbnail();
 				imgThumbnail = resizeForThumbnail(imgThumbnail);
 				try {
-					ImageIO.write(imgThumbnail, THUMBNAIL_EXT, fileThumbnail);
+					service.setThumbnail(entry.getServerPath(), imgThumbnail);
 				} catch (IOException e1) {
 					logger.error("Error writing thumbnail", e1);
 				}
@@ -268,7 +270,7 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 			if (project != null && entry != null) {
 				if (showDescriptionEditor(entry)) {
 					descriptionText.set(entry.getDescription());
-					ProjectIO.writeProject(project);						
+					ProjectIO.writeProjectEntries(project, Collections.singletonList(entry));
 				}
 			} else {
 				DisplayHelpers.showErrorMessage("Edit image description", "No entry is selected!");
@@ -330,7 +332,7 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 						logger.warn("Attempted to set metadata value for {}, but key was empty!", entry.getImageName());
 					} else {
 						entry.putMetadataValue(key, value);
-						ProjectIO.writeProject(project);
+						ProjectIO.writeProjectEntries(project, Collections.singletonList(entry));
 					}
 				}
 							
@@ -467,6 +469,11 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 		if (this.project == project)
 			return;
 		this.project = project;
+		if (thumbnailService != null) {
+			thumbnailService.close();
+			thumbnailService = null;
+		}
+		thumbnailProject = null;
 		model = new ProjectImageTreeModel(project);
 		tree.setRoot(model.getRootFX());
 		tree.getRoot().setExpanded(true);
@@ -536,18 +543,43 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 	
 	
 	
-	Image requestThumbnail(final String serverPath, final File fileThumbnail) throws IOException {
-//		serversRequested.clear();
-		
-		// Check if we've already asked for this server... if so, stop
-		if (serversRequested.contains(serverPath))
+	/**
+	 * Get the service providing thumbnails for the current project, creating it if necessary.
+	 * 
+	 * @return the thumbnail service, or null if thumbnails are not available (e.g. there is no project)
+	 */
+	ProjectThumbnailService getThumbnailService() {
+		if (thumbnailProject == project)
+			return thumbnailService;
+		if (thumbnailService != null)
+			thumbnailService.close();
+		thumbnailService = null;
+		thumbnailProject = project;
+		File dirThumbnails = getThumbnailDirectory(project);
+		if (dirThumbnails == null)
 			return null;
-		// Put in the request now
-		serversRequested.add(serverPath);
-		// Check if it exists
-		if (fileThumbnail.exists())
-			return SwingFXUtils.toFXImage(ImageIO.read(fileThumbnail), null);
-		// Try to load the server
+		try {
+			ThumbnailCache cache = ThumbnailCache.open(new File(dirThumbnails, "thumbnails" + ThumbnailCache.THUMBNAIL_CACHE_EXTENSION));
+			thumbnailService = new ProjectThumbnailService(cache, dirThumbnails, THUMBNAIL_EXT, this::createThumbnail, () -> tree.refresh());
+		} catch (IOException e) {
+			logger.error("Unable to open thumbnail cache", e);
+		}
+		return thumbnailService;
+	}
+	
+	
+	/**
+	 * Create a thumbnail for an image.
+	 * <p>
+	 * The image is requested in a single region at the thumbnail resolution, so that only the lowest-resolution 
+	 * pyramid level needed is read - and the viewer's own thumbnail cache isn't filled with images that aren't open.
+	 * 
+	 * @param serverPath
+	 * @return
+	 * @throws IOException
+	 */
+	BufferedImage createThumbnail(final String serverPath) throws IOException {
+		// Try to use the server that is already open
 		ImageData<BufferedImage> imageData = getCurrentImageData();
 		ImageServer<BufferedImage> server = null;
 		boolean newServer = false;
@@ -557,28 +589,27 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 			server = ImageServerProvider.buildServer(serverPath, BufferedImage.class);
 			newServer = true;
 		}
-		BufferedImage img2 = QuPathGUI.getInstance().getImageRegionStore().getThumbnail(server, server.nZSlices()/2, 0, true);
-		if (newServer)
-			server.close();
-		if (img2 != null) {
-			// Try to write RGB images directly
-			boolean success = false;
-			if (server.isRGB() || img2.getType() == BufferedImage.TYPE_BYTE_GRAY) {
-				img2 = resizeForThumbnail(img2);
-				success = ImageIO.write(img2, THUMBNAIL_EXT, fileThumbnail);
-			}
-			if (!success) {
-				// Try with display transforms
+		if (server == null)
+			return null;
+		try {
+			double downsample = Math.max(1, Math.max((double)server.getWidth() / thumbnailWidth, (double)server.getHeight() / thumbnailHeight));
+			RegionRequest request = RegionRequest.createInstance(server.getPath(), downsample, 0, 0, server.getWidth(), server.getHeight(), server.nZSlices()/2, 0);
+			BufferedImage img = server.readBufferedImage(request);
+			if (img == null)
+				return null;
+			// Apply display transforms if we can't use the image directly
+			if (!server.isRGB() && img.getType() != BufferedImage.TYPE_BYTE_GRAY) {
 				ImageDisplay imageDisplay = new ImageDisplay(new ImageData<>(server), qupath.getImageRegionStore(), false);
 				for (ChannelDisplayInfo info : imageDisplay.getSelectedChannels()) {
 					imageDisplay.autoSetDisplayRange(info);
 				}
-				img2 = imageDisplay.applyTransforms(img2, null);
-				img2 = resizeForThumbnail(img2);
-				ImageIO.write(img2, THUMBNAIL_EXT, fileThumbnail);
+				img = imageDisplay.applyTransforms(img, null);
 			}
+			return resizeForThumbnail(img);
+		} finally {
+			if (newServer)
+				server.close();
 		}
-		return SwingFXUtils.toFXImage(img2, null);
 	}
 
 	
@@ -604,27 +635,6 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 	
 
 
-	void requestThumbnailInBackground(final String serverPath, final File fileThumbnail) {
-		// Don't do anything if already requested
-		if (serversRequested.contains(serverPath))
-			return;
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Image image = requestThumbnail(serverPath, fileThumbnail);
-					if (image != null)
-						Platform.runLater(() -> tree.refresh());
-				} catch (IOException e) {
-					logger.error("Problem loading thumbnail for {}", serverPath, e);
-				}
-			}
-		};
-		qupath.submitShortTask(r);
-	}
-
-
-
 	//	@Override
 	//	public void valueChanged(ListSelectionEvent e) {
 	//		updateThumbnailForSelected();
@@ -678,8 +688,8 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 	}
 
 
-	static File getThumbnailFile(final Project<?> project, final ProjectImageEntry<?> entry) {
-		if (project == null || entry == null)
+	static File getThumbnailDirectory(final Project<?> project) {
+		if (project == null)
 			return null;
 		File dirBase = project.getBaseDirectory();
 		if (dirBase == null || !dirBase.isDirectory())
@@ -688,7 +698,7 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 		File dirData = new File(dirBase, "thumbnails");
 		if (!dirData.exists())
 			dirData.mkdir();
-		return new File(dirData, entry.getImageName() + "." + THUMBNAIL_EXT);
+		return dirData;
 	}
 
 
@@ -843,7 +853,8 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 		}
 		
 		// Ensure the project is updated
-		ProjectIO.writeProject(project);
+		ProjectIO.writeProjectEntriesRemoved(project, Collections.singletonList(entry));
+		ProjectIO.writeProjectEntries(project, Collections.singletonList(entryNew));
 		
 		return entryNew;
 	}
@@ -1103,14 +1114,10 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 				tooltip.setText(sb.toString());
 				//	        	 Tooltip tooltip = new Tooltip(sb.toString());
 
-				File fileThumbnail = getThumbnailFile(getProject(), entry);
-				if (fileThumbnail == null) {
-					setGraphic(null);
-					return;
-				}
-				
-				if (fileThumbnail.exists()) {
-					Image image = new Image(fileThumbnail.toURI().toString(), false);
+				// Request the thumbnail - if it isn't available yet, the tree will be refreshed when it is
+				ProjectThumbnailService service = getThumbnailService();
+				Image image = service == null ? null : service.getThumbnail(entry.getServerPath(), entry.getImageName());
+				if (image != null) {
 					viewTooltip.setImage(image);
 					tooltip.setGraphic(viewTooltip);
 					PaintingToolsFX.paintImage(viewCanvas, image);
@@ -1118,9 +1125,6 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
 						setGraphic(label);
 				} else {
 					setGraphic(null);
-					// Put in a request for the thumbnail on a background thread
-					requestThumbnailInBackground(entry.getServerPath(), fileThumbnail);
-//					requestThumbnailInBackground(entry.getServerPath(), fileThumbnail, viewGraphic, viewTooltip);
 				}
 				
 			}
@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.panels;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.io.ThumbnailCache;
+
+/**
+ * Background service to provide thumbnails for the images in a project.
+ * <p>
+ * Thumbnails are stored in a single {@link ThumbnailCache} file.  Missing thumbnails are read from older 
+ * per-image thumbnail files if available, or otherwise created by a {@link ThumbnailCreator} using a small pool 
+ * of worker threads.
+ * <p>
+ * Requests are prioritized so that the most recently requested thumbnail is handled first: since tree cells 
+ * request thumbnails as they are shown, this means that visible images are handled before those that have 
+ * been scrolled out of view.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class ProjectThumbnailService {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ProjectThumbnailService.class);
+	
+	// Maximum number of pixels in decoded thumbnails to keep in memory
+	private final static long MAX_CACHED_PIXELS = 32L * 1024L * 1024L;
+	
+	/**
+	 * Create a thumbnail for an image.
+	 */
+	static interface ThumbnailCreator {
+		
+		/**
+		 * Create a thumbnail for the image with the specified server path.
+		 * 
+		 * @param serverPath
+		 * @return
+		 * @throws IOException
+		 */
+		public BufferedImage createThumbnail(String serverPath) throws IOException;
+		
+	}
+	
+	private final ThumbnailCache cache;
+	private final File dirLegacy;
+	private final String legacyExtension;
+	private final ThumbnailCreator creator;
+	private final Runnable onUpdate;
+	
+	private final ThreadPoolExecutor pool;
+	private final AtomicLong requestCounter = new AtomicLong();
+	private final Map<String, ThumbnailRequest> pending = new ConcurrentHashMap<>();
+	private final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final AtomicBoolean updatePending = new AtomicBoolean(false);
+	private volatile boolean closed = false;
+	
+	private final Map<String, Image> images = new LinkedHashMap<>(64, 0.75f, true);
+	private long nCachedPixels = 0;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param cache store for thumbnails
+	 * @param dirLegacy directory containing (older) thumbnails written as individual files; may be null
+	 * @param legacyExtension extension of the older thumbnail files, which are named according to the image name
+	 * @param creator function to create thumbnails that are not already available
+	 * @param onUpdate called on the JavaFX Application Thread whenever new thumbnails are available
+	 */
+	ProjectThumbnailService(final ThumbnailCache cache, final File dirLegacy, final String legacyExtension, final ThumbnailCreator creator, final Runnable onUpdate) {
+		this.cache = cache;
+		this.dirLegacy = dirLegacy;
+		this.legacyExtension = legacyExtension;
+		this.creator = creator;
+		this.onUpdate = onUpdate;
+		int nThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+		pool = new ThreadPoolExecutor(nThreads, nThreads, 30L, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new SimpleThreadFactory("project-thumbnails-", true));
+		pool.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Get the thumbnail for an image if it is already available in memory, or request it in the background otherwise.
+	 * 
+	 * @param serverPath path of the image server, used as the key for the thumbnail
+	 * @param imageName name of the image, used to find any older thumbnail file
+	 * @return the thumbnail, or null if it is not yet available
+	 */
+	public Image getThumbnail(final String serverPath, final String imageName) {
+		synchronized (images) {
+			Image image = images.get(serverPath);
+			if (image != null)
+				return image;
+		}
+		if (closed || failed.contains(serverPath))
+			return null;
+		
+		// Resubmit any existing request with a higher priority
+		long priority = requestCounter.incrementAndGet();
+		ThumbnailRequest request = pending.get(serverPath);
+		if (request != null) {
+			if (pool.remove(request)) {
+				request.priority = priority;
+				pool.execute(request);
+			}
+			return null;
+		}
+		request = new ThumbnailRequest(serverPath, imageName, priority);
+		if (pending.putIfAbsent(serverPath, request) == null)
+			pool.execute(request);
+		return null;
+	}
+	
+	/**
+	 * Set the thumbnail for an image, replacing any existing thumbnail.
+	 * 
+	 * @param serverPath
+	 * @param img
+	 * @throws IOException
+	 */
+	public void setThumbnail(final String serverPath, final BufferedImage img) throws IOException {
+		cache.put(serverPath, img);
+		failed.remove(serverPath);
+		putImage(serverPath, SwingFXUtils.toFXImage(img, null));
+	}
+	
+	/**
+	 * Stop processing requests &amp; close the thumbnail cache.
+	 * <p>
+	 * Any requests currently being processed are allowed to finish, but are not interrupted (since interrupting 
+	 * a thread would also close the cache file).
+	 */
+	public void close() {
+		closed = true;
+		pool.getQueue().clear();
+		pool.shutdown();
+		pending.clear();
+		try {
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for thumbnail requests to finish");
+		}
+		try {
+			cache.close();
+		} catch (IOException e) {
+			logger.warn("Error closing thumbnail cache: {}", e.getLocalizedMessage());
+		}
+		synchronized (images) {
+			images.clear();
+			nCachedPixels = 0;
+		}
+	}
+	
+	
+	private void putImage(final String key, final Image image) {
+		synchronized (images) {
+			Image previous = images.put(key, image);
+			nCachedPixels += getPixels(image) - getPixels(previous);
+			Iterator<Image> iter = images.values().iterator();
+			while (nCachedPixels > MAX_CACHED_PIXELS && images.size() > 1 && iter.hasNext()) {
+				Image next = iter.next();
+				if (next == image)
+					continue;
+				nCachedPixels -= getPixels(next);
+				iter.remove();
+			}
+		}
+		// Coalesce updates, since many thumbnails may be available at almost the same time
+		if (updatePending.compareAndSet(false, true)) {
+			Platform.runLater(() -> {
+				updatePending.set(false);
+				onUpdate.run();
+			});
+		}
+	}
+	
+	private static long getPixels(final Image image) {
+		return image == null ? 0 : (long)(image.getWidth() * image.getHeight());
+	}
+	
+	
+	/**
+	 * Read or create a thumbnail.
+	 */
+	private BufferedImage loadThumbnail(final String serverPath, final String imageName) throws IOException {
+		BufferedImage img = cache.get(serverPath);
+		if (img != null)
+			return img;
+		// Import any older thumbnail file
+		if (dirLegacy != null && imageName != null) {
+			File fileLegacy = new File(dirLegacy, imageName + "." + legacyExtension);
+			if (fileLegacy.isFile()) {
+				img = ImageIO.read(fileLegacy);
+				if (img != null) {
+					cache.put(serverPath, img);
+					return img;
+				}
+			}
+		}
+		img = creator.createThumbnail(serverPath);
+		if (img != null)
+			cache.put(serverPath, img);
+		return img;
+	}
+	
+	
+	private class ThumbnailRequest implements Runnable, Comparable<ThumbnailRequest> {
+		
+		private final String serverPath;
+		private final String imageName;
+		private volatile long priority;
+		
+		ThumbnailRequest(final String serverPath, final String imageName, final long priority) {
+			this.serverPath = serverPath;
+			this.imageName = imageName;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (closed)
+					return;
+				BufferedImage img = loadThumbnail(serverPath, imageName);
+				if (img == null) {
+					failed.add(serverPath);
+					return;
+				}
+				if (!closed)
+					putImage(serverPath, SwingFXUtils.toFXImage(img, null));
+			} catch (Exception e) {
+				failed.add(serverPath);
+				logger.error("Problem loading thumbnail for {}", serverPath, e);
+			} finally {
+				pending.remove(serverPath, this);
+			}
+		}
+
+		// Most recent requests first
+		@Override
+		public int compareTo(ThumbnailRequest o) {
+			return -Long.compare(priority, o.priority);
+		}
+		
+	}
+
+}
@@ -141,6 +141,16 @@ public class PathPrefs {
 	
 	
 	
+	private static BooleanProperty spillDetectionsToDisk = createPersistentPreference("spillDetectionsToDisk", Boolean.FALSE);
+	
+	public static boolean getSpillDetectionsToDisk() {
+		return spillDetectionsToDisk.get();
+	}
+	
+	public static BooleanProperty spillDetectionsToDiskProperty() {
+		return spillDetectionsToDisk;
+	}
+	
 	private static BooleanProperty doAutoUpdateCheck = createPersistentPreference("doAutoUpdateCheck", Boolean.TRUE);
 	
 	public static BooleanProperty doAutoUpdateCheckProperty() {
@@ -25,6 +25,7 @@ package qupath.lib.gui.tma;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -40,8 +41,10 @@ import java.util.Optional;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -135,6 +138,7 @@ import javafx.scene.text.TextAlignment;
 import javafx.stage.Stage;
 import javafx.util.Callback;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.commands.SummaryMeasurementTableCommand;
 import qupath.lib.gui.helpers.ChartToolsFX;
@@ -158,6 +162,7 @@ import qupath.lib.gui.tma.entries.TMASummaryEntry.MeasurementCombinationMethod;
 import qupath.lib.images.ImageData;
 import qupath.lib.io.PathIO;
 import qupath.lib.io.TMAScoreImporter;
+import qupath.lib.io.TMASummaryIO;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.hierarchy.DefaultTMAGrid;
@@ -1125,20 +1130,77 @@ public class TMASummaryViewer {
 		}
 		Project<BufferedImage> project = qupath.getProject();
 		
-		List<TMAEntry> entries = new ArrayList<>();
+		List<File> files = new ArrayList<>();
 		for (ProjectImageEntry<BufferedImage> imageEntry : project.getImageList()) {
 			File file = QuPathGUI.getImageDataFile(project, imageEntry);
-			if (file.isFile()) {
-				logger.info("Reading from {}", file);
-				ImageData<BufferedImage> imageData = PathIO.readImageData(file, null, null, BufferedImage.class);
-				if (imageData != null)
-					entries.addAll(getEntriesForTMAData(imageData));
-				else
-					logger.error("No ImageData read for {]", file);
+			if (file != null && file.isFile())
+				files.add(file);
+		}
+		
+		// Read entries in the background, in parallel, then update the viewer
+		stage.setTitle("TMA Viewer: " + project.getName() + " (loading...)");
+		Thread thread = new Thread(() -> {
+			List<TMAEntry> entries = readTMAEntries(files);
+			Platform.runLater(() -> {
+				setTMAEntries(entries);
+				stage.setTitle("TMA Viewer: " + project.getName());
+			});
+		}, "tma-project-loader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	/**
+	 * Read TMA entries for a list of data files, in parallel, preserving the order of the files.
+	 * <p>
+	 * Where possible, entries are read from the TMA summary written alongside each data file.
+	 * If the summary is missing or out of date, the full data file is read instead - and the summary then updated.
+	 * 
+	 * @param files
+	 * @return
+	 */
+	private static List<TMAEntry> readTMAEntries(final List<File> files) {
+		long startTime = System.currentTimeMillis();
+		int nThreads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new SimpleThreadFactory("tma-summary-reader", true));
+		List<Future<List<TMAEntry>>> futures = new ArrayList<>();
+		for (File file : files)
+			futures.add(pool.submit(() -> readTMAEntries(file)));
+		pool.shutdown();
+		
+		List<TMAEntry> entries = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				entries.addAll(futures.get(i).get());
+			} catch (InterruptedException e) {
+				logger.warn("Interrupted while reading TMA entries");
+				pool.shutdownNow();
+				break;
+			} catch (ExecutionException e) {
+				logger.error("Error reading TMA entries from " + files.get(i), e.getCause());
 			}
 		}
-		setTMAEntries(entries);
-		stage.setTitle("TMA Viewer: " + project.getName());
+		long endTime = System.currentTimeMillis();
+		logger.info("Read {} TMA entries from {} files in {} ms", entries.size(), files.size(), endTime - startTime);
+		return entries;
+	}
+	
+	
+	private static List<TMAEntry> readTMAEntries(final File file) throws IOException {
+		List<TMAEntry> entries = TMASummaryIO.readSummary(file);
+		if (entries != null) {
+			logger.debug("Read TMA summary for {}", file);
+			return entries;
+		}
+		logger.info("Reading from {}", file);
+		ImageData<BufferedImage> imageData = PathIO.readImageData(file, null, null, BufferedImage.class);
+		if (imageData == null) {
+			logger.error("No ImageData read for {}", file);
+			return Collections.emptyList();
+		}
+		TMASummaryIO.writeSummary(file, imageData);
+		return getEntriesForTMAData(imageData);
 	}
 	
 	
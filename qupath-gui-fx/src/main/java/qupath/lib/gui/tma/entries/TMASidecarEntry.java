@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.tma.entries;
+
+import java.awt.image.BufferedImage;
+import java.util.function.Supplier;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * A TMAEntry created from a stored summary of a TMA core, rather than from the TMACoreObject itself.
+ * <p>
+ * This avoids needing to read the full ImageData to access core measurements.
+ * The ImageServer is only requested if an image of the core is needed.
+ * <p>
+ * Note that any changes (e.g. to comments or the missing status) are not written back to the original data.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TMASidecarEntry extends DefaultTMAEntry {
+	
+	private Supplier<ImageServer<BufferedImage>> serverSupplier;
+	private int x, y, width, height;
+	private double preferredDownsample = 4;
+
+	/**
+	 * Create an entry for a TMA core.
+	 * 
+	 * @param serverPath path of the ImageServer containing the core
+	 * @param serverSupplier supplier for the ImageServer, used to request images; this may be shared by all entries for the same image
+	 * @param coreName
+	 * @param isMissing
+	 * @param x x-coordinate of the core bounding box
+	 * @param y y-coordinate of the core bounding box
+	 * @param width width of the core bounding box
+	 * @param height height of the core bounding box
+	 */
+	public TMASidecarEntry(final String serverPath, final Supplier<ImageServer<BufferedImage>> serverSupplier, final String coreName, final boolean isMissing,
+			final int x, final int y, final int width, final int height) {
+		super(serverPath, null, null, coreName, isMissing);
+		this.serverSupplier = serverSupplier;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+	
+	@Override
+	public boolean hasImage() {
+		return serverSupplier != null && width > 0 && height > 0;
+	}
+	
+	@Override
+	public Image getImage(int maxWidth) {
+		if (!hasImage())
+			return null;
+		ImageServer<BufferedImage> server = serverSupplier.get();
+		if (server == null)
+			return null;
+		
+		// Don't request full resolution, necessarily
+		double downsample = preferredDownsample;
+		if (maxWidth > 0)
+			downsample = Math.max((double)width / maxWidth, preferredDownsample);
+		
+		BufferedImage img = server.readBufferedImage(
+				RegionRequest.createInstance(server.getPath(), downsample, x, y, width, height));
+		if (img == null)
+			return null;
+		return SwingFXUtils.toFXImage(img, null);
+	}
+
+}
@@ -46,6 +46,7 @@ import java.awt.image.LookupOp;
 import java.awt.image.ByteLookupTable;
 import java.io.File;
 import java.lang.reflect.Method;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -75,12 +76,13 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.EventHandler;
 import javafx.scene.Cursor;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Tooltip;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
@@ -167,9 +169,10 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	// List that concatenates the custom & core overlay layers in painting order
 	private ObservableList<PathOverlay> allOverlayLayers = FXCollections.observableArrayList();
 
-	// Current we have two images - one transformed & one not - because the untransformed
-	// image is needed to determine pixel values as the mouse moves over the image
-	private BufferedImage imgBuffer = null;
+	// The image (without overlays) is composed on a background thread, and the most recent frame retained for painting
+	private ViewerImageRenderer imageRenderer = new ViewerImageRenderer(this::createBufferedImage, frame -> Platform.runLater(() -> setImageFrame(frame)));
+	private ViewerImageRenderer.Frame imageFrame = null;
+	private int lastPaintWidth = -1, lastPaintHeight = -1;
 	//	private BufferedImage imgTemp = null;
 
 	// Keep a reference to a thumbnail image here, and apply color transforms to it
@@ -238,8 +241,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	
 	private StackPane pane;
 	private Canvas canvas;
-	private BufferedImage imgCache;
+	private ViewerRenderBuffer renderBuffer = new ViewerRenderBuffer();
 	private WritableImage imgCacheFX;
+	private ViewerFrameTimeHistogram frameTimes = new ViewerFrameTimeHistogram();
 	
 	private double borderLineWidth = 5;
 	private javafx.scene.paint.Color borderColor;
@@ -389,12 +393,11 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			return;
 		}
 		
-		if (imgCache == null || imgCache.getWidth() < canvas.getWidth() || imgCache.getHeight() < canvas.getHeight()) {
-			int w = (int)(canvas.getWidth() + 1);
-			int h = (int)(canvas.getHeight() + 1);
-			imgCache = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
-			imgCacheFX = new WritableImage(w, h);
-//			imgCacheFX = SwingFXUtils.toFXImage(imgCache, imgCacheFX);
+		long startTime = System.nanoTime();
+		
+		if (renderBuffer.ensureSize((int)(canvas.getWidth() + 1), (int)(canvas.getHeight() + 1)) || imgCacheFX == null) {
+			imgCacheFX = new WritableImage(renderBuffer.getWidth(), renderBuffer.getHeight());
+			renderBuffer.invalidate();
 		}
 		
 		// Reset repaint flag
@@ -402,11 +405,19 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		
 		GraphicsContext context = canvas.getGraphicsContext2D();
 		
-		Graphics2D g = imgCache.createGraphics();
-		paintViewer(g, getWidth(), getHeight());
+		int w = getWidth();
+		int h = getHeight();
+		Graphics2D g = renderBuffer.getImage().createGraphics();
+		paintViewer(g, w, h);
 		g.dispose();
 		
-		imgCacheFX = SwingFXUtils.toFXImage(imgCache, imgCacheFX);
+		// Only upload the parts of the frame that have actually changed
+		PixelWriter writer = imgCacheFX.getPixelWriter();
+		PixelFormat<IntBuffer> format = PixelFormat.getIntArgbPreInstance();
+		int[] pixels = renderBuffer.getPixels();
+		int stride = renderBuffer.getScanlineStride();
+		for (Rectangle dirty : renderBuffer.updateDirtyRegions(w, h))
+			writer.setPixels(dirty.x, dirty.y, dirty.width, dirty.height, format, pixels, dirty.y * stride + dirty.x, stride);
 		context.drawImage(imgCacheFX, 0, 0);
 		
 		if (borderColor != null) {
@@ -445,6 +456,8 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 //			context.strokeRect(0, 0, canvas.getWidth(), canvas.getHeight());
 //		}
 		
+		frameTimes.record(System.nanoTime() - startTime);
+		
 		long time = System.currentTimeMillis();
 		logger.trace("Time since last repaint: {} ms", (time - lastPaint));
 		lastPaint = System.currentTimeMillis();
@@ -467,6 +480,15 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		return borderColor;
 	}
 	
+	/**
+	 * Get the histogram of the time taken to paint each frame, for diagnostics.
+	 * 
+	 * @return
+	 */
+	public ViewerFrameTimeHistogram getFrameTimeHistogram() {
+		return frameTimes;
+	}
+	
 	public int getWidth() {
 		return (int)Math.ceil(getView().getWidth());
 	}
@@ -1413,15 +1435,11 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		} else
 			clipFull = clip.x == 0 && clip.y == 0 && clip.width == w && clip.height == h;
 
-		// Ensure we have a sufficiently-large buffer
-		if (imgBuffer == null || imgBuffer.getWidth() != w || imgBuffer.getHeight() != h) {
-			// Create buffered images & buffers for RGB pixel values
-			imgBuffer = createBufferedImage(w, h);
-			imgBuffer.setAccelerationPriority(1f);
-			logger.trace("New buffered image created: {}", imgBuffer);
-			//			imgVolatile = createVolatileImage(w, h);
+		// If the size changed, the image must be rendered again & the AffineTransform must be up-to-date
+		if (lastPaintWidth != w || lastPaintHeight != h) {
+			lastPaintWidth = w;
+			lastPaintHeight = h;
 			imageUpdated = true;
-			// If the size changed, ensure the AffineTransform is up-to-date
 			updateAffineTransform();
 		}
 
@@ -1442,8 +1460,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			imageUpdated = false;
 			locationUpdated = false;
 
-			//			updateBufferedImage(imgVolatile, shapeRegion, w, h);
-			updateBufferedImage(imgBuffer, shapeRegion, w, h);
+			requestImageFrame(server, shapeRegion, w, h);
 		}
 
 		//		if (imageUpdated || locationUpdated) {
@@ -1468,11 +1485,28 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		//		if (imgThumbnailRGB != null)
 		//			g2d.drawImage(imgThumbnailRGB, 0, 0, getWidth(), getHeight(), this);
 
-		if (clipFull)
-			paintFinalImage(g, imgBuffer, this);
-		//			g2d.drawImage(imgBuffer, 0, 0, getWidth(), getHeight(), this);
-		else
-			g.drawImage(imgBuffer, clip.x, clip.y, clip.x+clip.width, clip.y+clip.height, clip.x, clip.y, clip.x+clip.width, clip.y+clip.height, null);
+		ViewerImageRenderer.Frame frame = imageFrame;
+		if (frame == null || frame.getSource() != server) {
+			// Nothing rendered for the current image yet
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		} else if (frame.isRenderedFor(transform, w, h)) {
+			if (clipFull)
+				paintFinalImage(g, frame.getImage(), this);
+			else
+				g.drawImage(frame.getImage(), clip.x, clip.y, clip.x+clip.width, clip.y+clip.height, clip.x, clip.y, clip.x+clip.width, clip.y+clip.height, null);
+		} else {
+			// The view has changed since the last frame was rendered - show it aligned with the current view until the next is ready
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
+			AffineTransform transformFrame = frame.getTransformTo(transform);
+			if (transformFrame != null && g instanceof Graphics2D) {
+				Graphics2D g2dFrame = (Graphics2D)g.create();
+				g2dFrame.transform(transformFrame);
+				g2dFrame.drawImage(frame.getImage(), 0, 0, null);
+				g2dFrame.dispose();
+			}
+			// Every pixel is likely to have changed
+			renderBuffer.invalidate();
+		}
 
 		if (logger.isTraceEnabled()) {
 			long t2 = System.currentTimeMillis();
@@ -1579,30 +1613,84 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	protected BufferedImage createBufferedImage(final int w, final int h) {
 		return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
 	}
-
-
-	//	private void updateBufferedImage(final VolatileImage imgBuffer, final Shape shapeRegion, final int w, final int h) {
-	//		Graphics2D gBuffered = imgBuffer.createGraphics();
-	//		updateBufferedImage(gBuffered, shapeRegion, w, h);
-	//		gBuffered.dispose();
-	//	}
-
-	private void updateBufferedImage(final BufferedImage imgBuffer, final Shape shapeRegion, final int w, final int h) {
-		Graphics2D gBuffered = imgBuffer.createGraphics();
-		updateBufferedImage(gBuffered, shapeRegion, w, h);
-		gBuffered.dispose();
-		// Apply color transforms, if required
-		if (iccTransformOp != null) {
-			iccTransformOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
-		}
+	
+	
+	/**
+	 * Returns true if the image should be composed on a background thread, in which case the last frame is shown 
+	 * (aligned with the current view) until the image for the current view is ready.
+	 * <p>
+	 * Viewers that are painted as part of another component should return false, so that the image 
+	 * always corresponds to the current view when {@link #paintViewer(Graphics, int, int)} returns.
+	 * 
+	 * @return
+	 */
+	protected boolean isImageRenderedInBackground() {
+		return true;
+	}
+	
+	
+	/**
+	 * Request that the image (without overlays) is rendered for the current view.
+	 * <p>
+	 * Everything the rendering depends upon is read here (in the calling thread), so that only the image server and 
+	 * tile cache are accessed while rendering.
+	 */
+	private void requestImageFrame(final ImageServer<BufferedImage> server, final Shape shapeRegion, final int w, final int h) {
 		ensureGammaUpdated();
-		if (gammaOp != null) {
-			gammaOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
-		}
+		AffineTransform transform = new AffineTransform(this.transform);
+		int z = getZPosition();
+		int t = getTPosition();
+		double downsample = doFasterRepaint ? downsampleFactor * 1.5 : downsampleFactor;
+		boolean bilinear = PathPrefs.getViewerInterpolationBilinear();
+		BufferedImage imgThumbnailRGB = this.imgThumbnailRGB;
+		boolean thumbnailIsFullImage = this.thumbnailIsFullImage;
+		ImageDisplay imageDisplay = this.imageDisplay;
+		ColorConvertOp iccTransformOp = this.iccTransformOp;
+		LookupOp gammaOp = this.gammaOp;
+		Color background = this.background;
+		ViewerImageRenderer.Request request = new ViewerImageRenderer.Request(server, w, h, transform, img -> {
+			Graphics2D gBuffered = img.createGraphics();
+			img = updateBufferedImage(img, gBuffered, server, shapeRegion, transform, z, t, downsample, bilinear, 
+					imgThumbnailRGB, thumbnailIsFullImage, imageDisplay, background, w, h);
+			gBuffered.dispose();
+			// Apply color transforms, if required
+			if (iccTransformOp != null)
+				iccTransformOp.filter(img.getRaster(), img.getRaster());
+			if (gammaOp != null)
+				gammaOp.filter(img.getRaster(), img.getRaster());
+			return img;
+		});
+		if (isImageRenderedInBackground())
+			imageRenderer.requestRender(request);
+		else
+			setImageFrame(imageRenderer.render(request));
+	}
+	
+	
+	/**
+	 * Set the most recently rendered image, and repaint so that it is shown.
+	 * This should be called on the thread used for painting.
+	 */
+	private void setImageFrame(final ViewerImageRenderer.Frame frame) {
+		ViewerImageRenderer.Frame previous = imageFrame;
+		imageFrame = frame;
+		if (previous != null)
+			imageRenderer.recycle(previous.getImage());
+		// The image underlies everything, so there is no need to look for the parts of the frame that have changed
+		renderBuffer.invalidate();
+		if (isImageRenderedInBackground())
+			repaint();
 	}
 
-	//	private void updateBufferedImage(final BufferedImage imgBuffer, final Shape shapeRegion) {
-	private void updateBufferedImage(final Graphics2D gBuffered, final Shape shapeRegion, final int w, final int h) {
+
+	/**
+	 * Paint the image (without overlays) for the specified view.
+	 * 
+	 * @return the image containing the result, which may differ from the image provided if color transforms were applied
+	 */
+	private BufferedImage updateBufferedImage(BufferedImage imgBuffer, final Graphics2D gBuffered, final ImageServer<BufferedImage> server, final Shape shapeRegion, final AffineTransform transform,
+			final int zPosition, final int tPosition, final double downsample, final boolean bilinear, final BufferedImage imgThumbnailRGB, final boolean thumbnailIsFullImage, 
+			final ImageDisplay imageDisplay, final Color background, final int w, final int h) {
 		// Check if we are doing a simple shift (scroll) - if so, we can reuse some previous painting
 		// TODO: Verify that the 'scroll only' test is sufficiently reliable
 		Shape shapeToUpdate = shapeRegion;
@@ -1615,52 +1703,46 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		gBuffered.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 
 		// Get the server width & height
-		ImageServer<BufferedImage> server = getServer();
 		int serverWidth = server.getWidth();
 		int serverHeight = server.getHeight();
 
 		// Check if we require tiling the image, or if the low-resolution version does all we need
-		BufferedImage imgThumbnail = regionStore.getThumbnail(server, getZPosition(), getTPosition(), true);
+		BufferedImage imgThumbnail = regionStore.getThumbnail(server, zPosition, tPosition, true);
 		double lowResolutionDownsample = 0.5 * ((double)serverWidth / imgThumbnail.getWidth() + (double)serverHeight / imgThumbnail.getHeight());
-		boolean requiresTiling = !thumbnailIsFullImage && lowResolutionDownsample > Math.max(downsampleFactor, 1);
+		boolean requiresTiling = !thumbnailIsFullImage && lowResolutionDownsample > Math.max(downsample, 1);
 
 		// Check if we will be painting some background beyond the image edge
 		Rectangle shapeBounds = shapeToUpdate.getBounds();
 		boolean overBoundary = shapeBounds.x < 0 || shapeBounds.y < 0 || shapeBounds.x + shapeBounds.width >= serverWidth || shapeBounds.y + shapeBounds.height >= serverHeight;
 
 		// Reset interpolation - this roughly halves repaint times
-		if (PathPrefs.getViewerInterpolationBilinear())
+		if (bilinear)
 			gBuffered.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 		else
 			gBuffered.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 
 		if (requiresTiling) {
 
-			// TODO: Consider removing faster repaint?
-			double downsample = downsampleFactor;
-			if (doFasterRepaint)
-				downsample = downsampleFactor * 1.5;
-
-
 			// Try to repaint higher resolution tiles for only the requested region
 			// A small optimization (that can make a difference in repaint speed...) is that for an RGB image we don't need to transform
 			// the image as we go along (tile by tile), but we can apply a single transform afterwards.
 			// *However* this shouldn't be applied if the region we are viewing extends beyond the image boundary, as it means we would be color-transforming the background color.
 			// For a non-RGB image, or if the viewed region is over the image boundary, the transform should be applied in advance to the thumbnail, and then tile-by-tile during painting.
 			if (server.isRGB() && !overBoundary) {
-				regionStore.paintRegion(server, gBuffered, shapeToUpdate, getZPosition(), getTPosition(), downsample, imgThumbnail, null, null);
+				regionStore.paintRegion(server, gBuffered, shapeToUpdate, zPosition, tPosition, downsample, imgThumbnail, null, null);
 				gBuffered.dispose();
 				if (imageDisplay != null)
 //					imgBuffer = imageDisplay.applyTransforms(imgBuffer, imgBuffer);
 //					 More benchmarking required... but reusing imgBuffer was killing performance for RGB transform on Java 8 (JavaFX)... possibly
 					imgBuffer = imageDisplay.applyTransforms(imgBuffer, null);
 			} else {
-				regionStore.paintRegion(server, gBuffered, shapeToUpdate, getZPosition(), getTPosition(), downsample, imgThumbnail, null, imageDisplay);
+				regionStore.paintRegion(server, gBuffered, shapeToUpdate, zPosition, tPosition, downsample, imgThumbnail, null, imageDisplay);
 			}
 		} else {
 			// Just paint the 'thumbnail' version, which has already (potentially) been color-transformed
 			paintThumbnail(gBuffered, imgThumbnailRGB, serverWidth, serverHeight, this);
 		}
+		return imgBuffer;
 	}
 
 
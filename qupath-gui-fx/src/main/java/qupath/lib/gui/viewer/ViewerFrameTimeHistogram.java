@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer;
+
+/**
+ * Histogram of the time taken to paint viewer frames, for diagnostic purposes.
+ * <p>
+ * Times are binned on a log scale: bin 0 contains frames taking less than 1 ms, 
+ * and bin {@code i > 0} contains frames taking at least {@code 2^(i-1)} ms but less than {@code 2^i} ms.
+ * The final bin contains everything slower than that.
+ * <p>
+ * Methods are synchronized, so the histogram may be queried from any thread.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ViewerFrameTimeHistogram {
+	
+	private static final int N_BINS = 16;
+	
+	private final long[] counts = new long[N_BINS];
+	private long nFrames = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+	
+	/**
+	 * Record the time taken for a single frame.
+	 * 
+	 * @param nanos
+	 */
+	public synchronized void record(final long nanos) {
+		long n = Math.max(0L, nanos);
+		counts[getBin(n)]++;
+		nFrames++;
+		totalNanos += n;
+		maxNanos = Math.max(maxNanos, n);
+	}
+	
+	static int getBin(final long nanos) {
+		long millis = nanos / 1_000_000L;
+		if (millis <= 0)
+			return 0;
+		int bin = 64 - Long.numberOfLeadingZeros(millis);
+		return Math.min(bin, N_BINS - 1);
+	}
+	
+	/**
+	 * Number of bins in the histogram.
+	 * 
+	 * @return
+	 */
+	public int nBins() {
+		return N_BINS;
+	}
+	
+	/**
+	 * Upper limit of frame times in a bin, in milliseconds (exclusive).
+	 * For the final bin this is {@link Double#POSITIVE_INFINITY}.
+	 * 
+	 * @param bin
+	 * @return
+	 */
+	public double getBinUpperMillis(final int bin) {
+		if (bin >= N_BINS - 1)
+			return Double.POSITIVE_INFINITY;
+		return 1L << bin;
+	}
+	
+	/**
+	 * Get a copy of the counts for each bin.
+	 * 
+	 * @return
+	 */
+	public synchronized long[] getCounts() {
+		return counts.clone();
+	}
+	
+	/**
+	 * Total number of frames recorded.
+	 * 
+	 * @return
+	 */
+	public synchronized long getFrameCount() {
+		return nFrames;
+	}
+	
+	/**
+	 * Mean frame time in milliseconds, or NaN if no frames have been recorded.
+	 * 
+	 * @return
+	 */
+	public synchronized double getMeanMillis() {
+		if (nFrames == 0)
+			return Double.NaN;
+		return totalNanos / 1e6 / nFrames;
+	}
+	
+	/**
+	 * Longest frame time in milliseconds.
+	 * 
+	 * @return
+	 */
+	public synchronized double getMaxMillis() {
+		return maxNanos / 1e6;
+	}
+	
+	/**
+	 * Estimate a percentile of the frame time, in milliseconds.
+	 * This is given by the upper limit of the bin containing the percentile (or the maximum, if that is smaller), 
+	 * and so is a conservative estimate.
+	 * 
+	 * @param percentile value between 0 and 100
+	 * @return the estimated percentile, or NaN if no frames have been recorded
+	 */
+	public synchronized double getPercentileMillis(final double percentile) {
+		if (nFrames == 0)
+			return Double.NaN;
+		long target = (long)Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * nFrames);
+		long cumulative = 0;
+		for (int i = 0; i < N_BINS; i++) {
+			cumulative += counts[i];
+			if (cumulative >= target && cumulative > 0)
+				return Math.min(getBinUpperMillis(i), getMaxMillis());
+		}
+		return getMaxMillis();
+	}
+	
+	/**
+	 * Reset all counts.
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < N_BINS; i++)
+			counts[i] = 0;
+		nFrames = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("Frame times (n=%d): mean=%.2f ms, 95th percentile<=%.0f ms, max=%.2f ms",
+				nFrames, getMeanMillis(), getPercentileMillis(95), getMaxMillis());
+	}
+
+}
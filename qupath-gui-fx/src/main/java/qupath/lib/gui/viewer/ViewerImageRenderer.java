@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.SimpleThreadFactory;
+
+/**
+ * Composes the image layer of a viewer (i.e. the image tiles, without any overlays) on a background thread.
+ * <p>
+ * Only the most recent request is rendered: a request made while another is being rendered replaces any 
+ * request still waiting.  Each rendered {@link Frame} is passed to a consumer from the rendering thread, 
+ * and its image may be returned with {@link #recycle(BufferedImage)} once it is no longer displayed so that 
+ * its pixels can be reused.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class ViewerImageRenderer {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ViewerImageRenderer.class);
+	
+	private final ExecutorService pool;
+	private final BiFunction<Integer, Integer, BufferedImage> imageFactory;
+	private final Consumer<Frame> consumer;
+	private final AtomicReference<Request> pending = new AtomicReference<>();
+	private final Queue<BufferedImage> spareImages = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Create a renderer that passes every completed frame to a consumer.
+	 * 
+	 * @param imageFactory function to create an image with a specified width and height, if no image can be reused
+	 * @param consumer consumer for frames rendered in the background, called from the rendering thread
+	 */
+	ViewerImageRenderer(final BiFunction<Integer, Integer, BufferedImage> imageFactory, final Consumer<Frame> consumer) {
+		this.imageFactory = imageFactory;
+		this.consumer = consumer;
+		// The thread is allowed to time out, so the renderer needn't be shut down
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 10L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new SimpleThreadFactory("viewer-renderer-", true));
+		pool.allowCoreThreadTimeOut(true);
+		this.pool = pool;
+	}
+	
+	/**
+	 * Request that the image layer is rendered, replacing any request that has not yet started.
+	 * 
+	 * @param request
+	 */
+	void requestRender(final Request request) {
+		if (pending.getAndSet(request) == null)
+			pool.execute(this::renderPending);
+	}
+	
+	/**
+	 * Return an image from a previous frame, so that it may be reused for rendering.
+	 * 
+	 * @param img
+	 */
+	void recycle(final BufferedImage img) {
+		if (img != null && spareImages.isEmpty())
+			spareImages.add(img);
+	}
+	
+	/**
+	 * Render the image layer immediately in the current thread, rather than passing it to the consumer.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	Frame render(final Request request) {
+		BufferedImage img = spareImages.poll();
+		if (img == null || img.getWidth() != request.width || img.getHeight() != request.height)
+			img = imageFactory.apply(request.width, request.height);
+		return new Frame(request, request.painter.apply(img));
+	}
+	
+	private void renderPending() {
+		Request request = pending.getAndSet(null);
+		if (request == null)
+			return;
+		try {
+			consumer.accept(render(request));
+		} catch (Exception e) {
+			logger.error("Unable to render viewer image", e);
+		}
+	}
+	
+	
+	/**
+	 * Request to render the image layer for a specific view.
+	 */
+	static class Request {
+		
+		private final Object source;
+		private final int width, height;
+		private final AffineTransform transform;
+		private final UnaryOperator<BufferedImage> painter;
+		
+		/**
+		 * 
+		 * @param source object identifying what is being rendered (e.g. the image server), so that frames for a different source can be ignored
+		 * @param width width of the image to render
+		 * @param height height of the image to render
+		 * @param transform transform from image to component coordinates used for rendering; this is copied, since it may later be modified
+		 * @param painter function that paints the image layer into the image it is passed, and returns the image containing the result 
+		 * 				(which may be a different image)
+		 */
+		Request(final Object source, final int width, final int height, final AffineTransform transform, final UnaryOperator<BufferedImage> painter) {
+			this.source = source;
+			this.width = Math.max(1, width);
+			this.height = Math.max(1, height);
+			this.transform = new AffineTransform(transform);
+			this.painter = painter;
+		}
+		
+	}
+	
+	/**
+	 * Rendered image layer, along with the view it was rendered for.
+	 */
+	static class Frame {
+		
+		private final Request request;
+		private final BufferedImage img;
+		
+		private Frame(final Request request, final BufferedImage img) {
+			this.request = request;
+			this.img = img;
+		}
+		
+		BufferedImage getImage() {
+			return img;
+		}
+		
+		Object getSource() {
+			return request.source;
+		}
+		
+		int getWidth() {
+			return request.width;
+		}
+		
+		int getHeight() {
+			return request.height;
+		}
+		
+		/**
+		 * Returns true if this frame was rendered for the specified view, and so can be drawn without any transform.
+		 * 
+		 * @param transform transform from image to component coordinates
+		 * @param width
+		 * @param height
+		 * @return
+		 */
+		boolean isRenderedFor(final AffineTransform transform, final int width, final int height) {
+			return request.width == width && request.height == height && request.transform.equals(transform);
+		}
+		
+		/**
+		 * Get the transform needed to draw this frame aligned with a view using a different image-to-component transform, 
+		 * e.g. while panning or zooming before the image for the new view has been rendered.
+		 * 
+		 * @param transform
+		 * @return the transform, or null if it could not be computed
+		 */
+		AffineTransform getTransformTo(final AffineTransform transform) {
+			try {
+				AffineTransform transformFrame = new AffineTransform(transform);
+				transformFrame.concatenate(request.transform.createInverse());
+				return transformFrame;
+			} catch (NoninvertibleTransformException e) {
+				return null;
+			}
+		}
+		
+	}
+
+}
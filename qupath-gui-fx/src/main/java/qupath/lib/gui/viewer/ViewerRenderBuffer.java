@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reusable buffer into which a viewer is painted, which keeps track of which parts of the frame have changed.
+ * <p>
+ * The pixels of the current frame are stored in a packed (premultiplied) ARGB {@code int[]} array,
+ * which is wrapped by a {@link BufferedImage} so that Java2D can paint into it directly.
+ * A copy of the pixels last passed to the screen is retained, so that after painting only the tiles that actually differ
+ * need to be uploaded again.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class ViewerRenderBuffer {
+	
+	static final int DEFAULT_TILE_SIZE = 64;
+	
+	/**
+	 * Minimum number of pixels before the comparison between frames is made in parallel.
+	 */
+	private static final int MIN_PIXELS_PARALLEL = 512 * 512;
+	
+	private static final ColorModel COLOR_MODEL = new DirectColorModel(
+			ColorModel.getRGBdefault().getColorSpace(), 32,
+			0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000,
+			true, DataBufferInt.TYPE_INT);
+	
+	private final int tileSize;
+	
+	private int width, height;
+	private int[] pixels;
+	private int[] previous;
+	private BufferedImage img;
+	
+	private boolean allDirty = true;
+
+	ViewerRenderBuffer() {
+		this(DEFAULT_TILE_SIZE);
+	}
+
+	ViewerRenderBuffer(final int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be > 0, but was " + tileSize);
+		this.tileSize = tileSize;
+	}
+	
+	/**
+	 * Ensure the buffer is at least the specified size, reallocating it if necessary.
+	 * 
+	 * @param w
+	 * @param h
+	 * @return true if the buffer was reallocated (and so its contents are no longer valid), false otherwise
+	 */
+	boolean ensureSize(final int w, final int h) {
+		if (img != null && width >= w && height >= h)
+			return false;
+		width = Math.max(1, w);
+		height = Math.max(1, h);
+		pixels = new int[width * height];
+		previous = new int[width * height];
+		DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+		WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width,
+				((DirectColorModel)COLOR_MODEL).getMasks(), null);
+		img = new BufferedImage(COLOR_MODEL, raster, true, null);
+		allDirty = true;
+		return true;
+	}
+	
+	/**
+	 * Image that wraps the pixel array, for painting.
+	 * 
+	 * @return
+	 */
+	BufferedImage getImage() {
+		return img;
+	}
+	
+	/**
+	 * Packed premultiplied ARGB pixels of the current frame.
+	 * 
+	 * @return
+	 */
+	int[] getPixels() {
+		return pixels;
+	}
+	
+	int getWidth() {
+		return width;
+	}
+	
+	int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Number of array elements between the starts of consecutive rows.
+	 * 
+	 * @return
+	 */
+	int getScanlineStride() {
+		return width;
+	}
+	
+	int getTileSize() {
+		return tileSize;
+	}
+	
+	/**
+	 * Request that the next call to {@link #updateDirtyRegions(int, int)} returns the full frame, 
+	 * e.g. because whatever the previous frame was uploaded to has been replaced.
+	 */
+	void invalidate() {
+		allDirty = true;
+	}
+	
+	/**
+	 * Compare the current frame with the previous one within the region (0, 0, w, h), and return the regions that differ.
+	 * <p>
+	 * The frame is compared in square tiles; horizontally-adjacent tiles that have changed are merged into a single rectangle.
+	 * Afterwards, the current frame becomes the 'previous' frame for the next comparison.
+	 * 
+	 * @param w width of the region in use, which may be smaller than the buffer
+	 * @param h height of the region in use, which may be smaller than the buffer
+	 * @return the rectangles that have changed, which will be empty if the frame is unchanged
+	 */
+	List<Rectangle> updateDirtyRegions(int w, int h) {
+		w = Math.min(w, width);
+		h = Math.min(h, height);
+		if (img == null || w <= 0 || h <= 0)
+			return Collections.emptyList();
+		if (allDirty) {
+			allDirty = false;
+			System.arraycopy(pixels, 0, previous, 0, pixels.length);
+			return Collections.singletonList(new Rectangle(0, 0, w, h));
+		}
+		int nTileRows = (h + tileSize - 1) / tileSize;
+		int regionWidth = w;
+		int regionHeight = h;
+		IntStream rows = IntStream.range(0, nTileRows);
+		if (w * h >= MIN_PIXELS_PARALLEL)
+			rows = rows.parallel();
+		return rows.mapToObj(r -> updateTileRow(r, regionWidth, regionHeight))
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Find the changed tiles in a single row of tiles, copying their pixels to the previous frame.
+	 */
+	private List<Rectangle> updateTileRow(final int tileRow, final int w, final int h) {
+		int nTileCols = (w + tileSize - 1) / tileSize;
+		boolean[] dirty = new boolean[nTileCols];
+		int nDirty = 0;
+		int y0 = tileRow * tileSize;
+		int y1 = Math.min(y0 + tileSize, h);
+		for (int y = y0; y < y1 && nDirty < nTileCols; y++) {
+			int offset = y * width;
+			for (int c = 0; c < nTileCols; c++) {
+				if (dirty[c])
+					continue;
+				int from = offset + c * tileSize;
+				int to = offset + Math.min((c + 1) * tileSize, w);
+				if (Arrays.mismatch(pixels, from, to, previous, from, to) >= 0) {
+					dirty[c] = true;
+					nDirty++;
+				}
+			}
+		}
+		if (nDirty == 0)
+			return Collections.emptyList();
+		List<Rectangle> regions = new ArrayList<>();
+		int c = 0;
+		while (c < nTileCols) {
+			if (!dirty[c]) {
+				c++;
+				continue;
+			}
+			int cStart = c;
+			while (c < nTileCols && dirty[c])
+				c++;
+			int x0 = cStart * tileSize;
+			int x1 = Math.min(c * tileSize, w);
+			for (int y = y0; y < y1; y++) {
+				int offset = y * width + x0;
+				System.arraycopy(pixels, offset, previous, offset, x1 - x0);
+			}
+			regions.add(new Rectangle(x0, y0, x1 - x0, y1 - y0));
+		}
+		return regions;
+	}
+
+}
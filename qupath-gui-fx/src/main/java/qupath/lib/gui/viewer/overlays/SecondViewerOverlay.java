@@ -154,6 +154,14 @@ public class SecondViewerOverlay extends AbstractOverlay implements QuPathViewer
 		protected BufferedImage createBufferedImage(final int w, final int h) {
 			return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 		}
+		
+		/**
+		 * The image is painted as part of another viewer, so must be ready as soon as it is requested.
+		 */
+		@Override
+		protected boolean isImageRenderedInBackground() {
+			return false;
+		}
 
 	}
 	
@@ -29,9 +29,10 @@ import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -54,6 +55,9 @@ import qupath.lib.objects.PathObject;
  * Default ViewTracker implementation.
  * 
  * This tracks only viewer location and cursor position (no eye tracking... because it can't see you).
+ * <p>
+ * Frames are stored compactly, and written to a temporary binary log file while recording so that 
+ * only the most recent frames need to be kept in memory.
  * 
  * TODO: Deal with rotations in the tracker
  * 
@@ -66,6 +70,11 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 
 	private static DecimalFormat df = new DecimalFormat("#.##");
 	protected static final String LOG_DELIMITER = "\t";
+	
+	/**
+	 * Maximum number of recorded frames to keep in memory when a log file is available.
+	 */
+	private static final int MAX_FRAMES_IN_MEMORY = 16384;
 
 	transient private QuPathViewer viewer;
 
@@ -76,8 +85,7 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 
 	private long startTime = 0;
 
-	private List<ViewRecordingFrame> frames = new ArrayList<>();
-	transient ViewRecordingFrame lastFrame = null;
+	private ViewRecordingFrameStore frames = new ViewRecordingFrameStore(MAX_FRAMES_IN_MEMORY);
 	private boolean hasEyeTrackingData = false;
 	
 	private boolean initialized = false;
@@ -102,7 +110,7 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 
 	@Override
 	public ViewRecordingFrame getFrame(int index) {
-		return frames.get(index);
+		return frames.getFrame(index);
 	}
 
 
@@ -121,6 +129,15 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 		// Look for a server
 		ImageServer<BufferedImage> server = viewer.getServer();
 		initializeRecording(server.getPath(), server.getWidth(), server.getHeight());
+		if (frames.getLogFile() == null) {
+			try {
+				File fileLog = File.createTempFile("qupath-tracking-", ".log");
+				fileLog.deleteOnExit();
+				frames.startLog(fileLog);
+			} catch (IOException e) {
+				logger.warn("Unable to create view tracking log - all frames will be kept in memory", e);
+			}
+		}
 		viewer.addViewerListener(this);
 		doCursorTracking = PathPrefs.getTrackCursorPosition();
 		if (doCursorTracking) {
@@ -158,6 +175,11 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 			viewer.getView().removeEventHandler(MouseEvent.MOUSE_MOVED, mouseHandler);
 			viewer.getView().removeEventHandler(MouseEvent.MOUSE_DRAGGED, mouseHandler);
 		}
+		try {
+			frames.flush();
+		} catch (IOException e) {
+			logger.warn("Unable to flush view tracking log", e);
+		}
 	}
 
 
@@ -166,7 +188,6 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 		if (isRecording())
 			setRecording(false);
 		frames.clear();
-		lastFrame = null;
 		//		initializeRecording(null, 0, 0);
 	}
 
@@ -183,7 +204,6 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 	@Deprecated
 	public void initializeRecording(String path, int width, int height) {
 		frames.clear();
-		lastFrame = null;
 		//		initialized = true;
 	}
 
@@ -214,26 +234,27 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 		if (!isRecording()) {
 			logger.error("Recording has not started!  Frame request will be ignored.");
 		}
-		if (lastFrame == null)
+		if (frames.isEmpty())
 			startTime = timestamp;
-		else if (lastFrame.getTimestamp() > timestamp) { // Shouldn't happen... but disregard out-of-order processing
+		else if (frames.getLastTimestamp() > timestamp - startTime) { // Shouldn't happen... but disregard out-of-order processing
 			logger.warn("View tracking frame disregarded with timestamp " + df.format((timestamp - startTime)/1000) + " seconds");
 			return null;
 		}
-		ViewRecordingFrame frame = new ViewRecordingFrame(timestamp-startTime, imageBounds, canvasSize, cursorPoint, eyePoint, isFixated);
-		appendFrame(frame);
+		Rectangle2D bounds = imageBounds.getBounds2D();
+		frames.add(timestamp-startTime, bounds, canvasSize, cursorPoint, eyePoint, isFixated);
+		hasEyeTrackingData = hasEyeTrackingData || eyePoint != null;
 		// Log the frame
-		logger.info(toLogString(lastFrame, LOG_DELIMITER, doCursorTracking, supportsEyeTracking()));
+		ViewRecordingFrame frame = new ViewRecordingFrame(timestamp-startTime, bounds, canvasSize, cursorPoint, eyePoint, isFixated);
+		logger.info(toLogString(frame, LOG_DELIMITER, doCursorTracking, supportsEyeTracking()));
 		return frame;
 	}
 
 
 	@Override
 	public synchronized void appendFrame(final ViewRecordingFrame frame) {
-		if (lastFrame != null && lastFrame.getTimestamp() > frame.getTimestamp())
+		if (frames.getLastTimestamp() > frame.getTimestamp())
 			throw new RuntimeException("Unable to append frame - frame timestamp is earlier than the current timestamp");
-		frames.add(frame);
-		lastFrame = frame;
+		frames.add(frame.getTimestamp(), frame.getImageShape().getBounds2D(), frame.getSize(), frame.getCursorPosition(), frame.getEyePosition(), frame.isEyeFixated());
 		hasEyeTrackingData = hasEyeTrackingData || frame.hasEyePosition();
 	}
 
@@ -420,10 +441,24 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 	
 	/**
 	 * Return an unmodifiable list of all the frames stored by this view tracker.
+	 * <p>
+	 * Frames are created on demand, so the same frame may not be returned twice.
 	 * @return
 	 */
 	public List<ViewRecordingFrame> getFrames() {
-		return Collections.unmodifiableList(frames);
+		return new AbstractList<ViewRecordingFrame>() {
+
+			@Override
+			public ViewRecordingFrame get(int index) {
+				return frames.getFrame(index);
+			}
+
+			@Override
+			public int size() {
+				return frames.size();
+			}
+			
+		};
 	}
 
 
@@ -434,8 +469,8 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 		String delimiter = PathPrefs.getTableDelimiter();
 		sb.append(getLogHeadings(delimiter, doCursorTracking, hasEyeTrackingData));
 		sb.append("\n");
-		for (ViewRecordingFrame frame : frames) {
-			sb.append(toLogString(frame, delimiter, doCursorTracking, hasEyeTrackingData));
+		for (int i = 0; i < frames.size(); i++) {
+			sb.append(toLogString(frames.getFrame(i), delimiter, doCursorTracking, hasEyeTrackingData));
 			sb.append("\n");
 		}
 		return sb.toString();
@@ -503,26 +538,22 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 
 	@Override
 	public boolean isLastFrame(ViewRecordingFrame frame) {
-		return frame == lastFrame;
+		// Frames are created on demand, so check the timestamp rather than the identity
+		return frame != null && !frames.isEmpty() && frame.getTimestamp() >= frames.getLastTimestamp();
 	}
 
 
 
 	/**
-	 * Returns the frame visible at time t (in ms)
+	 * Returns the frame visible at time t (in ms), using a binary search of the frame timestamps.
 	 * 
 	 * @param t
 	 * @return
 	 */
 	@Override
 	public ViewRecordingFrame getFrameForTime(long t) {
-		// TODO: Improve efficiency of frame identification code!
-		for (int i = frames.size()-1; i >= 0; i--) {
-			if (frames.get(i).getTimestamp() < t) {
-				return frames.get(i);
-			}
-		}
-		return null;
+		int ind = frames.getIndexForTime(t);
+		return ind < 0 ? null : frames.getFrame(ind);
 	}
 
 	@Override
@@ -531,7 +562,8 @@ public class DefaultViewTracker implements ViewTracker, QuPathViewerListener {
 	@Override
 	public void visibleRegionChanged(final QuPathViewer viewer, final Shape shape) {
 		// If the image has been updated, then it could be because a change of view that we want to track
-		if (lastFrame != null && lastFrame.getImageShape().equals(shape) && lastFrame.getSize().equals(viewer.getSize()))
+		Dimension canvasSize = viewer.getSize();
+		if (frames.lastFrameMatches(shape.getBounds2D(), canvasSize.width, canvasSize.height))
 			return;
 
 		addFrame(System.currentTimeMillis(), shape, viewer.getSize(), getMousePointIfRequired(), null, null);
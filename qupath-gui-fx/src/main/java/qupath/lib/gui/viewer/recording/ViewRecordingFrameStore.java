@@ -0,0 +1,441 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer.recording;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact storage for {@link ViewRecordingFrame} data.
+ * <p>
+ * Frame values are stored in primitive arrays, and {@link ViewRecordingFrame} objects are only created when requested.
+ * All timestamps are retained in memory as an index, so that the frame for any time can be found by binary search.
+ * <p>
+ * Optionally, frames can be continuously written to a binary log file with fixed-length records.
+ * In that case only the most recent frames are held in memory (in a ring buffer), and older frames are read back 
+ * from the log whenever they are needed.  Without a log file, all frames are kept in memory.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class ViewRecordingFrameStore {
+	
+	private final static Logger logger = LoggerFactory.getLogger(ViewRecordingFrameStore.class);
+	
+	private static final int MAGIC = 0x51505654; // 'QPVT'
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 8;
+	
+	/**
+	 * Timestamp, image bounds (x, y, width, height), canvas size, cursor position, eye position & fixation flag.
+	 */
+	static final int RECORD_BYTES = 8 + 4*8 + 2*4 + 2*8 + 2*8 + 1;
+	
+	private static final int WRITE_BUFFER_FRAMES = 256;
+	
+	private static final byte FIXATED_UNKNOWN = -1;
+	
+	private final int maxFramesInMemory;
+	
+	private int nFrames = 0;
+	private long[] timestamps = new long[1024];
+	
+	private int capacity = 1024;
+	private double[] bounds = new double[capacity * 4];
+	private int[] canvas = new int[capacity * 2];
+	private double[] cursor = new double[capacity * 2];
+	private double[] eye = new double[capacity * 2];
+	private byte[] fixated = new byte[capacity];
+	
+	private File logFile;
+	private FileChannel logChannel;
+	private ByteBuffer writeBuffer;
+	private ByteBuffer readBuffer;
+	
+	/**
+	 * Create a store that retains up to a maximum number of frames in memory whenever a log file is available.
+	 * 
+	 * @param maxFramesInMemory
+	 */
+	ViewRecordingFrameStore(final int maxFramesInMemory) {
+		this.maxFramesInMemory = Math.max(maxFramesInMemory, WRITE_BUFFER_FRAMES);
+	}
+	
+	/**
+	 * Start writing frames to a binary log file, replacing its contents.
+	 * <p>
+	 * Any frames already in the store are written immediately.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	synchronized void startLog(final File file) throws IOException {
+		closeLog();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining())
+			channel.write(header);
+		logFile = file;
+		logChannel = channel;
+		writeBuffer = ByteBuffer.allocate(RECORD_BYTES * WRITE_BUFFER_FRAMES);
+		readBuffer = ByteBuffer.allocate(RECORD_BYTES);
+		for (int i = 0; i < nFrames; i++) {
+			putRecord(writeBuffer, i);
+			if (!writeBuffer.hasRemaining())
+				flushWriteBuffer();
+		}
+		flushWriteBuffer();
+	}
+	
+	/**
+	 * Get the current log file, or null if frames are not being logged.
+	 * @return
+	 */
+	synchronized File getLogFile() {
+		return logFile;
+	}
+	
+	/**
+	 * Write any pending frames to the log file, if there is one.
+	 * 
+	 * @throws IOException
+	 */
+	synchronized void flush() throws IOException {
+		if (logChannel != null) {
+			flushWriteBuffer();
+			logChannel.force(false);
+		}
+	}
+	
+	/**
+	 * Close the log file (if any).  Frames that are no longer in memory are first read back, 
+	 * so that the store remains complete.
+	 */
+	synchronized void closeLog() {
+		if (logChannel == null)
+			return;
+		try {
+			flushWriteBuffer();
+		} catch (IOException e) {
+			logger.error("Unable to write to view tracking log " + logFile, e);
+		}
+		int first = firstFrameInMemory();
+		if (first > 0) {
+			// Reload everything into memory, since we can no longer rely on the log
+			Frames frames = new Frames(nFrames);
+			try {
+				for (int i = 0; i < nFrames; i++)
+					frames.set(i, getFrame(i));
+			} catch (RuntimeException e) {
+				logger.error("Unable to read view tracking log - only the last " + (nFrames - first) + " frames will be retained", e);
+				frames = new Frames(nFrames - first);
+				for (int i = first; i < nFrames; i++)
+					frames.set(i - first, getFrame(i));
+			}
+			restoreFrom(frames);
+		}
+		try {
+			logChannel.close();
+		} catch (IOException e) {
+			logger.warn("Error closing view tracking log " + logFile, e);
+		}
+		logChannel = null;
+		logFile = null;
+		writeBuffer = null;
+		readBuffer = null;
+	}
+	
+	/**
+	 * Remove all frames, truncating the log file if there is one.
+	 */
+	synchronized void clear() {
+		nFrames = 0;
+		if (logChannel != null) {
+			try {
+				writeBuffer.clear();
+				logChannel.truncate(HEADER_BYTES);
+			} catch (IOException e) {
+				logger.error("Unable to truncate view tracking log " + logFile, e);
+			}
+		}
+	}
+	
+	synchronized int size() {
+		return nFrames;
+	}
+	
+	synchronized boolean isEmpty() {
+		return nFrames == 0;
+	}
+	
+	synchronized long getTimestamp(final int index) {
+		checkIndex(index);
+		return timestamps[index];
+	}
+	
+	/**
+	 * Get the timestamp of the most recent frame, or Long.MIN_VALUE if the store is empty.
+	 * @return
+	 */
+	synchronized long getLastTimestamp() {
+		return nFrames == 0 ? Long.MIN_VALUE : timestamps[nFrames-1];
+	}
+	
+	/**
+	 * Get the index of the last frame with a timestamp before t, or -1 if there is no such frame.
+	 * 
+	 * @param t
+	 * @return
+	 */
+	synchronized int getIndexForTime(final long t) {
+		int low = 0;
+		int high = nFrames - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (timestamps[mid] < t)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return low - 1;
+	}
+	
+	/**
+	 * Check whether the most recent frame has the specified bounds and canvas size.
+	 * 
+	 * @param imageBounds
+	 * @param canvasWidth
+	 * @param canvasHeight
+	 * @return
+	 */
+	synchronized boolean lastFrameMatches(final Rectangle2D imageBounds, final int canvasWidth, final int canvasHeight) {
+		if (nFrames == 0)
+			return false;
+		int ind = (nFrames - 1) % capacity;
+		return bounds[ind*4] == imageBounds.getX() && bounds[ind*4+1] == imageBounds.getY() &&
+				bounds[ind*4+2] == imageBounds.getWidth() && bounds[ind*4+3] == imageBounds.getHeight() &&
+				canvas[ind*2] == canvasWidth && canvas[ind*2+1] == canvasHeight;
+	}
+	
+	/**
+	 * Add a frame.  Timestamps are expected to be in ascending order.
+	 * 
+	 * @param timestamp
+	 * @param imageBounds
+	 * @param canvasSize
+	 * @param cursorPosition
+	 * @param eyePosition
+	 * @param isFixated
+	 */
+	synchronized void add(final long timestamp, final Rectangle2D imageBounds, final Dimension canvasSize, final Point2D cursorPosition, final Point2D eyePosition, final Boolean isFixated) {
+		if (nFrames == timestamps.length)
+			timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+		if (nFrames >= capacity && (logChannel == null || capacity < maxFramesInMemory))
+			ensureCapacity(logChannel == null ? capacity * 2 : Math.min(capacity * 2, maxFramesInMemory));
+		
+		timestamps[nFrames] = timestamp;
+		int ind = nFrames % capacity;
+		bounds[ind*4] = imageBounds.getX();
+		bounds[ind*4+1] = imageBounds.getY();
+		bounds[ind*4+2] = imageBounds.getWidth();
+		bounds[ind*4+3] = imageBounds.getHeight();
+		canvas[ind*2] = canvasSize.width;
+		canvas[ind*2+1] = canvasSize.height;
+		cursor[ind*2] = cursorPosition == null ? Double.NaN : cursorPosition.getX();
+		cursor[ind*2+1] = cursorPosition == null ? Double.NaN : cursorPosition.getY();
+		eye[ind*2] = eyePosition == null ? Double.NaN : eyePosition.getX();
+		eye[ind*2+1] = eyePosition == null ? Double.NaN : eyePosition.getY();
+		fixated[ind] = isFixated == null ? FIXATED_UNKNOWN : (byte)(isFixated ? 1 : 0);
+		nFrames++;
+		
+		if (logChannel != null) {
+			putRecord(writeBuffer, nFrames - 1);
+			if (!writeBuffer.hasRemaining()) {
+				try {
+					flushWriteBuffer();
+				} catch (IOException e) {
+					logger.error("Unable to write to view tracking log - frames will be kept in memory", e);
+					closeLog();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Create a frame for the specified index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	synchronized ViewRecordingFrame getFrame(final int index) {
+		checkIndex(index);
+		if (index >= firstFrameInMemory()) {
+			int ind = index % capacity;
+			return createFrame(timestamps[index],
+					bounds[ind*4], bounds[ind*4+1], bounds[ind*4+2], bounds[ind*4+3],
+					canvas[ind*2], canvas[ind*2+1],
+					cursor[ind*2], cursor[ind*2+1],
+					eye[ind*2], eye[ind*2+1],
+					fixated[ind]);
+		}
+		try {
+			readBuffer.clear();
+			long pos = HEADER_BYTES + (long)index * RECORD_BYTES;
+			while (readBuffer.hasRemaining()) {
+				if (logChannel.read(readBuffer, pos + readBuffer.position()) < 0)
+					throw new IOException("Unexpected end of view tracking log");
+			}
+			readBuffer.flip();
+			return readRecord(readBuffer);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read frame " + index + " from " + logFile, e);
+		}
+	}
+	
+	private int firstFrameInMemory() {
+		return Math.max(0, nFrames - capacity);
+	}
+	
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= nFrames)
+			throw new IndexOutOfBoundsException("Frame index " + index + " out of range (" + nFrames + " frames)");
+	}
+	
+	/**
+	 * Grow the in-memory arrays.  This is only called before the ring buffer has wrapped around.
+	 */
+	private void ensureCapacity(final int newCapacity) {
+		if (newCapacity <= capacity)
+			return;
+		bounds = Arrays.copyOf(bounds, newCapacity * 4);
+		canvas = Arrays.copyOf(canvas, newCapacity * 2);
+		cursor = Arrays.copyOf(cursor, newCapacity * 2);
+		eye = Arrays.copyOf(eye, newCapacity * 2);
+		fixated = Arrays.copyOf(fixated, newCapacity);
+		capacity = newCapacity;
+	}
+	
+	private void restoreFrom(final Frames frames) {
+		int n = frames.timestamps.length;
+		capacity = Math.max(n, 16);
+		timestamps = Arrays.copyOf(frames.timestamps, capacity);
+		bounds = Arrays.copyOf(frames.bounds, capacity * 4);
+		canvas = Arrays.copyOf(frames.canvas, capacity * 2);
+		cursor = Arrays.copyOf(frames.cursor, capacity * 2);
+		eye = Arrays.copyOf(frames.eye, capacity * 2);
+		fixated = Arrays.copyOf(frames.fixated, capacity);
+		nFrames = n;
+	}
+	
+	private void flushWriteBuffer() throws IOException {
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining())
+			logChannel.write(writeBuffer);
+		writeBuffer.clear();
+	}
+	
+	private void putRecord(final ByteBuffer buffer, final int index) {
+		int ind = index % capacity;
+		buffer.putLong(timestamps[index]);
+		for (int i = 0; i < 4; i++)
+			buffer.putDouble(bounds[ind*4+i]);
+		buffer.putInt(canvas[ind*2]);
+		buffer.putInt(canvas[ind*2+1]);
+		buffer.putDouble(cursor[ind*2]);
+		buffer.putDouble(cursor[ind*2+1]);
+		buffer.putDouble(eye[ind*2]);
+		buffer.putDouble(eye[ind*2+1]);
+		buffer.put(fixated[ind]);
+	}
+	
+	private static ViewRecordingFrame readRecord(final ByteBuffer buffer) {
+		return createFrame(buffer.getLong(),
+				buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+				buffer.getInt(), buffer.getInt(),
+				buffer.getDouble(), buffer.getDouble(),
+				buffer.getDouble(), buffer.getDouble(),
+				buffer.get());
+	}
+	
+	private static ViewRecordingFrame createFrame(long timestamp, double x, double y, double width, double height,
+			int canvasWidth, int canvasHeight, double cursorX, double cursorY, double eyeX, double eyeY, byte fixated) {
+		Point2D pCursor = Double.isNaN(cursorX) ? null : new Point2D.Double(cursorX, cursorY);
+		Point2D pEye = Double.isNaN(eyeX) ? null : new Point2D.Double(eyeX, eyeY);
+		Boolean isFixated = fixated == FIXATED_UNKNOWN ? null : Boolean.valueOf(fixated == 1);
+		return new ViewRecordingFrame(timestamp, new Rectangle2D.Double(x, y, width, height), new Dimension(canvasWidth, canvasHeight), pCursor, pEye, isFixated);
+	}
+	
+	
+	/**
+	 * Temporary column arrays, used when reloading frames from the log.
+	 */
+	private static class Frames {
+		
+		private final long[] timestamps;
+		private final double[] bounds, cursor, eye;
+		private final int[] canvas;
+		private final byte[] fixated;
+		
+		Frames(final int n) {
+			timestamps = new long[n];
+			bounds = new double[n * 4];
+			canvas = new int[n * 2];
+			cursor = new double[n * 2];
+			eye = new double[n * 2];
+			fixated = new byte[n];
+		}
+		
+		void set(final int i, final ViewRecordingFrame frame) {
+			timestamps[i] = frame.getTimestamp();
+			Rectangle2D rect = frame.getImageShape().getBounds2D();
+			bounds[i*4] = rect.getX();
+			bounds[i*4+1] = rect.getY();
+			bounds[i*4+2] = rect.getWidth();
+			bounds[i*4+3] = rect.getHeight();
+			canvas[i*2] = frame.getSize().width;
+			canvas[i*2+1] = frame.getSize().height;
+			Point2D p = frame.getCursorPosition();
+			cursor[i*2] = p == null ? Double.NaN : p.getX();
+			cursor[i*2+1] = p == null ? Double.NaN : p.getY();
+			p = frame.getEyePosition();
+			eye[i*2] = p == null ? Double.NaN : p.getX();
+			eye[i*2+1] = p == null ? Double.NaN : p.getY();
+			fixated[i] = frame.isEyeFixated() == null ? FIXATED_UNKNOWN : (byte)(frame.isEyeFixated() ? 1 : 0);
+		}
+		
+	}
+
+}
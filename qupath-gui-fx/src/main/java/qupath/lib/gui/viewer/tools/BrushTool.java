@@ -23,12 +23,18 @@
 
 package qupath.lib.gui.viewer.tools;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Shape;
+import java.awt.Stroke;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.ImageObserver;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -37,20 +43,25 @@ import java.util.Set;
 import javafx.scene.Cursor;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.paint.Color;
+import qupath.lib.awt.color.ColorToolsAwt;
 import qupath.lib.awt.common.AwtTools;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.ModeWrapper;
+import qupath.lib.gui.viewer.OverlayOptions;
+import qupath.lib.gui.viewer.PathHierarchyPaintingHelper;
 import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.gui.viewer.overlays.AbstractOverlay;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathTileObject;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.helpers.PathObjectColorToolsAwt;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.AWTAreaROI;
 import qupath.lib.roi.AreaROI;
+import qupath.lib.roi.BrushMask;
 import qupath.lib.roi.ROIHelpers;
 import qupath.lib.roi.PathROIToolsAwt;
 import qupath.lib.roi.PolygonROI;
@@ -89,9 +100,17 @@ public class BrushTool extends AbstractPathROITool {
 	
 	private SnapshotParameters snapshotParameters = new SnapshotParameters();
 	
+	/**
+	 * Raster mask used to accumulate strokes while the mouse is being dragged.
+	 * This is converted to a vector ROI only when the mouse is released.
+	 */
+	private BrushMask brushMask;
+	private PathAnnotationObject brushObject;
+	private BrushMaskOverlay brushOverlay;
+	
 	public BrushTool(ModeWrapper modes) {
 		super(modes);
-		snapshotParameters.setFill(Color.TRANSPARENT);
+		snapshotParameters.setFill(javafx.scene.paint.Color.TRANSPARENT);
 	}
 	
 	
@@ -221,6 +240,15 @@ public class BrushTool extends AbstractPathROITool {
 		
 		
 		PathShape shapeROI = createNew ? null : (PathShape)currentObject.getROI();
+		if (!PathPrefs.getUseTileBrush() || e.isShiftDown()) {
+			creatingTiledROI = false;
+			PathAnnotationObject pathObject = createNew ? 
+					new PathAnnotationObject(new AWTAreaROI(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0), -1, viewer.getZPosition(), viewer.getTPosition())) :
+					(PathAnnotationObject)currentObject;
+			startBrushMask(pathObject);
+			applyBrushMask(e);
+			return;
+		}
 		if (createNew) {
 			creatingTiledROI = false; // Reset this
 			viewer.setSelectedObject(new PathAnnotationObject(new AWTAreaROI(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0), -1, viewer.getZPosition(), viewer.getTPosition())));
@@ -241,6 +269,11 @@ public class BrushTool extends AbstractPathROITool {
             return;
         }
 		
+		if (brushMask != null) {
+			applyBrushMask(e);
+			return;
+		}
+		
 		// Can only modify annotations
 		// TODO: Check for object being locked!
 		PathObject pathObject = viewer.getSelectedObject();
@@ -264,6 +297,78 @@ public class BrushTool extends AbstractPathROITool {
 	}
 	
 	
+	/**
+	 * Start accumulating brush strokes for an object in a raster mask.
+	 * While painting, the object keeps its original ROI but is deselected, and an overlay displays the mask instead 
+	 * (so that the original ROI isn't also painted by the viewer).
+	 * 
+	 * @param pathObject
+	 */
+	private void startBrushMask(PathAnnotationObject pathObject) {
+		// Shouldn't happen, but make sure we don't leave behind an overlay from a stroke that never finished
+		if (brushOverlay != null)
+			viewer.getCustomOverlayLayers().remove(brushOverlay);
+		ROI roi = pathObject.getROI();
+		brushObject = pathObject;
+		// Use a mask resolution finer than the screen, so that the final shape looks smooth at the current magnification
+		brushMask = new BrushMask(roi.isEmpty() ? null : PathROIToolsAwt.getShape(roi), viewer.getDownsampleFactor() / 2.0);
+		viewer.setSelectedObject(null);
+		brushOverlay = new BrushMaskOverlay(brushMask, pathObject, viewer.getOverlayOptions());
+		viewer.getCustomOverlayLayers().add(brushOverlay);
+	}
+	
+	private void applyBrushMask(MouseEvent e) {
+		Point2D p = viewer.componentPointToImagePoint(e.getX(), e.getY(), null, true);
+		Shape shapeDrawn = createShape(p.getX(), p.getY(), false, null);
+		if (shapeDrawn == null)
+			return;
+		boolean changed = isSubtractMode(e) ? brushMask.subtract(shapeDrawn) : brushMask.add(shapeDrawn);
+		if (changed)
+			viewer.repaint();
+	}
+	
+	/**
+	 * Convert the brush mask into a vector ROI, and set it for the object being painted.
+	 * 
+	 * @param e
+	 */
+	private void commitBrushMask(MouseEvent e) {
+		viewer.getCustomOverlayLayers().remove(brushOverlay);
+		PathAnnotationObject pathObject = brushObject;
+		if (brushMask.isChanged()) {
+			ROI roi = pathObject.getROI();
+			// Simplify only the traced contours of the changed tiles, to remove the steps introduced by the mask pixels
+			Area area = brushMask.getArea(Math.max(0.5, brushMask.getDownsample()));
+			// Shift switches to 'dodge' mode, to avoid overlapping existing annotations
+			if (e.isShiftDown())
+				subtractOtherAnnotations(area, brushMask.getChangedBounds().getBounds());
+			pathObject.setROI(PathROIToolsAwt.getShapeROI(area, roi.getC(), roi.getZ(), roi.getT()));
+		}
+		brushMask = null;
+		brushObject = null;
+		brushOverlay = null;
+		viewer.setSelectedObject(pathObject);
+	}
+	
+	/**
+	 * Subtract all annotations (except those with reserved classes) within a specified region from an area.
+	 * 
+	 * @param area
+	 * @param bounds
+	 */
+	private void subtractOtherAnnotations(Area area, Rectangle bounds) {
+		Collection<PathObject> annotations = viewer.getHierarchy().getObjectsForRegion(PathAnnotationObject.class, ImageRegion.createInstance(
+				bounds.x, bounds.y, bounds.width, bounds.height, viewer.getZPosition(), viewer.getTPosition()), null);
+		for (PathObject pathObject : annotations) {
+			if (reservedPathClasses.contains(pathObject.getPathClass()))
+				continue;
+			if (pathObject.getROI() instanceof PathArea) {
+				area.subtract(PathROIToolsAwt.getArea(pathObject.getROI()));
+			}
+		}
+	}
+	
+	
 	private PathObject getUpdatedObject(MouseEvent e, PathShape shapeROI, PathObject currentObject, double flatness) {
 		Point2D p = viewer.componentPointToImagePoint(e.getX(), e.getY(), null, true);
 		PathShape shapeNew;
@@ -286,20 +391,9 @@ public class BrushTool extends AbstractPathROITool {
 				shapeNew = PathROIToolsAwt.combineROIs(shapeROI,
 						new AWTAreaROI(shapeDrawn, shapeROI.getC(), shapeROI.getZ(), shapeROI.getT()), PathROIToolsAwt.CombineOp.SUBTRACT, flatness);
 			} else if (avoidOtherAnnotations) {
-				Rectangle bounds2 = shapeDrawn.getBounds();
-				Collection<PathObject> annotations = viewer.getHierarchy().getObjectsForRegion(PathAnnotationObject.class, ImageRegion.createInstance(
-						bounds2.x, bounds2.y, bounds2.width, bounds2.height, viewer.getZPosition(), viewer.getTPosition()), null);
 				Area area = new Area(shapeCurrent);
 				area.add(new Area(shapeDrawn));
-				if (!annotations.isEmpty()) {
-					for (PathObject pathObject : annotations) {
-						if (reservedPathClasses.contains(pathObject.getPathClass()))
-							continue;
-						if (pathObject.getROI() instanceof PathArea) {
-							area.subtract(PathROIToolsAwt.getArea(pathObject.getROI()));
-						}
-					}
-				}
+				subtractOtherAnnotations(area, shapeDrawn.getBounds());
 				shapeNew = PathROIToolsAwt.getShapeROI(area, shapeROI.getC(), shapeROI.getZ(), shapeROI.getT());
 			} else {
 				// Just add, regardless of whether there are other annotations below or not
@@ -337,6 +431,10 @@ public class BrushTool extends AbstractPathROITool {
 		
 		ensureCursorType(Cursor.DEFAULT);
 		
+		boolean brushMaskCommitted = brushMask != null;
+		if (brushMaskCommitted)
+			commitBrushMask(e);
+		
 		if (e.isConsumed())
 			return;
 
@@ -352,7 +450,7 @@ public class BrushTool extends AbstractPathROITool {
 			else {
 				// Create a polygon ROI if possible
 				ROI pathROI = viewer.getCurrentROI();
-				if (pathROI instanceof AreaROI) {
+				if (!brushMaskCommitted && pathROI instanceof AreaROI) {
 					// Simplify the shape as we go to discard unnecessary vertices
 //					int nVertices = 
 //							(pathROI instanceof PolygonROI) ? ((PolygonROI)pathROI).nVertices() :
@@ -449,6 +547,61 @@ public class BrushTool extends AbstractPathROITool {
 	}
 	
 	private boolean creatingTiledROI = false;
+	
+	
+	/**
+	 * Overlay to display an object while it is being painted with a {@link BrushMask}.
+	 * <p>
+	 * Outside the tiles that have changed, the original shape is painted; within them, the mask is painted directly.
+	 */
+	private static class BrushMaskOverlay extends AbstractOverlay {
+		
+		private final BrushMask mask;
+		private final PathObject pathObject;
+		
+		BrushMaskOverlay(final BrushMask mask, final PathObject pathObject, final OverlayOptions overlayOptions) {
+			this.mask = mask;
+			this.pathObject = pathObject;
+			this.overlayOptions = overlayOptions;
+		}
+
+		@Override
+		public void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageObserver observer, boolean paintCompletely) {
+			Color color = PathPrefs.getUseSelectedColor() ? ColorToolsAwt.getCachedColor(PathPrefs.getSelectedObjectColor()) : null;
+			if (color == null)
+				color = PathObjectColorToolsAwt.getDisplayedColorAWT(pathObject);
+			Color colorFill = overlayOptions != null && overlayOptions.getFillAnnotations() ? ColorToolsAwt.getMoreTranslucentColor(color) : null;
+			Stroke stroke = PathHierarchyPaintingHelper.getCachedStroke(PathPrefs.getThickStrokeThickness() * downsampleFactor);
+			
+			Graphics2D g = (Graphics2D)g2d.create();
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			
+			// Paint the original shape, excluding the changed tiles
+			Shape baseShape = mask.getBaseShape();
+			if (baseShape != null) {
+				Graphics2D gBase = (Graphics2D)g.create();
+				if (mask.isChanged()) {
+					Path2D clip = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+					clip.append(AwtTools.getBounds(imageRegion), false);
+					clip.append(mask.getChangedRegion(), false);
+					gBase.clip(clip);
+				}
+				PathHierarchyPaintingHelper.paintShape(baseShape, gBase, color, stroke, colorFill, downsampleFactor);
+				gBase.dispose();
+			}
+			
+			// Paint the mask within the changed tiles
+			if (mask.isChanged()) {
+				if (colorFill != null)
+					mask.paintChangedTiles(g, colorFill);
+				g.setColor(color);
+				g.setStroke(stroke);
+				g.draw(mask.getOutline());
+			}
+			g.dispose();
+		}
+		
+	}
 
 	@Override
 	protected ROI createNewROI(double x, double y, int z, int t) {
@@ -0,0 +1,258 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.gui.models.ObservableMeasurementTableData;
+import qupath.lib.gui.models.PathTableData;
+import qupath.lib.io.MeasurementExporter.Column;
+import qupath.lib.objects.PathObject;
+
+/**
+ * Static methods for exporting the contents of a {@link PathTableData} model, without first building the entire table in memory.
+ * <p>
+ * The export itself is performed by {@link MeasurementExporter}. For an {@link ObservableMeasurementTableData}, 
+ * measurements are read directly from the measurement list of each object - and the model is only used for derived columns 
+ * (e.g. the object name, class or counts). The output is identical to the table contents copied to the clipboard.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MeasurementTableExporter {
+	
+	/**
+	 * Default file extension for the columnar binary format.
+	 */
+	final public static String BINARY_EXTENSION = MeasurementExporter.BINARY_EXTENSION;
+	
+	/**
+	 * Get the names of all columns that should be exported, in order.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @return
+	 */
+	public static List<String> getColumnNames(final PathTableData<?> model, final Collection<String> excludeColumns) {
+		List<String> names = new ArrayList<>(model.getAllNames());
+		if (excludeColumns != null)
+			names.removeAll(excludeColumns);
+		return names;
+	}
+	
+	/**
+	 * Write a model as delimited text to a file, using the default Locale to format numbers.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @param delimiter
+	 * @param file
+	 * @throws IOException
+	 */
+	public static <T> void writeDelimited(final PathTableData<T> model, final Collection<String> excludeColumns, final String delimiter, final File file) throws IOException {
+		try (FileChannel channel = MeasurementExporter.openChannel(file)) {
+			writeDelimited(model, getColumnNames(model, excludeColumns), delimiter, channel);
+		}
+	}
+	
+	/**
+	 * Write a model as delimited text to a channel, using the default Locale to format numbers.
+	 * <p>
+	 * The output is the same as the table contents copied to the clipboard, encoded as UTF-8.
+	 * 
+	 * @param model
+	 * @param columns
+	 * @param delimiter
+	 * @param channel
+	 * @throws IOException
+	 */
+	public static <T> void writeDelimited(final PathTableData<T> model, final List<String> columns, final String delimiter, final WritableByteChannel channel) throws IOException {
+		if (model instanceof ObservableMeasurementTableData) {
+			ObservableMeasurementTableData measurementModel = (ObservableMeasurementTableData)model;
+			MeasurementExporter.writeDelimited(new ArrayList<>(measurementModel.getEntries()), createColumns(measurementModel, columns), delimiter, true, channel);
+		} else
+			MeasurementExporter.writeDelimited(new ArrayList<>(model.getEntries()), createColumns(model, columns), delimiter, false, channel);
+	}
+	
+	/**
+	 * Write a model to a file in a columnar binary format.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @param file
+	 * @throws IOException
+	 * 
+	 * @see #readBinary(File)
+	 */
+	public static <T> void writeBinary(final PathTableData<T> model, final Collection<String> excludeColumns, final File file) throws IOException {
+		try (FileChannel channel = MeasurementExporter.openChannel(file)) {
+			writeBinary(model, getColumnNames(model, excludeColumns), channel);
+		}
+	}
+	
+	/**
+	 * Write a model to a channel in a columnar binary format.
+	 * 
+	 * @param model
+	 * @param columns
+	 * @param channel
+	 * @throws IOException
+	 * 
+	 * @see MeasurementExporter#writeBinary(List, List, boolean, WritableByteChannel)
+	 */
+	public static <T> void writeBinary(final PathTableData<T> model, final List<String> columns, final WritableByteChannel channel) throws IOException {
+		if (model instanceof ObservableMeasurementTableData) {
+			ObservableMeasurementTableData measurementModel = (ObservableMeasurementTableData)model;
+			MeasurementExporter.writeBinary(new ArrayList<>(measurementModel.getEntries()), createColumns(measurementModel, columns), true, channel);
+		} else
+			MeasurementExporter.writeBinary(new ArrayList<>(model.getEntries()), createColumns(model, columns), false, channel);
+	}
+	
+	/**
+	 * Read a table written in the columnar binary format.
+	 * 
+	 * @param file
+	 * @return an ordered map of column names to values, where each value is either a double[] (numeric columns) or a String[] (String columns)
+	 * @throws IOException
+	 * 
+	 * @see MeasurementExporter#readBinary(File)
+	 */
+	public static Map<String, Object> readBinary(final File file) throws IOException {
+		return MeasurementExporter.readBinary(file);
+	}
+	
+	/**
+	 * Create columns for a measurement table, reading measurements directly from each object 
+	 * and only using the model for derived columns.
+	 * <p>
+	 * The model is safe to read from multiple threads, provided the objects are not modified.
+	 */
+	private static List<Column<PathObject>> createColumns(final ObservableMeasurementTableData model, final List<String> columns) {
+		List<Column<PathObject>> list = new ArrayList<>();
+		for (String name : columns) {
+			if (model.isDerivedMeasurement(name))
+				list.add(new DerivedColumn(model, name));
+			else
+				list.add(MeasurementExporter.createMeasurementColumn(name));
+		}
+		return list;
+	}
+	
+	private static <T> List<Column<T>> createColumns(final PathTableData<T> model, final List<String> columns) {
+		List<String> measurementNames = model.getMeasurementNames();
+		List<Column<T>> list = new ArrayList<>();
+		for (String name : columns)
+			list.add(new ModelColumn<>(model, name, measurementNames.contains(name)));
+		return list;
+	}
+	
+	
+	/**
+	 * Column computed by an {@link ObservableMeasurementTableData}, e.g. the object name or a derived count.
+	 */
+	private static class DerivedColumn implements Column<PathObject> {
+		
+		private final ObservableMeasurementTableData model;
+		private final String name;
+		private final boolean isNumeric;
+		
+		DerivedColumn(final ObservableMeasurementTableData model, final String name) {
+			this.model = model;
+			this.name = name;
+			this.isNumeric = model.isNumericMeasurement(name);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isNumeric() {
+			return isNumeric;
+		}
+
+		@Override
+		public double getNumericValue(final PathObject entry) {
+			return model.getNumericValue(entry, name);
+		}
+
+		@Override
+		public String getStringValue(final PathObject entry) {
+			return model.getStringValue(entry, name);
+		}
+		
+		@Override
+		public StringBuilder appendValue(final StringBuilder sb, final PathObject entry, final char decimalSeparator) {
+			return model.appendValue(sb, entry, name, decimalSeparator);
+		}
+		
+	}
+	
+	/**
+	 * Column read from any other {@link PathTableData}.
+	 */
+	private static class ModelColumn<T> implements Column<T> {
+		
+		private final PathTableData<T> model;
+		private final String name;
+		private final boolean isNumeric;
+		
+		ModelColumn(final PathTableData<T> model, final String name, final boolean isNumeric) {
+			this.model = model;
+			this.name = name;
+			this.isNumeric = isNumeric;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isNumeric() {
+			return isNumeric;
+		}
+
+		@Override
+		public double getNumericValue(final T entry) {
+			return model.getNumericValue(entry, name);
+		}
+
+		@Override
+		public String getStringValue(final T entry) {
+			return model.getStringValue(entry, name);
+		}
+		
+	}
+
+}
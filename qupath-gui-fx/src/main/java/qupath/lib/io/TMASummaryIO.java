@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.io;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.gui.models.ObservableMeasurementTableData;
+import qupath.lib.gui.tma.entries.TMAEntry;
+import qupath.lib.gui.tma.entries.TMASidecarEntry;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.TMAGrid;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Static methods to read &amp; write summaries of TMA core measurements.
+ * <p>
+ * A summary is written as a small 'sidecar' file alongside the serialized ImageData, containing the measurements, 
+ * metadata and missing status of each core.  This makes it possible to summarize the results for an entire project 
+ * without needing to read all the detections for every image.
+ * <p>
+ * Each summary stores the last modified time &amp; size of the data file from which it was created, so that 
+ * out-of-date summaries can be identified (e.g. if the data file was subsequently written without updating the summary).
+ * <p>
+ * Summaries are also written for images without a TMA grid (containing no cores), so that these can be skipped 
+ * quickly as well.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TMASummaryIO {
+	
+	final private static Logger logger = LoggerFactory.getLogger(TMASummaryIO.class);
+	
+	/**
+	 * File extension for TMA summary files.
+	 */
+	final public static String TMA_SUMMARY_EXTENSION = ".qptmasummary";
+	
+	private final static int MAGIC = 0x51505453; // 'QPTS'
+	private final static int VERSION = 1;
+	
+	/**
+	 * Get the summary file corresponding to a data file.
+	 * 
+	 * @param fileData
+	 * @return
+	 */
+	public static File getSummaryFile(final File fileData) {
+		String name = fileData.getName();
+		int ind = name.lastIndexOf('.');
+		if (ind > 0)
+			name = name.substring(0, ind);
+		return new File(fileData.getParentFile(), name + TMA_SUMMARY_EXTENSION);
+	}
+	
+	/**
+	 * Write a summary for the TMA cores of an ImageData, which has been (or is being) written to the specified data file.
+	 * This should be called after the data file has been written.
+	 * <p>
+	 * If the ImageData does not contain a TMA grid, the summary is written with no cores.
+	 * If the ImageData is null, any existing summary is deleted.
+	 * 
+	 * @param fileData
+	 * @param imageData
+	 * @return true if a summary was written, false otherwise
+	 */
+	public static boolean writeSummary(final File fileData, final ImageData<?> imageData) {
+		File fileSummary = getSummaryFile(fileData);
+		if (imageData == null) {
+			if (fileSummary.isFile() && !fileSummary.delete())
+				logger.warn("Unable to delete {}", fileSummary);
+			return false;
+		}
+		
+		long startTime = System.currentTimeMillis();
+		TMAGrid grid = imageData.getHierarchy().getTMAGrid();
+		List<TMACoreObject> cores = grid == null ? Collections.emptyList() : grid.getTMACoreList();
+		ObservableMeasurementTableData data = new ObservableMeasurementTableData();
+		List<String> measurementNames;
+		if (cores.isEmpty())
+			measurementNames = Collections.emptyList();
+		else {
+			data.setImageData(imageData, cores);
+			measurementNames = new ArrayList<>(data.getMeasurementNames());
+		}
+		
+		File fileTemp = new File(fileSummary.getAbsolutePath() + ".tmp");
+		try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileTemp)))) {
+			stream.writeInt(MAGIC);
+			stream.writeInt(VERSION);
+			stream.writeLong(fileData.lastModified());
+			stream.writeLong(fileData.length());
+			writeString(stream, imageData.getServerPath());
+			stream.writeInt(measurementNames.size());
+			for (String name : measurementNames)
+				writeString(stream, name);
+			stream.writeInt(cores.size());
+			for (TMACoreObject core : cores) {
+				writeString(stream, core.getName());
+				stream.writeBoolean(core.isMissing());
+				ROI roi = core.getROI();
+				stream.writeInt(roi == null ? 0 : (int)roi.getBoundsX());
+				stream.writeInt(roi == null ? 0 : (int)roi.getBoundsY());
+				stream.writeInt(roi == null ? 0 : (int)Math.ceil(roi.getBoundsWidth()));
+				stream.writeInt(roi == null ? 0 : (int)Math.ceil(roi.getBoundsHeight()));
+				Map<String, String> metadata = core.getMetadataMap();
+				stream.writeInt(metadata.size());
+				for (Map.Entry<String, String> entry : metadata.entrySet()) {
+					writeString(stream, entry.getKey());
+					writeString(stream, entry.getValue());
+				}
+				for (String name : measurementNames)
+					stream.writeDouble(data.getNumericValue(core, name));
+			}
+		} catch (IOException e) {
+			logger.error("Unable to write TMA summary " + fileSummary, e);
+			fileTemp.delete();
+			return false;
+		}
+		
+		try {
+			try {
+				Files.move(fileTemp.toPath(), fileSummary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(fileTemp.toPath(), fileSummary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to write TMA summary " + fileSummary, e);
+			fileTemp.delete();
+			return false;
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("TMA summary written to {} in {} ms", fileSummary, endTime - startTime);
+		return true;
+	}
+	
+	/**
+	 * Returns true if a summary file exists for the data file, and it was written for the current version of the data file.
+	 * 
+	 * @param fileData
+	 * @return
+	 */
+	public static boolean hasCurrentSummary(final File fileData) {
+		File fileSummary = getSummaryFile(fileData);
+		if (!fileSummary.isFile() || !fileData.isFile())
+			return false;
+		try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(fileSummary), 64))) {
+			return readHeader(stream, fileData);
+		} catch (IOException e) {
+			logger.debug("Unable to read TMA summary " + fileSummary, e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Read TMA entries from the summary for a data file.
+	 * 
+	 * @param fileData
+	 * @return a list of entries (empty if the image has no TMA grid), or null if there is no current summary file available
+	 * @throws IOException
+	 */
+	public static List<TMAEntry> readSummary(final File fileData) throws IOException {
+		File fileSummary = getSummaryFile(fileData);
+		if (!fileSummary.isFile() || !fileData.isFile())
+			return null;
+		try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(fileSummary)))) {
+			if (!readHeader(stream, fileData))
+				return null;
+			String serverPath = readString(stream);
+			Supplier<ImageServer<BufferedImage>> serverSupplier = createServerSupplier(serverPath);
+			String[] measurementNames = new String[stream.readInt()];
+			for (int i = 0; i < measurementNames.length; i++)
+				measurementNames[i] = readString(stream);
+			int nCores = stream.readInt();
+			List<TMAEntry> entries = new ArrayList<>(nCores);
+			for (int c = 0; c < nCores; c++) {
+				String name = readString(stream);
+				boolean isMissing = stream.readBoolean();
+				int x = stream.readInt();
+				int y = stream.readInt();
+				int width = stream.readInt();
+				int height = stream.readInt();
+				TMASidecarEntry entry = new TMASidecarEntry(serverPath, serverSupplier, name, isMissing, x, y, width, height);
+				int nMetadata = stream.readInt();
+				for (int i = 0; i < nMetadata; i++) {
+					String key = readString(stream);
+					String value = readString(stream);
+					entry.putMetadata(key, value);
+					if ("Comment".equals(key) && value != null)
+						entry.setComment(value);
+				}
+				for (String measurementName : measurementNames)
+					entry.putMeasurement(measurementName, stream.readDouble());
+				entries.add(entry);
+			}
+			return entries;
+		}
+	}
+	
+	/**
+	 * Check the header, returning true if the summary matches the data file.
+	 */
+	private static boolean readHeader(final DataInputStream stream, final File fileData) throws IOException {
+		if (stream.readInt() != MAGIC)
+			return false;
+		int version = stream.readInt();
+		if (version != VERSION) {
+			logger.debug("Unsupported TMA summary version {}", version);
+			return false;
+		}
+		long lastModified = stream.readLong();
+		long length = stream.readLong();
+		return lastModified == fileData.lastModified() && length == fileData.length();
+	}
+	
+	/**
+	 * Create a supplier that builds an ImageServer only when it is first needed.
+	 * The same server is then returned on subsequent calls.
+	 */
+	private static Supplier<ImageServer<BufferedImage>> createServerSupplier(final String serverPath) {
+		if (serverPath == null)
+			return null;
+		return new Supplier<ImageServer<BufferedImage>>() {
+			
+			private ImageServer<BufferedImage> server;
+			private boolean failed = false;
+
+			@Override
+			public synchronized ImageServer<BufferedImage> get() {
+				if (server == null && !failed) {
+					try {
+						server = ImageServerProvider.buildServer(serverPath, BufferedImage.class);
+					} catch (Exception e) {
+						logger.warn("Unable to open server for {}: {}", serverPath, e.getLocalizedMessage());
+					}
+					failed = server == null;
+				}
+				return server;
+			}
+			
+		};
+	}
+	
+	private static void writeString(final DataOutputStream stream, final String s) throws IOException {
+		if (s == null) {
+			stream.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		stream.writeInt(bytes.length);
+		stream.write(bytes);
+	}
+	
+	private static String readString(final DataInputStream stream) throws IOException {
+		int length = stream.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		stream.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
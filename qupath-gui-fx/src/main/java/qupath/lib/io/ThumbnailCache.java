@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store for many small thumbnail images within a single indexed file.
+ * <p>
+ * Each thumbnail is encoded (as JPEG, or PNG if JPEG encoding fails) and appended to the end of the file 
+ * as a record containing its key and the encoded bytes.  The index of record positions is built when the 
+ * file is opened, by reading only the record headers.  A thumbnail becomes visible through the index only 
+ * once its record has been written completely; an incomplete record at the end of the file (e.g. after a crash) 
+ * is discarded when the file is next opened.
+ * <p>
+ * Replacing a thumbnail appends a new record, leaving the old one as unused space.  When more than half of 
+ * the file is unused, it is compacted when next opened by writing a new file &amp; moving it into place.
+ * <p>
+ * Thumbnails may be read and written from multiple threads.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ThumbnailCache implements Closeable {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+	
+	/**
+	 * File extension for thumbnail cache files.
+	 */
+	final public static String THUMBNAIL_CACHE_EXTENSION = ".qpthumbs";
+	
+	private final static int MAGIC = 0x51505448; // 'QPTH'
+	private final static int VERSION = 1;
+	private final static int HEADER_BYTES = 8;
+	
+	private final File file;
+	private final FileChannel channel;
+	
+	private final Map<String, long[]> index = new LinkedHashMap<>(); // Key -> {position of encoded bytes, number of bytes}
+	private long end;
+	private long unusedBytes = 0;
+	
+	private ThumbnailCache(final File file, final FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+	}
+	
+	/**
+	 * Open a thumbnail cache, creating the file if it does not already exist.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ThumbnailCache open(final File file) throws IOException {
+		ThumbnailCache cache = openChannel(file);
+		if (cache.unusedBytes > cache.end / 2) {
+			logger.debug("Compacting thumbnail cache {} ({} of {} bytes unused)", file, cache.unusedBytes, cache.end);
+			cache.compact();
+			cache = openChannel(file);
+		}
+		return cache;
+	}
+	
+	private static ThumbnailCache openChannel(final File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ThumbnailCache cache = new ThumbnailCache(file, channel);
+		try {
+			cache.readIndex();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return cache;
+	}
+	
+	/**
+	 * Build the index by reading record headers, and check the file header.
+	 */
+	private void readIndex() throws IOException {
+		long size = channel.size();
+		if (size < HEADER_BYTES) {
+			// Start a new file
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			writeFully(header, 0);
+			end = HEADER_BYTES;
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		readFully(header, 0);
+		if (header.getInt() != MAGIC)
+			throw new IOException(file + " is not a thumbnail cache");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported thumbnail cache version " + version);
+		
+		long pos = HEADER_BYTES;
+		ByteBuffer shortBuffer = ByteBuffer.allocate(2);
+		ByteBuffer intBuffer = ByteBuffer.allocate(4);
+		while (pos < size) {
+			// Record: key length (unsigned short), key (UTF-8), data length (int), data
+			if (pos + 2 > size)
+				break;
+			shortBuffer.clear();
+			readFully(shortBuffer, pos);
+			int keyLength = shortBuffer.getShort() & 0xFFFF;
+			if (pos + 2 + keyLength + 4 > size)
+				break;
+			ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+			readFully(keyBuffer, pos + 2);
+			intBuffer.clear();
+			readFully(intBuffer, pos + 2 + keyLength);
+			int dataLength = intBuffer.getInt();
+			long dataPosition = pos + 2 + keyLength + 4;
+			if (dataLength < 0 || dataPosition + dataLength > size)
+				break;
+			String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+			long[] previous = index.put(key, new long[] {dataPosition, dataLength});
+			if (previous != null)
+				unusedBytes += previous[1] + 6 + keyLength;
+			pos = dataPosition + dataLength;
+		}
+		if (pos < size) {
+			logger.warn("Discarding {} bytes from incomplete thumbnail cache record in {}", size - pos, file);
+			channel.truncate(pos);
+		}
+		end = pos;
+	}
+	
+	/**
+	 * Rewrite the file containing only the current thumbnails, then move it into place.
+	 */
+	private void compact() throws IOException {
+		File fileTemp = new File(file.getParentFile(), file.getName() + ".tmp");
+		List<String> keys;
+		synchronized (this) {
+			keys = new ArrayList<>(index.keySet());
+		}
+		try (ThumbnailCache cacheTemp = new ThumbnailCache(fileTemp, FileChannel.open(fileTemp.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))) {
+			cacheTemp.readIndex();
+			for (String key : keys) {
+				byte[] bytes = getBytes(key);
+				if (bytes != null)
+					cacheTemp.putBytes(key, bytes);
+			}
+			cacheTemp.channel.force(true);
+		}
+		close();
+		try {
+			Files.move(fileTemp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(fileTemp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Get the file used to store the thumbnails.
+	 * 
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Query if a thumbnail is available for a specified key.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean containsKey(final String key) {
+		return index.containsKey(key);
+	}
+	
+	/**
+	 * Number of thumbnails in the cache.
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+	
+	/**
+	 * Read the thumbnail for a specified key.
+	 * 
+	 * @param key
+	 * @return the thumbnail, or null if no thumbnail is available
+	 * @throws IOException
+	 */
+	public BufferedImage get(final String key) throws IOException {
+		byte[] bytes = getBytes(key);
+		if (bytes == null)
+			return null;
+		return ImageIO.read(new ByteArrayInputStream(bytes));
+	}
+	
+	/**
+	 * Store the thumbnail for a specified key, replacing any previous thumbnail.
+	 * 
+	 * @param key
+	 * @param img
+	 * @throws IOException
+	 */
+	public void put(final String key, final BufferedImage img) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		if (!ImageIO.write(img, "jpg", stream)) {
+			stream.reset();
+			if (!ImageIO.write(img, "png", stream))
+				throw new IOException("Unable to encode thumbnail for " + key);
+		}
+		putBytes(key, stream.toByteArray());
+	}
+	
+	private byte[] getBytes(final String key) throws IOException {
+		long[] record;
+		synchronized (this) {
+			record = index.get(key);
+		}
+		if (record == null)
+			return null;
+		// Positional reads don't need to be synchronized, and records are never overwritten
+		ByteBuffer buffer = ByteBuffer.allocate((int)record[1]);
+		readFully(buffer, record[0]);
+		return buffer.array();
+	}
+	
+	private synchronized void putBytes(final String key, final byte[] bytes) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > 0xFFFF)
+			throw new IOException("Thumbnail key is too long: " + key);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length + keyBytes.length + 6);
+		DataOutputStream dos = new DataOutputStream(stream);
+		dos.writeShort(keyBytes.length);
+		dos.write(keyBytes);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+		dos.flush();
+		
+		long pos = end;
+		writeFully(ByteBuffer.wrap(stream.toByteArray()), pos);
+		end = pos + stream.size();
+		
+		// Only update the index once the record has been written
+		long[] previous = index.put(key, new long[] {pos + 2 + keyBytes.length + 4, bytes.length});
+		if (previous != null)
+			unusedBytes += previous[1] + 6 + keyBytes.length;
+	}
+	
+	private void readFully(final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of thumbnail cache " + file);
+			position += n;
+		}
+		buffer.flip();
+	}
+	
+	private void writeFully(final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
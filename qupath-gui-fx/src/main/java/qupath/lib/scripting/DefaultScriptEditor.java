@@ -33,14 +33,23 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
@@ -106,6 +115,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.util.Callback;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.commands.interfaces.PathCommand;
 import qupath.lib.gui.helpers.DisplayHelpers;
@@ -222,6 +232,7 @@ public class DefaultScriptEditor implements ScriptEditor {
 	private BooleanProperty sendLogToConsole = PathPrefs.createPersistentPreference("scriptingSendLogToConsole", true);
 	private BooleanProperty outputScriptStartTime = PathPrefs.createPersistentPreference("scriptingOutputScriptStartTime", false);
 	private BooleanProperty autoClearConsole = PathPrefs.createPersistentPreference("scriptingAutoClearConsole", false);
+	private BooleanProperty runProjectInParallel = PathPrefs.createPersistentPreference("scriptingRunProjectInParallel", false);
 	
 	// Regex pattern used to identify whether a script should be run in the JavaFX Platform thread
 	// If so, this line should be included at the top of the script
@@ -229,6 +240,9 @@ public class DefaultScriptEditor implements ScriptEditor {
 	
 	private static ScriptEngineManager manager = createManager();
 	
+	// Engines are reused for each thread, but never shared between threads
+	private static ThreadLocal<Map<String, CachedScriptEngine>> threadEngines = ThreadLocal.withInitial(HashMap::new);
+	
 	private ListView<ScriptTab> listScripts = new ListView<>();
 
 
@@ -362,6 +376,66 @@ public class DefaultScriptEditor implements ScriptEditor {
 		Collections.sort(availableLanguages);
 		return manager;
 	}
+	
+	
+	/**
+	 * ScriptEngine created for use by a single thread, along with the last script it compiled.
+	 * <p>
+	 * Running the same script again reuses the compilation. A different script gets a new engine, 
+	 * since some engines (e.g. Groovy) keep methods and closures defined by earlier scripts visible to later ones.
+	 */
+	private static class CachedScriptEngine {
+		
+		private final String name;
+		private ScriptEngine engine;
+		private String script;
+		private CompiledScript compiled;
+		
+		CachedScriptEngine(final String name, final ScriptEngine engine) {
+			this.name = name;
+			this.engine = engine;
+		}
+		
+		/**
+		 * Evaluate a script, reusing the previous compilation if it is the same script.
+		 */
+		Object eval(final String script, final ScriptContext context) throws ScriptException {
+			if (!(engine instanceof Compilable))
+				return engine.eval(script, context);
+			if (!script.equals(this.script)) {
+				if (this.script != null) {
+					ScriptEngine engineNew = manager.getEngineByName(name);
+					if (engineNew != null)
+						engine = engineNew;
+				}
+				this.script = null;
+				compiled = ((Compilable)engine).compile(script);
+				this.script = script;
+			}
+			return compiled.eval(context);
+		}
+		
+	}
+	
+	
+	/**
+	 * Get the engine for a language that belongs to the current thread, creating it if necessary.
+	 */
+	private static CachedScriptEngine getCachedEngine(final Language language) {
+		Map<String, CachedScriptEngine> engines = threadEngines.get();
+		String name = language.toString();
+		CachedScriptEngine cached = engines.get(name);
+		if (cached == null) {
+			ScriptEngine engine = manager.getEngineByName(name);
+			if (engine == null) {
+				engines.remove(name);
+				return null;
+			}
+			cached = new CachedScriptEngine(name, engine);
+			engines.put(name, cached);
+		}
+		return cached;
+	}
 
 
 	Language getSelectedLanguage() {
@@ -532,7 +606,8 @@ public class DefaultScriptEditor implements ScriptEditor {
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(useDefaultBindings, "Include default bindings")),
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(sendLogToConsole, "Send output to log")),
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(outputScriptStartTime, "Log script start time")),
-				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(autoClearConsole, "Auto clear console"))
+				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(autoClearConsole, "Auto clear console")),
+				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(runProjectInParallel, "Run for project in parallel"))
 				);
 		menubar.getMenus().add(menuRun);
 
@@ -664,22 +739,43 @@ public class DefaultScriptEditor implements ScriptEditor {
 	 */
 	private void executeScript(final ScriptTab tab, final String script, final ImageData<BufferedImage> imageData) {
 		ScriptEditorControl console = tab.getConsoleComponent();
+		LoggingAppender.getInstance().addTextComponent(console);
+		try {
+			executeScriptWithoutLogging(tab, script, imageData);
+		} finally {
+			LoggingAppender.getInstance().removeTextComponent(console);
+		}
+	}
+	
+	/**
+	 * Execute a script, writing its output to the console of the ScriptTab - but without 
+	 * adding the console to the logging appender. This is used when processing projects, 
+	 * where the console is added once for the whole batch rather than for every image.
+	 * 
+	 * @param tab
+	 * @param script
+	 * @param imageData
+	 */
+	private void executeScriptWithoutLogging(final ScriptTab tab, final String script, final ImageData<BufferedImage> imageData) {
+		ScriptEditorControl console = tab.getConsoleComponent();
 		
 		ScriptContext context = new SimpleScriptContext();
 		context.setWriter(new ScriptConsoleWriter(console, false));
 		context.setErrorWriter(new ScriptConsoleWriter(console, true));
 		
-		LoggingAppender.getInstance().addTextComponent(console);
 		if (outputScriptStartTime.get())
 			logger.info("Starting script at {}", new Date());
 		Object result = executeScript(tab.getLanguage(), script, imageData, useDefaultBindings.get(), context);
 		if (result != null)
 			logger.info("Result: {}", result);
-		LoggingAppender.getInstance().removeTextComponent(console);
 	}
 
 	/**
 	 * Execute a script using an appropriate ScriptEngine for a specified scripting language.
+	 * <p>
+	 * Engines are reused by the calling thread, and compiled scripts are cached where the engine supports it - 
+	 * so running the same script for many images only requires it to be compiled once per thread.
+	 * Scripts may be run on different threads at the same time.
 	 * 
 	 * @param language
 	 * @param script
@@ -689,8 +785,8 @@ public class DefaultScriptEditor implements ScriptEditor {
 	 * @return
 	 */
 	public static Object executeScript(final Language language, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) {
-		ScriptEngine engine = manager.getEngineByName(language.toString());
-		return executeScript(engine, script, imageData, importDefaultMethods, context);
+		CachedScriptEngine cached = getCachedEngine(language);
+		return executeScript(cached == null ? null : cached.engine, cached, script, imageData, importDefaultMethods, context);
 	}
 	
 	/**
@@ -704,6 +800,10 @@ public class DefaultScriptEditor implements ScriptEditor {
 	 * @return
 	 */
 	public static Object executeScript(final ScriptEngine engine, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) {
+		return executeScript(engine, null, script, imageData, importDefaultMethods, context);
+	}
+	
+	private static Object executeScript(final ScriptEngine engine, final CachedScriptEngine cached, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) {
 		
 		// Set the current ImageData if we can
 		QP.setBatchImageData((ImageData<?>)imageData);
@@ -760,7 +860,11 @@ public class DefaultScriptEditor implements ScriptEditor {
 		}
 		
 		try {
-			result = engine.eval(script2, context == null ? new SimpleScriptContext() : context);
+			ScriptContext context2 = context == null ? new SimpleScriptContext() : context;
+			if (cached == null)
+				result = engine.eval(script2, context2);
+			else
+				result = cached.eval(script2, context2);
 		} catch (ScriptException e) {
 			try {
 				int line = e.getLineNumber();
@@ -1161,7 +1265,9 @@ public class DefaultScriptEditor implements ScriptEditor {
 		
 		List<ProjectImageEntry<?>> imagesToProcess = new ArrayList<>(previousImages);
 
-		ProjectTask worker = new ProjectTask(project, imagesToProcess, tab, doSave);
+		// Scripts that request the JavaFX thread are always run for one image at a time
+		boolean parallel = runProjectInParallel.get() && !requestGuiScript(tab.getEditorComponent().getText());
+		ProjectTask worker = new ProjectTask(project, imagesToProcess, tab, doSave, parallel);
 		
 		
 		ProgressDialog progress = new ProgressDialog(worker);
@@ -1198,14 +1304,17 @@ public class DefaultScriptEditor implements ScriptEditor {
 		private Project<?> project;
 		private Collection<ProjectImageEntry<?>> imagesToProcess;
 		private ScriptTab tab;
-		private boolean quietCancel = false;
+		private volatile boolean quietCancel = false;
 		private boolean doSave = false;
+		private boolean parallel = false;
+		private AtomicBoolean cancelLogged = new AtomicBoolean(false);
 		
-		ProjectTask(final Project<?> project, final Collection<ProjectImageEntry<?>> imagesToProcess, final ScriptTab tab, final boolean doSave) {
+		ProjectTask(final Project<?> project, final Collection<ProjectImageEntry<?>> imagesToProcess, final ScriptTab tab, final boolean doSave, final boolean parallel) {
 			this.project = project;
 			this.imagesToProcess = imagesToProcess;
 			this.tab = tab;
 			this.doSave = doSave;
+			this.parallel = parallel;
 		}
 		
 		public void quietCancel() {
@@ -1219,74 +1328,116 @@ public class DefaultScriptEditor implements ScriptEditor {
 		@Override
 		public Void call() {
 			
-			long startTime = System.currentTimeMillis();
+			// Add the console once for the whole batch, since entries may be processed on several threads at the same time
+			ScriptEditorControl console = tab.getConsoleComponent();
+			LoggingAppender.getInstance().addTextComponent(console);
+			try {
+				long startTime = System.currentTimeMillis();
 			
-			int counter = 0;
-			for (ProjectImageEntry<?> entry : imagesToProcess) {
-				try {
-					// Stop
-					if (isQuietlyCancelled() || isCancelled()) {
-						logger.warn("Script cancelled with " + (imagesToProcess.size() - counter) + " image(s) remaining");
-						break;
+				String script = tab.getEditorComponent().getText();
+				AtomicInteger counter = new AtomicInteger();
+			
+				// Run images in parallel if requested, since each thread will use its own script engine
+				int nThreads = parallel ? Math.max(1, Math.min(PathPrefs.getNumCommandThreads(), imagesToProcess.size())) : 1;
+				if (nThreads > 1) {
+					logger.info("Running batch script with {} threads", nThreads);
+					ExecutorService pool = Executors.newFixedThreadPool(nThreads, new SimpleThreadFactory("batch-script-", false));
+					List<Future<?>> futures = new ArrayList<>();
+					for (ProjectImageEntry<?> entry : imagesToProcess)
+						futures.add(pool.submit(() -> processEntry(entry, script, counter)));
+					pool.shutdown();
+					for (Future<?> future : futures) {
+						try {
+							future.get();
+						} catch (InterruptedException e) {
+							logger.warn("Batch script interrupted");
+							pool.shutdownNow();
+							break;
+						} catch (ExecutionException e) {
+							logger.error("Error running batch script: {}", e.getCause());
+						}
+					}
+				} else {
+					for (ProjectImageEntry<?> entry : imagesToProcess) {
+						// Create a new region store if we need one
+						System.gc();
+						if (!processEntry(entry, script, counter))
+							break;
 					}
-					
-					updateProgress(counter, imagesToProcess.size());
-					counter++;
-					updateMessage(entry.getImageName() + " (" + counter + "/" + imagesToProcess.size() + ")");
-					
-					// Create a new region store if we need one
-					System.gc();
-
-					File fileEntry = QuPathGUI.getImageDataFile(project, entry);
+				}
+				updateProgress(imagesToProcess.size(), imagesToProcess.size());
+			
+				long endTime = System.currentTimeMillis();
+			
+				long timeMillis = endTime - startTime;
+				String time = null;
+				if (timeMillis > 1000*60)
+					time = String.format("Total processing time: %.2f minutes", timeMillis/(1000.0 * 60.0));
+				else if (timeMillis > 1000)
+					time = String.format("Total processing time: %.2f seconds", timeMillis/(1000.0));
+				else
+					time = String.format("Total processing time: %d milliseconds", timeMillis);
+				logger.info("Processed {} images", imagesToProcess.size());
+				logger.info(time);
+			} finally {
+				LoggingAppender.getInstance().removeTextComponent(console);
+			}
+			
+			return null;
+		}
+		
+		
+		/**
+		 * Run the script for a single image.
+		 * 
+		 * @return false if the task has been cancelled, true otherwise
+		 */
+		private boolean processEntry(final ProjectImageEntry<?> entry, final String script, final AtomicInteger counter) {
+			// Stop
+			if (isQuietlyCancelled() || isCancelled()) {
+				if (cancelLogged.compareAndSet(false, true))
+					logger.warn("Script cancelled with " + (imagesToProcess.size() - counter.get()) + " image(s) remaining");
+				return false;
+			}
+			try {
+				int count = counter.incrementAndGet();
+				updateProgress(count - 1, imagesToProcess.size());
+				updateMessage(entry.getImageName() + " (" + count + "/" + imagesToProcess.size() + ")");
+				
+				File fileEntry = QuPathGUI.getImageDataFile(project, entry);
 //					// TODO: Check rotate flag!
-					boolean doRotate = "true".equals(entry.getMetadataValue("rotate180"));
+				boolean doRotate = "true".equals(entry.getMetadataValue("rotate180"));
 //					boolean opened;
-					// Open saved data if there is any, or else the image itself
-					ImageServer<BufferedImage> server = ImageServerProvider.buildServer(entry.getServerPath(), BufferedImage.class);
-					if (doRotate)
-						server = new RotatedImageServer(server);
-					ImageData<BufferedImage> imageData = null;
-					if (fileEntry.exists()) {
-						// It's important to build the server first in case the stored path is out of sync with the project one
-						imageData = PathIO.readImageData(fileEntry, null, server, BufferedImage.class);
+				// Open saved data if there is any, or else the image itself
+				ImageServer<BufferedImage> server = ImageServerProvider.buildServer(entry.getServerPath(), BufferedImage.class);
+				if (doRotate)
+					server = new RotatedImageServer(server);
+				ImageData<BufferedImage> imageData = null;
+				if (fileEntry.exists()) {
+					// It's important to build the server first in case the stored path is out of sync with the project one
+					imageData = PathIO.readImageData(fileEntry, null, server, BufferedImage.class);
 //						opened = qupath.openImage(fileEntry.getAbsolutePath(), false, false, doRotate);
-					} else {
-						imageData = new ImageData<>(server);
+				} else {
+					imageData = new ImageData<>(server);
 //						opened = qupath.openImage(entry.getServerPath(), false, false, doRotate);
 //						opened = qupath.openImage(entry.getServerPath(), false, false, doRotate);
-					}
+				}
 //					if (!opened) {
-					if (imageData == null) {
-						logger.warn("Unable to open {} - will be skipped", entry.getImageName());
-						continue;
-					}
-//					QPEx.setBatchImageData(imageData);
-					executeScript(tab, tab.getEditorComponent().getText(), imageData);
-					if (doSave)
-						PathIO.writeImageData(fileEntry, imageData);
-					imageData.getServer().close();
-				} catch (Exception e) {
-					logger.error("Error running batch script: {}", e);
+				if (imageData == null) {
+					logger.warn("Unable to open {} - will be skipped", entry.getImageName());
+					return true;
 				}
+//					QPEx.setBatchImageData(imageData);
+				executeScriptWithoutLogging(tab, script, imageData);
+				if (doSave)
+					QuPathGUI.saveImageData(fileEntry, imageData);
+				imageData.getServer().close();
+			} catch (Exception e) {
+				logger.error("Error running batch script: {}", e);
 			}
-			updateProgress(imagesToProcess.size(), imagesToProcess.size());
-			
-			long endTime = System.currentTimeMillis();
-			
-			long timeMillis = endTime - startTime;
-			String time = null;
-			if (timeMillis > 1000*60)
-				time = String.format("Total processing time: %.2f minutes", timeMillis/(1000.0 * 60.0));
-			else if (timeMillis > 1000)
-				time = String.format("Total processing time: %.2f seconds", timeMillis/(1000.0));
-			else
-				time = String.format("Total processing time: %d milliseconds", timeMillis);
-			logger.info("Processed {} images", imagesToProcess.size());
-			logger.info(time);
-			
-			return null;
+			return true;
 		}
-		
+
 		
 		@Override
 		protected void done() {
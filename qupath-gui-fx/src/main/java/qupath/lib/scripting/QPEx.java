@@ -25,8 +25,7 @@ package qupath.lib.scripting;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -41,11 +40,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import qupath.lib.gui.QuPathGUI;
-import qupath.lib.gui.commands.SummaryMeasurementTableCommand;
 import qupath.lib.gui.models.ObservableMeasurementTableData;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
+import qupath.lib.io.MeasurementTableExporter;
 import qupath.lib.io.PathAwtIO;
 import qupath.lib.io.PathIO;
 import qupath.lib.objects.PathAnnotationObject;
@@ -301,15 +300,12 @@ public class QPEx extends QP {
 			return null;
 		
 		// Get all the selected annotations with area
-		PathShape shapeNew = null;
+		List<PathShape> shapes = new ArrayList<>();
 		List<PathObject> children = new ArrayList<>();
 		Set<PathClass> pathClasses = new HashSet<>();
 		for (PathObject child : annotations) {
 			if (child instanceof PathAnnotationObject && child.getROI() instanceof PathArea) {
-				if (shapeNew == null)
-					shapeNew = (PathShape)child.getROI();//.duplicate();
-				else
-					shapeNew = PathROIToolsAwt.combineROIs(shapeNew, (PathArea)child.getROI(), PathROIToolsAwt.CombineOp.ADD);
+				shapes.add((PathShape)child.getROI());
 				if (child.getPathClass() != null)
 					pathClasses.add(child.getPathClass());
 				children.add(child);
@@ -320,6 +316,9 @@ public class QPEx extends QP {
 			return null;
 		if (children.size() == 1)
 			return children.get(0);
+		
+		// Merge all the shapes in one step, rather than one at a time
+		PathShape shapeNew = PathROIToolsAwt.union(shapes);
 	
 		// Create and add the new object, removing the old ones
 		PathObject pathObjectNew = new PathAnnotationObject(shapeNew);
@@ -428,19 +427,20 @@ public class QPEx extends QP {
 		}
 		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
 		model.setImageData(imageData, imageData == null ? Collections.emptyList() : imageData.getHierarchy().getObjects(null, type));
+		Collection<String> excludeColumns;
+		if (includeColumns.length == 0) {
+			excludeColumns = Collections.emptyList();
+		} else {
+			excludeColumns = new LinkedHashSet<>(model.getAllNames());
+			excludeColumns.removeAll(Arrays.asList(includeColumns));
+		}
 		try {
-			PrintWriter writer = new PrintWriter(fileOutput);
-			Collection<String> excludeColumns;
-			if (includeColumns.length == 0) {
-				excludeColumns = Collections.emptyList();
-			} else {
-				excludeColumns = new LinkedHashSet<>(model.getAllNames());
-				excludeColumns.removeAll(Arrays.asList(includeColumns));
-			}
-			writer.println(SummaryMeasurementTableCommand.getTableModelString(model, PathPrefs.getTableDelimiter(), excludeColumns));
-			writer.close();
-		} catch (FileNotFoundException e) {
-			logger.error("File {} not found!", fileOutput);
+			if (fileOutput.getName().toLowerCase().endsWith(MeasurementTableExporter.BINARY_EXTENSION))
+				MeasurementTableExporter.writeBinary(model, excludeColumns, fileOutput);
+			else
+				MeasurementTableExporter.writeDelimited(model, excludeColumns, PathPrefs.getTableDelimiter(), fileOutput);
+		} catch (IOException e) {
+			logger.error("Error writing " + fileOutput, e);
 		}
 	}
 	
@@ -26,7 +26,9 @@ package qupath.lib.gui.models;
 import static org.junit.Assert.*;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -152,5 +154,48 @@ public class ObservableMeasurementTableDataTest {
 		
 		
 	}
+	
+	
+	@Test
+	public void testColumnValues() {
+		
+		ImageData<BufferedImage> imageData = new ImageData<>(null);
+		PathObjectHierarchy hierarchy = imageData.getHierarchy();
+		
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			PathObject detection = new PathDetectionObject(new RectangleROI(i, i, 10, 10));
+			detection.getMeasurementList().putMeasurement("Value", i);
+			detections.add(detection);
+		}
+		hierarchy.addPathObjects(detections, false);
+		
+		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
+		model.setImageData(imageData, detections);
+		
+		// Check column values match individual values
+		double[] values = model.getDoubleValues("Value");
+		assertEquals(detections.size(), values.length);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(i, values[i], EPSILON);
+			assertEquals(i, model.getNumericValue(detections.get(i), "Value"), EPSILON);
+		}
+		
+		// Check values are only updated after a refresh
+		detections.get(10).getMeasurementList().putMeasurement("Value", -1);
+		assertEquals(10, model.getNumericValue(detections.get(10), "Value"), EPSILON);
+		model.refreshEntries();
+		assertEquals(-1, model.getNumericValue(detections.get(10), "Value"), EPSILON);
+		
+		// Check filtering
+		model.setPredicate(p -> p.getMeasurementList().getMeasurementValue("Value") >= 500);
+		values = model.getDoubleValues("Value");
+		assertEquals(500, values.length);
+		assertEquals(500, values[0], EPSILON);
+		
+		// Check the cached values are not modified by changes to the returned array
+		values[0] = Double.NaN;
+		assertEquals(500, model.getDoubleValues("Value")[0], EPSILON);
+	}
 
 }
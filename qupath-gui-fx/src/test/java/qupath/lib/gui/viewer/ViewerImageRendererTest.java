@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for composing the viewer image on a background thread.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ViewerImageRendererTest {
+	
+	private static BufferedImage createImage(int width, int height) {
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+	}
+
+	@Test
+	public void test_latestRequestRendered() throws Exception {
+		BlockingQueue<ViewerImageRenderer.Frame> frames = new LinkedBlockingQueue<>();
+		ViewerImageRenderer renderer = new ViewerImageRenderer(ViewerImageRendererTest::createImage, frames::add);
+		
+		// Keep the rendering thread busy with the first request
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger nPainted = new AtomicInteger();
+		renderer.requestRender(new ViewerImageRenderer.Request("First", 10, 10, new AffineTransform(), img -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			nPainted.incrementAndGet();
+			return img;
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		// Requests made in the meantime replace one another, so only the last should be rendered
+		for (int i = 0; i < 5; i++) {
+			renderer.requestRender(new ViewerImageRenderer.Request(i, 10, 10, new AffineTransform(), img -> {
+				nPainted.incrementAndGet();
+				return img;
+			}));
+		}
+		release.countDown();
+		
+		assertEquals("First", frames.poll(5, TimeUnit.SECONDS).getSource());
+		assertEquals(4, frames.poll(5, TimeUnit.SECONDS).getSource());
+		assertNull(frames.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, nPainted.get());
+	}
+	
+	@Test
+	public void test_recycle() {
+		ViewerImageRenderer renderer = new ViewerImageRenderer(ViewerImageRendererTest::createImage, f -> {});
+		ViewerImageRenderer.Request request = new ViewerImageRenderer.Request(null, 20, 10, new AffineTransform(), img -> img);
+		
+		ViewerImageRenderer.Frame frame = renderer.render(request);
+		assertEquals(20, frame.getImage().getWidth());
+		assertEquals(10, frame.getImage().getHeight());
+		
+		// A recycled image should be reused if it is the right size
+		BufferedImage img = frame.getImage();
+		renderer.recycle(img);
+		assertSame(img, renderer.render(request).getImage());
+		renderer.recycle(img);
+		assertNotSame(img, renderer.render(new ViewerImageRenderer.Request(null, 30, 10, new AffineTransform(), i -> i)).getImage());
+	}
+	
+	@Test
+	public void test_transformTo() {
+		// Frame rendered at a downsample of 4, centered on (200, 100) for a 100x50 view
+		AffineTransform transformFrame = new AffineTransform();
+		transformFrame.translate(50, 25);
+		transformFrame.scale(0.25, 0.25);
+		transformFrame.translate(-200, -100);
+		ViewerImageRenderer.Frame frame = new ViewerImageRenderer(ViewerImageRendererTest::createImage, f -> {})
+				.render(new ViewerImageRenderer.Request(null, 100, 50, transformFrame, img -> img));
+		
+		// The transform used for rendering is copied
+		transformFrame.translate(10, 0);
+		assertFalse(frame.isRenderedFor(transformFrame, 100, 50));
+		transformFrame.translate(-10, 0);
+		assertTrue(frame.isRenderedFor(transformFrame, 100, 50));
+		assertFalse(frame.isRenderedFor(transformFrame, 120, 50));
+		
+		// After zooming in around the same center, the frame should be scaled up around the center of the view
+		AffineTransform transformView = new AffineTransform();
+		transformView.translate(50, 25);
+		transformView.scale(0.5, 0.5);
+		transformView.translate(-200, -100);
+		AffineTransform transformTo = frame.getTransformTo(transformView);
+		Point2D p = transformTo.transform(new Point2D.Double(50, 25), null);
+		assertEquals(50, p.getX(), 1e-6);
+		assertEquals(25, p.getY(), 1e-6);
+		p = transformTo.transform(new Point2D.Double(60, 25), null);
+		assertEquals(70, p.getX(), 1e-6);
+		assertEquals(25, p.getY(), 1e-6);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.gui.viewer;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for tracking changed regions between viewer frames, and for frame timing.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ViewerRenderBufferTest {
+
+	@Test
+	public void test_dirtyRegions() {
+		ViewerRenderBuffer buffer = new ViewerRenderBuffer(16);
+		assertTrue(buffer.ensureSize(100, 50));
+		assertFalse(buffer.ensureSize(80, 50));
+		
+		// Everything is dirty for the first frame
+		List<Rectangle> regions = buffer.updateDirtyRegions(100, 50);
+		assertEquals(1, regions.size());
+		assertEquals(new Rectangle(0, 0, 100, 50), regions.get(0));
+		
+		// Nothing is dirty if nothing is painted
+		assertTrue(buffer.updateDirtyRegions(100, 50).isEmpty());
+		
+		// Painting a small region should only mark the tiles it touches
+		Graphics2D g = buffer.getImage().createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(20, 5, 20, 4);
+		g.dispose();
+		regions = buffer.updateDirtyRegions(100, 50);
+		assertEquals(1, regions.size());
+		assertEquals(new Rectangle(16, 0, 32, 16), regions.get(0));
+		assertTrue(buffer.updateDirtyRegions(100, 50).isEmpty());
+		
+		// Check pixels are packed premultiplied ARGB
+		assertEquals(0xffff0000, buffer.getPixels()[5 * buffer.getScanlineStride() + 20]);
+		
+		// Separate changes in a row give separate regions, while partial tiles at the edge are clipped
+		g = buffer.getImage().createGraphics();
+		g.setColor(Color.BLUE);
+		g.fillRect(0, 40, 1, 1);
+		g.fillRect(99, 49, 1, 1);
+		g.dispose();
+		regions = buffer.updateDirtyRegions(100, 50);
+		assertEquals(2, regions.size());
+		assertTrue(regions.contains(new Rectangle(0, 32, 16, 16)));
+		assertTrue(regions.contains(new Rectangle(96, 48, 4, 2)));
+		
+		// After invalidation, everything is dirty again
+		buffer.invalidate();
+		regions = buffer.updateDirtyRegions(100, 50);
+		assertEquals(new Rectangle(0, 0, 100, 50), regions.get(0));
+	}
+	
+	@Test
+	public void test_largeFrame() {
+		ViewerRenderBuffer buffer = new ViewerRenderBuffer();
+		buffer.ensureSize(1024, 768);
+		buffer.updateDirtyRegions(1024, 768);
+		int[] pixels = buffer.getPixels();
+		int stride = buffer.getScanlineStride();
+		pixels[100 * stride + 700] = 0xff00ff00;
+		pixels[700 * stride + 10] = 0xff00ff00;
+		List<Rectangle> regions = buffer.updateDirtyRegions(1024, 768);
+		assertEquals(2, regions.size());
+		assertTrue(regions.contains(new Rectangle(640, 64, 64, 64)));
+		assertTrue(regions.contains(new Rectangle(0, 640, 64, 64)));
+		assertTrue(buffer.updateDirtyRegions(1024, 768).isEmpty());
+	}
+	
+	@Test
+	public void test_frameTimeHistogram() {
+		ViewerFrameTimeHistogram histogram = new ViewerFrameTimeHistogram();
+		assertEquals(0, histogram.getFrameCount());
+		assertTrue(Double.isNaN(histogram.getMeanMillis()));
+		
+		assertEquals(0, ViewerFrameTimeHistogram.getBin(500_000L));
+		assertEquals(1, ViewerFrameTimeHistogram.getBin(1_000_000L));
+		assertEquals(2, ViewerFrameTimeHistogram.getBin(3_000_000L));
+		assertEquals(histogram.nBins() - 1, ViewerFrameTimeHistogram.getBin(Long.MAX_VALUE));
+		
+		for (int i = 0; i < 90; i++)
+			histogram.record(500_000L);
+		for (int i = 0; i < 10; i++)
+			histogram.record(20_000_000L);
+		assertEquals(100, histogram.getFrameCount());
+		assertEquals(2.45, histogram.getMeanMillis(), 1e-6);
+		assertEquals(20.0, histogram.getMaxMillis(), 1e-6);
+		assertEquals(1.0, histogram.getPercentileMillis(50), 1e-6);
+		assertEquals(20.0, histogram.getPercentileMillis(95), 1e-6);
+		assertEquals(90, histogram.getCounts()[0]);
+		
+		histogram.reset();
+		assertEquals(0, histogram.getFrameCount());
+		assertEquals(0, histogram.getCounts()[0]);
+	}
+
+}
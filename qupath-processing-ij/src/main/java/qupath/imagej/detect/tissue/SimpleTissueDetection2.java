@@ -25,6 +25,7 @@ package qupath.imagej.detect.tissue;
 
 import java.awt.Rectangle;
 import java.awt.geom.Area;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -42,6 +43,7 @@ import ij.gui.Roi;
 import ij.gui.Wand;
 import ij.measure.Calibration;
 import ij.plugin.filter.RankFilters;
+import ij.plugin.filter.ThresholdToSelection;
 import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
@@ -70,6 +72,7 @@ import qupath.lib.roi.experimental.ShapeSimplifier;
 import qupath.lib.roi.PathROIToolsAwt;
 import qupath.lib.roi.PathROIToolsAwt.CombineOp;
 import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.PathShape;
 import qupath.lib.roi.interfaces.ROI;
 
@@ -78,6 +81,10 @@ import qupath.lib.roi.interfaces.ROI;
  * 
  * Uses fixed approach to downsampling images &amp; global threshold applied to RGB images only.
  * 
+ * Optionally, boundaries found at the (low) detection resolution can be refined by thresholding
+ * only those tiles that contain a boundary at a higher resolution - so that memory use is determined
+ * by the boundary length rather than the full area of the slide.
+ * 
  * TODO: Provide choice of channels to threshold
  * TODO: Support 16-bit data
  * 
@@ -115,6 +122,10 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 		
 		params.addBooleanParameter("singleAnnotation", "Single annotation", true, "Create a single annotation object from all (possibly-disconnected) regions");
 
+		params.addBooleanParameter("refineBoundaries", "Refine boundaries", false, "Refine the boundaries of the detected regions by thresholding boundary tiles at a higher resolution");
+		params.addDoubleParameter("refinePixelSizeMicrons", "Refined pixel size", 2, GeneralTools.micrometerSymbol(), "Requested pixel size used when refining boundaries - should be smaller than the requested pixel size");
+		params.addDoubleParameter("refineDownsample", "Refined downsample", 4, null, "Downsample used when refining boundaries - should be smaller than the downsample");
+
 	}
 	
 	
@@ -170,31 +181,10 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 			
 			// Create a ByteProcessor
 			ImagePlus imp = pathImage.getImage();
-			ByteProcessor bp = imp.getProcessor().convertToByteProcessor();
+			ByteProcessor bp = thresholdImage(imp.getProcessor(), threshold, smoothImage, darkBackground, medianCleanup, dilateBoundaries);
 			
-			if (smoothImage)
-				bp.smooth();
-	//		new ImagePlus("Binary", bp.duplicate()).show();
-	
-			// Apply threshold
-			if (darkBackground)
-				bp = SimpleThresholding.thresholdAbove(bp, (float)threshold);
-			else
-				bp = SimpleThresholding.thresholdBelow(bp, (float)threshold);
-					
 			if (Thread.currentThread().isInterrupted())
 				return null;
-
-			
-			// Apply small median filter to clean up
-			if (medianCleanup) {
-				RankFilters rf = new RankFilters();
-				rf.rank(bp, 1, RankFilters.MEDIAN);
-			}
-			
-			// Apply maximum filter, if required
-			if (dilateBoundaries)
-				bp.filter(ImageProcessor.MAX);
 			
 	//		bp.resetMinAndMax();
 	//		new ImagePlus("", bp.duplicate()).show();
@@ -238,8 +228,36 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 			if (Thread.currentThread().isInterrupted())
 				return null;
 			
-			bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
-			List<PathObject> pathObjects = convertToPathObjects(bp, minArea, smoothCoordinates, imp.getCalibration(), downsample, maxHoleArea, excludeOnBoundary, singleAnnotation, null);
+			// Determine whether boundaries should be refined at a higher resolution
+			double refineDownsample = Double.NaN;
+			if (Boolean.TRUE.equals(params.getBooleanParameterValue("refineBoundaries"))) {
+				if (server.hasPixelSizeMicrons())
+					refineDownsample = params.getDoubleParameterValue("refinePixelSizeMicrons") / server.getAveragedPixelSizeMicrons();
+				else
+					refineDownsample = params.getDoubleParameterValue("refineDownsample");
+				refineDownsample = Math.max(1, refineDownsample);
+				if (!(refineDownsample < downsample)) {
+					logger.warn("Refined downsample {} is not smaller than detection downsample {} - boundaries will not be refined", refineDownsample, downsample);
+					refineDownsample = Double.NaN;
+				}
+			}
+			
+			List<PathObject> pathObjects;
+			if (Double.isNaN(refineDownsample)) {
+				bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
+				pathObjects = convertToPathObjects(bp, minArea, smoothCoordinates, imp.getCalibration(), downsample, maxHoleArea, excludeOnBoundary, singleAnnotation, null);
+			} else {
+				int z = pathROI == null ? 0 : pathROI.getZ();
+				int t = pathROI == null ? 0 : pathROI.getT();
+				Area areaROI = pathROI instanceof PathArea ? PathROIToolsAwt.getArea(pathROI) : null;
+				Area area = refineBoundaries(server, bp, imp.getCalibration(), downsample, refineDownsample, z, t, areaROI,
+						threshold, smoothImage, darkBackground, medianCleanup, dilateBoundaries);
+				if (area == null)
+					return null;
+				// Areas are now in full-resolution pixel units
+				double areaScale = downsample * downsample;
+				pathObjects = convertToPathObjects(area, minArea * areaScale, maxHoleArea * areaScale, smoothCoordinates, refineDownsample, singleAnnotation, z, t);
+			}
 
 			if (Thread.currentThread().isInterrupted())
 				return null;
@@ -266,6 +284,288 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 	
 	
 	
+	/**
+	 * Apply the smoothing, thresholding &amp; cleanup steps used for tissue detection to an image.
+	 * 
+	 * @param ip
+	 * @param threshold
+	 * @param smoothImage
+	 * @param darkBackground
+	 * @param medianCleanup
+	 * @param dilateBoundaries
+	 * @return a binary image, with tissue pixels set to 255
+	 */
+	static ByteProcessor thresholdImage(ImageProcessor ip, double threshold, boolean smoothImage, boolean darkBackground, boolean medianCleanup, boolean dilateBoundaries) {
+		ByteProcessor bp = ip.convertToByteProcessor();
+		
+		if (smoothImage)
+			bp.smooth();
+	
+		// Apply threshold
+		if (darkBackground)
+			bp = SimpleThresholding.thresholdAbove(bp, (float)threshold);
+		else
+			bp = SimpleThresholding.thresholdBelow(bp, (float)threshold);
+		
+		// Apply small median filter to clean up
+		if (medianCleanup) {
+			RankFilters rf = new RankFilters();
+			rf.rank(bp, 1, RankFilters.MEDIAN);
+		}
+		
+		// Apply maximum filter, if required
+		if (dilateBoundaries)
+			bp.filter(ImageProcessor.MAX);
+		
+		return bp;
+	}
+	
+	
+	/**
+	 * Number of pixels (at the refined resolution) along each side of a boundary tile.
+	 */
+	private static final int REFINE_TILE_SIZE = 512;
+	
+	/**
+	 * Number of pixels (at the refined resolution) read around each boundary tile, so that filtering 
+	 * gives the same result on both sides of a tile seam.
+	 */
+	private static final int REFINE_TILE_PADDING = 8;
+	
+	/**
+	 * Refine a binary image, detected at a low resolution, by thresholding tiles that contain a boundary again at a higher resolution.
+	 * <p>
+	 * Tiles that are entirely inside or outside the detected region at the low resolution are not read again, 
+	 * and the boundary tiles are processed in parallel; the refined contours are then stitched together 
+	 * with the unchanged interior of the low resolution result.
+	 * 
+	 * @param server
+	 * @param bp binary image at the detection resolution, with tissue pixels set to 255
+	 * @param cal calibration of the detection image, used to determine its origin
+	 * @param downsample downsample of the detection image
+	 * @param refineDownsample downsample at which the boundary tiles should be thresholded; this should be smaller than downsample
+	 * @param z
+	 * @param t
+	 * @param areaROI optional area (in full-resolution pixel units) to which the results should be restricted
+	 * @param threshold
+	 * @param smoothImage
+	 * @param darkBackground
+	 * @param medianCleanup
+	 * @param dilateBoundaries
+	 * @return an area in full-resolution pixel units, or null if the thread was interrupted
+	 */
+	static Area refineBoundaries(final ImagePlusServer server, final ByteProcessor bp, final Calibration cal, final double downsample, final double refineDownsample,
+			final int z, final int t, final Area areaROI,
+			final double threshold, final boolean smoothImage, final boolean darkBackground, final boolean medianCleanup, final boolean dilateBoundaries) {
+		
+		int width = bp.getWidth();
+		int height = bp.getHeight();
+		double xOrigin = -cal.xOrigin * downsample;
+		double yOrigin = -cal.yOrigin * downsample;
+		
+		// Determine tile size at the detection resolution
+		int tileSize = Math.max(4, (int)Math.round(REFINE_TILE_SIZE * refineDownsample / downsample));
+		
+		// Identify the tiles that contain (or are immediately adjacent to) a boundary
+		byte[] pixels = (byte[])bp.getPixels();
+		Path2D pathBoundaryTiles = new Path2D.Float();
+		List<Rectangle> boundaryTiles = new ArrayList<>();
+		for (int ty = 0; ty < height; ty += tileSize) {
+			for (int tx = 0; tx < width; tx += tileSize) {
+				int x1 = Math.max(0, tx-1);
+				int y1 = Math.max(0, ty-1);
+				int x2 = Math.min(width, tx+tileSize+1);
+				int y2 = Math.min(height, ty+tileSize+1);
+				boolean hasForeground = false;
+				boolean hasBackground = false;
+				for (int y = y1; y < y2; y++) {
+					for (int x = x1; x < x2; x++) {
+						if (pixels[y*width + x] == 0)
+							hasBackground = true;
+						else
+							hasForeground = true;
+					}
+					if (hasForeground && hasBackground)
+						break;
+				}
+				if (!(hasForeground && hasBackground))
+					continue;
+				// Store the tile bounds in full-resolution pixel coordinates
+				int xTile = (int)Math.round(xOrigin + tx * downsample);
+				int yTile = (int)Math.round(yOrigin + ty * downsample);
+				int xTile2 = (int)Math.min(server.getWidth(), Math.round(xOrigin + Math.min(width, tx + tileSize) * downsample));
+				int yTile2 = (int)Math.min(server.getHeight(), Math.round(yOrigin + Math.min(height, ty + tileSize) * downsample));
+				if (xTile2 <= xTile || yTile2 <= yTile)
+					continue;
+				Rectangle tile = new Rectangle(xTile, yTile, xTile2 - xTile, yTile2 - yTile);
+				boundaryTiles.add(tile);
+				pathBoundaryTiles.append(tile, false);
+			}
+		}
+		
+		// Get the low resolution areas
+		Area area = getThresholdedArea(bp, cal, downsample, z, t);
+		if (boundaryTiles.isEmpty())
+			return area;
+		
+		// Constrain any refined region to be close to the low resolution region, so that 
+		// refinement can't introduce new regions that were removed (e.g. because of the boundary or a ROI)
+		ByteProcessor bpDilated = (ByteProcessor)bp.duplicate();
+		bpDilated.filter(ImageProcessor.MAX);
+		Area areaConstraint = getThresholdedArea(bpDilated, cal, downsample, z, t);
+		if (areaROI != null)
+			areaConstraint.intersect(areaROI);
+		
+		logger.debug("Refining {} boundary tiles at downsample {}", boundaryTiles.size(), refineDownsample);
+		
+		List<Area> refinedAreas = boundaryTiles.parallelStream().map(tile -> {
+			if (Thread.currentThread().isInterrupted())
+				return null;
+			return refineTile(server, tile, refineDownsample, z, t, areaConstraint,
+					threshold, smoothImage, darkBackground, medianCleanup, dilateBoundaries);
+		}).collect(Collectors.toList());
+		
+		if (Thread.currentThread().isInterrupted())
+			return null;
+		
+		// Stitch the refined tiles together - since these don't overlap, it's much faster to combine them 
+		// into a single path rather than adding areas one by one
+		Path2D pathRefined = new Path2D.Float();
+		for (Area refined : refinedAreas) {
+			if (refined != null && !refined.isEmpty())
+				pathRefined.append(refined, false);
+		}
+		area.subtract(new Area(pathBoundaryTiles));
+		area.add(new Area(pathRefined));
+		return area;
+	}
+	
+	
+	/**
+	 * Threshold a single tile at the refined resolution.
+	 * 
+	 * @return the thresholded area within the tile, in full-resolution pixel units
+	 */
+	private static Area refineTile(final ImagePlusServer server, final Rectangle tile, final double refineDownsample,
+			final int z, final int t, final Area areaConstraint,
+			final double threshold, final boolean smoothImage, final boolean darkBackground, final boolean medianCleanup, final boolean dilateBoundaries) {
+		
+		// Read the tile with some padding, so that filtering is consistent across tile seams
+		int pad = (int)Math.ceil(REFINE_TILE_PADDING * refineDownsample);
+		int x = Math.max(0, tile.x - pad);
+		int y = Math.max(0, tile.y - pad);
+		int x2 = Math.min(server.getWidth(), tile.x + tile.width + pad);
+		int y2 = Math.min(server.getHeight(), tile.y + tile.height + pad);
+		RegionRequest request = RegionRequest.createInstance(server.getPath(), refineDownsample, x, y, x2 - x, y2 - y, z, t);
+		PathImage<ImagePlus> pathImage = server.readImagePlusRegion(request);
+		if (pathImage == null)
+			return null;
+		
+		ImagePlus imp = pathImage.getImage();
+		ByteProcessor bp = thresholdImage(imp.getProcessor(), threshold, smoothImage, darkBackground, medianCleanup, dilateBoundaries);
+		
+		Area area = getThresholdedArea(bp, imp.getCalibration(), refineDownsample, z, t);
+		area.intersect(new Area(tile));
+		area.intersect(areaConstraint);
+		return area;
+	}
+	
+	
+	/**
+	 * Get the area corresponding to all non-zero pixels in a binary image, in full-resolution pixel units.
+	 */
+	private static Area getThresholdedArea(final ByteProcessor bp, final Calibration cal, final double downsample, final int z, final int t) {
+		bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
+		Roi roi = new ThresholdToSelection().convert(bp);
+		bp.resetThreshold();
+		if (roi == null)
+			return new Area();
+		ROI pathROI = ROIConverterIJ.convertToPolygonOrAreaROI(roi, cal, downsample, -1, z, t);
+		return PathROIToolsAwt.getArea(pathROI);
+	}
+	
+	
+	/**
+	 * Convert an area (in full-resolution pixel units) into annotation objects, filtering out small regions and filling small holes.
+	 * 
+	 * @param area
+	 * @param minArea minimum area of a region, in full-resolution pixels
+	 * @param maxHoleArea maximum area of a hole that should be filled, in full-resolution pixels; if &lt;= 0, all holes are filled
+	 * @param smoothCoordinates
+	 * @param downsample downsample at which the area was determined, used to control smoothing
+	 * @param singleAnnotation
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	public static List<PathObject> convertToPathObjects(Area area, double minArea, double maxHoleArea, boolean smoothCoordinates, double downsample, boolean singleAnnotation, int z, int t) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		if (area.isEmpty())
+			return pathObjects;
+		
+		PolygonROI[][] polygons = PathROIToolsAwt.splitAreaToPolygons(area);
+		PolygonROI[] holes = polygons[0];
+		PolygonROI[] regions = polygons[1];
+		
+		boolean fillAllHoles = maxHoleArea <= 0;
+		
+		for (PolygonROI region : regions) {
+			if (region.getArea() < minArea)
+				continue;
+			
+			if (Thread.currentThread().isInterrupted())
+				return null;
+			
+			PathShape shape = smoothPolygon(region, smoothCoordinates, downsample, z, t);
+			if (!fillAllHoles) {
+				Path2D pathHoles = null;
+				for (PolygonROI hole : holes) {
+					if (hole.getArea() <= maxHoleArea)
+						continue;
+					// Check bounding boxes before the (more expensive) containment test
+					if (hole.getBoundsX() < region.getBoundsX() || hole.getBoundsY() < region.getBoundsY() ||
+							hole.getBoundsX() + hole.getBoundsWidth() > region.getBoundsX() + region.getBoundsWidth() ||
+							hole.getBoundsY() + hole.getBoundsHeight() > region.getBoundsY() + region.getBoundsHeight())
+						continue;
+					if (!PathObjectTools.containsROI(region, hole))
+						continue;
+					if (pathHoles == null)
+						pathHoles = new Path2D.Float();
+					pathHoles.append(PathROIToolsAwt.getShape(smoothPolygon(hole, smoothCoordinates, downsample, z, t)), false);
+				}
+				if (pathHoles != null) {
+					Area areaRegion = PathROIToolsAwt.getArea(shape);
+					areaRegion.subtract(new Area(pathHoles));
+					shape = PathROIToolsAwt.getShapeROI(areaRegion, -1, z, t);
+				}
+			}
+			pathObjects.add(new PathAnnotationObject(shape));
+		}
+		
+		if (singleAnnotation && pathObjects.size() > 1) {
+			Path2D path = new Path2D.Float();
+			for (PathObject annotation : pathObjects)
+				path.append(PathROIToolsAwt.getShape(annotation.getROI()), false);
+			pathObjects.clear();
+			pathObjects.add(new PathAnnotationObject(PathROIToolsAwt.getShapeROI(new Area(path), -1, z, t)));
+		}
+		
+		// Lock the objects
+		for (PathObject pathObject : pathObjects)
+			((PathAnnotationObject)pathObject).setLocked(true);
+		
+		return pathObjects;
+	}
+	
+	
+	private static PolygonROI smoothPolygon(PolygonROI polygon, boolean smoothCoordinates, double downsample, int z, int t) {
+		if (!smoothCoordinates)
+			return new PolygonROI(polygon.getPolygonPoints(), -1, z, t);
+		PolygonROI smoothed = new PolygonROI(ROIHelpers.smoothPoints(polygon.getPolygonPoints()), -1, z, t);
+		return ShapeSimplifier.simplifyPolygon(smoothed, downsample/2);
+	}
+	
+	
 	public static List<PathObject> convertToPathObjects(ByteProcessor bp, double minArea, boolean smoothCoordinates, Calibration cal, double downsample, double maxHoleArea, boolean excludeOnBoundary, boolean singleAnnotation, List<PathObject> pathObjects) {
 		List<PolygonRoi> rois = ROILabeling.getFilledPolygonROIs(bp, Wand.FOUR_CONNECTED);
 		if (pathObjects == null)
@@ -390,8 +690,8 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 	@Override
 	public ParameterList getDefaultParameterList(final ImageData<BufferedImage> imageData) {
 		boolean micronsKnown = imageData.getServer().hasPixelSizeMicrons();
-		params.setHiddenParameters(!micronsKnown, "requestedPixelSizeMicrons", "minAreaMicrons", "maxHoleAreaMicrons");
-		params.setHiddenParameters(micronsKnown, "requestedDownsample", "minAreaPixels", "maxHoleAreaPixels");
+		params.setHiddenParameters(!micronsKnown, "requestedPixelSizeMicrons", "minAreaMicrons", "maxHoleAreaMicrons", "refinePixelSizeMicrons");
+		params.setHiddenParameters(micronsKnown, "requestedDownsample", "minAreaPixels", "maxHoleAreaPixels", "refineDownsample");
 		return params;
 	}
 
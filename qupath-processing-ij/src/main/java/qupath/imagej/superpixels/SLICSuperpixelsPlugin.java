@@ -31,11 +31,11 @@ import ij.process.ColorProcessor;
 import ij.process.ColorSpaceConverter;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -45,18 +45,24 @@ import qupath.imagej.color.ColorDeconvolutionIJ;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.processing.ROILabeling;
-import qupath.lib.analysis.stats.RunningStatistics;
+import qupath.lib.analysis.algorithms.SLICSuperpixels;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.PathImage;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.measurements.MeasurementList;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathTileObject;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
+import qupath.lib.plugins.DetectionMerger;
 import qupath.lib.plugins.ObjectDetector;
 import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.PathROIToolsAwt;
+import qupath.lib.roi.PathROIToolsAwt.CombineOp;
 import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.interfaces.PathShape;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
@@ -74,6 +80,10 @@ import qupath.lib.roi.interfaces.ROI;
  * 
  * It is also possible to use color deconvolved images, rather than transforming RGB to CIELAB.
  * 
+ * The clustering itself is performed by {@link SLICSuperpixels}, using a seed grid aligned to the full image.
+ * Each superpixel records the location of its seed within the full image, so that superpixels cut in two by 
+ * a tile boundary can be stitched together when both tiles are complete.
+ * 
  * @author Pete Bankhead
  *
  */
@@ -87,6 +97,12 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 	
 	private static Logger logger = LoggerFactory.getLogger(SLICSuperpixelsPlugin.class);
 	
+	/**
+	 * Measurement names for the location of the seed from which a superpixel was computed, within the full image.
+	 */
+	static final String SEED_X = "Seed X";
+	static final String SEED_Y = "Seed Y";
+	
 	@Override
 	public String getName() {
 		return "SLIC superpixel plugin";
@@ -124,6 +140,41 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 	protected int getTileOverlap(ImageData<BufferedImage> imageData, ParameterList params) {
 		return 0;
 	}
+	
+	/**
+	 * Superpixels cut by a tile boundary are stitched together if both parts were computed from the same seed.
+	 */
+	@Override
+	protected DetectionMerger getDetectionMerger(ImageData<BufferedImage> imageData, ParameterList params) {
+		return SLICSuperpixelsPlugin::mergeSuperpixels;
+	}
+	
+	/**
+	 * Merge two parts of a superpixel that was split between tiles.
+	 * 
+	 * @param pathObject1
+	 * @param pathObject2
+	 * @return the merged superpixel, or null if the superpixels were computed from different seeds
+	 */
+	static PathObject mergeSuperpixels(final PathObject pathObject1, final PathObject pathObject2) {
+		MeasurementList measurements1 = pathObject1.getMeasurementList();
+		MeasurementList measurements2 = pathObject2.getMeasurementList();
+		double x = measurements1.getMeasurementValue(SEED_X);
+		double y = measurements1.getMeasurementValue(SEED_Y);
+		if (Double.isNaN(x) || Double.isNaN(y) || x != measurements2.getMeasurementValue(SEED_X) || y != measurements2.getMeasurementValue(SEED_Y))
+			return null;
+		PathShape roi = PathROIToolsAwt.combineROIs((PathShape)pathObject1.getROI(), (PathShape)pathObject2.getROI(), CombineOp.ADD);
+		return createSuperpixel(roi, x, y);
+	}
+	
+	private static PathObject createSuperpixel(final ROI roi, final double seedX, final double seedY) {
+		PathObject pathObject = new PathTileObject(roi);
+		MeasurementList measurements = pathObject.getMeasurementList();
+		measurements.putMeasurement(SEED_X, seedX);
+		measurements.putMeasurement(SEED_Y, seedY);
+		measurements.closeList();
+		return pathObject;
+	}
 
 	@Override
 	public ParameterList getDefaultParameterList(ImageData<BufferedImage> imageData) {
@@ -180,7 +231,6 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 			double m = params.getDoubleParameterValue("regularization");
 			boolean adaptRegularization = params.getBooleanParameterValue("adaptRegularization");
 			boolean doDeconvolve = params.getBooleanParameterValue("useDeconvolved");
-			double mergeThreshold = 0.05;
 			
 			// Get a float processor
 			ImagePlus imp = pathImage.getImage();
@@ -194,7 +244,6 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 //					for (ImageProcessor fp : fpDeconvolved)
 //						System.err.println(fp.getStatistics().stdDev);
 					m = m / 2;
-					mergeThreshold = mergeThreshold / 2;
 				} else {
 					imp = new ColorSpaceConverter().RGBToLab(imp);
 					ImageStack stack = imp.getStack();
@@ -203,7 +252,6 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 						ipColor[i] = stack.getProcessor(i+1).convertToFloatProcessor();
 					// Rescale; original paper describes sensible values in range 1-40
 					m = m * 40;
-					mergeThreshold = mergeThreshold * 40;
 				}
 			} else {
 				ImageStack stack = imp.getStack();
@@ -217,7 +265,6 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 				logger.info("Possible regularization value: {}", regularizationSuggestion/ipColor.length/100);
 				// Scale by 100 for 'arbitary' fluorescence
 				m = m * 100;
-				mergeThreshold = mergeThreshold * 100;
 			}
 			
 			double sigma = getSigma(pathImage, params);
@@ -228,159 +275,44 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 					fp.blurGaussian(sigma);
 			}
 			
-			// Initialize centres and distances
+			// Extract feature planes
 			int w = imp.getWidth();
 			int h = imp.getHeight();
-			short[] labels = new short[w*h];
-			Arrays.fill(labels, (short)-1);
-			double[] distances = new double[w*h];
-			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			float[][] features = new float[ipColor.length][];
+			for (int i = 0; i < ipColor.length; i++)
+				features[i] = (float[])ipColor[i].convertToFloatProcessor().getPixels();
 			
+			// Align the seed grid with the full image, so that superpixels split between adjacent tiles can be stitched together
 			int s = PREFERRED_PIXEL_SPACING;
-			List<ClusterCenter> centers = new ArrayList<>();
-			int widthClusters = 0; // Used to help figure out which clusters are side by side
-			for (int y = s/2; y < h; y += s) {
-				widthClusters = 0;
-			    for (int x = s/2; x < w; x += s) {
-			    	short label = (short)centers.size();
-			    	ClusterCenter center = new ClusterCenter(ipColor, label, s, m, adaptRegularization, w, h);
-			    	center.addLabel(y*w+x);
-			        labels[y*w+x] = label;	
-			        centers.add(center);
-			        widthClusters++;
-			    }
-			}
+			ImageRegion region = pathImage.getImageRegion();
+			double downsample = pathImage.getDownsampleFactor();
+			int xOffset = (int)Math.round(region.getX() / downsample);
+			int yOffset = (int)Math.round(region.getY() / downsample);
 			
-			// Loop through and perform local k-means clustering
-			for (int i = 0; i < maxIterations; i++) {
-			    int centerLabel = 0;
-			    for (ClusterCenter center : centers) {
-			        center.updateFeatures();
-			        for (int label : center.getNearbyClusters()) {
-			            double distance = center.distanceSquared(label);
-			            if (distance < distances[label]) {
-			            	int currentLabel = labels[label];
-			            	if (currentLabel == centerLabel)
-			            		continue;
-			            	if (currentLabel != (short)-1)
-			            		centers.get(currentLabel).removeLabel(label);
-			            	center.addLabel(label);
-			            	distances[label] = distance;
-			            	labels[label] = (short)centerLabel;
-			            }
-			        }
-			        centerLabel++;
-			    }
-			}
+			// Perform local k-means clustering
+			int[] labels = SLICSuperpixels.computeLabels(features, w, h, s, m, adaptRegularization, maxIterations, xOffset, yOffset);
+			if (Thread.currentThread().isInterrupted())
+				return null;
 			
-			// Merge clusters if required
-			if (Boolean.TRUE.equals(params.getBooleanParameterValue("doMerge"))) {
-				for (int i = 0; i < centers.size(); i++) {
-					ClusterCenter center = centers.get(i);
-					center.updateFeatures();
-					
-					int xc = i % widthClusters;
-					// Check for horizontal link
-					if (xc < widthClusters - 1) {
-						ClusterCenter center2 = centers.get(i+1);
-						maybeMergeClusters(center, center2, labels, mergeThreshold);
-					}
-					// Check for vertical link
-					if (i < centers.size() - widthClusters) {
-						ClusterCenter center2 = centers.get(i+widthClusters);
-						maybeMergeClusters(center, center2, labels, mergeThreshold);
-						
-						// Check for diagonal forward link
-						if (xc < widthClusters - 1) {
-							center2 = centers.get(i+widthClusters+1);
-							maybeMergeClusters(center, center2, labels, mergeThreshold);
-						}
-						
-						// Check for backwards forward link
-						if (xc > 0) {
-							center2 = centers.get(i+widthClusters-1);
-							maybeMergeClusters(center, center2, labels, mergeThreshold);
-						}
-					}
-				}
+			// Enforce connectivity and merge small objects, retaining the seed of each superpixel
+			int[] seeds = labels.clone();
+			int nLabels = SLICSuperpixels.enforceConnectivity(labels, w, h, s*s/4);
+			if (nLabels > 65535) {
+				lastResultSummary = "Too many superpixels (" + nLabels + ") - try using a larger spacing or smaller tiles";
+				logger.warn(lastResultSummary);
+				return null;
 			}
-			
-			
-			// Enforce connectivity and merge small objects
-			short[] newLabels = new short[labels.length];
-			int[] xyCurrent = new int[w*h];
-			short label = 1;
-			int minSize = s*s/4;
-			for (int y = 0; y < h; y++) {
-				// Maintain a reference to the previous label
-				short lastNewLabel = y > 0 ? labels[(y-1)*w] : 1;
-				for (int x = 0; x < w; x++) {
-					int i = y*w+x;
-					// Check if we've already labelled this
-					short currentNewLabel = newLabels[i];
-					if (currentNewLabel != 0) {
-						lastNewLabel = currentNewLabel;
-						continue;
-					}
-					
-					// Determine pixels for the current region
-					short currentOldLabel = labels[i];
-					int count = 1;
-					xyCurrent[0] = i;
-					newLabels[i] = label;
-					int c = 0;
-					while (c < count) {
-						int ii = xyCurrent[c];
-						int xx = ii % w;
-						int yy = ii / w;
-						c++;
-						// Check 4-connected neighbors
-						if (xx > 0) {
-							int ind = ii-1;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						if (yy > 0) {
-							int ind = ii-w;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						
-						if (xx < w-1) {
-							int ind = ii+1;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						
-						if (yy < h-1) {
-							int ind = ii+w;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-					}
-					// Check if small, relabelling if required
-					if (count <= minSize) {
-						for (c = 0; c < count; c++)
-							newLabels[xyCurrent[c]] = lastNewLabel;
-					} else {
-						lastNewLabel = label;
-						label++;
-					}
-				}
-				
+			// Each label is first encountered within the region of its seed, since small regions are only merged into earlier ones
+			int[] labelSeeds = new int[nLabels+1];
+			Arrays.fill(labelSeeds, -1);
+			for (int i = 0; i < labels.length; i++) {
+				if (labelSeeds[labels[i]] < 0)
+					labelSeeds[labels[i]] = seeds[i];
 			}
+			int[] seedLocations = SLICSuperpixels.getSeedLocations(w, h, s, xOffset, yOffset);
+			short[] newLabels = new short[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				newLabels[i] = (short)labels[i];
 			
 			
 			// Convert to ROIs
@@ -402,15 +334,25 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 			// Convert to tiles & create a labelled image for later
 			List<PolygonRoi> polygons = ROILabeling.labelsToFilledRoiList(ipLabels, true);
 			List<PathObject> pathObjects = new ArrayList<>(polygons.size());
-			label = 0;
+			int[] polygonLabels = new int[polygons.size()];
+			for (int i = 0; i < polygons.size(); i++) {
+				if (polygons.get(i) != null)
+					polygonLabels[i] = getLabel(ipLabels, polygons.get(i));
+			}
+			int label = 0;
 			try {
-				for (Roi roi : polygons) {
+				for (int i = 0; i < polygons.size(); i++) {
+					Roi roi = polygons.get(i);
 					if (roi == null)
 						continue;
 					PathArea superpixelROI = (PathArea)ROIConverterIJ.convertToPathROI(roi, pathImage);
 					if (pathROI == null)
 						continue;
-					PathObject tile = new PathTileObject(superpixelROI);
+					// Record the seed location in full image coordinates
+					int seed = polygonLabels[i] > 0 ? labelSeeds[polygonLabels[i]] : -1;
+					double seedX = seed < 0 ? Double.NaN : seedLocations[seed*2] * downsample;
+					double seedY = seed < 0 ? Double.NaN : seedLocations[seed*2+1] * downsample;
+					PathObject tile = createSuperpixel(superpixelROI, seedX, seedY);
 					pathObjects.add(tile);
 					label++;
 					ipLabels.setValue(label);
@@ -427,55 +369,22 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		
 		
 		
-		static boolean maybeMergeClusters(final ClusterCenter center, final ClusterCenter center2, final short[] labels, final double mergeThreshold) {
-			// Check merge based on euclidean distance
-			double distanceThreshold = mergeThreshold;//0.02;
-			double dist = 0;
-			for (int i = 0; i < center.features.length; i++) {
-				double f1 = center.features[i];
-				double f2 = center2.features[i];
-				dist += (f1-f2)*(f1-f2);
-			}
-			dist = Math.sqrt(dist);
-//			System.err.println(dist);
-			boolean doMerge = dist <= distanceThreshold;
-						
-						
-//			// Check merge based on cosine distance
-//			double distanceThreshold = 0.9999;
-//			double dist = 0;
-//			double mag1 = 0;
-//			double mag2 = 0;
-//			for (int i = 0; i < center.features.length; i++) {
-//				double f1 = center.features[i];
-//				mag1 += f1*f1;
-//				double f2 = center2.features[i];
-//				mag2 += f2*f2;				
-//				dist += f1*f2;
-//			}
-//			dist = dist / (Math.sqrt(mag1) * Math.sqrt(mag2));
-////			dist = 1-2*Math.acos(dist)/Math.PI;
-//			boolean doMerge = dist >= distanceThreshold;
-						
-//			// Check merge based on distance standard deviations within each cluster
-//			double distanceThreshold = Math.min(center.getColorDistanceStdDev(), center2.getColorDistanceStdDev());
-//			double dist = center.colorDistance(center2.features);
-//			boolean doMerge = dist < distanceThreshold;
-			
-			// Perform the merge
-			if (doMerge) {
-				for (int label : center2.getLabels())
-					labels[label] = center.primaryLabel;
-				center2.primaryLabel = center.primaryLabel;
-//				center2.labels.addAll(center.labels);
-				return true;
+		/**
+		 * Get the label of a filled polygon, from the first labelled pixel it contains in its top row.
+		 */
+		static int getLabel(final ImageProcessor ipLabels, final Roi roi) {
+			Rectangle bounds = roi.getBounds();
+			for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+				if (roi.contains(x, bounds.y)) {
+					int label = (int)ipLabels.getf(x, bounds.y);
+					if (label > 0)
+						return label;
+				}
 			}
-			return false;
+			return 0;
 		}
 		
 		
-		
-		
 		static double getSigma(final PathImage<?> pathImage, final ParameterList params) {
 			double pixelSizeMicrons = .5 * (pathImage.getPixelWidthMicrons() + pathImage.getPixelHeightMicrons());
 			if (Double.isNaN(pixelSizeMicrons)) {
@@ -550,151 +459,5 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		Collection<? extends PathObject> parents = super.getParentObjects(runner);
 		return parents;
 	}
-	
-
-	static class ClusterCenter {
-		
-		private ImageProcessor[] featuresImages;
-
-	    private List<Integer> labels = new ArrayList<>();
-	    private short primaryLabel;
-	    private double[] features = null;
-	    private double x;
-	    private double y;
-	    
-	    private boolean adaptRegularization;
-	    private double s, mSquared;
-	    
-	    private int width;
-	    private int height;
-	    
-	    ClusterCenter(final ImageProcessor[] featuresImages, final short primaryLabel, final double s, final double m, final boolean adaptRegularization, final int width, final int height) {
-	    	this.featuresImages = featuresImages;
-	    	this.primaryLabel = primaryLabel;
-	    	this.s = s;
-	    	this.adaptRegularization = adaptRegularization;
-	    	this.mSquared = m*m;
-	    	this.width = width;
-	    	this.height = height;
-	    }
-
-	    public List<Integer> getLabels() {
-	        return Collections.unmodifiableList(labels);
-	    }
-
-	    public void addLabel(final Integer label) {
-	        this.labels.add(label);
-	    }
-
 
-	    public void removeLabel(final Integer label) {
-	        this.labels.remove(label);
-	    }
-
-
-	    public List<Integer> getNearbyClusters() {
-	        if (labels.isEmpty())
-	            return Collections.emptyList();
-
-	        List<Integer> list = new ArrayList<>();
-	        for (int yy = (int)Math.max(0, y-s); yy < (int)Math.min(height, y+s); yy++) {
-	            for (int xx = (int)Math.max(0, x-s); xx < (int)Math.min(width, x+s); xx++) {
-	                list.add(yy*width + xx);
-	            }
-	        }
-	        return list;
-	    }
-
-
-	    public void updateFeatures() {
-	        if (labels.isEmpty()) {
-	            x = Double.NaN;
-	            y = Double.NaN;
-	            features = null;
-	        }
-	        int n = labels.size();
-	        x = 0;
-	        y = 0;
-	        features = new double[featuresImages.length];
-	        for (int label : labels) {
-	        	double xx = label % width;
-	        	double yy = label / width;
-	            x += xx/n;
-	            y += yy/n;
-	            for (int i = 0; i < features.length; i++)
-	                features[i] += featuresImages[i].getf(label)/n;
-	        }
-	        updateM();
-	    }
-	    
-	    private void updateM() {
-	    	if (!adaptRegularization)
-	    		return;
-	    	double maxDistanceSquared = 0;
-	    	for (int label : labels) {
-	    		double dist = colorDistanceSquared(label);
-	    		if (dist > maxDistanceSquared)
-	    			maxDistanceSquared = dist;
-	    	}
-	    	if (maxDistanceSquared > 0)
-	    		this.mSquared = maxDistanceSquared;
-	    }
-	    
-	    
-	    private double getColorDistanceStdDev() {
-	    	RunningStatistics stats = new RunningStatistics();
-	    	for (int label : getLabels()) {
-	    		stats.addValue(Math.sqrt(colorDistanceSquared(label)));
-	    	}
-	    	return stats.getStdDev();
-	    }
-	    
-	    
-	    private double colorDistanceSquared(final int ind) {
-	    	double DC2 = 0;
-	        for (int i = 0; i < featuresImages.length; i++) {
-	            double d = featuresImages[i].getf(ind) - features[i];
-	            if (Double.isFinite(d))
-	                DC2 += d*d;
-	        }
-	        return DC2;
-	    }
-	    
-	    
-	    public double colorDistance(final double[] features) {
-	    	double distanceSquared = 0;
-	    	for (int i = 0; i < features.length; i++) {
-	    		double d = features[i] - this.features[i];
-	    		distanceSquared += d*d;
-	    	}
-	    	return Math.sqrt(distanceSquared);
-	    }
-	    
-
-	    public double distanceSquared(final int ind) {
-	        if (features == null)
-	            return Double.POSITIVE_INFINITY;
-
-	        // Get coordinates from label
-	        double xx = ind % width;
-        	double yy = ind / width;
-        	
-	        // Calculate spatial distance squared
-	        double dx = x - xx;
-	        double dy = y - yy;
-
-	        double DS2 = dx*dx + dy*dy;
-
-	        // Calculate feature distance squared
-	        double DC2 = colorDistanceSquared(ind);
-	        
-	        // Compute distance
-	        double distanceSquared = DC2/mSquared + DS2/(s*s);
-	        
-	        return distanceSquared;
-	    }
-
-	}
-	
-	
-}
\ No newline at end of file
+}
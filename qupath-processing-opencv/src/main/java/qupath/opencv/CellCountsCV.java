@@ -50,6 +50,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.classes.PathClassFactory;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.AWTAreaROI;
@@ -59,6 +60,7 @@ import qupath.lib.roi.PathROIToolsAwt;
 import qupath.lib.roi.PolygonROI;
 import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.ROI;
+import qupath.opencv.processing.MatScope;
 
 /**
  * Simple plugin to attempt a very fast cell counting based upon (smoothed) peak detection.
@@ -183,165 +185,160 @@ public class CellCountsCV extends AbstractTileableDetectionPlugin<BufferedImage>
 //			float[][] pxDeconvolved = WatershedNucleiCV.colorDeconvolve(img, stains.getStain(1).getArray(), stains.getStain(2).getArray(), null, 2);
 //			float[] pxHematoxylin = pxDeconvolved[0];
 			
-			// Convert to OpenCV Mat
-			int width = img.getWidth();
-			int height = img.getHeight();
-			Mat matOrig = new Mat(height, width, CV_32FC1);
+			// Native memory is released (or pooled for the next tile) when the scope is closed
+			try (MatScope scope = new MatScope()) {
+				// Convert to OpenCV Mat
+				int width = img.getWidth();
+				int height = img.getHeight();
+				Mat matOrig = scope.create(height, width, CV_32FC1);
 			
-			// It seems OpenCV doesn't use the array directly, so no need to copy...
-			putFloatPixels(matOrig, pxNucleusStain);
+				// It seems OpenCV doesn't use the array directly, so no need to copy...
+				putFloatPixels(matOrig, pxNucleusStain);
 			
-			/*
-			 * Detection
-			 */
+				/*
+				 * Detection
+				 */
 			
-			// Subtract opened image
-			if (backgroundRadius > 0) {
-				Mat matBG = new Mat();
-				int size = (int)Math.round(backgroundRadius) * 2 + 1;
-				Mat kernel = opencv_imgproc.getStructuringElement(opencv_imgproc.MORPH_ELLIPSE, new Size(size, size));
-				opencv_imgproc.morphologyEx(matOrig, matBG, opencv_imgproc.MORPH_OPEN, kernel);
-				subtract(matOrig, matBG, matOrig);
-			}
+				// Subtract opened image
+				if (backgroundRadius > 0) {
+					Mat matBG = scope.create();
+					int size = (int)Math.round(backgroundRadius) * 2 + 1;
+					Mat kernel = scope.track(opencv_imgproc.getStructuringElement(opencv_imgproc.MORPH_ELLIPSE, scope.track(new Size(size, size))));
+					opencv_imgproc.morphologyEx(matOrig, matBG, opencv_imgproc.MORPH_OPEN, kernel);
+					subtract(matOrig, matBG, matOrig);
+				}
 			
 			
 			
-			// Apply Gaussian filter
-			int gaussianWidth = (int)(Math.ceil(gaussianSigma * 3) * 2 + 1);
-			Mat mat = new Mat(); // From now on, work with the smoothed image
-			opencv_imgproc.GaussianBlur(matOrig, mat, new Size(gaussianWidth, gaussianWidth), gaussianSigma);
+				// Apply Gaussian filter
+				int gaussianWidth = (int)(Math.ceil(gaussianSigma * 3) * 2 + 1);
+				Mat mat = scope.create(); // From now on, work with the smoothed image
+				Size gaussianSize = scope.track(new Size(gaussianWidth, gaussianWidth));
+				opencv_imgproc.GaussianBlur(matOrig, mat, gaussianSize, gaussianSigma);
 			
-			// Filter the second stain as well
-			Mat matStain2 = new Mat(height, width, CV_32FC1);
-			putFloatPixels(matStain2, pxStain2);
-			opencv_imgproc.GaussianBlur(matStain2, matStain2, new Size(gaussianWidth, gaussianWidth), gaussianSigma);
+				// Filter the second stain as well
+				Mat matStain2 = scope.create(height, width, CV_32FC1);
+				putFloatPixels(matStain2, pxStain2);
+				opencv_imgproc.GaussianBlur(matStain2, matStain2, gaussianSize, gaussianSigma);
 			
-			// Apply basic threshold to identify potential nucleus pixels
-			Mat matThresh = new Mat();
-			opencv_imgproc.threshold(mat, matThresh, threshold, 255.0, opencv_imgproc.THRESH_BINARY);
-			matThresh.convertTo(matThresh, CV_8UC1);
+				// Apply basic threshold to identify potential nucleus pixels
+				Mat matThresh = scope.create();
+				opencv_imgproc.threshold(mat, matThresh, threshold, 255.0, opencv_imgproc.THRESH_BINARY);
+				matThresh.convertTo(matThresh, CV_8UC1);
 			
-			// Ensure cells selected only where hematoxylin > eosin/DAB, if required
-			if (ensureMainStain) {
-				Mat matValid = new Mat();
-				compare(mat, matStain2, matValid, CMP_GE);
-				min(matThresh, matValid, matThresh);
-				matValid.release();
-			}
+				// Ensure cells selected only where hematoxylin > eosin/DAB, if required
+				if (ensureMainStain) {
+					Mat matValid = scope.create();
+					compare(mat, matStain2, matValid, CMP_GE);
+					min(matThresh, matValid, matThresh);
+				}
 			
-			// Do Difference of Gaussians, if required
-			if (doDoG) {
-				double sigma2 = gaussianSigma * 1.6;
-				int gaussianWidth2 = (int)(Math.ceil(sigma2 * 3) * 2 + 1);
-				Mat mat2 = new Mat();
-				// Apply filter to the original
-				opencv_imgproc.GaussianBlur(matOrig, mat2, new Size(gaussianWidth2, gaussianWidth2), sigma2);
-				subtract(mat, mat2, mat);
-			}
+				// Do Difference of Gaussians, if required
+				if (doDoG) {
+					double sigma2 = gaussianSigma * 1.6;
+					int gaussianWidth2 = (int)(Math.ceil(sigma2 * 3) * 2 + 1);
+					Mat mat2 = scope.create();
+					// Apply filter to the original
+					opencv_imgproc.GaussianBlur(matOrig, mat2, scope.track(new Size(gaussianWidth2, gaussianWidth2)), sigma2);
+					subtract(mat, mat2, mat);
+				}
 			
-			// Apply max filter to help find maxima
-			Mat matMax = new Mat(mat.size(), mat.type());
-			opencv_imgproc.dilate(mat, matMax, new Mat());
-
-			// Apply potential maxima threshold by locating pixels where mat == matMax,
-			// i.e. a pixel is equal to the maximum of its 8 neighbours
-			// (Note: this doesn’t deal with points of inflection, but with 32-bit this is likely to be rare enough
-			// not to be worth the considerably extra computational cost; may need to confirm there are no rounding errors)
-			Mat matMaxima = new Mat();
-			compare(mat, matMax, matMaxima, CMP_EQ);
+				// Apply max filter to help find maxima
+				Mat matMax = scope.create(mat.rows(), mat.cols(), mat.type());
+				opencv_imgproc.dilate(mat, matMax, scope.create());
+
+				// Apply potential maxima threshold by locating pixels where mat == matMax,
+				// i.e. a pixel is equal to the maximum of its 8 neighbours
+				// (Note: this doesn’t deal with points of inflection, but with 32-bit this is likely to be rare enough
+				// not to be worth the considerably extra computational cost; may need to confirm there are no rounding errors)
+				Mat matMaxima = scope.create();
+				compare(mat, matMax, matMaxima, CMP_EQ);
 			
-			// Compute AND of two binary images
-			// This finds the potential nucleus pixels that are also local maxima in the processed image
-			min(matThresh, matMaxima, matMaxima);
+				// Compute AND of two binary images
+				// This finds the potential nucleus pixels that are also local maxima in the processed image
+				min(matThresh, matMaxima, matMaxima);
 			
-			/*
-			 * Create objects
-			 */
+				/*
+				 * Create objects
+				 */
 			
-			// Create path objects from contours
-			// This deals with the fact that maxima located within matMaxima (a binary image) aren’t necessarily
-			// single pixels, but should be treated as belonging to the same cell		
-			MatVector contours = new MatVector();
-			Mat temp = new Mat();
-			opencv_imgproc.findContours(matMaxima, contours, temp, opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
-			temp.release();
-			ArrayList<qupath.lib.geom.Point2> points = new ArrayList<>();
-
-			Shape shape = pathROI instanceof PathArea ? PathROIToolsAwt.getShape(pathROI) : null;
-			Integer color = ColorTools.makeRGB(0, 255, 0);
-			String stain2Name = stains.getStain(2).getName();
-			PathArea area = pathROI instanceof PathArea ? (PathArea)pathROI : null;
-			if (area instanceof AreaROI && !(area instanceof AWTAreaROI))
-				area = new AWTAreaROI((AreaROI)area);
+				// Create path objects from contours
+				// This deals with the fact that maxima located within matMaxima (a binary image) aren’t necessarily
+				// single pixels, but should be treated as belonging to the same cell		
+				MatVector contours = scope.track(new MatVector());
+				Mat temp = scope.create();
+				opencv_imgproc.findContours(matMaxima, contours, temp, opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
+				ArrayList<qupath.lib.geom.Point2> points = new ArrayList<>();
+
+				Shape shape = pathROI instanceof PathArea ? PathROIToolsAwt.getShape(pathROI) : null;
+				Integer color = ColorTools.makeRGB(0, 255, 0);
+				String stain2Name = stains.getStain(2).getName();
+				PathArea area = pathROI instanceof PathArea ? (PathArea)pathROI : null;
+				if (area instanceof AreaROI && !(area instanceof AWTAreaROI))
+					area = new AWTAreaROI((AreaROI)area);
 			
-			boolean detectInPositiveChannel = stainChannel.equals(DAB);
-			FloatIndexer indexerStain2 = matStain2.createIndexer();
-			for (long c = 0; c < contours.size(); c++) {
-				Mat contour = contours.get(c);
-
-				// This doesn't appear to work...
-//				Moments moments = opencv_imgproc.moments(contour, false);
-//				int cx = (int)(moments.m10/moments.m00);
-//				int cy = (int)(moments.m01/moments.m00);
+				boolean detectInPositiveChannel = stainChannel.equals(DAB);
+				FloatIndexer indexerStain2 = matStain2.createIndexer();
+				for (long c = 0; c < contours.size(); c++) {
+					Mat contour = contours.get(c);
+
+					// This doesn't appear to work...
+	//				Moments moments = opencv_imgproc.moments(contour, false);
+	//				int cx = (int)(moments.m10/moments.m00);
+	//				int cy = (int)(moments.m01/moments.m00);
 				
-				// Create a polygon ROI
-				points.clear();
-				IntIndexer indexerContour = contour.createIndexer();
-				for (int r = 0; r < indexerContour.rows(); r++) {
-					int px = indexerContour.get(r, 0L, 0L);
-					int py = indexerContour.get(r, 0L, 1L);
-					points.add(new qupath.lib.geom.Point2((px + 0.5) * scaleX + x, (py + 0.5) * scaleY + y));
-				}
-
-				// Add new polygon if it is contained within the ROI
-				ROI tempROI = null;
-				if (points.size() == 1) {
-					qupath.lib.geom.Point2 p = points.get(0);
-					if (shape != null && !shape.contains(p.getX(), p.getY())) {
-						continue;
+					// Create a polygon ROI
+					points.clear();
+					IntIndexer indexerContour = contour.createIndexer();
+					for (int r = 0; r < indexerContour.rows(); r++) {
+						int px = indexerContour.get(r, 0L, 0L);
+						int py = indexerContour.get(r, 0L, 1L);
+						points.add(new qupath.lib.geom.Point2((px + 0.5) * scaleX + x, (py + 0.5) * scaleY + y));
 					}
+
+					// Add new polygon if it is contained within the ROI
+					ROI tempROI = null;
+					if (points.size() == 1) {
+						qupath.lib.geom.Point2 p = points.get(0);
+						if (shape != null && !shape.contains(p.getX(), p.getY())) {
+							continue;
+						}
 					
-					// Check we're inside
-					if (area != null && !area.contains(p.getX(), p.getY()))
-						continue;
+						// Check we're inside
+						if (area != null && !area.contains(p.getX(), p.getY()))
+							continue;
 					
-					tempROI = new EllipseROI(p.getX()-radius, p.getY()-radius, radius*2, radius*2);
-				}
-				else {
-					tempROI = new PolygonROI(points);
-					// Check we're inside
-					if (area != null && !area.contains(tempROI.getCentroidX(), tempROI.getCentroidY()))
-						continue;
-					tempROI = new EllipseROI(tempROI.getCentroidX()-radius, tempROI.getCentroidY()-radius, radius*2, radius*2);
-				}
+						tempROI = new EllipseROI(p.getX()-radius, p.getY()-radius, radius*2, radius*2);
+					}
+					else {
+						tempROI = new PolygonROI(points);
+						// Check we're inside
+						if (area != null && !area.contains(tempROI.getCentroidX(), tempROI.getCentroidY()))
+							continue;
+						tempROI = new EllipseROI(tempROI.getCentroidX()-radius, tempROI.getCentroidY()-radius, radius*2, radius*2);
+					}
 
-				PathObject pathObject = new PathDetectionObject(tempROI);
-				// Check stain2 value at the peak pixel, if required
-				if (stain2Threshold >= 0) {
-					int cx = (int)((tempROI.getCentroidX() - x)/scaleX);
-					int cy = (int)((tempROI.getCentroidY() - y)/scaleY);
-					float stain2Value = indexerStain2.get(cy, cx);
-					if (detectInPositiveChannel || stain2Value >= stain2Threshold)
-						pathObject.setPathClass(PathClassFactory.getPositive(null, null));
-					else
-						pathObject.setPathClass(PathClassFactory.getNegative(null, null));
-					pathObject.getMeasurementList().putMeasurement(stain2Name + " OD", stain2Value);
-					pathObject.getMeasurementList().closeList();
-				} else
-					pathObject.setColorRGB(color);
-
-				contour.release();
-				pathObjects.add(pathObject);
+					PathObject pathObject = new PathDetectionObject(tempROI);
+					// Check stain2 value at the peak pixel, if required
+					if (stain2Threshold >= 0) {
+						int cx = (int)((tempROI.getCentroidX() - x)/scaleX);
+						int cy = (int)((tempROI.getCentroidY() - y)/scaleY);
+						float stain2Value = indexerStain2.get(cy, cx);
+						if (detectInPositiveChannel || stain2Value >= stain2Threshold)
+							pathObject.setPathClass(PathClassFactory.getPositive(null, null));
+						else
+							pathObject.setPathClass(PathClassFactory.getNegative(null, null));
+						pathObject.getMeasurementList().putMeasurement(stain2Name + " OD", stain2Value);
+						pathObject.getMeasurementList().closeList();
+					} else
+						pathObject.setColorRGB(color);
+
+					contour.release();
+					pathObjects.add(pathObject);
+				}
+				indexerStain2.release();
+				logger.info("Found " + pathObjects.size() + " contours");
 			}
-			logger.info("Found " + pathObjects.size() + " contours");
-
-			
-			// Release matrices
-			matThresh.release();
-			matMax.release();
-			matMaxima.release();
-			matOrig.release();
-			matStain2.release();
 			
 			lastResult = "Detected " + pathObjects.size() + " cells";
 			
@@ -451,6 +448,13 @@ public class CellCountsCV extends AbstractTileableDetectionPlugin<BufferedImage>
 	protected int getTileOverlap(ImageData<BufferedImage> imageData, ParameterList params) {
 		return 0;
 	}
+	
+	@Override
+	protected void postprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		super.postprocess(pluginRunner);
+		// Release any Mats retained for reuse between tiles
+		MatScope.clearPool();
+	}
 
 
 }
\ No newline at end of file
@@ -53,11 +53,13 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.PolygonROI;
 import qupath.lib.roi.RectangleROI;
 import qupath.lib.roi.interfaces.ROI;
+import qupath.opencv.processing.MatScope;
 import qupath.opencv.processing.OpenCVTools;
 import qupath.opencv.processing.ProcessingCV;
 
@@ -132,182 +134,185 @@ public class WatershedNucleiCV extends AbstractTileableDetectionPlugin<BufferedI
 					float[] pxHematoxylin = pxDeconvolved[0];
 					float[] pxDAB = isH_DAB ? pxDeconvolved[1] : null;
 
-					// Convert to OpenCV Mat
-					int width = img.getWidth();
-					int height = img.getHeight();
-					Mat mat = new Mat(height, width, CV_32FC1);
-
-					// It seems OpenCV doesn't use the array directly, so no need to copy...
-					OpenCVTools.putPixelsFloat(mat, pxHematoxylin);
-
-					Mat matBackground = new Mat();
-
-					opencv_imgproc.medianBlur(mat, mat, 1);
-					opencv_imgproc.GaussianBlur(mat, mat, new Size(5, 5), 0.75);
-					opencv_imgproc.morphologyEx(mat, matBackground, opencv_imgproc.MORPH_CLOSE, OpenCVTools.getCircularStructuringElement(1));
-					ProcessingCV.morphologicalReconstruction(mat, matBackground);
-
-					// Apply opening by reconstruction & subtraction to reduce background
-					opencv_imgproc.morphologyEx(mat, matBackground, opencv_imgproc.MORPH_OPEN, OpenCVTools.getCircularStructuringElement(openingRadius));
-					ProcessingCV.morphologicalReconstruction(matBackground, mat);
-					subtract(mat, matBackground, mat);
-
-					// Apply Gaussian filter
-					int gaussianWidth = (int)(Math.ceil(gaussianSigma * 3) * 2 + 1);
-					opencv_imgproc.GaussianBlur(mat, mat, new Size(gaussianWidth, gaussianWidth), gaussianSigma);
-
-					// Apply Laplacian filter
-					Mat matLoG = matBackground;
-					opencv_imgproc.Laplacian(mat, matLoG, mat.depth(), 1, -1, 0, BORDER_DEFAULT);
-
-					// Threshold
-					Mat matBinaryLoG = new Mat();
-					compare(matLoG, new Mat(1, 1, CV_32FC1, Scalar.ZERO), matBinaryLoG, CMP_GT);
-
-					// Watershed transform
-					Mat matBinary = matBinaryLoG.clone();
-					OpenCVTools.watershedIntensitySplit(matBinary, matLoG, 0, 1);
-
-					// Identify all contours
-					MatVector contours = new MatVector();
-					opencv_imgproc.findContours(matBinary, contours, new Mat(), opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
-
-					// Create a labelled image for each contour
-					Mat matLabels = new Mat(matBinary.size(), CV_32F, Scalar.ZERO);
-					List<RunningStatistics> statsList = new ArrayList<>();
-					int label = 0;
-					Point offset = new Point(0, 0);
-					for (int c = 0; c < contours.size(); c++) {
-						Mat contour = contours.get(c);
-						label++;
-						opencv_imgproc.drawContours(matLabels, contours, 0, Scalar.all(label), -1, LINE_8, null, Integer.MAX_VALUE, offset);
-						statsList.add(new RunningStatistics());
-					}
-					// Compute mean for each contour, keep those that are sufficiently intense
-					float[] labels = new float[(int)matLabels.total()];
-					OpenCVTools.extractPixels(matLabels, labels);
-					computeRunningStatistics(pxHematoxylin, labels, statsList);
-					int ind = 0;
-					Scalar color = Scalar.WHITE;
-					matBinary.put(Scalar.ZERO);
-					for (RunningStatistics stats : statsList) {
-						if (stats.getMean() > threshold) {
-							opencv_imgproc.drawContours(matBinary, contours, ind, color, -1, LINE_8, null, Integer.MAX_VALUE, offset);				
+					// Native memory is released when the scope is closed
+					try (MatScope scope = new MatScope()) {
+						// Convert to OpenCV Mat
+						int width = img.getWidth();
+						int height = img.getHeight();
+						Mat mat = scope.create(height, width, CV_32FC1);
+
+						// It seems OpenCV doesn't use the array directly, so no need to copy...
+						OpenCVTools.putPixelsFloat(mat, pxHematoxylin);
+
+						Mat matBackground = scope.create();
+
+						opencv_imgproc.medianBlur(mat, mat, 1);
+						opencv_imgproc.GaussianBlur(mat, mat, scope.track(new Size(5, 5)), 0.75);
+						opencv_imgproc.morphologyEx(mat, matBackground, opencv_imgproc.MORPH_CLOSE, scope.track(OpenCVTools.getCircularStructuringElement(1)));
+						ProcessingCV.morphologicalReconstruction(mat, matBackground);
+
+						// Apply opening by reconstruction & subtraction to reduce background
+						opencv_imgproc.morphologyEx(mat, matBackground, opencv_imgproc.MORPH_OPEN, scope.track(OpenCVTools.getCircularStructuringElement(openingRadius)));
+						ProcessingCV.morphologicalReconstruction(matBackground, mat);
+						subtract(mat, matBackground, mat);
+
+						// Apply Gaussian filter
+						int gaussianWidth = (int)(Math.ceil(gaussianSigma * 3) * 2 + 1);
+						opencv_imgproc.GaussianBlur(mat, mat, scope.track(new Size(gaussianWidth, gaussianWidth)), gaussianSigma);
+
+						// Apply Laplacian filter
+						Mat matLoG = matBackground;
+						opencv_imgproc.Laplacian(mat, matLoG, mat.depth(), 1, -1, 0, BORDER_DEFAULT);
+
+						// Threshold
+						Mat matBinaryLoG = scope.create();
+						compare(matLoG, scope.track(new Mat(1, 1, CV_32FC1, Scalar.ZERO)), matBinaryLoG, CMP_GT);
+
+						// Watershed transform
+						Mat matBinary = scope.track(matBinaryLoG.clone());
+						OpenCVTools.watershedIntensitySplit(matBinary, matLoG, 0, 1);
+
+						// Identify all contours
+						MatVector contours = scope.track(new MatVector());
+						opencv_imgproc.findContours(matBinary, contours, scope.create(), opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
+
+						// Create a labelled image for each contour
+						Mat matLabels = scope.create(matBinary.rows(), matBinary.cols(), CV_32F, Scalar.ZERO);
+						List<RunningStatistics> statsList = new ArrayList<>();
+						int label = 0;
+						Point offset = new Point(0, 0);
+						for (int c = 0; c < contours.size(); c++) {
+							Mat contour = contours.get(c);
+							label++;
+							opencv_imgproc.drawContours(matLabels, contours, 0, Scalar.all(label), -1, LINE_8, null, Integer.MAX_VALUE, offset);
+							statsList.add(new RunningStatistics());
 						}
-						ind++;
-					}
-
-					// Dilate binary image & extract remaining contours
-					opencv_imgproc.dilate(matBinary, matBinary, opencv_imgproc.getStructuringElement(opencv_imgproc.CV_SHAPE_RECT, new Size(3, 3)));
-					min(matBinary, matBinaryLoG, matBinary);
-
-					OpenCVTools.fillSmallHoles(matBinary, minArea*4);
-
-					// Split using distance transform, if necessary
-					if (splitShape)
-						OpenCVTools.watershedDistanceTransformSplit(matBinary, openingRadius/4);
-
-					// Create path objects from contours		
-					contours = new MatVector();
-					Mat hierarchy = new Mat();
-					opencv_imgproc.findContours(matBinary, contours, hierarchy, opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
-					ArrayList<Point2> points = new ArrayList<>();
-
-					// Create label image
-					matLabels.put(Scalar.ZERO);
-
-					// Update the labels to correspond with the contours, and compute statistics
-					label = 0;
-					List<RunningStatistics> statsHematoxylinList = new ArrayList<>((int)contours.size());
-					List<RunningStatistics> statsDABList = new ArrayList<>((int)contours.size());
-					for (int c = 0; c < contours.size(); c++){
-						Mat contour = contours.get(c);
-
-						// Discard single pixels / lines
-						if (contour.rows() <= 2)
-							continue;
-
-						// Simplify the contour slightly
-						Mat contourApprox = new Mat();
-						opencv_imgproc.approxPolyDP(contour, contourApprox, 0.5, true);
-						contour = contourApprox;
-						contours.put(c, contour);
-
-						// Create a polygon ROI
-						points.clear();
-						Indexer indexerContour = contour.createIndexer();
-						for (int r = 0; r < contour.rows(); r++) {
-							double px = indexerContour.getDouble(r, 0L, 0L);
-							double py = indexerContour.getDouble(r, 0L, 1L);
-							points.add(new Point2(px * downsample + x, py * downsample + y));
+						// Compute mean for each contour, keep those that are sufficiently intense
+						float[] labels = new float[(int)matLabels.total()];
+						OpenCVTools.extractPixels(matLabels, labels);
+						computeRunningStatistics(pxHematoxylin, labels, statsList);
+						int ind = 0;
+						Scalar color = Scalar.WHITE;
+						matBinary.put(Scalar.ZERO);
+						for (RunningStatistics stats : statsList) {
+							if (stats.getMean() > threshold) {
+								opencv_imgproc.drawContours(matBinary, contours, ind, color, -1, LINE_8, null, Integer.MAX_VALUE, offset);				
+							}
+							ind++;
 						}
 
-						// Add new polygon if it is contained within the ROI & measurable
-						PolygonROI pathPolygon = new PolygonROI(points);
-						if (!(pathPolygon.getArea() >= minArea)) {
-							// Don't do a simpler < because we also want to discard the region if the area couldn't be measured (although this is unlikely)
-							continue;
+						// Dilate binary image & extract remaining contours
+						opencv_imgproc.dilate(matBinary, matBinary, scope.track(opencv_imgproc.getStructuringElement(opencv_imgproc.CV_SHAPE_RECT, scope.track(new Size(3, 3)))));
+						min(matBinary, matBinaryLoG, matBinary);
+
+						OpenCVTools.fillSmallHoles(matBinary, minArea*4);
+
+						// Split using distance transform, if necessary
+						if (splitShape)
+							OpenCVTools.watershedDistanceTransformSplit(matBinary, openingRadius/4);
+
+						// Create path objects from contours		
+						contours = scope.track(new MatVector());
+						Mat hierarchy = scope.create();
+						opencv_imgproc.findContours(matBinary, contours, hierarchy, opencv_imgproc.RETR_EXTERNAL, opencv_imgproc.CHAIN_APPROX_SIMPLE);
+						ArrayList<Point2> points = new ArrayList<>();
+
+						// Create label image
+						matLabels.put(Scalar.ZERO);
+
+						// Update the labels to correspond with the contours, and compute statistics
+						label = 0;
+						List<RunningStatistics> statsHematoxylinList = new ArrayList<>((int)contours.size());
+						List<RunningStatistics> statsDABList = new ArrayList<>((int)contours.size());
+						for (int c = 0; c < contours.size(); c++){
+							Mat contour = contours.get(c);
+
+							// Discard single pixels / lines
+							if (contour.rows() <= 2)
+								continue;
+
+							// Simplify the contour slightly
+							Mat contourApprox = scope.create();
+							opencv_imgproc.approxPolyDP(contour, contourApprox, 0.5, true);
+							contour = contourApprox;
+							contours.put(c, contour);
+
+							// Create a polygon ROI
+							points.clear();
+							Indexer indexerContour = contour.createIndexer();
+							for (int r = 0; r < contour.rows(); r++) {
+								double px = indexerContour.getDouble(r, 0L, 0L);
+								double py = indexerContour.getDouble(r, 0L, 1L);
+								points.add(new Point2(px * downsample + x, py * downsample + y));
+							}
+
+							// Add new polygon if it is contained within the ROI & measurable
+							PolygonROI pathPolygon = new PolygonROI(points);
+							if (!(pathPolygon.getArea() >= minArea)) {
+								// Don't do a simpler < because we also want to discard the region if the area couldn't be measured (although this is unlikely)
+								continue;
+							}
+
+							//	        logger.info("Area comparison: " + opencv_imgproc.contourArea(contour) + ",\t" + (pathPolygon.getArea() / downsample / downsample));
+							//	        Mat matSmall = new Mat();
+							if (pathROI instanceof RectangleROI || PathObjectTools.containsROI(pathROI, pathPolygon)) {
+								MeasurementList measurementList = MeasurementListFactory.createMeasurementList(20, MeasurementList.TYPE.FLOAT);
+								PathObject pathObject = new PathDetectionObject(pathPolygon, null, measurementList);
+
+								measurementList.addMeasurement("Area", pathPolygon.getArea());
+								measurementList.addMeasurement("Perimeter", pathPolygon.getPerimeter());
+								measurementList.addMeasurement("Circularity", pathPolygon.getCircularity());
+								measurementList.addMeasurement("Solidity", pathPolygon.getSolidity());
+
+								// I am making an assumption regarding square pixels here...
+								RotatedRect rrect = opencv_imgproc.minAreaRect(contour);
+								Size2f size = rrect.size();
+								measurementList.addMeasurement("Min axis", Math.min(size.width(), size.height()) * downsample);
+								measurementList.addMeasurement("Max axis", Math.max(size.width(), size.height()) * downsample);
+
+								// Store the object
+								pathObjects.add(pathObject);
+
+								// Create a statistics object & paint a label in preparation for intensity stat computations later
+								label++;
+								statsHematoxylinList.add(new RunningStatistics());
+								if (pxDAB != null)
+									statsDABList.add(new RunningStatistics());
+								opencv_imgproc.drawContours(matLabels, contours, c, Scalar.all(label), -1, LINE_8, null, Integer.MAX_VALUE, offset);
+							}
 						}
 
-						//	        logger.info("Area comparison: " + opencv_imgproc.contourArea(contour) + ",\t" + (pathPolygon.getArea() / downsample / downsample));
-						//	        Mat matSmall = new Mat();
-						if (pathROI instanceof RectangleROI || PathObjectTools.containsROI(pathROI, pathPolygon)) {
-							MeasurementList measurementList = MeasurementListFactory.createMeasurementList(20, MeasurementList.TYPE.FLOAT);
-							PathObject pathObject = new PathDetectionObject(pathPolygon, null, measurementList);
-
-							measurementList.addMeasurement("Area", pathPolygon.getArea());
-							measurementList.addMeasurement("Perimeter", pathPolygon.getPerimeter());
-							measurementList.addMeasurement("Circularity", pathPolygon.getCircularity());
-							measurementList.addMeasurement("Solidity", pathPolygon.getSolidity());
-
-							// I am making an assumption regarding square pixels here...
-							RotatedRect rrect = opencv_imgproc.minAreaRect(contour);
-							Size2f size = rrect.size();
-							measurementList.addMeasurement("Min axis", Math.min(size.width(), size.height()) * downsample);
-							measurementList.addMeasurement("Max axis", Math.max(size.width(), size.height()) * downsample);
-
-							// Store the object
-							pathObjects.add(pathObject);
-
-							// Create a statistics object & paint a label in preparation for intensity stat computations later
-							label++;
-							statsHematoxylinList.add(new RunningStatistics());
-							if (pxDAB != null)
-								statsDABList.add(new RunningStatistics());
-							opencv_imgproc.drawContours(matLabels, contours, c, Scalar.all(label), -1, LINE_8, null, Integer.MAX_VALUE, offset);
+						// Compute intensity statistics
+						OpenCVTools.extractPixels(matLabels, labels);
+						computeRunningStatistics(pxHematoxylin, labels, statsHematoxylinList);
+						if (pxDAB != null)
+							computeRunningStatistics(pxDAB, labels, statsDABList);
+						ind = 0;
+						for (PathObject pathObject : pathObjects) {
+							MeasurementList measurementList = pathObject.getMeasurementList();
+							RunningStatistics statsHaem = statsHematoxylinList.get(ind);
+							//    	pathObject.addMeasurement("Area (px)", statsHaem.nPixels() * downsample * downsample);
+							measurementList.addMeasurement("Hematoxylin mean", statsHaem.getMean());
+							measurementList.addMeasurement("Hematoxylin std dev", statsHaem.getStdDev());
+							measurementList.addMeasurement("Hematoxylin min", statsHaem.getMin());
+							measurementList.addMeasurement("Hematoxylin max", statsHaem.getMax());
+							measurementList.addMeasurement("Hematoxylin range", statsHaem.getRange());
+
+							if (pxDAB != null) {
+								RunningStatistics statsDAB = statsDABList.get(ind);
+								measurementList.addMeasurement("DAB mean", statsDAB.getMean());
+								measurementList.addMeasurement("DAB std dev", statsDAB.getStdDev());
+								measurementList.addMeasurement("DAB min", statsDAB.getMin());
+								measurementList.addMeasurement("DAB max", statsDAB.getMax());
+								measurementList.addMeasurement("DAB range", statsDAB.getRange());
+							}
+
+							measurementList.closeList();
+							ind++;
 						}
+						logger.info("Found " + pathObjects.size() + " contours");
 					}
 
-					// Compute intensity statistics
-					OpenCVTools.extractPixels(matLabels, labels);
-					computeRunningStatistics(pxHematoxylin, labels, statsHematoxylinList);
-					if (pxDAB != null)
-						computeRunningStatistics(pxDAB, labels, statsDABList);
-					ind = 0;
-					for (PathObject pathObject : pathObjects) {
-						MeasurementList measurementList = pathObject.getMeasurementList();
-						RunningStatistics statsHaem = statsHematoxylinList.get(ind);
-						//    	pathObject.addMeasurement("Area (px)", statsHaem.nPixels() * downsample * downsample);
-						measurementList.addMeasurement("Hematoxylin mean", statsHaem.getMean());
-						measurementList.addMeasurement("Hematoxylin std dev", statsHaem.getStdDev());
-						measurementList.addMeasurement("Hematoxylin min", statsHaem.getMin());
-						measurementList.addMeasurement("Hematoxylin max", statsHaem.getMax());
-						measurementList.addMeasurement("Hematoxylin range", statsHaem.getRange());
-
-						if (pxDAB != null) {
-							RunningStatistics statsDAB = statsDABList.get(ind);
-							measurementList.addMeasurement("DAB mean", statsDAB.getMean());
-							measurementList.addMeasurement("DAB std dev", statsDAB.getStdDev());
-							measurementList.addMeasurement("DAB min", statsDAB.getMin());
-							measurementList.addMeasurement("DAB max", statsDAB.getMax());
-							measurementList.addMeasurement("DAB range", statsDAB.getRange());
-						}
-
-						measurementList.closeList();
-						ind++;
-					}
-					logger.info("Found " + pathObjects.size() + " contours");
-
 					return pathObjects;
 		}
 
@@ -432,6 +437,13 @@ public class WatershedNucleiCV extends AbstractTileableDetectionPlugin<BufferedI
 	protected int getTileOverlap(ImageData<BufferedImage> imageData, ParameterList params) {
 		return 50;
 	}
+	
+	@Override
+	protected void postprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		super.postprocess(pluginRunner);
+		// Release any Mats retained for reuse between tiles
+		MatScope.clearPool();
+	}
 
 
 
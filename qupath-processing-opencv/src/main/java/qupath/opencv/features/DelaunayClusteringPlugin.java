@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.objects.CompactPathObjectConnectionGroup;
 import qupath.lib.objects.DefaultPathObjectConnectionGroup;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
@@ -298,7 +299,7 @@ public class DelaunayClusteringPlugin<T> extends AbstractInteractivePlugin<T> {
 			
 			DelaunayTriangulation dt = new DelaunayTriangulation(pathObjects, pixelWidth, pixelHeight, distanceThresholdPixels, limitByClass);
 			
-			DefaultPathObjectConnectionGroup result = new DefaultPathObjectConnectionGroup(dt);
+			CompactPathObjectConnectionGroup result = dt.getConnectionGroup();
 			pathObjects = new ArrayList<>(result.getPathObjects());
 
 			
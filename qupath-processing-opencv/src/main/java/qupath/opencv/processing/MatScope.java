@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.opencv.processing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Scalar;
+import org.bytedeco.javacpp.opencv_core.UMatData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scope for the explicit release of native memory used by OpenCV objects.
+ * <p>
+ * This is intended to be used with try-with-resources, e.g.
+ * <pre>
+ * try (MatScope scope = new MatScope()) {
+ *     Mat mat = scope.create(height, width, CV_32FC1);
+ *     Mat matTemp = scope.create();
+ *     ...
+ * }
+ * </pre>
+ * When the scope is closed, all the Mats it created (or was asked to track) are released immediately, 
+ * rather than waiting for finalizers to be called.  Mats created with a known size and type are returned to a small 
+ * shared pool, so that they can be reused when processing the next tile without another native allocation.
+ * Only Mats that are the sole owners of their data are pooled.
+ * <p>
+ * Code that processes many tiles (e.g. a detection plugin) should call {@link #clearPool()} once all its tasks 
+ * are complete, so that the pooled memory is not retained indefinitely.
+ * <p>
+ * Mats obtained from a scope (or any Mats sharing their data) must not be used after the scope has been closed, 
+ * unless they have been removed from it by calling {@link #detach(Mat)}.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MatScope implements AutoCloseable {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MatScope.class);
+	
+	/**
+	 * Maximum number of bytes to retain in the pool.
+	 */
+	private static long maxPoolBytes = 64L * 1024L * 1024L;
+	
+	private static final MatPool pool = new MatPool();
+	
+	private final List<Mat> pooledMats = new ArrayList<>();
+	private final List<Pointer> pointers = new ArrayList<>();
+	
+	private boolean isClosed = false;
+	
+	/**
+	 * Create a new scope.
+	 */
+	public MatScope() {}
+	
+	/**
+	 * Get a Mat with the specified size and type, reusing a pooled Mat if possible.
+	 * The pixel values are undefined.
+	 * 
+	 * @param rows
+	 * @param cols
+	 * @param type
+	 * @return
+	 */
+	public Mat create(final int rows, final int cols, final int type) {
+		ensureOpen();
+		Mat mat = pool.take(rows, cols, type);
+		if (mat == null)
+			mat = new Mat(rows, cols, type);
+		pooledMats.add(mat);
+		return mat;
+	}
+	
+	/**
+	 * Get a Mat with the specified size and type, reusing a pooled Mat if possible, 
+	 * with all pixels set to the specified value.
+	 * 
+	 * @param rows
+	 * @param cols
+	 * @param type
+	 * @param value
+	 * @return
+	 */
+	public Mat create(final int rows, final int cols, final int type, final Scalar value) {
+		Mat mat = create(rows, cols, type);
+		mat.put(value);
+		return mat;
+	}
+	
+	/**
+	 * Get an empty Mat, for use as the destination of an OpenCV operation.
+	 * This will be released when the scope is closed.
+	 * 
+	 * @return
+	 */
+	public Mat create() {
+		ensureOpen();
+		Mat mat = new Mat();
+		pooledMats.add(mat);
+		return mat;
+	}
+	
+	/**
+	 * Track a Mat or other native object created elsewhere, so that it is released when the scope is closed.
+	 * <p>
+	 * Mats tracked in this way are released but never pooled, since their data may be shared.
+	 * 
+	 * @param pointer
+	 * @return the input pointer, for convenience
+	 */
+	public <T extends Pointer> T track(final T pointer) {
+		ensureOpen();
+		if (pointer != null && !pooledMats.contains(pointer) && !pointers.contains(pointer))
+			pointers.add(pointer);
+		return pointer;
+	}
+	
+	/**
+	 * Remove a Mat from the scope, so that it will not be released when the scope is closed.
+	 * The caller then becomes responsible for releasing it.
+	 * 
+	 * @param mat
+	 * @return the input Mat, for convenience
+	 */
+	public Mat detach(final Mat mat) {
+		if (!pooledMats.remove(mat))
+			pointers.remove(mat);
+		return mat;
+	}
+	
+	private void ensureOpen() {
+		if (isClosed)
+			throw new IllegalStateException("MatScope has already been closed!");
+	}
+	
+	/**
+	 * Release all the native objects in the scope, returning Mats to the pool where possible.
+	 */
+	@Override
+	public void close() {
+		if (isClosed)
+			return;
+		isClosed = true;
+		for (Mat mat : pooledMats) {
+			if (!pool.offer(mat))
+				release(mat);
+		}
+		pooledMats.clear();
+		for (Pointer pointer : pointers) {
+			if (pointer instanceof Mat)
+				((Mat)pointer).release();
+			pointer.deallocate();
+		}
+		pointers.clear();
+	}
+	
+	private static void release(final Mat mat) {
+		mat.release();
+		mat.deallocate();
+	}
+	
+	/**
+	 * Set the maximum number of bytes that may be retained in the pool.
+	 * Setting this to 0 disables pooling.
+	 * 
+	 * @param maxBytes
+	 */
+	public static void setMaxPoolBytes(final long maxBytes) {
+		maxPoolBytes = Math.max(0, maxBytes);
+	}
+	
+	/**
+	 * Get the maximum number of bytes that may be retained in the pool.
+	 * 
+	 * @return
+	 */
+	public static long getMaxPoolBytes() {
+		return maxPoolBytes;
+	}
+	
+	/**
+	 * Release all the pooled Mats.
+	 * <p>
+	 * This is safe to call from any thread, and should be called whenever a batch of processing is complete.
+	 * Mats currently in use by an open scope are not affected.
+	 */
+	public static void clearPool() {
+		pool.clear();
+	}
+	
+	
+	/**
+	 * Simple pool of Mats shared between threads, with the least recently returned Mats discarded first.
+	 */
+	private static class MatPool {
+		
+		private final LinkedList<Mat> mats = new LinkedList<>();
+		private long nBytes = 0;
+		
+		synchronized Mat take(final int rows, final int cols, final int type) {
+			Iterator<Mat> iter = mats.descendingIterator();
+			while (iter.hasNext()) {
+				Mat mat = iter.next();
+				if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+					iter.remove();
+					nBytes -= getBytes(mat);
+					return mat;
+				}
+			}
+			return null;
+		}
+		
+		synchronized boolean offer(final Mat mat) {
+			// Only pool Mats that own a continuous block of memory, which isn't shared with any other Mat
+			if (mat.isNull() || mat.empty() || mat.dims() != 2 || !mat.isContinuous() || mat.isSubmatrix())
+				return false;
+			UMatData u = mat.u();
+			if (u == null || u.isNull() || u.refcount() != 1)
+				return false;
+			long bytes = getBytes(mat);
+			long maxBytes = maxPoolBytes;
+			if (bytes > maxBytes / 4)
+				return false;
+			mats.addLast(mat);
+			nBytes += bytes;
+			while (nBytes > maxBytes && !mats.isEmpty()) {
+				Mat removed = mats.removeFirst();
+				nBytes -= getBytes(removed);
+				release(removed);
+			}
+			return true;
+		}
+		
+		synchronized void clear() {
+			if (mats.isEmpty())
+				return;
+			logger.trace("Releasing {} pooled Mats ({} bytes)", mats.size(), nBytes);
+			for (Mat mat : mats)
+				release(mat);
+			mats.clear();
+			nBytes = 0;
+		}
+		
+		private static long getBytes(final Mat mat) {
+			return mat.total() * mat.elemSize();
+		}
+		
+	}
+
+}
@@ -25,11 +25,24 @@ package qupath.opencv.processing;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import static org.bytedeco.javacpp.opencv_core.*;
 import org.bytedeco.javacpp.opencv_imgproc;
 import org.bytedeco.javacpp.indexer.ByteIndexer;
@@ -75,27 +88,79 @@ public class OpenCVTools {
 	 * @return
 	 */
 	public static Mat imageToMat(BufferedImage img) {
+		return imageToMat(img, new Mat());
+	}
+	
+	/**
+	 * Convert a BufferedImage to an OpenCV Mat, reusing an existing Mat for the output.
+	 * 
+	 * The Mat will be reallocated only if it does not already have the required size and type; 
+	 * this makes it possible to reuse Mats obtained from a {@link MatScope} when processing many tiles.
+	 * 
+	 * Where the raster stores its pixels in the same interleaved layout as a Mat, 
+	 * these are copied in bulk rather than pixel by pixel.
+	 * 
+	 * @see #imageToMat(BufferedImage)
+	 * 
+	 * @param img
+	 * @param mat
+	 * @return the Mat containing the pixels (i.e. the input Mat)
+	 */
+	public static Mat imageToMat(BufferedImage img, Mat mat) {
 		switch (img.getType()) {
 			case BufferedImage.TYPE_INT_BGR:
 			case BufferedImage.TYPE_3BYTE_BGR:
-				return imageToMatBGR(img, false);
+				return imageToMatRGBorBGR(img, true, false, mat);
 			case BufferedImage.TYPE_4BYTE_ABGR:
 			case BufferedImage.TYPE_4BYTE_ABGR_PRE:
-				return imageToMatBGR(img, true);
+				return imageToMatRGBorBGR(img, true, true, mat);
 			case BufferedImage.TYPE_INT_ARGB:
 			case BufferedImage.TYPE_INT_ARGB_PRE:
-				return imageToMatRGB(img, true);
+				return imageToMatRGBorBGR(img, false, true, mat);
 			case BufferedImage.TYPE_USHORT_555_RGB:
 			case BufferedImage.TYPE_USHORT_565_RGB:
 			case BufferedImage.TYPE_INT_RGB:
-				return imageToMatRGB(img, false);
+				return imageToMatRGBorBGR(img, false, false, mat);
 			case BufferedImage.TYPE_USHORT_GRAY:
 		}
 		
 		int width = img.getWidth();
 		int height = img.getHeight();
 		WritableRaster raster = img.getRaster();
+		int typeCV = getMatType(img);
 		
+		// Ensure we have a suitable Mat & put the pixels
+		mat.create(height, width, typeCV);
+		if (!putPixelsDirect(raster, mat))
+			putPixels(raster, mat);
+		return mat;
+	}
+	
+	/**
+	 * Get the OpenCV type of the Mat that {@link #imageToMat(BufferedImage, Mat)} will create for an image.
+	 * 
+	 * This makes it possible to request a Mat of the right size and type in advance, e.g. from a {@link MatScope}.
+	 * 
+	 * @param img
+	 * @return
+	 */
+	public static int getMatType(BufferedImage img) {
+		switch (img.getType()) {
+			case BufferedImage.TYPE_INT_BGR:
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return CV_8UC3;
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_ARGB_PRE:
+				return CV_8UC4;
+			case BufferedImage.TYPE_USHORT_555_RGB:
+			case BufferedImage.TYPE_USHORT_565_RGB:
+			case BufferedImage.TYPE_INT_RGB:
+				return CV_8UC3;
+		}
+		
+		WritableRaster raster = img.getRaster();
 		DataBuffer buffer = raster.getDataBuffer();
 		int nChannels = raster.getNumBands();
 		int typeCV;
@@ -122,11 +187,100 @@ public class OpenCVTools {
 			default:
 				typeCV = CV_64FC(nChannels); // Assume 64-bit is as flexible as we can manage
 		}
-		
-		// Create a new Mat & put the pixels
-		Mat mat = new Mat(height, width, typeCV, Scalar.ZERO);
-		putPixels(raster, mat);
-		return mat;
+		return typeCV;
+	}
+	
+	
+	/**
+	 * Check if a raster stores its pixels in a single array with the same interleaved layout as a continuous Mat, 
+	 * with no offset or padding (i.e. it is not a child raster).
+	 * 
+	 * @param raster
+	 * @return
+	 */
+	private static boolean hasMatLayout(final Raster raster) {
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return false;
+		SampleModel sampleModel = raster.getSampleModel();
+		if (!(sampleModel instanceof ComponentSampleModel))
+			return false;
+		ComponentSampleModel csm = (ComponentSampleModel)sampleModel;
+		int nBands = csm.getNumBands();
+		int width = raster.getWidth();
+		if (csm.getPixelStride() != nBands || csm.getScanlineStride() != width * nBands)
+			return false;
+		int[] bandOffsets = csm.getBandOffsets();
+		int[] bankIndices = csm.getBankIndices();
+		for (int b = 0; b < nBands; b++) {
+			if (bandOffsets[b] != b || bankIndices[b] != 0)
+				return false;
+		}
+		DataBuffer buffer = raster.getDataBuffer();
+		return buffer.getOffset() == 0 && buffer.getSize() == width * raster.getHeight() * nBands;
+	}
+	
+	
+	/**
+	 * Try to copy all pixels from a raster into a Mat in a single operation.
+	 * This requires the raster layout to match that of the Mat, and the Mat to have a compatible depth.
+	 * 
+	 * @param raster
+	 * @param mat
+	 * @return true if the pixels were copied, false otherwise
+	 */
+	private static boolean putPixelsDirect(final Raster raster, final Mat mat) {
+		if (!mat.isContinuous() || mat.channels() != raster.getNumBands() || !hasMatLayout(raster))
+			return false;
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int n = dataBuffer.getSize();
+		Buffer buffer = mat.createBuffer();
+		if (dataBuffer instanceof DataBufferByte && buffer instanceof ByteBuffer)
+			((ByteBuffer)buffer).put(((DataBufferByte)dataBuffer).getData(), 0, n);
+		else if (dataBuffer instanceof DataBufferShort && buffer instanceof ShortBuffer)
+			((ShortBuffer)buffer).put(((DataBufferShort)dataBuffer).getData(), 0, n);
+		else if (dataBuffer instanceof DataBufferUShort && buffer instanceof ShortBuffer)
+			((ShortBuffer)buffer).put(((DataBufferUShort)dataBuffer).getData(), 0, n);
+		else if (dataBuffer instanceof DataBufferInt && buffer instanceof IntBuffer)
+			((IntBuffer)buffer).put(((DataBufferInt)dataBuffer).getData(), 0, n);
+		else if (dataBuffer instanceof DataBufferFloat && buffer instanceof FloatBuffer)
+			((FloatBuffer)buffer).put(((DataBufferFloat)dataBuffer).getData(), 0, n);
+		else if (dataBuffer instanceof DataBufferDouble && buffer instanceof DoubleBuffer)
+			((DoubleBuffer)buffer).put(((DataBufferDouble)dataBuffer).getData(), 0, n);
+		else
+			return false;
+		return true;
+	}
+	
+	
+	/**
+	 * Try to copy all pixels from a continuous Mat into a raster in a single operation.
+	 * This requires the raster layout to match that of the Mat, and the raster to have a compatible data type.
+	 * 
+	 * @param mat
+	 * @param raster
+	 * @return true if the pixels were copied, false otherwise
+	 */
+	private static boolean getPixelsDirect(final Mat mat, final WritableRaster raster) {
+		if (!mat.isContinuous() || mat.channels() != raster.getNumBands() || !hasMatLayout(raster))
+			return false;
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int n = dataBuffer.getSize();
+		int depth = mat.depth();
+		if (depth == CV_8U && dataBuffer instanceof DataBufferByte)
+			((ByteBuffer)mat.createBuffer()).get(((DataBufferByte)dataBuffer).getData(), 0, n);
+		else if (depth == CV_16S && dataBuffer instanceof DataBufferShort)
+			((ShortBuffer)mat.createBuffer()).get(((DataBufferShort)dataBuffer).getData(), 0, n);
+		else if (depth == CV_16U && dataBuffer instanceof DataBufferUShort)
+			((ShortBuffer)mat.createBuffer()).get(((DataBufferUShort)dataBuffer).getData(), 0, n);
+		else if (depth == CV_32S && dataBuffer instanceof DataBufferInt)
+			((IntBuffer)mat.createBuffer()).get(((DataBufferInt)dataBuffer).getData(), 0, n);
+		else if (depth == CV_32F && dataBuffer instanceof DataBufferFloat)
+			((FloatBuffer)mat.createBuffer()).get(((DataBufferFloat)dataBuffer).getData(), 0, n);
+		else if (depth == CV_64F && dataBuffer instanceof DataBufferDouble)
+			((DoubleBuffer)mat.createBuffer()).get(((DataBufferDouble)dataBuffer).getData(), 0, n);
+		else
+			return false;
+		return true;
 	}
 	
 	
@@ -325,6 +479,10 @@ public class OpenCVTools {
 			colorModel = new DummyColorModel(bpp * channels);
 			img = new BufferedImage(colorModel, raster, false, null);
 		}
+		// Copy the pixels in a single operation if we can
+		if (getPixelsDirect(mat, raster))
+			return img;
+		
 		MatVector matvector = new MatVector();
 		split(mat, matvector);
 		// We don't know which of the 3 supported array types will be needed yet...
@@ -362,6 +520,8 @@ public class OpenCVTools {
 					}
 				}
 			}
+			indexer.release();
+			matChannel.release();
 			// Set the samples
 			if (pixelsInt != null)
 				raster.setSamples(0, 0, width, height, b, pixelsInt);
@@ -370,6 +530,7 @@ public class OpenCVTools {
 			else if (pixelsDouble != null)
 				raster.setSamples(0, 0, width, height, b, pixelsDouble);
 		}
+		matvector.deallocate();
 		return img;
 	}
 		
@@ -413,40 +574,88 @@ public class OpenCVTools {
 	 * @return
 	 */
 	private static Mat imageToMatRGBorBGR(final BufferedImage img, final boolean doBGR, final boolean includeAlpha) {
-		// We can request the RGB values directly
+		return imageToMatRGBorBGR(img, doBGR, includeAlpha, new Mat());
+	}
+	
+	/**
+	 * Extract 8-bit unsigned pixels from a BufferedImage into an existing Mat, either as RGB 
+	 * or BGR (OpenCV's preferred format).  The Mat is reallocated only if necessary.
+	 * 
+	 * Pixels are read directly from the raster's array for common image types, 
+	 * and written to the Mat one row at a time.
+	 * 
+	 * @param img
+	 * @param doBGR
+	 * @param includeAlpha
+	 * @param mat
+	 * @return
+	 */
+	private static Mat imageToMatRGBorBGR(final BufferedImage img, final boolean doBGR, final boolean includeAlpha, final Mat mat) {
 		int width = img.getWidth();
 		int height = img.getHeight();
-		int[] data = img.getRGB(0, 0, width, height, null, 0, img.getWidth());
+		int nChannels = includeAlpha ? 4 : 3;
+		mat.create(height, width, includeAlpha ? CV_8UC4 : CV_8UC3);
 		
-		Mat mat;
-		if (includeAlpha)
-			mat = new Mat(height, width, CV_8UC4);
-		else
-			mat = new Mat(height, width, CV_8UC3);
-
-		UByteIndexer indexer = mat.createIndexer();
+		// BGR images can be copied directly
+		WritableRaster raster = img.getRaster();
+		if (doBGR && !includeAlpha && img.getType() == BufferedImage.TYPE_3BYTE_BGR && mat.isContinuous() && 
+				raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0 &&
+				raster.getDataBuffer().getOffset() == 0 && raster.getDataBuffer().getSize() == width * height * 3) {
+			ByteBuffer buffer = mat.createBuffer();
+			buffer.put(((DataBufferByte)raster.getDataBuffer()).getData(), 0, width * height * 3);
+			return mat;
+		}
+		
+		// We can use packed RGB values directly, or else request them one row at a time
+		int[] data = null;
+		boolean hasAlpha = true;
+		if ((img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB) && 
+				raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0 &&
+				raster.getDataBuffer().getOffset() == 0 && raster.getDataBuffer().getSize() == width * height) {
+			data = ((DataBufferInt)raster.getDataBuffer()).getData();
+			hasAlpha = img.getType() == BufferedImage.TYPE_INT_ARGB;
+		}
+		int[] rgb = data == null ? new int[width] : null;
+		
+		byte[] row = new byte[width * nChannels];
+		ByteBuffer buffer = mat.isContinuous() ? mat.createBuffer() : null;
+		UByteIndexer indexer = buffer == null ? mat.createIndexer() : null;
 		for (int y = 0; y < height; y++) {
+			int offset = 0;
+			int[] values = data;
+			if (values == null) {
+				values = img.getRGB(0, y, width, 1, rgb, 0, width);
+			} else
+				offset = y * width;
+			int ind = 0;
 			for (int x = 0; x < width; x++) {
-				int val = data[y*width + x];
+				int val = values[offset + x];
 				int r = ColorTools.red(val);
 				int g = ColorTools.green(val);
 				int b = ColorTools.blue(val);
 				if (doBGR) {
-					indexer.put(y, x, 0, b);
-					indexer.put(y, x, 1, g);
-					indexer.put(y, x, 2, r);
+					row[ind++] = (byte)b;
+					row[ind++] = (byte)g;
+					row[ind++] = (byte)r;
 				} else {
-					indexer.put(y, x, 0, r);
-					indexer.put(y, x, 1, g);
-					indexer.put(y, x, 2, b);
+					row[ind++] = (byte)r;
+					row[ind++] = (byte)g;
+					row[ind++] = (byte)b;
 				}
-				if (includeAlpha) {
-					int a = ColorTools.alpha(val);
-					indexer.put(y, x, 3, a);
+				if (includeAlpha)
+					row[ind++] = (byte)(hasAlpha ? ColorTools.alpha(val) : 255);
+			}
+			if (buffer != null)
+				buffer.put(row);
+			else {
+				for (int x = 0; x < width; x++) {
+					for (int c = 0; c < nChannels; c++)
+						indexer.put(y, x, c, row[x*nChannels + c] & 0xFF);
 				}
 			}
 		}
-		indexer.release();
+		if (indexer != null)
+			indexer.release();
 		
 		return mat;
 	}